@@ -29,17 +29,22 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
+import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.OpStatsLogger;
@@ -55,12 +60,23 @@ import org.slf4j.MDC;
  * basic amount of ordering we want (e.g. , per ledger handle). Ordering is
  * achieved by hashing the key objects to threads by their {@link #hashCode()}
  * method.
+ *
+ * <p>With load aware ordering, a key is hashed to its thread only while it has no task queued or
+ * running. A key with pending tasks keeps the thread of those tasks, so the ordering is preserved,
+ * and a key without pending tasks is moved to the least loaded thread when its hashed thread has
+ * more pending tasks. This way a few hot keys don't keep a single thread busy while the others
+ * are idle. The executor returned by {@link #chooseThread(Object)} then counts the pending tasks
+ * of its key as well, and {@link #getThreadID(long)} only returns the thread of a key with pending
+ * tasks.
  */
 @Slf4j
 public class OrderedExecutor implements ExecutorService {
     public static final int NO_TASK_LIMIT = -1;
     private static final int DEFAULT_MAX_ARRAY_QUEUE_SIZE = 10_000;
     protected static final long WARN_TIME_MICRO_SEC_DEFAULT = TimeUnit.SECONDS.toMicros(1);
+    // a key is moved away from its hashed thread if that thread has more pending tasks than this
+    // over the least loaded thread
+    static final int LOAD_AWARE_REBALANCE_THRESHOLD = 1;
 
     final String name;
     final ExecutorService[] threads;
@@ -75,6 +91,11 @@ public class OrderedExecutor implements ExecutorService {
     final boolean enableBusyWait;
     // we only want thread-scoped metrics on the server-side where it can be explicitly enabled
     final boolean enableThreadScopedMetrics;
+    // the thread of the keys with tasks queued or running, with load aware ordering only
+    final ConcurrentHashMap<Object, KeyAssignment> keyAssignments;
+    // the number of ordered tasks queued or running on each thread, with load aware ordering only
+    final AtomicIntegerArray threadLoads;
+    final Counter rebalancedKeys;
 
     public static Builder newBuilder() {
         return new Builder();
@@ -93,7 +114,7 @@ public class OrderedExecutor implements ExecutorService {
             return new OrderedExecutor(name, numThreads, threadFactory, statsLogger,
                                            traceTaskExecution, preserveMdcForTaskExecution,
                                            warnTimeMicroSec, maxTasksInQueue, enableBusyWait,
-                                           enableThreadScopedMetrics);
+                                           enableThreadScopedMetrics, enableLoadAwareOrdering);
         }
     }
 
@@ -111,6 +132,7 @@ public class OrderedExecutor implements ExecutorService {
         protected int maxTasksInQueue = NO_TASK_LIMIT;
         protected boolean enableBusyWait = false;
         protected boolean enableThreadScopedMetrics = false;
+        protected boolean enableLoadAwareOrdering = false;
 
         public AbstractBuilder<T> name(String name) {
             this.name = name;
@@ -162,6 +184,11 @@ public class OrderedExecutor implements ExecutorService {
             return this;
         }
 
+        public AbstractBuilder<T> enableLoadAwareOrdering(boolean enableLoadAwareOrdering) {
+            this.enableLoadAwareOrdering = enableLoadAwareOrdering;
+            return this;
+        }
+
         @SuppressWarnings("unchecked")
         public T build() {
             if (null == threadFactory) {
@@ -177,7 +204,8 @@ public class OrderedExecutor implements ExecutorService {
                 warnTimeMicroSec,
                 maxTasksInQueue,
                 enableBusyWait,
-                enableThreadScopedMetrics);
+                enableThreadScopedMetrics,
+                enableLoadAwareOrdering);
         }
     }
 
@@ -264,6 +292,63 @@ public class OrderedExecutor implements ExecutorService {
         }
     }
 
+    /**
+     * The executor of a key with load aware ordering, which runs the tasks on the thread of the key
+     * at the time they are submitted, counting them as pending tasks of the key.
+     */
+    private final class LoadAwareKeyExecutor extends AbstractExecutorService {
+        private final Object orderingKey;
+        private final long hash;
+
+        LoadAwareKeyExecutor(Object orderingKey, long hash) {
+            this.orderingKey = orderingKey;
+            this.hash = hash;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executeLoadAware(orderingKey, hash, command);
+        }
+
+        @Override
+        public void shutdown() {
+            throw new UnsupportedOperationException("The threads are shut down with their OrderedExecutor");
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            throw new UnsupportedOperationException("The threads are shut down with their OrderedExecutor");
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return OrderedExecutor.this.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return OrderedExecutor.this.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return OrderedExecutor.this.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * The thread of a key with load aware ordering, and the number of tasks of the key queued or
+     * running on it. Only accessed within the compute methods of the assignments map.
+     */
+    static class KeyAssignment {
+        final int threadIdx;
+        int pendingTasks;
+
+        KeyAssignment(int threadIdx) {
+            this.threadIdx = threadIdx;
+        }
+    }
+
     /**
      * Decorator class for a callable that preserves MDC context.
      */
@@ -379,6 +464,21 @@ public class OrderedExecutor implements ExecutorService {
                                 StatsLogger statsLogger, boolean traceTaskExecution,
                                 boolean preserveMdcForTaskExecution, long warnTimeMicroSec, int maxTasksInQueue,
                                 boolean enableBusyWait, boolean enableThreadScopedMetrics) {
+        this(baseName, numThreads, threadFactory, statsLogger, traceTaskExecution, preserveMdcForTaskExecution,
+                warnTimeMicroSec, maxTasksInQueue, enableBusyWait, enableThreadScopedMetrics, false);
+    }
+
+    /**
+     * Constructs Safe executor.
+     *
+     * @param enableLoadAwareOrdering
+     *            - should keys without pending tasks be moved to the least loaded thread
+     */
+    protected OrderedExecutor(String baseName, int numThreads, ThreadFactory threadFactory,
+                                StatsLogger statsLogger, boolean traceTaskExecution,
+                                boolean preserveMdcForTaskExecution, long warnTimeMicroSec, int maxTasksInQueue,
+                                boolean enableBusyWait, boolean enableThreadScopedMetrics,
+                                boolean enableLoadAwareOrdering) {
         checkArgument(numThreads > 0);
         checkArgument(!StringUtils.isBlank(baseName));
 
@@ -469,6 +569,16 @@ public class OrderedExecutor implements ExecutorService {
         }
         this.traceTaskExecution = traceTaskExecution;
         this.preserveMdcForTaskExecution = preserveMdcForTaskExecution;
+
+        if (enableLoadAwareOrdering && numThreads > 1) {
+            this.keyAssignments = new ConcurrentHashMap<>();
+            this.threadLoads = new AtomicIntegerArray(numThreads);
+            this.rebalancedKeys = statsLogger.scope(name).getCounter("task_rebalanced");
+        } else {
+            this.keyAssignments = null;
+            this.threadLoads = null;
+            this.rebalancedKeys = null;
+        }
     }
 
     /**
@@ -487,6 +597,10 @@ public class OrderedExecutor implements ExecutorService {
      * @param r
      */
     public void executeOrdered(Object orderingKey, Runnable r) {
+        if (keyAssignments != null && orderingKey != null) {
+            executeLoadAware(orderingKey, orderingKey.hashCode(), r);
+            return;
+        }
         chooseThread(orderingKey).execute(r);
     }
 
@@ -496,6 +610,10 @@ public class OrderedExecutor implements ExecutorService {
      * @param r
      */
     public void executeOrdered(long orderingKey, Runnable r) {
+        if (keyAssignments != null) {
+            executeLoadAware(orderingKey, orderingKey, r);
+            return;
+        }
         chooseThread(orderingKey).execute(r);
     }
 
@@ -505,7 +623,64 @@ public class OrderedExecutor implements ExecutorService {
      * @param r
      */
     public void executeOrdered(int orderingKey, Runnable r) {
-        chooseThread(orderingKey).execute(r);
+        executeOrdered((long) orderingKey, r);
+    }
+
+    private void executeLoadAware(Object orderingKey, long hash, Runnable r) {
+        KeyAssignment assignment = keyAssignments.compute(orderingKey, (key, current) -> {
+            if (current == null) {
+                current = new KeyAssignment(chooseLeastLoadedThreadIdx(hash));
+            }
+            current.pendingTasks++;
+            return current;
+        });
+        final int idx = assignment.threadIdx;
+        threadLoads.incrementAndGet(idx);
+        try {
+            threads[idx].execute(() -> {
+                try {
+                    r.run();
+                } finally {
+                    loadAwareTaskDone(orderingKey, idx);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loadAwareTaskDone(orderingKey, idx);
+            throw e;
+        }
+    }
+
+    private void loadAwareTaskDone(Object orderingKey, int idx) {
+        threadLoads.decrementAndGet(idx);
+        // once the key has no more pending tasks it can be moved to another thread
+        keyAssignments.computeIfPresent(orderingKey, (key, current) -> --current.pendingTasks == 0 ? null : current);
+    }
+
+    private int chooseLeastLoadedThreadIdx(long hash) {
+        int hashedIdx = chooseThreadIdx(hash, threads.length);
+        int hashedLoad = threadLoads.get(hashedIdx);
+        if (hashedLoad <= LOAD_AWARE_REBALANCE_THRESHOLD) {
+            return hashedIdx;
+        }
+        int leastIdx = hashedIdx;
+        int leastLoad = hashedLoad;
+        for (int i = 0; i < threads.length; i++) {
+            int load = threadLoads.get(i);
+            if (load < leastLoad) {
+                leastIdx = i;
+                leastLoad = load;
+            }
+        }
+        if (hashedLoad - leastLoad > LOAD_AWARE_REBALANCE_THRESHOLD) {
+            rebalancedKeys.inc();
+            return leastIdx;
+        }
+        return hashedIdx;
+    }
+
+    private int currentThreadIdx(Object orderingKey) {
+        KeyAssignment assignment = keyAssignments.get(orderingKey);
+        return assignment != null ? assignment.threadIdx : -1;
     }
 
     public <T> ListenableFuture<T> submitOrdered(long orderingKey, Callable<T> task) {
@@ -523,12 +698,22 @@ public class OrderedExecutor implements ExecutorService {
     }
 
 
+    /**
+     * Return the id of the thread running the tasks of the key.
+     *
+     * <p>With load aware ordering, the key has a thread only while it has tasks queued or running,
+     * otherwise -1 is returned, as the next task of the key may run on any thread.
+     */
     public long getThreadID(long orderingKey) {
         // skip hashcode generation in this special case
         if (threadIds.length == 1) {
             return threadIds[0];
         }
 
+        if (keyAssignments != null) {
+            int idx = currentThreadIdx(orderingKey);
+            return idx >= 0 ? threadIds[idx] : -1;
+        }
         return threadIds[chooseThreadIdx(orderingKey, threads.length)];
     }
 
@@ -550,6 +735,10 @@ public class OrderedExecutor implements ExecutorService {
         if (null == orderingKey) {
             return threads[rand.nextInt(threads.length)];
         } else {
+            if (keyAssignments != null) {
+                // the tasks must be counted, so that the key doesn't move while they are queued
+                return new LoadAwareKeyExecutor(orderingKey, orderingKey.hashCode());
+            }
             return threads[chooseThreadIdx(orderingKey.hashCode(), threads.length)];
         }
     }
@@ -565,6 +754,9 @@ public class OrderedExecutor implements ExecutorService {
             return threads[0];
         }
 
+        if (keyAssignments != null) {
+            return new LoadAwareKeyExecutor(orderingKey, orderingKey);
+        }
         return threads[chooseThreadIdx(orderingKey, threads.length)];
     }
 
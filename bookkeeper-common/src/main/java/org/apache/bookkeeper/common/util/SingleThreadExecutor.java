@@ -55,6 +55,7 @@ public class SingleThreadExecutor extends AbstractExecutorService implements Exe
     private final LongAdder tasksCompleted = new LongAdder();
     private final LongAdder tasksRejected = new LongAdder();
     private final LongAdder tasksFailed = new LongAdder();
+    private final LongAdder busyTimeNanos = new LongAdder();
 
     private final int maxQueueCapacity;
     private static final AtomicIntegerFieldUpdater<SingleThreadExecutor> pendingTaskCountUpdater =
@@ -142,6 +143,7 @@ public class SingleThreadExecutor extends AbstractExecutorService implements Exe
     }
 
     private boolean safeRunTask(Runnable r) {
+        long startNanos = MathUtils.nowInNano();
         try {
             r.run();
             tasksCompleted.increment();
@@ -154,6 +156,7 @@ public class SingleThreadExecutor extends AbstractExecutorService implements Exe
                 log.error("Error while running task: {}", t.getMessage(), t);
             }
         } finally {
+            busyTimeNanos.add(MathUtils.elapsedNanos(startNanos));
             decrementPendingTaskCount(1);
         }
 
@@ -214,6 +217,13 @@ public class SingleThreadExecutor extends AbstractExecutorService implements Exe
         return tasksFailed.sum();
     }
 
+    /**
+     * Return the total time spent running tasks, in microseconds.
+     */
+    public long getBusyTimeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(busyTimeNanos.sum());
+    }
+
     @Override
     public void execute(Runnable r) {
         executeRunnableOrList(r, null);
@@ -361,6 +371,18 @@ public class SingleThreadExecutor extends AbstractExecutorService implements Exe
                         return getFailedTasksCount();
                     }
                 });
+        statsLogger.scopeLabel("thread", runner.getName())
+                .registerGauge("thread_executor_busy_micros", new Gauge<Number>() {
+                    @Override
+                    public Number getDefaultValue() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Number getSample() {
+                        return getBusyTimeMicros();
+                    }
+                });
     }
 
     @VisibleForTesting
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.common.util;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link OrderedExecutor}.
+ */
+public class OrderedExecutorTest {
+
+    private OrderedExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static OrderedExecutor newLoadAwareExecutor(int numThreads) {
+        return OrderedExecutor.newBuilder()
+                .name("load-aware-test")
+                .numThreads(numThreads)
+                .enableLoadAwareOrdering(true)
+                .build();
+    }
+
+    private static Runnable blockOn(CountDownLatch latch) {
+        return () -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    @Test
+    public void testKeyMovedToLeastLoadedThread() throws Exception {
+        executor = newLoadAwareExecutor(2);
+        // keys 0, 1, 4 and 5 hash to the first thread
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        executor.executeOrdered(0L, blockOn(latch));
+        executor.executeOrdered(1L, blockOn(latch));
+
+        // the first thread has two pending tasks and the second none, the next key moves
+        CountDownLatch done = new CountDownLatch(2);
+        executor.executeOrdered(4L, () -> {
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        });
+        // the second thread is free, so the task runs before the ones blocked on the first thread
+        await().until(() -> threads.size() == 1);
+        // without pending tasks, the key has no thread anymore
+        await().until(() -> executor.getThreadID(4L) == -1L);
+
+        executor.executeOrdered(0L, () -> {
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        });
+        latch.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // key 0 kept the thread of its pending task
+        assertNotEquals(threads.get(0), threads.get(1));
+    }
+
+    @Test
+    public void testChooseThreadCountsPendingTasks() throws Exception {
+        executor = newLoadAwareExecutor(2);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<String> firstThread = new AtomicReference<>();
+
+        // a task of key 0 submitted to its thread directly, blocked
+        ExecutorService keyThread = executor.chooseThread(0L);
+        keyThread.execute(() -> {
+            firstThread.set(Thread.currentThread().getName());
+            blockOn(latch).run();
+            order.add("first");
+        });
+        await().until(() -> firstThread.get() != null);
+        assertEquals(1, executor.keyAssignments.get(0L).pendingTasks);
+
+        // load the thread of key 0, so that a key without pending tasks would be moved away
+        executor.executeOrdered(1L, blockOn(latch));
+        executor.executeOrdered(5L, blockOn(latch));
+        assertNotEquals(executor.getThreadID(0L), executor.getThreadID(5L));
+
+        // key 0 still has a pending task, its next task doesn't overtake it on the other thread
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> secondThread = new AtomicReference<>();
+        executor.executeOrdered(0L, () -> {
+            secondThread.set(Thread.currentThread().getName());
+            order.add("second");
+            done.countDown();
+        });
+        latch.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(firstThread.get(), secondThread.get());
+        assertEquals(2, order.size());
+        assertEquals("first", order.get(0));
+        assertEquals("second", order.get(1));
+
+        // once the tasks of the key complete, the key is released
+        await().until(() -> executor.keyAssignments.isEmpty());
+    }
+
+    @Test
+    public void testOrderingUnderRebalance() throws Exception {
+        int numThreads = 4;
+        int numKeys = 16;
+        int rounds = numThreads;
+        int tasksPerRound = 100;
+        executor = newLoadAwareExecutor(numThreads);
+        Map<Long, Integer> lastSeq = new ConcurrentHashMap<>();
+        Map<Long, Boolean> running = new ConcurrentHashMap<>();
+        Map<Long, Set<String>> keyThreads = new ConcurrentHashMap<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Random random = new Random(0);
+
+        for (int round = 0; round < rounds; round++) {
+            // one thread is kept busy during the round, with more pending tasks than the others get while the
+            // keys are submitted, so the keys hashed to it move to the other threads
+            CountDownLatch blocked = new CountDownLatch(1);
+            long blockerKey = 1000 + 2 * round;
+            for (int i = 0; i < 2 * numKeys; i++) {
+                executor.executeOrdered(blockerKey, blockOn(blocked));
+            }
+
+            CountDownLatch done = new CountDownLatch(numKeys * tasksPerRound);
+            for (int seq = round * tasksPerRound; seq < (round + 1) * tasksPerRound; seq++) {
+                for (long key = 0; key < numKeys; key++) {
+                    final long k = key;
+                    final int s = seq;
+                    Runnable task = () -> {
+                        try {
+                            if (running.put(k, true) != null) {
+                                throw new AssertionError("Two tasks of key " + k + " run concurrently");
+                            }
+                            Integer last = lastSeq.put(k, s);
+                            if (last == null ? s != 0 : last != s - 1) {
+                                throw new AssertionError("Task " + s + " of key " + k + " ran after task " + last);
+                            }
+                            keyThreads.computeIfAbsent(k, key1 -> ConcurrentHashMap.newKeySet())
+                                    .add(Thread.currentThread().getName());
+                            running.remove(k);
+                        } catch (Throwable t) {
+                            error.compareAndSet(null, t);
+                        } finally {
+                            done.countDown();
+                        }
+                    };
+                    // the tasks are submitted through every path of the executor
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            executor.executeOrdered(k, task);
+                            break;
+                        case 1:
+                            executor.executeOrdered((Object) k, task);
+                            break;
+                        case 2:
+                            executor.submitOrdered(k, () -> {
+                                task.run();
+                                return null;
+                            });
+                            break;
+                        default:
+                            executor.chooseThread(k).execute(task);
+                            break;
+                    }
+                }
+            }
+            blocked.countDown();
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            assertNull(error.get());
+            // the keys are released before the next round
+            await().until(() -> executor.keyAssignments.isEmpty());
+        }
+
+        for (long key = 0; key < numKeys; key++) {
+            assertEquals(rounds * tasksPerRound - 1, (int) lastSeq.get(key));
+            // every key was moved away from its hashed thread in one of the rounds
+            assertTrue(keyThreads.get(key).size() > 1);
+        }
+        await().until(() -> executor.keyAssignments.isEmpty());
+        for (int i = 0; i < numThreads; i++) {
+            assertEquals(0, executor.threadLoads.get(i));
+        }
+    }
+
+    @Test
+    public void testHashedThreadsWithoutLoadAwareOrdering() throws Exception {
+        executor = OrderedExecutor.newBuilder().name("hashed-test").numThreads(2).build();
+        assertNull(executor.keyAssignments);
+        assertEquals(executor.getThreadID(0L), executor.getThreadID(1L));
+        assertNotEquals(executor.getThreadID(0L), executor.getThreadID(2L));
+
+        AtomicReference<Long> threadId = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.chooseThread(2L).execute(() -> {
+            threadId.set(Thread.currentThread().getId());
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(executor.getThreadID(2L), (long) threadId.get());
+    }
+}
@@ -54,6 +54,7 @@ public interface BookKeeperServerStats {
     String READ_ENTRY_REQUEST = "READ_ENTRY_REQUEST";
     String READ_ENTRY = "READ_ENTRY";
     String READ_ENTRY_REJECTED = "READ_ENTRY_REJECTED";
+    String READ_ENTRY_ON_IO_THREAD = "READ_ENTRY_ON_IO_THREAD";
     String READ_ENTRY_SCHEDULING_DELAY = "READ_ENTRY_SCHEDULING_DELAY";
     String READ_ENTRY_FENCE_REQUEST = "READ_ENTRY_FENCE_REQUEST";
     String READ_ENTRY_FENCE_WAIT = "READ_ENTRY_FENCE_WAIT";
@@ -135,6 +136,8 @@ public interface BookKeeperServerStats {
 
     // Counters
     String JOURNAL_WRITE_BYTES = "JOURNAL_WRITE_BYTES";
+    String JOURNAL_REPLAY_ENTRIES = "JOURNAL_REPLAY_ENTRIES";
+    String JOURNAL_REPLAY_BYTES = "JOURNAL_REPLAY_BYTES";
     String JOURNAL_QUEUE_SIZE = "JOURNAL_QUEUE_SIZE";
     String READ_BYTES = "READ_BYTES";
     String WRITE_BYTES = "WRITE_BYTES";
@@ -182,6 +185,9 @@ public interface BookKeeperServerStats {
     // Gauge
     String NUM_INDEX_PAGES = "NUM_INDEX_PAGES";
     String JOURNAL_FORCE_WRITE_GROUPING_COUNT = "JOURNAL_FORCE_WRITE_GROUPING_TOTAL";
+    String JOURNAL_ADAPTIVE_GROUP_WAIT = "JOURNAL_ADAPTIVE_GROUP_WAIT_MICROS";
+    String JOURNAL_ADAPTIVE_COMMIT_LATENCY = "JOURNAL_ADAPTIVE_COMMIT_LATENCY_MICROS";
+    String JOURNAL_ADAPTIVE_ARRIVAL_RATE = "JOURNAL_ADAPTIVE_ARRIVAL_RATE";
 
     // LedgerDirs Stats
     String LD_LEDGER_SCOPE = "ledger";
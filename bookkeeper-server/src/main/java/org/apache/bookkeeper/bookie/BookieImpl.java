@@ -32,10 +32,14 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
@@ -49,6 +53,9 @@ import java.util.Optional;
 import java.util.PrimitiveIterator.OfLong;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
@@ -62,6 +69,7 @@ import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirExcepti
 import org.apache.bookkeeper.bookie.stats.BookieStats;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
 import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.discover.BookieServiceInfo;
@@ -97,6 +105,8 @@ public class BookieImpl implements Bookie {
     final LedgerStorage ledgerStorage;
     final RegistrationManager registrationManager;
     final List<Journal> journals;
+    // the journals of the writers removed from the configuration, replayed but never written
+    final List<Journal> retiredJournals;
 
     final HandleFactory handles;
     final boolean entryLogPerLedgerEnabled;
@@ -435,15 +445,32 @@ public class BookieImpl implements Bookie {
 
         JournalAliveListener journalAliveListener =
                 () -> BookieImpl.this.triggerBookieShutdown(ExitCode.BOOKIE_EXCEPTION);
-        // instantiate the journals
+        // instantiate the journals, writer by writer, so that the first writer of each journal
+        // directory keeps the same journal index whatever the number of writers
         journals = Lists.newArrayList();
-        for (int i = 0; i < journalDirectories.size(); i++) {
-            journals.add(Journal.newJournal(i, journalDirectories.get(i),
-                    conf, ledgerDirsManager, statsLogger.scope(JOURNAL_SCOPE), allocator, journalAliveListener));
+        retiredJournals = Lists.newArrayList();
+        int numJournals = journalDirectories.size() * conf.getJournalWritersPerDirectory();
+        for (Map.Entry<Integer, File> writer : Journal.listWriterDirectories(journalDirectories,
+                conf.getJournalWritersPerDirectory()).entrySet()) {
+            File writerDirectory = writer.getValue();
+            if (!writerDirectory.exists() && !writerDirectory.mkdirs()) {
+                throw new IOException("Unable to create directory " + writerDirectory);
+            }
+            Journal journal = Journal.newJournal(writer.getKey(), writerDirectory,
+                    conf, ledgerDirsManager, statsLogger.scope(JOURNAL_SCOPE), allocator, journalAliveListener);
+            if (writer.getKey() < numJournals) {
+                journals.add(journal);
+            } else {
+                // the number of writers was reduced, the journal files left by the removed writers
+                // are replayed and checkpointed with the other journals, but no longer written
+                LOG.info("Journal directory {} is no longer written, its journal files are replayed until"
+                        + " they are checkpointed", writerDirectory);
+                retiredJournals.add(journal);
+            }
         }
 
         this.entryLogPerLedgerEnabled = conf.isEntryLogPerLedgerEnabled();
-        CheckpointSource checkpointSource = new CheckpointSourceList(journals);
+        CheckpointSource checkpointSource = new CheckpointSourceList(getReplayedJournals());
 
         this.ledgerStorage = storage;
         boolean isDbLedgerStorage = ledgerStorage instanceof DbLedgerStorage;
@@ -532,6 +559,8 @@ public class BookieImpl implements Bookie {
         JournalScanner scanner = new JournalScanner() {
             @Override
             public void process(int journalVersion, long offset, ByteBuffer recBuff) throws IOException {
+                bookieStats.getJournalReplayEntries().inc();
+                bookieStats.getJournalReplayBytes().addCount(recBuff.remaining());
                 long ledgerId = recBuff.getLong();
                 long entryId = recBuff.getLong();
                 try {
@@ -615,13 +644,76 @@ public class BookieImpl implements Bookie {
             }
         };
 
-        for (Journal journal : journals) {
-            replay(journal, scanner);
+        int replayThreads = conf.getJournalReplayThreads();
+        if (replayThreads > 0) {
+            replayInParallel(scanner, replayThreads);
+        } else {
+            for (Journal journal : getReplayedJournals()) {
+                replay(journal, scanner);
+            }
         }
         long elapsedTs = System.currentTimeMillis() - startTs;
         LOG.info("Finished replaying journal in {} ms.", elapsedTs);
     }
 
+    private List<Journal> getReplayedJournals() {
+        List<Journal> replayedJournals = new ArrayList<>(journals);
+        replayedJournals.addAll(retiredJournals);
+        return replayedJournals;
+    }
+
+    /**
+     * Replay the journals concurrently, each one read by its own thread. The records are applied by
+     * the replay threads, the records of each ledger by the same thread and in order.
+     */
+    private void replayInParallel(JournalScanner scanner, int replayThreads) throws IOException {
+        OrderedExecutor replayExecutor = OrderedExecutor.newBuilder()
+                .name("JournalReplay")
+                .numThreads(replayThreads)
+                .build();
+        ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner, replayExecutor);
+        List<Journal> replayedJournals = getReplayedJournals();
+        ExecutorService readers = Executors.newFixedThreadPool(replayedJournals.size(),
+                new DefaultThreadFactory("JournalReplayReader"));
+        try {
+            List<Future<?>> replays = new ArrayList<>(replayedJournals.size());
+            for (Journal journal : replayedJournals) {
+                replays.add(readers.submit(() -> {
+                    replay(journal, parallelScanner.newJournalScanner());
+                    return null;
+                }));
+            }
+            for (Future<?> replay : replays) {
+                replay.get();
+            }
+        } catch (ExecutionException e) {
+            IOException cause = e.getCause() instanceof IOException
+                    ? (IOException) e.getCause() : new IOException(e.getCause());
+            parallelScanner.abort(cause);
+            throw cause;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException cause = new InterruptedIOException("Interrupted while replaying the journals");
+            parallelScanner.abort(cause);
+            throw cause;
+        } finally {
+            readers.shutdownNow();
+            replayExecutor.shutdown();
+            // don't leave the replay threads running against the ledger storage on failure
+            try {
+                while (!readers.isTerminated()) {
+                    readers.awaitTermination(1, TimeUnit.SECONDS);
+                }
+                while (!replayExecutor.isTerminated()) {
+                    replayExecutor.awaitTermination(1, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while waiting for the journal replay threads to stop");
+            }
+        }
+    }
+
     /**
      * Replay journal files and updates journal's in-memory lastLogMark object.
      *
@@ -652,6 +744,8 @@ public class BookieImpl implements Bookie {
             }
             LOG.info("Replaying journal {} from position {}", id, logPosition);
             long scanOffset = journal.scanJournal(id, logPosition, scanner, conf.isSkipReplayJournalInvalidRecord());
+            // the records must be processed before the log mark moves past them
+            scanner.awaitProcessed();
             // Update LastLogMark after completely replaying journal
             // scanOffset will point to EOF position
             // After LedgerStorage flush, SyncThread should persist this to disk
@@ -968,19 +1062,7 @@ public class BookieImpl implements Bookie {
 
         // journal `addEntry` should happen after the entry is added to ledger storage.
         // otherwise the journal entry can potentially be rolled before the ledger is created in ledger storage.
-        if (masterKeyCache.get(ledgerId) == null) {
-            // Force the load into masterKey cache
-            byte[] oldValue = masterKeyCache.putIfAbsent(ledgerId, masterKey);
-            if (oldValue == null) {
-                ByteBuf masterKeyEntry = createMasterKeyEntry(ledgerId, masterKey);
-                try {
-                    getJournal(ledgerId).logAddEntry(
-                            masterKeyEntry, false /* ackBeforeSync */, new NopWriteCallback(), null);
-                } finally {
-                    ReferenceCountUtil.release(masterKeyEntry);
-                }
-            }
-        }
+        maybeLogMasterKey(ledgerId, masterKey);
 
         if (!writeDataToJournal) {
             cb.writeComplete(0, ledgerId, entryId, null, ctx);
@@ -996,6 +1078,53 @@ public class BookieImpl implements Bookie {
         getJournal(ledgerId).logAddEntry(entry, ackBeforeSync, cb, ctx);
     }
 
+    /**
+     * Add a group of entries to a ledger as specified by handle. The entries are logged
+     * to the journal together, after all of them were added to the ledger storage.
+     */
+    private void addEntriesInternal(LedgerDescriptor handle, List<ByteBuf> entries,
+                                    boolean ackBeforeSync, WriteCallback cb, Object ctx, byte[] masterKey)
+            throws IOException, BookieException, InterruptedException {
+        long ledgerId = handle.getLedgerId();
+        for (ByteBuf entry : entries) {
+            handle.addEntry(entry);
+            bookieStats.getWriteBytes().addCount(entry.readableBytes());
+        }
+
+        maybeLogMasterKey(ledgerId, masterKey);
+
+        if (!writeDataToJournal) {
+            for (ByteBuf entry : entries) {
+                cb.writeComplete(0, ledgerId, entry.getLong(entry.readerIndex() + 8), null, ctx);
+            }
+            if (ctx instanceof BookieRequestHandler) {
+                ((BookieRequestHandler) ctx).flushPendingResponse();
+            }
+            return;
+        }
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Adding {} entries to {}", entries.size(), ledgerId);
+        }
+        getJournal(ledgerId).logAddEntries(entries, ackBeforeSync, cb, ctx);
+    }
+
+    private void maybeLogMasterKey(long ledgerId, byte[] masterKey) throws InterruptedException {
+        if (masterKeyCache.get(ledgerId) == null) {
+            // Force the load into masterKey cache
+            byte[] oldValue = masterKeyCache.putIfAbsent(ledgerId, masterKey);
+            if (oldValue == null) {
+                ByteBuf masterKeyEntry = createMasterKeyEntry(ledgerId, masterKey);
+                try {
+                    getJournal(ledgerId).logAddEntry(
+                            masterKeyEntry, false /* ackBeforeSync */, new NopWriteCallback(), null);
+                } finally {
+                    ReferenceCountUtil.release(masterKeyEntry);
+                }
+            }
+        }
+    }
+
     /**
      * Add entry to a ledger, even if the ledger has previous been fenced. This should only
      * happen in bookie recovery or ledger recovery cases, where entries are being replicates
@@ -1125,6 +1254,45 @@ public class BookieImpl implements Bookie {
         }
     }
 
+    /**
+     * Add a group of consecutive entries of the same ledger. The callback is triggered once
+     * per entry, unless an exception is thrown, in which case none of the entries was logged
+     * to the journal.
+     */
+    public void addEntries(List<ByteBuf> entries, boolean ackBeforeSync, WriteCallback cb, Object ctx,
+                           byte[] masterKey)
+            throws IOException, BookieException, InterruptedException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        try {
+            LedgerDescriptor handle = getLedgerForEntry(entries.get(0), masterKey);
+            synchronized (handle) {
+                if (handle.isFenced()) {
+                    throw BookieException
+                            .create(BookieException.Code.LedgerFencedException);
+                }
+                addEntriesInternal(handle, entries, ackBeforeSync, cb, ctx, masterKey);
+            }
+            success = true;
+        } catch (NoWritableLedgerDirException e) {
+            stateManager.transitionToReadOnlyMode();
+            throw new IOException(e);
+        } finally {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            for (ByteBuf entry : entries) {
+                if (success) {
+                    bookieStats.getAddEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                    bookieStats.getAddBytesStats().registerSuccessfulValue(entry.readableBytes());
+                } else {
+                    bookieStats.getAddEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                    bookieStats.getAddBytesStats().registerFailedValue(entry.readableBytes());
+                }
+
+                ReferenceCountUtil.release(entry);
+            }
+        }
+    }
+
     /**
      * Fences a ledger. From this point on, clients will be unable to
      * write to this ledger. Only recoveryAddEntry will be
@@ -1166,6 +1334,86 @@ public class BookieImpl implements Bookie {
         }
     }
 
+    /**
+     * Read an entry, returning the entries of at least {@code minRegionSize} bytes as a {@link FileRegion} over
+     * the entry log when the ledger storage supports it.
+     */
+    public ReferenceCounted readEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, NoLedgerException, BookieException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        long entrySize = 0;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Reading {}@{}", entryId, ledgerId);
+            }
+            ReferenceCounted entry = handle.readEntryOrRegion(entryId, minRegionSize);
+            entrySize = entry instanceof FileRegion
+                    ? ((FileRegion) entry).count()
+                    : ((ByteBuf) entry).readableBytes();
+            bookieStats.getReadBytes().addCount(entrySize);
+            success = true;
+            return entry;
+        } finally {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (success) {
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+            } else {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerFailedValue(entrySize);
+            }
+        }
+    }
+
+    /**
+     * Read an entry only if the ledger storage has it in memory, so the caller is never blocked on the disk.
+     *
+     * @return the entry, or null if it has to be read with {@link #readEntry(long, long)}
+     */
+    public ByteBuf readEntryIfCached(long ledgerId, long entryId) {
+        long requestNanos = MathUtils.nowInNano();
+        ByteBuf entry = ledgerStorage.getEntryIfCached(ledgerId, entryId);
+        if (entry != null) {
+            int entrySize = entry.readableBytes();
+            bookieStats.getReadBytes().addCount(entrySize);
+            bookieStats.getReadEntryStats().registerSuccessfulEvent(MathUtils.elapsedNanos(requestNanos),
+                    TimeUnit.NANOSECONDS);
+            bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+        }
+        return entry;
+    }
+
+    public List<ByteBuf> readEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, NoLedgerException, BookieException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        long batchSize = 0;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Reading {} entries from {}@{}", maxCount, firstEntryId, ledgerId);
+            }
+            List<ByteBuf> entries = handle.readEntries(firstEntryId, maxCount, maxSize);
+            for (int i = 0; i < entries.size(); i++) {
+                int entrySize = entries.get(i).readableBytes();
+                bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+                batchSize += entrySize;
+            }
+            bookieStats.getReadBytes().addCount(batchSize);
+            success = true;
+            return entries;
+        } finally {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (success) {
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+            } else {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
     public long readLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
         return handle.getLastAddConfirmed();
@@ -31,7 +31,11 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.FastThreadLocal;
 import java.io.BufferedReader;
 import java.io.File;
@@ -418,7 +422,48 @@ public class DefaultEntryLogger implements EntryLogger {
      * and don't cause a change in the channel's position. We use this map to store the file channels. Each
      * file channel is mapped to a log id which represents an open log file.
      */
-    private final ConcurrentMap<Long, FileChannel> logid2FileChannel = new ConcurrentHashMap<Long, FileChannel>();
+    private final ConcurrentMap<Long, SharedFileChannel> logid2FileChannel =
+            new ConcurrentHashMap<Long, SharedFileChannel>();
+
+    /**
+     * A file channel of an entry log, shared by the reads of the entry log. It is closed once the entry log is
+     * removed and the file regions transferring data from it are released.
+     */
+    private static class SharedFileChannel extends AbstractReferenceCounted {
+        private final long logId;
+        private final FileChannel fileChannel;
+
+        SharedFileChannel(long logId, FileChannel fileChannel) {
+            this.logId = logId;
+            this.fileChannel = fileChannel;
+        }
+
+        /**
+         * Retain the channel, unless it is already closed.
+         */
+        boolean tryRetain() {
+            try {
+                retain();
+                return true;
+            } catch (IllegalReferenceCountException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected void deallocate() {
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                LOG.warn("Exception while closing channel for log file:" + logId);
+            }
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
 
     /**
      * Put the logId, bc pair in the map responsible for the current thread.
@@ -435,13 +480,9 @@ public class DefaultEntryLogger implements EntryLogger {
      * @param logId
      */
     public void removeFromChannelsAndClose(long logId) {
-        FileChannel fileChannel = logid2FileChannel.remove(logId);
+        SharedFileChannel fileChannel = logid2FileChannel.remove(logId);
         if (null != fileChannel) {
-            try {
-                fileChannel.close();
-            } catch (IOException e) {
-                LOG.warn("Exception while closing channel for log file:" + logId);
-            }
+            fileChannel.release();
         }
     }
 
@@ -857,6 +898,11 @@ public class DefaultEntryLogger implements EntryLogger {
             throw new IOException("Bad entry read from log file id: " + entryLogId, e);
         }
 
+        return readEntryData(ledgerId, entryId, entryLogId, pos, fc, entrySize);
+    }
+
+    private ByteBuf readEntryData(long ledgerId, long entryId, long entryLogId, long pos, BufferedReadChannel fc,
+                                  int entrySize) throws IOException {
         ByteBuf data = allocator.buffer(entrySize, entrySize);
         int rc = readFromLogChannel(entryLogId, fc, data, pos);
         if (rc != entrySize) {
@@ -871,6 +917,98 @@ public class DefaultEntryLogger implements EntryLogger {
         return data;
     }
 
+    @Override
+    public ReferenceCounted readEntryOrRegion(long ledgerId, long entryId, long entryLocation, int minRegionSize)
+            throws IOException, Bookie.NoEntryException {
+        long entryLogId = logIdForOffset(entryLocation);
+        long pos = posForOffset(entryLocation);
+
+        BufferedReadChannel fc;
+        int entrySize;
+        try {
+            fc = getFCForEntryInternal(ledgerId, entryId, entryLogId, pos);
+
+            ByteBuf sizeBuff = readEntrySize(ledgerId, entryId, entryLogId, pos, fc);
+            entrySize = sizeBuff.getInt(0);
+            validateEntry(ledgerId, entryId, entryLogId, pos, sizeBuff);
+        } catch (EntryLookupException e) {
+            throw new IOException("Bad entry read from log file id: " + entryLogId, e);
+        }
+
+        if (entrySize >= minRegionSize && isWrittenToFile(entryLogId, pos + entrySize)) {
+            SharedFileChannel sharedFc = logid2FileChannel.get(entryLogId);
+            if (null != sharedFc && sharedFc.tryRetain()) {
+                return new EntryLogFileRegion(sharedFc, pos, entrySize);
+            }
+            // The entry log was removed in the meantime, read it as any other entry
+        }
+        return readEntryData(ledgerId, entryId, entryLogId, pos, fc, entrySize);
+    }
+
+    /**
+     * A region of an entry log, transferred from the file channel shared by the reads of the entry log. The region
+     * holds a reference on the channel, so that it stays open until the region is transferred and released, even
+     * if the entry log is removed in the meantime.
+     */
+    private static class EntryLogFileRegion extends DefaultFileRegion {
+        private final SharedFileChannel sharedFileChannel;
+
+        EntryLogFileRegion(SharedFileChannel sharedFileChannel, long position, long count) {
+            super(sharedFileChannel.fileChannel, position, count);
+            this.sharedFileChannel = sharedFileChannel;
+        }
+
+        @Override
+        protected void deallocate() {
+            sharedFileChannel.release();
+        }
+    }
+
+    /**
+     * Check whether the data of an entry log up to the given position was written to the file, rather than
+     * being still in the write buffer of the current entry log.
+     */
+    private boolean isWrittenToFile(long entryLogId, long endPos) {
+        BufferedLogChannel bc = entryLogManager.getCurrentLogIfPresent(entryLogId);
+        if (null != bc) {
+            synchronized (bc) {
+                return endPos <= bc.getFileChannelPosition();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean supportsRangeReads() {
+        return true;
+    }
+
+    @Override
+    public ByteBuf readEntriesRange(long entryLocation, int maxSize) throws IOException {
+        long entryLogId = logIdForOffset(entryLocation);
+        // Include the size header of the first entry
+        long startPos = posForOffset(entryLocation) - 4;
+
+        int size = maxSize;
+        BufferedLogChannel bc = entryLogManager.getCurrentLogIfPresent(entryLogId);
+        if (null != bc) {
+            // Do not read past the data written so far in the current entry log
+            size = (int) Math.max(0, Math.min(size, bc.position() - startPos));
+        }
+
+        BufferedReadChannel fc = getChannelForLogId(entryLogId);
+        ByteBuf data = allocator.directBuffer(size, size);
+        try {
+            if (size > 0) {
+                readFromLogChannel(entryLogId, fc, data, startPos);
+            }
+            return data;
+        } catch (IOException e) {
+            ReferenceCountUtil.release(data);
+            throw e;
+        }
+    }
+
     /**
      * Read the header of an entry log.
      */
@@ -908,10 +1046,10 @@ public class DefaultEntryLogger implements EntryLogger {
         // get channel is used to open an existing entry log file
         // it would be better to open using read mode
         FileChannel newFc = new RandomAccessFile(file, "r").getChannel();
-        FileChannel oldFc = logid2FileChannel.putIfAbsent(entryLogId, newFc);
+        SharedFileChannel oldFc = logid2FileChannel.putIfAbsent(entryLogId, new SharedFileChannel(entryLogId, newFc));
         if (null != oldFc) {
             newFc.close();
-            newFc = oldFc;
+            newFc = oldFc.fileChannel;
         }
         // We set the position of the write buffer of this buffered channel to Long.MAX_VALUE
         // so that there are no overlaps with the write buffer while reading
@@ -1195,11 +1333,11 @@ public class DefaultEntryLogger implements EntryLogger {
         LOG.info("Stopping EntryLogger");
         try {
             flush();
-            for (FileChannel fc : logid2FileChannel.values()) {
-                fc.close();
+            // remove the channels from the mapping, so we don't need to go through them again in finally block in
+            // normal case.
+            for (Long logId : logid2FileChannel.keySet()) {
+                removeFromChannelsAndClose(logId);
             }
-            // clear the mapping, so we don't need to go through the channels again in finally block in normal case.
-            logid2FileChannel.clear();
             entryLogManager.close();
             synchronized (compactionLogLock) {
                 if (compactionLogChannel != null) {
@@ -1211,8 +1349,8 @@ public class DefaultEntryLogger implements EntryLogger {
             // we have no idea how to avoid io exception during shutting down, so just ignore it
             LOG.error("Error flush entry log during shutting down, which may cause entry log corrupted.", ie);
         } finally {
-            for (FileChannel fc : logid2FileChannel.values()) {
-                IOUtils.close(LOG, fc);
+            for (Long logId : logid2FileChannel.keySet()) {
+                removeFromChannelsAndClose(logId);
             }
 
             entryLogManager.forceClose();
@@ -0,0 +1,137 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+
+/**
+ * A {@link BufferedChannel} writing a journal file with direct I/O, bypassing the page cache.
+ *
+ * <p>Direct I/O writes must be aligned in memory, offset and size. Each flush writes the blocks
+ * covering the buffered data from aligned memory: the last block is padded with zeros, and its data
+ * is written again at the start of the next flush. As the journal pads its flushes to the journal
+ * alignment, only the first flush after the header rewrites a partial block in practice.
+ *
+ * <p>The writes are still forced to the device through the {@link FileChannel} of the same file, so
+ * {@link #forceWrite(boolean)} keeps the fdatasync semantics of the buffered journal channel.
+ */
+class DirectIOBufferedChannel extends BufferedChannel {
+
+    private final NativeIO nativeIO;
+    private final File file;
+    private final int alignment;
+    private final int fd;
+
+    // the aligned memory of the blocks to write, starting with the data of the last partial block
+    private final ByteBuf alignedBuffer;
+    private final ByteBuf blocks;
+    private final long blocksAddress;
+    private int tailLength;
+
+    private boolean released = false;
+
+    DirectIOBufferedChannel(ByteBufAllocator allocator, NativeIO nativeIO, File file, FileChannel fc,
+                            int capacity, int alignment) throws IOException {
+        super(allocator, fc, capacity);
+        checkArgument(Integer.bitCount(alignment) == 1, "Invalid direct I/O alignment %s", alignment);
+        this.nativeIO = nativeIO;
+        this.file = file;
+        this.alignment = alignment;
+
+        int blocksSize = alignUp(capacity) + alignment;
+        this.alignedBuffer = allocator.directBuffer(blocksSize + alignment);
+        long address = alignedBuffer.memoryAddress();
+        int alignOffset = (int) ((alignment - (address & (alignment - 1))) & (alignment - 1));
+        this.blocks = alignedBuffer.slice(alignOffset, blocksSize);
+        this.blocksAddress = address + alignOffset;
+
+        try {
+            // the start of the block of the current position was written through the file channel
+            this.tailLength = (int) (position & (alignment - 1));
+            ByteBuffer tail = blocks.nioBuffer(0, tailLength);
+            while (tail.hasRemaining()) {
+                if (fc.read(tail, position - tailLength + tail.position()) < 0) {
+                    throw new IOException("Short read of the last block of " + file);
+                }
+            }
+            this.fd = nativeIO.open(file.getPath(), NativeIO.O_WRONLY | NativeIO.O_DIRECT, 00644);
+        } catch (IOException | RuntimeException e) {
+            ReferenceCountUtil.release(alignedBuffer);
+            throw e;
+        }
+    }
+
+    private int alignUp(int size) {
+        return (size + alignment - 1) & -alignment;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        int length = writeBuffer.readableBytes();
+        if (length == 0) {
+            return;
+        }
+        long startPosition = writeBufferStartPosition.get();
+        long blocksPosition = startPosition - tailLength;
+        int dataEnd = tailLength + length;
+        int writeLength = alignUp(dataEnd);
+        blocks.setBytes(tailLength, writeBuffer, writeBuffer.readerIndex(), length);
+        blocks.setZero(dataEnd, writeLength - dataEnd);
+
+        // the rest of a short write would not be aligned anymore, so it can't be retried with direct I/O
+        int written = nativeIO.pwrite(fd, blocksAddress, writeLength, blocksPosition);
+        if (written != writeLength) {
+            throw new IOException("Short direct I/O write of " + written + " bytes out of " + writeLength
+                    + " at position " + blocksPosition + " of " + file);
+        }
+
+        // keep the data of the last partial block, to write it again with the next flush
+        int tailOffset = dataEnd & -alignment;
+        tailLength = dataEnd - tailOffset;
+        if (tailLength > 0 && tailOffset > 0) {
+            blocks.setBytes(0, blocks, tailOffset, tailLength);
+        }
+        writeBuffer.clear();
+        writeBufferStartPosition.set(startPosition + length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (!released) {
+                released = true;
+                ReferenceCountUtil.release(alignedBuffer);
+                nativeIO.close(fd);
+            }
+        }
+    }
+}
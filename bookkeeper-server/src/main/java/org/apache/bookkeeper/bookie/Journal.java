@@ -39,8 +39,11 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirException;
@@ -52,6 +55,8 @@ import org.apache.bookkeeper.common.collections.RecyclableArrayList;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.MemoryLimitController;
 import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.proto.BookieRequestHandler;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
@@ -92,6 +97,13 @@ public class Journal implements CheckpointSource {
                 int capacity) -> new BufferedChannel(UnpooledByteBufAllocator.DEFAULT, fc, capacity);
 
         BufferedChannel create(FileChannel fc, int capacity) throws IOException;
+
+        /**
+         * Create the buffered channel writing a new journal file.
+         */
+        default BufferedChannel create(File file, FileChannel fc, int capacity) throws IOException {
+            return create(fc, capacity);
+        }
     }
 
 
@@ -291,6 +303,15 @@ public class Journal implements CheckpointSource {
          * @throws IOException
          */
         void process(int journalVersion, long offset, ByteBuffer entry) throws IOException;
+
+        /**
+         * Wait for the journal entries passed to {@link #process} to be processed, once the scan of a
+         * journal file returned. The entries are processed before {@link #process} returns by default.
+         *
+         * @throws IOException if a journal entry could not be processed
+         */
+        default void awaitProcessed() throws IOException {
+        }
     }
 
     /**
@@ -541,8 +562,11 @@ public class Journal implements CheckpointSource {
             long fsyncStartTime = MathUtils.nowInNano();
             try {
                 lastRequest.flushFileToDisk();
-                journalStats.getJournalSyncStats().registerSuccessfulEvent(MathUtils.elapsedNanos(fsyncStartTime),
-                        TimeUnit.NANOSECONDS);
+                long fsyncNanos = MathUtils.elapsedNanos(fsyncStartTime);
+                journalStats.getJournalSyncStats().registerSuccessfulEvent(fsyncNanos, TimeUnit.NANOSECONDS);
+                if (adaptiveGroupWait != null && syncData) {
+                    adaptiveGroupWait.commitCompleted(fsyncNanos);
+                }
                 lastLogMark.setCurLogMark(lastRequest.logId, lastRequest.lastFlushedPosition);
             } catch (IOException ioe) {
                 journalStats.getJournalSyncStats()
@@ -609,6 +633,8 @@ public class Journal implements CheckpointSource {
     private final long bufferedWritesThreshold;
     // should we flush if the queue is empty
     private final boolean flushWhenQueueEmpty;
+    // adapts the group wait to the load, null when the max group wait is used
+    private final JournalGroupWait adaptiveGroupWait;
     // should we hint the filesystem to remove pages from cache after force write
     private final boolean removePagesFromCache;
     private final int journalFormatVersionToWrite;
@@ -617,6 +643,8 @@ public class Journal implements CheckpointSource {
     private final long journalPageCacheFlushIntervalMSec;
     // Whether reuse journal files, it will use maxBackupJournal as the journal file pool.
     private final boolean journalReuseFiles;
+    // native I/O to write the journal files with direct I/O, null when they are written through the page cache
+    private final NativeIO directIO;
 
     // Should data be fsynced on disk before triggering the callback
     private final boolean syncData;
@@ -625,6 +653,8 @@ public class Journal implements CheckpointSource {
 
     private static final String LAST_MARK_DEFAULT_NAME = "lastMark";
 
+    private static final String WRITER_DIRECTORY_PREFIX = "writer-";
+
     private final String lastMarkFileName;
 
     private final Counter callbackTime;
@@ -668,7 +698,8 @@ public class Journal implements CheckpointSource {
         }
 
         // Adjust the journal max memory in case there are multiple journals configured.
-        long journalMaxMemory = conf.getJournalMaxMemorySizeMb() / conf.getJournalDirNames().length * 1024 * 1024;
+        long journalMaxMemory = conf.getJournalMaxMemorySizeMb()
+                / (conf.getJournalDirNames().length * conf.getJournalWritersPerDirectory()) * 1024 * 1024;
         this.memoryLimitController = new MemoryLimitController(journalMaxMemory);
         this.ledgerDirsManager = ledgerDirsManager;
         this.conf = conf;
@@ -687,14 +718,20 @@ public class Journal implements CheckpointSource {
         this.journalAlignmentSize = conf.getJournalAlignmentSize();
         this.journalPageCacheFlushIntervalMSec = conf.getJournalPageCacheFlushIntervalMSec();
         this.journalReuseFiles = conf.getJournalReuseFiles();
+        this.directIO = conf.isJournalDirectIOEnabled() ? new NativeIOImpl() : null;
         this.callbackTime = journalStatsLogger.getThreadScopedCounter("callback-time");
         // Unless there is a cap on the max wait (which requires group force writes)
         // we cannot skip flushing for queue empty
         this.flushWhenQueueEmpty = maxGroupWaitInNanos <= 0 || conf.getJournalFlushWhenQueueEmpty();
+        if (conf.isJournalAdaptiveGroupWaitEnabled() && maxGroupWaitInNanos > 0) {
+            this.adaptiveGroupWait = new JournalGroupWait(maxGroupWaitInNanos, journalStatsLogger);
+        } else {
+            this.adaptiveGroupWait = null;
+        }
 
         this.removePagesFromCache = conf.getJournalRemovePagesFromCache();
         // read last log mark
-        if (conf.getJournalDirs().length == 1) {
+        if (conf.getJournalDirs().length == 1 && journalIndex == 0) {
             lastMarkFileName = LAST_MARK_DEFAULT_NAME;
         } else {
             lastMarkFileName = LAST_MARK_DEFAULT_NAME + "." + journalIndex;
@@ -731,6 +768,80 @@ public class Journal implements CheckpointSource {
                 journalAliveListener);
     }
 
+    /**
+     * Get the directory of the journal files of a writer of a journal directory.
+     *
+     * <p>The first writer writes in the journal directory itself, so its files are still replayed
+     * when the number of writers changes, and the other ones write in sub directories.
+     */
+    public static File getWriterDirectory(File journalDirectory, int writerIndex) {
+        if (writerIndex == 0) {
+            return journalDirectory;
+        }
+        return new File(journalDirectory, WRITER_DIRECTORY_PREFIX + writerIndex);
+    }
+
+    /**
+     * List the directories of the journal files of all the writers of the journal directories, by journal index.
+     *
+     * <p>The journals are indexed writer by writer, so the first writer of each journal directory keeps the
+     * same journal index, and lastMark file, whatever the number of writers. The sub directories left by the
+     * writers beyond the configured number, once it was reduced, are listed too, with the journal index they
+     * were written with, so that their journal files are replayed until they are checkpointed.
+     *
+     * @param journalDirectories the current directories of the journal directories
+     * @param numWriters the configured number of writers of each journal directory
+     * @return the directories of the writers, by journal index
+     */
+    public static SortedMap<Integer, File> listWriterDirectories(List<File> journalDirectories, int numWriters) {
+        int maxWriters = numWriters;
+        for (File journalDirectory : journalDirectories) {
+            String[] names = journalDirectory.list();
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                int writerIndex = getWriterIndex(name);
+                if (writerIndex >= maxWriters && new File(journalDirectory, name).isDirectory()) {
+                    maxWriters = writerIndex + 1;
+                }
+            }
+        }
+
+        SortedMap<Integer, File> writerDirectories = new TreeMap<>();
+        for (int writer = 0; writer < maxWriters; writer++) {
+            for (int i = 0; i < journalDirectories.size(); i++) {
+                File writerDirectory = getWriterDirectory(journalDirectories.get(i), writer);
+                if (writer < numWriters || writerDirectory.isDirectory()) {
+                    writerDirectories.put(writer * journalDirectories.size() + i, writerDirectory);
+                }
+            }
+        }
+        return writerDirectories;
+    }
+
+    /**
+     * List the directories of the journal files of all the writers of the configured journal directories.
+     *
+     * @see #listWriterDirectories(List, int)
+     */
+    public static SortedMap<Integer, File> listWriterDirectories(ServerConfiguration conf) {
+        return listWriterDirectories(Arrays.asList(BookieImpl.getCurrentDirectories(conf.getJournalDirs())),
+                conf.getJournalWritersPerDirectory());
+    }
+
+    private static int getWriterIndex(String name) {
+        if (!name.startsWith(WRITER_DIRECTORY_PREFIX)) {
+            return -1;
+        }
+        try {
+            int writerIndex = Integer.parseInt(name.substring(WRITER_DIRECTORY_PREFIX.length()));
+            return name.equals(WRITER_DIRECTORY_PREFIX + writerIndex) ? writerIndex : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     JournalStats getJournalStats() {
         return this.journalStats;
     }
@@ -822,6 +933,7 @@ public class Journal implements CheckpointSource {
         try {
             ByteBuffer lenBuff = ByteBuffer.allocate(4);
             ByteBuffer recBuff = ByteBuffer.allocate(64 * 1024);
+            ByteBuffer batchHeaderBuff = ByteBuffer.allocate(JournalRecordBatch.HEADER_SIZE);
             while (true) {
                 // entry start offset
                 long offset = recLog.fc.position();
@@ -837,8 +949,27 @@ public class Journal implements CheckpointSource {
                     break;
                 }
                 boolean isPaddingRecord = false;
+                boolean isRecordBatch = false;
+                int recordsLen = 0;
+                int batchChecksum = 0;
                 if (len < 0) {
-                    if (len == PADDING_MASK && journalVersion >= JournalChannel.V5) {
+                    if (len == JournalRecordBatch.BATCH_MASK && journalVersion >= JournalChannel.V7) {
+                        batchHeaderBuff.clear();
+                        fullRead(recLog, batchHeaderBuff);
+                        if (batchHeaderBuff.remaining() != 0) {
+                            break;
+                        }
+                        batchHeaderBuff.flip();
+                        len = batchHeaderBuff.getInt();
+                        recordsLen = batchHeaderBuff.getInt();
+                        batchChecksum = batchHeaderBuff.getInt();
+                        if (len <= 0 || recordsLen < len) {
+                            LOG.warn("Invalid record batch found in journal {} at offset {}, stop scanning it",
+                                    journalId, offset);
+                            break;
+                        }
+                        isRecordBatch = true;
+                    } else if (len == PADDING_MASK && journalVersion >= JournalChannel.V5) {
                         // skip padding bytes
                         lenBuff.clear();
                         fullRead(recLog, lenBuff);
@@ -867,7 +998,26 @@ public class Journal implements CheckpointSource {
                     break;
                 }
                 recBuff.flip();
-                if (!isPaddingRecord) {
+                if (isRecordBatch) {
+                    ByteBuffer records = JournalRecordBatch.readRecords(recBuff, recordsLen, batchChecksum);
+                    if (records == null) {
+                        if (!skipInvalidRecord && hasValidBatchAfter(recLog)) {
+                            throw new IOException("Checksum mismatch of the record batch in journal " + journalId
+                                    + " at offset " + offset + ", followed by valid record batches");
+                        }
+                        // a batch partially written before a crash, which was never acknowledged
+                        LOG.warn("Checksum mismatch of the record batch in journal {} at offset {}, stop scanning it",
+                                journalId, offset);
+                        break;
+                    }
+                    while (records.hasRemaining()) {
+                        int recordLen = records.getInt();
+                        ByteBuffer record = records.slice();
+                        record.limit(recordLen);
+                        scanner.process(journalVersion, offset, record);
+                        records.position(records.position() + recordLen);
+                    }
+                } else if (!isPaddingRecord) {
                     scanner.process(journalVersion, offset, recBuff);
                 }
             }
@@ -884,6 +1034,58 @@ public class Journal implements CheckpointSource {
         }
     }
 
+    /**
+     * Check whether a valid record batch follows the current position of a journal file. A batch failing its
+     * checksum is the last one written before a crash only when no valid batch follows it, otherwise the
+     * journal file is corrupted.
+     */
+    private static boolean hasValidBatchAfter(JournalChannel recLog) throws IOException {
+        ByteBuffer headerBuff = ByteBuffer.allocate(4 + JournalRecordBatch.HEADER_SIZE);
+        long position = recLog.fc.position();
+        long size = recLog.fc.size();
+        while (position + headerBuff.capacity() <= size) {
+            headerBuff.clear();
+            if (!readFully(recLog.fc, headerBuff, position)) {
+                return false;
+            }
+            headerBuff.flip();
+            int mask = headerBuff.getInt();
+            int len = headerBuff.getInt();
+            if (mask == PADDING_MASK) {
+                if (len < 0) {
+                    return false;
+                }
+                position += 8 + len;
+                continue;
+            }
+            int recordsLen = headerBuff.getInt();
+            int checksum = headerBuff.getInt();
+            if (mask != JournalRecordBatch.BATCH_MASK || len <= 0 || recordsLen < len
+                    || position + headerBuff.capacity() + len > size) {
+                return false;
+            }
+            ByteBuffer batch = ByteBuffer.allocate(len);
+            if (!readFully(recLog.fc, batch, position + headerBuff.capacity())) {
+                return false;
+            }
+            batch.flip();
+            if (JournalRecordBatch.isValid(batch, recordsLen, checksum)) {
+                return true;
+            }
+            position += headerBuff.capacity() + len;
+        }
+        return false;
+    }
+
+    private static boolean readFully(FileChannel fc, ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            if (fc.read(bb, position + bb.position()) <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * record an add entry operation in journal.
      */
@@ -911,6 +1113,40 @@ public class Journal implements CheckpointSource {
                 callbackTime));
     }
 
+    /**
+     * record a group of add entry operations in journal.
+     *
+     * <p>The entries are enqueued at once, so that they end up in the same journal
+     * flush and are acknowledged together. The callback is triggered once per entry.
+     */
+    public void logAddEntries(List<ByteBuf> entries, boolean ackBeforeSync, WriteCallback cb, Object ctx)
+            throws InterruptedException {
+        QueueEntry[] queueEntries = new QueueEntry[entries.size()];
+        long totalSize = 0;
+        for (ByteBuf entry : entries) {
+            totalSize += entry.readableBytes();
+        }
+
+        memoryLimitController.reserveMemory(totalSize);
+
+        long enqueueTime = MathUtils.nowInNano();
+        for (int i = 0; i < queueEntries.length; i++) {
+            ByteBuf entry = entries.get(i);
+            long ledgerId = entry.getLong(entry.readerIndex() + 0);
+            long entryId = entry.getLong(entry.readerIndex() + 8);
+            // Retain entry until it gets written to journal
+            entry.retain();
+            queueEntries[i] = QueueEntry.create(
+                    entry, ackBeforeSync, ledgerId, entryId, cb, ctx, enqueueTime,
+                    journalStats.getJournalAddEntryStats(),
+                    callbackTime);
+        }
+
+        journalStats.getJournalQueueSize().addCount(queueEntries.length);
+
+        queue.putAll(queueEntries, 0, queueEntries.length);
+    }
+
     void forceLedger(long ledgerId, WriteCallback cb, Object ctx) {
         queue.add(QueueEntry.create(
                 null, false /* ackBeforeSync */, ledgerId,
@@ -970,6 +1206,9 @@ public class Journal implements CheckpointSource {
         ByteBuf lenBuff = Unpooled.buffer(4);
         ByteBuf paddingBuff = Unpooled.buffer(2 * conf.getJournalAlignmentSize());
         paddingBuff.writeZero(paddingBuff.capacity());
+        // the records to write at the next flush, when they are written as compressed batches
+        JournalRecordBatch recordBatch = journalFormatVersionToWrite >= JournalChannel.V7
+                ? new JournalRecordBatch(journalWriteBufferSize) : null;
 
         BufferedChannel bc = null;
         JournalChannel logFile = null;
@@ -1015,6 +1254,18 @@ public class Journal implements CheckpointSource {
                     lastFlushPosition = bc.position();
                 }
 
+                long groupWaitInNanos = maxGroupWaitInNanos;
+                boolean flushWhenQueueEmpty = this.flushWhenQueueEmpty;
+                if (adaptiveGroupWait != null) {
+                    groupWaitInNanos = adaptiveGroupWait.getGroupWaitNanos();
+                    // without waiting, the entries are grouped only while the queue isn't empty
+                    flushWhenQueueEmpty |= groupWaitInNanos <= 0;
+                    if (groupWaitInNanos <= 0) {
+                        // a timeout seen before the wait dropped to 0 must not flush the next groups early
+                        groupWhenTimeout = false;
+                    }
+                }
+
                 if (qe == null) {
                     if (dequeueStartTime != 0) {
                         journalStats.getJournalProcessTimeStats()
@@ -1031,7 +1282,7 @@ public class Journal implements CheckpointSource {
                     } else {
                         // There are already some entries pending. We must adjust
                         // the waiting time to the remaining groupWait time
-                        long pollWaitTimeNanos = maxGroupWaitInNanos
+                        long pollWaitTimeNanos = groupWaitInNanos
                                 - MathUtils.elapsedNanos(toFlush.get(0).enqueueTime);
                         if (flushWhenQueueEmpty || pollWaitTimeNanos < 0) {
                             pollWaitTimeNanos = 0;
@@ -1042,6 +1293,9 @@ public class Journal implements CheckpointSource {
                     }
 
                     dequeueStartTime = MathUtils.nowInNano();
+                    if (adaptiveGroupWait != null && localQueueEntriesLen > 0) {
+                        adaptiveGroupWait.entriesArrived(localQueueEntriesLen, dequeueStartTime);
+                    }
 
                     if (localQueueEntriesLen > 0) {
                         qe = localQueueEntries[localQueueEntriesIdx];
@@ -1053,12 +1307,12 @@ public class Journal implements CheckpointSource {
                     boolean shouldFlush = false;
                     // We should issue a forceWrite if any of the three conditions below holds good
                     // 1. If the oldest pending entry has been pending for longer than the max wait time
-                    if (maxGroupWaitInNanos > 0 && !groupWhenTimeout && (MathUtils
-                            .elapsedNanos(toFlush.get(0).enqueueTime) > maxGroupWaitInNanos)) {
+                    if (groupWaitInNanos > 0 && !groupWhenTimeout && (MathUtils
+                            .elapsedNanos(toFlush.get(0).enqueueTime) > groupWaitInNanos)) {
                         groupWhenTimeout = true;
-                    } else if (maxGroupWaitInNanos > 0 && groupWhenTimeout
+                    } else if (groupWaitInNanos > 0 && groupWhenTimeout
                         && (qe == null // no entry to group
-                            || MathUtils.elapsedNanos(qe.enqueueTime) < maxGroupWaitInNanos)) {
+                            || MathUtils.elapsedNanos(qe.enqueueTime) < groupWaitInNanos)) {
                         // when group timeout, it would be better to look forward, as there might be lots of
                         // entries already timeout
                         // due to a previous slow write (writing to filesystem which impacted by force write).
@@ -1070,7 +1324,8 @@ public class Journal implements CheckpointSource {
                         journalStats.getFlushMaxWaitCounter().inc();
                     } else if (qe != null
                             && ((bufferedEntriesThreshold > 0 && toFlush.size() > bufferedEntriesThreshold)
-                            || (bc.position() > lastFlushPosition + bufferedWritesThreshold))) {
+                            || (bc.position() + (recordBatch == null ? 0 : recordBatch.size())
+                                > lastFlushPosition + bufferedWritesThreshold))) {
                         // 2. If we have buffered more than the buffWriteThreshold or bufferedEntriesThreshold
                         groupWhenTimeout = false;
                         shouldFlush = true;
@@ -1087,6 +1342,9 @@ public class Journal implements CheckpointSource {
 
                     // toFlush is non null and not empty so should be safe to access getFirst
                     if (shouldFlush) {
+                        if (recordBatch != null && !recordBatch.isEmpty()) {
+                            recordBatch.writeTo(logFile);
+                        }
                         if (journalFormatVersionToWrite >= JournalChannel.V5) {
                             writePaddingBytes(logFile, paddingBuff, journalAlignmentSize);
                         }
@@ -1111,8 +1369,11 @@ public class Journal implements CheckpointSource {
                         writeHandlers.clear();
 
                         lastFlushPosition = bc.position();
-                        journalStats.getJournalFlushStats().registerSuccessfulEvent(
-                                journalFlushWatcher.stop().elapsed(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                        long flushNanos = journalFlushWatcher.stop().elapsed(TimeUnit.NANOSECONDS);
+                        journalStats.getJournalFlushStats().registerSuccessfulEvent(flushNanos, TimeUnit.NANOSECONDS);
+                        if (adaptiveGroupWait != null && !syncData) {
+                            adaptiveGroupWait.commitCompleted(flushNanos);
+                        }
 
                         // Trace the lifetime of entries through persistence
                         if (LOG.isDebugEnabled()) {
@@ -1190,14 +1451,22 @@ public class Journal implements CheckpointSource {
 
                     batchSize += (4 + entrySize);
 
-                    lenBuff.clear();
-                    lenBuff.writeInt(entrySize);
+                    if (recordBatch != null) {
+                        // bound the size of a batch, a flush of many entries is written as several batches
+                        if (!recordBatch.isEmpty() && recordBatch.size() + 4 + entrySize > journalWriteBufferSize) {
+                            recordBatch.writeTo(logFile);
+                        }
+                        recordBatch.add(qe.entry);
+                    } else {
+                        lenBuff.clear();
+                        lenBuff.writeInt(entrySize);
 
-                    // preAlloc based on size
-                    logFile.preAllocIfNeeded(4 + entrySize);
+                        // preAlloc based on size
+                        logFile.preAllocIfNeeded(4 + entrySize);
 
-                    bc.write(lenBuff);
-                    bc.write(qe.entry);
+                        bc.write(lenBuff);
+                        bc.write(qe.entry);
+                    }
                     memoryLimitController.releaseMemory(qe.entry.readableBytes());
                     ReferenceCountUtil.release(qe.entry);
                 }
@@ -1224,6 +1493,9 @@ public class Journal implements CheckpointSource {
             // close will flush the file system cache making any previous
             // cached writes durable so this is fine as well.
             IOUtils.close(LOG, bc);
+            if (recordBatch != null) {
+                recordBatch.close();
+            }
             if (journalAliveListener != null) {
                 journalAliveListener.onJournalExit();
             }
@@ -1232,7 +1504,20 @@ public class Journal implements CheckpointSource {
     }
 
     public BufferedChannelBuilder getBufferedChannelBuilder() {
-        return (FileChannel fc, int capacity) -> new BufferedChannel(allocator, fc, capacity);
+        if (directIO == null) {
+            return (FileChannel fc, int capacity) -> new BufferedChannel(allocator, fc, capacity);
+        }
+        return new BufferedChannelBuilder() {
+            @Override
+            public BufferedChannel create(FileChannel fc, int capacity) throws IOException {
+                return new BufferedChannel(allocator, fc, capacity);
+            }
+
+            @Override
+            public BufferedChannel create(File file, FileChannel fc, int capacity) throws IOException {
+                return new DirectIOBufferedChannel(allocator, directIO, file, fc, capacity, journalAlignmentSize);
+            }
+        };
     }
 
     /**
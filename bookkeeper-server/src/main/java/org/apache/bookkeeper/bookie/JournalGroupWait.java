@@ -0,0 +1,147 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ADAPTIVE_ARRIVAL_RATE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ADAPTIVE_COMMIT_LATENCY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ADAPTIVE_GROUP_WAIT;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+
+/**
+ * Adapts the time the journal waits to group entries to the load.
+ *
+ * <p>The entries which arrive while a group is committed wait for the next commit anyway. By
+ * Little's law, about {@code arrival rate * commit latency} entries arrive during a commit: when
+ * that is less than one entry, waiting for more entries only adds latency, so the group is
+ * committed as soon as the queue is empty. Otherwise the journal waits up to the commit latency,
+ * capped by the max group wait, so that the entries are committed with as few commits as possible.
+ *
+ * <p>The commit latency is the latency of the force writes when the journal syncs the data, and the
+ * latency of the flushes otherwise.
+ */
+class JournalGroupWait {
+
+    // weight of a sampling period in the moving averages
+    static final double SMOOTHING = 0.2;
+    // period over which the arrival rate is sampled
+    static final long RATE_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long maxGroupWaitNanos;
+
+    // only accessed by the journal thread
+    private long periodStartNanos = 0;
+    private long periodEntries = 0;
+
+    private volatile double arrivalsPerSecond = 0;
+    private volatile double commitLatencyNanos = 0;
+    private volatile long groupWaitNanos = 0;
+
+    JournalGroupWait(long maxGroupWaitNanos, StatsLogger statsLogger) {
+        this.maxGroupWaitNanos = maxGroupWaitNanos;
+        statsLogger.registerGauge(JOURNAL_ADAPTIVE_GROUP_WAIT, new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return TimeUnit.NANOSECONDS.toMicros(groupWaitNanos);
+            }
+        });
+        statsLogger.registerGauge(JOURNAL_ADAPTIVE_COMMIT_LATENCY, new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return TimeUnit.NANOSECONDS.toMicros((long) commitLatencyNanos);
+            }
+        });
+        statsLogger.registerGauge(JOURNAL_ADAPTIVE_ARRIVAL_RATE, new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return (long) arrivalsPerSecond;
+            }
+        });
+    }
+
+    /**
+     * Get the time to wait for more entries before committing the pending ones.
+     */
+    long getGroupWaitNanos() {
+        return groupWaitNanos;
+    }
+
+    /**
+     * Record entries taken from the journal queue, from the journal thread.
+     */
+    void entriesArrived(int numEntries, long nowNanos) {
+        if (periodStartNanos == 0) {
+            periodStartNanos = nowNanos;
+        }
+        periodEntries += numEntries;
+        long elapsedNanos = nowNanos - periodStartNanos;
+        if (elapsedNanos < RATE_PERIOD_NANOS) {
+            return;
+        }
+        double rate = periodEntries * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        // an idle journal forgets the previous rate as fast as if every period was sampled
+        double weight = 1 - Math.pow(1 - SMOOTHING, (double) elapsedNanos / RATE_PERIOD_NANOS);
+        synchronized (this) {
+            arrivalsPerSecond += weight * (rate - arrivalsPerSecond);
+            update();
+        }
+        periodStartNanos = nowNanos;
+        periodEntries = 0;
+    }
+
+    /**
+     * Record the latency of a commit.
+     */
+    synchronized void commitCompleted(long latencyNanos) {
+        if (commitLatencyNanos == 0) {
+            commitLatencyNanos = latencyNanos;
+        } else {
+            commitLatencyNanos += SMOOTHING * (latencyNanos - commitLatencyNanos);
+        }
+        update();
+    }
+
+    private void update() {
+        double expectedArrivals = arrivalsPerSecond * commitLatencyNanos / TimeUnit.SECONDS.toNanos(1);
+        if (expectedArrivals < 1) {
+            groupWaitNanos = 0;
+        } else {
+            groupWaitNanos = Math.min(maxGroupWaitNanos, (long) commitLatencyNanos);
+        }
+    }
+}
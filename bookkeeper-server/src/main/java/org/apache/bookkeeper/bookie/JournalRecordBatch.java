@@ -0,0 +1,185 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import com.scurrilous.circe.checksum.Crc32cIntChecksum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A batch of journal records, as written by the journal format {@link JournalChannel#V7}.
+ *
+ * <p>The records written to a journal file between two flushes are collected, and written at once
+ * before the flush:
+ * <pre>
+ * | BATCH_MASK (int) | batch length (int) | records length (int) | CRC32C (int) | batch |
+ * </pre>
+ * The batch holds the length prefixed records, deflated when that makes them smaller. Otherwise the
+ * batch length is the records length and the records are stored as is.
+ *
+ * <p>The checksum covers the lengths and the batch. A batch failing its checksum was only partially
+ * written before a crash when no valid batch follows it, and ends the replay of the journal file.
+ * Otherwise the journal file is corrupted.
+ */
+class JournalRecordBatch {
+
+    static final int BATCH_MASK = -0x200;
+    // batch length, records length and checksum following the batch mask
+    static final int HEADER_SIZE = 12;
+
+    private final ByteBuf records;
+    private final ByteBuf header = Unpooled.buffer(4 + HEADER_SIZE);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private byte[] compressed = new byte[0];
+
+    JournalRecordBatch(int initialCapacity) {
+        this.records = Unpooled.buffer(initialCapacity);
+    }
+
+    /**
+     * Add a length prefixed record to the batch.
+     */
+    void add(ByteBuf entry) {
+        int length = entry.readableBytes();
+        records.writeInt(length);
+        records.writeBytes(entry, entry.readerIndex(), length);
+    }
+
+    boolean isEmpty() {
+        return !records.isReadable();
+    }
+
+    /**
+     * Get the size of the records added to the batch.
+     */
+    int size() {
+        return records.readableBytes();
+    }
+
+    /**
+     * Write the batch to the journal file and start a new batch.
+     *
+     * @return the number of bytes written to the journal file
+     */
+    int writeTo(JournalChannel logFile) throws IOException {
+        int recordsLength = records.readableBytes();
+        if (compressed.length < recordsLength) {
+            compressed = new byte[recordsLength];
+        }
+        deflater.reset();
+        deflater.setInput(records.array(), records.arrayOffset() + records.readerIndex(), recordsLength);
+        deflater.finish();
+        int batchLength = deflater.deflate(compressed, 0, recordsLength);
+
+        ByteBuf batch;
+        if (deflater.finished() && batchLength < recordsLength) {
+            batch = Unpooled.wrappedBuffer(compressed, 0, batchLength);
+        } else {
+            batch = records;
+            batchLength = recordsLength;
+        }
+
+        header.clear();
+        header.writeInt(BATCH_MASK);
+        header.writeInt(batchLength);
+        header.writeInt(recordsLength);
+        header.writeInt(Crc32cIntChecksum.resumeChecksum(Crc32cIntChecksum.computeChecksum(header, 4, 8),
+                batch, batch.readerIndex(), batchLength));
+
+        logFile.preAllocIfNeeded(header.readableBytes() + batchLength);
+        logFile.getBufferedChannel().write(header);
+        logFile.getBufferedChannel().write(batch);
+        records.clear();
+        return header.readableBytes() + batchLength;
+    }
+
+    /**
+     * Get the records of a batch read from a journal file.
+     *
+     * @param batch the batch, from its current position to its limit
+     * @param recordsLength the records length of the batch header
+     * @param checksum the checksum of the batch header
+     * @return the length prefixed records, or null if the checksum of the batch doesn't match
+     * @throws IOException if the batch can't be decompressed
+     */
+    static ByteBuffer readRecords(ByteBuffer batch, int recordsLength, int checksum) throws IOException {
+        if (!isValid(batch, recordsLength, checksum)) {
+            return null;
+        }
+        int batchLength = batch.remaining();
+        int offset = batch.arrayOffset() + batch.position();
+        if (batchLength == recordsLength) {
+            return batch;
+        }
+
+        byte[] decompressed = new byte[recordsLength];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(batch.array(), offset, batchLength);
+            int length = 0;
+            while (length < recordsLength && !inflater.finished()) {
+                int n = inflater.inflate(decompressed, length, recordsLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != recordsLength) {
+                throw new IOException("Journal batch decompressed to " + length
+                        + " bytes, expected " + recordsLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed journal batch", e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(decompressed);
+    }
+
+    /**
+     * Check the checksum of a batch read from a journal file.
+     *
+     * @param batch the batch, from its current position to its limit
+     * @param recordsLength the records length of the batch header
+     * @param checksum the checksum of the batch header
+     */
+    static boolean isValid(ByteBuffer batch, int recordsLength, int checksum) {
+        int batchLength = batch.remaining();
+        ByteBuf lengths = Unpooled.buffer(8);
+        lengths.writeInt(batchLength);
+        lengths.writeInt(recordsLength);
+        int expectedChecksum = Crc32cIntChecksum.resumeChecksum(Crc32cIntChecksum.computeChecksum(lengths),
+                batch.array(), batch.arrayOffset() + batch.position(), batchLength);
+        return expectedChecksum == checksum;
+    }
+
+    /**
+     * Release the compressor of the batch.
+     */
+    void close() {
+        deflater.end();
+    }
+}
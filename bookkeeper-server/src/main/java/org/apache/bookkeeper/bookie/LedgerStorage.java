@@ -24,6 +24,8 @@ package org.apache.bookkeeper.bookie;
 import com.google.common.util.concurrent.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.FileRegion;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -144,6 +146,59 @@ public interface LedgerStorage {
      */
     ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Read an entry from storage, possibly without copying its content in memory.
+     *
+     * <p>Entries of at least {@code minRegionSize} bytes can be returned as a {@link FileRegion} over the file
+     * where they are stored, to be transferred straight to the network. Other entries are returned as a
+     * {@link ByteBuf}, as in {@link #getEntry(long, long)}.
+     */
+    default ReferenceCounted getEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, BookieException {
+        return getEntry(ledgerId, entryId);
+    }
+
+    /**
+     * Read an entry only if it is cached in memory, without blocking on the storage.
+     *
+     * @return the entry, or null if it has to be read with {@link #getEntry(long, long)}
+     */
+    default ByteBuf getEntryIfCached(long ledgerId, long entryId) {
+        return null;
+    }
+
+    /**
+     * Read a range of consecutive entries from storage.
+     *
+     * <p>The read stops at the first entry that cannot be read, after {@code maxCount} entries or once the total
+     * size of the entries read reaches {@code maxSize}. Only a failure on the first entry is propagated to the caller.
+     *
+     * @param ledgerId ledger id
+     * @param firstEntryId the first entry to read
+     * @param maxCount the max number of entries to read
+     * @param maxSize the max total size of the entries to read
+     * @return the list of entries read, containing at least the first entry
+     */
+    default List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        List<ByteBuf> entries = new ArrayList<>();
+        long size = 0;
+        for (int i = 0; i < maxCount && size < maxSize; i++) {
+            ByteBuf entry;
+            try {
+                entry = getEntry(ledgerId, firstEntryId + i);
+            } catch (IOException | BookieException e) {
+                if (entries.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+            entries.add(entry);
+            size += entry.readableBytes();
+        }
+        return entries;
+    }
+
     /**
      * Get last add confirmed.
      *
@@ -0,0 +1,146 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+
+/**
+ * Applies the records of the journals replayed in parallel with the threads of an ordered executor.
+ *
+ * <p>Each journal is read by its own thread, through the {@link JournalScanner} returned by
+ * {@link #newJournalScanner()}. The records are copied and dispatched by ledger id, so the records of a
+ * ledger are still applied in the journal order. The size of the records read from all the journals but
+ * not applied yet is bounded, so the reading of the journals waits for the threads applying the records
+ * when they fall behind.
+ */
+class ParallelJournalScanner {
+
+    static final int MAX_BYTES_IN_FLIGHT = 64 * 1024 * 1024;
+
+    private final JournalScanner scanner;
+    private final OrderedExecutor executor;
+    private final int maxBytesInFlight;
+    // shared by the readers of all the journals
+    private final Semaphore bytesInFlight;
+    private final AtomicReference<IOException> error = new AtomicReference<>();
+
+    ParallelJournalScanner(JournalScanner scanner, OrderedExecutor executor) {
+        this(scanner, executor, MAX_BYTES_IN_FLIGHT);
+    }
+
+    ParallelJournalScanner(JournalScanner scanner, OrderedExecutor executor, int maxBytesInFlight) {
+        this.scanner = scanner;
+        this.executor = executor;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.bytesInFlight = new Semaphore(maxBytesInFlight);
+    }
+
+    /**
+     * Get a scanner dispatching the records of a journal, to be used by the thread reading it.
+     */
+    JournalScanner newJournalScanner() {
+        return new JournalReader();
+    }
+
+    /**
+     * Stop applying the records dispatched, once the replay failed.
+     */
+    void abort(IOException cause) {
+        error.compareAndSet(null, cause);
+    }
+
+    private class JournalReader implements JournalScanner {
+
+        // the records of the journal dispatched but not applied yet, guarded by this
+        private int pendingRecords = 0;
+
+        @Override
+        public void process(int journalVersion, long offset, ByteBuffer entry) throws IOException {
+            checkError();
+            // the entry buffer is reused for the next record
+            final ByteBuffer record = ByteBuffer.allocate(entry.remaining());
+            record.put(entry.duplicate());
+            record.flip();
+            final long ledgerId = record.getLong(0);
+            final int permits = Math.min(record.capacity(), maxBytesInFlight);
+            try {
+                bytesInFlight.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while replaying the journal");
+            }
+            synchronized (this) {
+                pendingRecords++;
+            }
+            executor.executeOrdered(ledgerId, () -> {
+                try {
+                    if (error.get() == null) {
+                        scanner.process(journalVersion, offset, record);
+                    }
+                } catch (IOException e) {
+                    error.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, new IOException(e));
+                } finally {
+                    bytesInFlight.release(permits);
+                    recordApplied();
+                }
+            });
+        }
+
+        private synchronized void recordApplied() {
+            if (--pendingRecords == 0) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait for all the records of the journal dispatched so far to be applied.
+         */
+        @Override
+        public void awaitProcessed() throws IOException {
+            synchronized (this) {
+                while (pendingRecords > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while replaying the journal");
+                    }
+                }
+            }
+            checkError();
+        }
+    }
+
+    private void checkError() throws IOException {
+        IOException e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+}
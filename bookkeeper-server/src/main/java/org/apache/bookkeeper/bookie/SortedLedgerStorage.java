@@ -239,6 +239,20 @@ public class SortedLedgerStorage
         return buffToRet;
     }
 
+    @Override
+    public ByteBuf getEntryIfCached(long ledgerId, long entryId) {
+        if (entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            return null;
+        }
+        // Only the entries not flushed yet to the entry logs are in memory
+        try {
+            EntryKeyValue kv = memTable.getEntry(ledgerId, entryId);
+            return null == kv ? null : kv.getValueAsByteBuffer();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException {
         return interleavedLedgerStorage.getLastAddConfirmed(ledgerId);
@@ -21,8 +21,12 @@
 package org.apache.bookkeeper.bookie.storage;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import org.apache.bookkeeper.bookie.AbstractLogCompactor;
 import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
 import org.apache.bookkeeper.bookie.EntryLogMetadata;
@@ -67,6 +71,77 @@ public interface EntryLogger extends AutoCloseable {
     ByteBuf readEntry(long ledgerId, long entryId, long entryLocation)
             throws IOException, NoEntryException;
 
+    /**
+     * Read an entry from an entrylog location, possibly without copying its content in memory.
+     *
+     * <p>Implementations can return entries of at least {@code minRegionSize} bytes, which are already persisted in
+     * the entry log file, as a {@link FileRegion} that transfers the content straight from the file to the channel
+     * where it gets written. Any other entry is returned as a {@link ByteBuf}, as in
+     * {@link #readEntry(long, long, long)}.
+     *
+     * @param ledgerId the ledgerID to match
+     * @param entryId the entryID to match
+     * @param entryLocation the location from which to read the entry
+     * @param minRegionSize the min size of the entries to return as a file region
+     * @return the entry, either as a {@link ByteBuf} or as a {@link FileRegion}. The caller must release it.
+     */
+    default ReferenceCounted readEntryOrRegion(long ledgerId, long entryId, long entryLocation, int minRegionSize)
+            throws IOException, NoEntryException {
+        return readEntry(ledgerId, entryId, entryLocation);
+    }
+
+    /**
+     * Read a batch of consecutive entries of a ledger, given their locations.
+     *
+     * <p>Implementations can submit the reads together instead of reading the entries one at a time.
+     * The read stops at the first entry that cannot be read. An error is only thrown if the first entry
+     * cannot be read.
+     *
+     * @param ledgerId the ledger of the entries
+     * @param firstEntryId the id of the first entry, the following entries have consecutive ids
+     * @param entryLocations the locations of the entries
+     * @param offset the index of the location of the first entry in entryLocations
+     * @param count the number of entries to read
+     * @return the entries read, in order. The caller must release them.
+     */
+    default List<ByteBuf> readEntries(long ledgerId, long firstEntryId, long[] entryLocations, int offset, int count)
+            throws IOException {
+        List<ByteBuf> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            try {
+                entries.add(readEntry(ledgerId, firstEntryId + i, entryLocations[offset + i]));
+            } catch (IOException e) {
+                if (entries.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Check whether this entry logger implements {@link #readEntriesRange(long, int)}.
+     */
+    default boolean supportsRangeReads() {
+        return false;
+    }
+
+    /**
+     * Read a contiguous range of an entry log with as few I/O operations as possible, starting from the size
+     * header of the entry at the given location. Only available when {@link #supportsRangeReads()} is true.
+     *
+     * <p>The returned buffer contains a sequence of [entry size][entry] records, where the last record can be
+     * truncated. It can be shorter than requested when reaching the end of the data written in the entry log.
+     *
+     * @param entryLocation the location of the first entry of the range
+     * @param maxSize the max number of bytes to read
+     * @return the bytes read. The caller must release the buffer.
+     */
+    default ByteBuf readEntriesRange(long entryLocation, int maxSize) throws IOException {
+        throw new UnsupportedOperationException("Range reads are not supported by " + getClass().getName());
+    }
+
     /**
      * Flush any outstanding writes to disk.
      */
@@ -30,6 +30,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
 import java.io.EOFException;
 import java.io.File;
@@ -83,6 +84,9 @@ public class DirectEntryLogger implements EntryLogger {
     private final NativeIO nativeIO;
     private final List<Cache<?, ?>> allCaches = new CopyOnWriteArrayList<>();
     private final ThreadLocal<Cache<Integer, LogReader>> caches;
+    private final boolean ioUringEnabled;
+    private final List<IoUringReader> allIoUringReaders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<IoUringReader> ioUringReaders;
 
     private static final int NUMBER_OF_WRITE_BUFFERS = 8;
 
@@ -101,6 +105,27 @@ public class DirectEntryLogger implements EntryLogger {
                              int maxFdCacheTimeSeconds,
                              Slogger slogParent,
                              StatsLogger stats) throws IOException {
+        this(ledgerDir, ids, nativeIO, allocator, writeExecutor, flushExecutor, maxFileSize, maxSaneEntrySize,
+             totalWriteBufferSize, totalReadBufferSize, readBufferSize, numReadThreads, maxFdCacheTimeSeconds,
+             false, slogParent, stats);
+    }
+
+    public DirectEntryLogger(File ledgerDir,
+                             EntryLogIds ids,
+                             NativeIO nativeIO,
+                             ByteBufAllocator allocator,
+                             ExecutorService writeExecutor,
+                             ExecutorService flushExecutor,
+                             long maxFileSize,
+                             int maxSaneEntrySize,
+                             long totalWriteBufferSize,
+                             long totalReadBufferSize,
+                             int readBufferSize,
+                             int numReadThreads,
+                             int maxFdCacheTimeSeconds,
+                             boolean ioUringEnabled,
+                             Slogger slogParent,
+                             StatsLogger stats) throws IOException {
         this.ledgerDir = ledgerDir;
         this.flushExecutor = flushExecutor;
         this.writeExecutor = writeExecutor;
@@ -171,6 +196,21 @@ public class DirectEntryLogger implements EntryLogger {
             allCaches.add(cache);
             return cache;
         });
+
+        this.ioUringEnabled = ioUringEnabled;
+        this.ioUringReaders = ThreadLocal.withInitial(() -> {
+            if (!this.ioUringEnabled) {
+                return null;
+            }
+            try {
+                IoUringReader reader = new IoUringReader(nativeIO, allocator, maxSaneEntrySize);
+                allIoUringReaders.add(reader);
+                return reader;
+            } catch (IOException | RuntimeException e) {
+                slog.kv("reason", e.getMessage()).warn(Events.IO_URING_NOT_AVAILABLE);
+                return null;
+            }
+        });
     }
 
     @Override
@@ -270,6 +310,98 @@ public class DirectEntryLogger implements EntryLogger {
         }
     }
 
+    @Override
+    public List<ByteBuf> readEntries(long ledgerId, long firstEntryId, long[] entryLocations, int offset, int count)
+            throws IOException {
+        IoUringReader ioUringReader = ioUringReaders.get();
+        if (ioUringReader == null || count < 2) {
+            return EntryLogger.super.readEntries(ledgerId, firstEntryId, entryLocations, offset, count);
+        }
+
+        List<ByteBuf> entries = new ArrayList<>(count);
+        int[] fds = new int[IoUringReader.RING_ENTRIES];
+        long[] positions = new long[IoUringReader.RING_ENTRIES];
+
+        int batchStart = 0;
+        while (batchStart < count) {
+            // A batch only covers a single log, so that its reader cannot be evicted while the batch is in flight
+            long firstLocation = entryLocations[offset + batchStart];
+            int logId = (int) (firstLocation >> 32);
+            LogReader reader = getReader(logId);
+            int fd = reader instanceof DirectReader ? ((DirectReader) reader).fd() : -1;
+
+            int batchCount = 0;
+            while (batchStart + batchCount < count && batchCount < IoUringReader.RING_ENTRIES) {
+                long location = entryLocations[offset + batchStart + batchCount];
+                if ((int) (location >> 32) != logId) {
+                    break;
+                }
+                fds[batchCount] = fd;
+                positions[batchCount] = location & 0xFFFFFFFFL;
+                batchCount++;
+            }
+
+            long start = System.nanoTime();
+            ByteBuf[] batch = ioUringReader.readEntries(fds, positions, batchCount);
+            if (ioUringReader.isBroken()) {
+                slog.kv("ledgerId", ledgerId).kv("firstEntryId", firstEntryId + batchStart)
+                    .error(Events.IO_URING_READ_ERROR);
+                allIoUringReaders.remove(ioUringReader);
+                ioUringReaders.set(null);
+            }
+
+            for (int i = 0; i < batchCount; i++) {
+                long entryId = firstEntryId + batchStart + i;
+                ByteBuf entry = batch[i];
+                if (entry != null && (entry.readableBytes() < 2 * Long.BYTES
+                                      || entry.getLong(0) != ledgerId || entry.getLong(8) != entryId)) {
+                    ReferenceCountUtil.release(entry);
+                    entry = null;
+                }
+
+                if (entry == null) {
+                    // Go through the regular path, which reports the proper error if the entry cannot be read
+                    try {
+                        entry = readEntry(ledgerId, entryId, entryLocations[offset + batchStart + i]);
+                    } catch (IOException e) {
+                        for (int j = i + 1; j < batchCount; j++) {
+                            ReferenceCountUtil.release(batch[j]);
+                        }
+                        if (entries.isEmpty()) {
+                            throw e;
+                        }
+                        return entries;
+                    }
+                } else {
+                    stats.getReadEntryStats().registerSuccessfulEvent(System.nanoTime() - start,
+                                                                      TimeUnit.NANOSECONDS);
+                }
+                entries.add(entry);
+            }
+            batchStart += batchCount;
+        }
+        return entries;
+    }
+
+    @Override
+    public boolean supportsRangeReads() {
+        return true;
+    }
+
+    @Override
+    public ByteBuf readEntriesRange(long entryLocation, int maxSize) throws IOException {
+        int logId = (int) (entryLocation >> 32);
+        // Include the size header of the first entry
+        long startPos = (entryLocation & 0xFFFFFFFFL) - Integer.BYTES;
+
+        LogReader reader = getReader(logId);
+        int size = (int) Math.max(0, Math.min(maxSize, reader.maxOffset() - startPos));
+        if (size == 0) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+        return reader.readBufferAt(startPos, size);
+    }
+
     @Override
     public void flush() throws IOException {
         long start = System.nanoTime();
@@ -362,6 +494,10 @@ public class DirectEntryLogger implements EntryLogger {
             c.invalidateAll();
         }
 
+        for (IoUringReader reader : allIoUringReaders) {
+            reader.close();
+        }
+
         writeBuffers.close();
     }
 
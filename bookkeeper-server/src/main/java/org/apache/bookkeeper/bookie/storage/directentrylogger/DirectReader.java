@@ -77,6 +77,10 @@ class DirectReader implements LogReader {
         return logId;
     }
 
+    int fd() {
+        return fd;
+    }
+
     private void clearCache() {
         synchronized (nativeBuffer) {
             currentBlock = -1;
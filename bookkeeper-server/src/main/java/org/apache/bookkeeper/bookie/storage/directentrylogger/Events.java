@@ -31,6 +31,19 @@ public enum Events {
      */
     FALLOCATE_NOT_AVAILABLE,
 
+    /**
+     * io_uring has been enabled but is not available on this host, either because the kernel does not
+     * support it or because it is forbidden by the security policy of the process. Batches of reads will
+     * be done with one blocking pread per read.
+     */
+    IO_URING_NOT_AVAILABLE,
+
+    /**
+     * A batch of reads submitted through io_uring failed. The reading thread stops using io_uring and falls
+     * back to blocking preads.
+     */
+    IO_URING_READ_ERROR,
+
     /**
      * EntryLog ID candidates selected. These are the set entry log ID that subsequent entry log files
      * will use. To find the candidates, the bookie lists all the log ids which have already been used,
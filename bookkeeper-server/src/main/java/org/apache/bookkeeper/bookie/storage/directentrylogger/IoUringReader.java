@@ -0,0 +1,202 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.IOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+
+/**
+ * Reads batches of entries from entry log files through io_uring.
+ *
+ * <p>All the reads of a batch are in flight at the same time and are submitted and
+ * completed with a single syscall, instead of one blocking pread per read. Each entry
+ * is read with a single aligned read which covers most entries, and the few entries
+ * which do not fit are read again in a second batch.
+ *
+ * <p>An entry which cannot be read through io_uring, because of a short read, an invalid
+ * size or an error, is returned as null and must be read through the regular path, which
+ * takes care of reporting errors.
+ *
+ * <p>A reader owns an io_uring instance, so it must only be used by a single thread.
+ */
+class IoUringReader implements AutoCloseable {
+    static final int RING_ENTRIES = 64;
+
+    // Size of the first read of each entry, which covers the size header and most entries
+    private static final int FIRST_READ_SIZE = 4 * Buffer.ALIGNMENT;
+    // Max size of the second batch, for the entries that do not fit in the first read
+    private static final int MAX_SECOND_BATCH_SIZE = 16 * 1024 * 1024;
+
+    private final NativeIO nativeIO;
+    private final ByteBufAllocator allocator;
+    private final int maxSaneEntrySize;
+    private final long ring;
+    private boolean broken = false;
+
+    private final int[] fds = new int[RING_ENTRIES];
+    private final long[] pointers = new long[RING_ENTRIES];
+    private final int[] sizes = new int[RING_ENTRIES];
+    private final long[] offsets = new long[RING_ENTRIES];
+    private final long[] results = new long[RING_ENTRIES];
+
+    IoUringReader(NativeIO nativeIO, ByteBufAllocator allocator, int maxSaneEntrySize) throws NativeIOException {
+        this.nativeIO = nativeIO;
+        this.allocator = allocator;
+        this.maxSaneEntrySize = maxSaneEntrySize;
+        this.ring = nativeIO.io_uring_setup(RING_ENTRIES);
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Read a batch of entries.
+     *
+     * @param entryFds the file descriptor of the log containing each entry
+     * @param entryPositions the position of each entry in its log, after its size header
+     * @param count the number of entries to read, at most {@link #RING_ENTRIES}
+     * @return the entries, with null for the entries that could not be read
+     */
+    ByteBuf[] readEntries(int[] entryFds, long[] entryPositions, int count) throws IOException {
+        ByteBuf[] entries = new ByteBuf[count];
+        int[] readSizes = new int[count];
+
+        // First pass, read a fixed size block for every entry
+        for (int i = 0; i < count; i++) {
+            long start = alignDown(entryPositions[i] - Integer.BYTES);
+            readSizes[i] = Buffer.nextAlignment((int) (entryPositions[i] - start) + FIRST_READ_SIZE);
+        }
+        int[] entrySizes = readBatch(entryFds, entryPositions, readSizes, count, entries);
+
+        // Second pass, read again the entries that did not fit in the first read
+        int secondBatchSize = 0;
+        for (int i = 0; i < count; i++) {
+            readSizes[i] = 0;
+            if (entries[i] == null && entrySizes[i] > 0) {
+                long start = alignDown(entryPositions[i] - Integer.BYTES);
+                int readSize = Buffer.nextAlignment((int) (entryPositions[i] - start) + entrySizes[i]);
+                if (secondBatchSize + readSize <= MAX_SECOND_BATCH_SIZE) {
+                    readSizes[i] = readSize;
+                    secondBatchSize += readSize;
+                }
+            }
+        }
+        if (secondBatchSize > 0) {
+            readBatch(entryFds, entryPositions, readSizes, count, entries);
+        }
+        return entries;
+    }
+
+    /**
+     * Submit a read for each entry with a positive read size, and parse the entries which were read entirely.
+     *
+     * @return the size of each entry as found in its size header, or 0 if it could not be read
+     */
+    private int[] readBatch(int[] entryFds, long[] entryPositions, int[] readSizes, int count, ByteBuf[] entries)
+            throws IOException {
+        int[] entrySizes = new int[count];
+        if (broken) {
+            return entrySizes;
+        }
+
+        int totalSize = 0;
+        for (int i = 0; i < count; i++) {
+            totalSize += readSizes[i];
+        }
+
+        Buffer buffer = new Buffer(nativeIO, allocator, totalSize);
+
+        int[] bufferOffsets = new int[count];
+        int requests = 0;
+        int bufferOffset = 0;
+        for (int i = 0; i < count; i++) {
+            if (readSizes[i] == 0) {
+                continue;
+            }
+            fds[requests] = entryFds[i];
+            pointers[requests] = buffer.pointer(bufferOffset, readSizes[i]);
+            sizes[requests] = readSizes[i];
+            offsets[requests] = alignDown(entryPositions[i] - Integer.BYTES);
+            bufferOffsets[i] = bufferOffset;
+            bufferOffset += readSizes[i];
+            requests++;
+        }
+
+        try {
+            nativeIO.io_uring_pread_batch(ring, fds, pointers, sizes, offsets, results, requests);
+        } catch (NativeIOException e) {
+            // Reads may still be in flight into the buffer, so it is not released and the ring is not used anymore
+            broken = true;
+            return entrySizes;
+        }
+
+        try {
+            int request = 0;
+            for (int i = 0; i < count; i++) {
+                if (readSizes[i] == 0) {
+                    continue;
+                }
+                long bytesRead = results[request++];
+                long headerPosition = entryPositions[i] - Integer.BYTES;
+                int headerOffset = (int) (headerPosition - alignDown(headerPosition));
+                if (bytesRead < headerOffset + Integer.BYTES) {
+                    continue;
+                }
+
+                int entrySize = buffer.readInt(bufferOffsets[i] + headerOffset);
+                if (entrySize <= 0 || entrySize > maxSaneEntrySize) {
+                    continue;
+                }
+                entrySizes[i] = entrySize;
+
+                if (bytesRead >= headerOffset + Integer.BYTES + entrySize) {
+                    ByteBuf entry = allocator.buffer(entrySize, entrySize);
+                    buffer.readByteBuf(entry, bufferOffsets[i] + headerOffset + Integer.BYTES, entrySize);
+                    entries[i] = entry;
+                }
+            }
+        } finally {
+            buffer.free();
+        }
+        return entrySizes;
+    }
+
+    private static long alignDown(long position) {
+        return position & ~((long) Buffer.ALIGNMENT - 1);
+    }
+
+    @Override
+    public void close() {
+        if (broken) {
+            // Reads may still be in flight
+            return;
+        }
+        try {
+            nativeIO.io_uring_free(ring);
+        } catch (NativeIOException e) {
+            // Ignore, the ring is not usable anymore
+        }
+    }
+}
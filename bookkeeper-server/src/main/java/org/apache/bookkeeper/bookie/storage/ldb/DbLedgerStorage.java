@@ -29,6 +29,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.internal.PlatformDependent;
 import java.io.File;
@@ -91,9 +92,27 @@ public class DbLedgerStorage implements LedgerStorage {
         "dbStorage_directIOEntryLoggerReadBufferSizeMB";
     public static final String DIRECT_IO_ENTRYLOGGER_MAX_FD_CACHE_TIME_SECONDS =
         "dbStorage_directIOEntryLoggerMaxFdCacheTimeSeconds";
+    public static final String DIRECT_IO_ENTRYLOGGER_IO_URING_ENABLED =
+        "dbStorage_directIOEntryLoggerIoUringEnabled";
 
     static final String MAX_THROTTLE_TIME_MILLIS = "dbStorage_maxThrottleTimeMs";
 
+    static final String WRITE_CACHE_COUNT = "dbStorage_writeCacheCount";
+    static final int DEFAULT_WRITE_CACHE_COUNT = 2;
+
+    static final String PIPELINED_FLUSH_ENABLED = "dbStorage_pipelinedFlushEnabled";
+
+    static final String READ_CACHE_POLICY = "dbStorage_readCachePolicy";
+    static final String READ_CACHE_PROTECTED_RATIO = "dbStorage_readCacheProtectedRatio";
+    static final String READ_CACHE_MAX_LEDGER_RATIO = "dbStorage_readCacheMaxLedgerRatio";
+    static final double DEFAULT_READ_CACHE_PROTECTED_RATIO = 0.8;
+    static final double DEFAULT_READ_CACHE_MAX_LEDGER_RATIO = 0.25;
+
+    static final String READ_AHEAD_THREADS = "dbStorage_readAheadThreads";
+    static final String READ_AHEAD_ADAPTIVE_BATCH_SIZE = "dbStorage_readAheadAdaptiveBatchSize";
+
+    static final String READ_CACHE_WARM_UP_ENABLED = "dbStorage_readCacheWarmUpEnabled";
+
     private static final int MB = 1024 * 1024;
 
     private static final long DEFAULT_WRITE_CACHE_MAX_SIZE_MB =
@@ -234,6 +253,7 @@ public class DbLedgerStorage implements LedgerStorage {
                     readBufferSize,
                     numReadThreads,
                     maxFdCacheTimeSeconds,
+                    conf.getBoolean(DIRECT_IO_ENTRYLOGGER_IO_URING_ENABLED, false),
                     slog, statsLogger);
             } else {
                 entrylogger = new DefaultEntryLogger(conf, ldm, null, statsLogger, allocator);
@@ -361,6 +381,23 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).getEntry(ledgerId, entryId);
     }
 
+    @Override
+    public ReferenceCounted getEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, BookieException {
+        return getLedgerStorage(ledgerId).getEntryOrRegion(ledgerId, entryId, minRegionSize);
+    }
+
+    @Override
+    public ByteBuf getEntryIfCached(long ledgerId, long entryId) {
+        return getLedgerStorage(ledgerId).getEntryIfCached(ledgerId, entryId);
+    }
+
+    @Override
+    public List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        return getLedgerStorage(ledgerId).getEntries(ledgerId, firstEntryId, maxCount, maxSize);
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getLastAddConfirmed(ledgerId);
@@ -23,6 +23,8 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 import com.google.common.collect.Iterables;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -98,6 +100,53 @@ public class EntryLocationIndex implements Closeable {
         }
     }
 
+    /**
+     * Lookup the locations of a range of consecutive entries of a ledger, with a single batched
+     * read on the index storage.
+     *
+     * @param ledgerId
+     *            the ledger id
+     * @param firstEntryId
+     *            the first entry id of the range (included)
+     * @param count
+     *            the number of entries in the range
+     * @return an array with the location of each entry in the range, or 0 for the entries that were not found
+     */
+    public long[] getLocations(long ledgerId, long firstEntryId, int count) throws IOException {
+        List<byte[]> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[16];
+            ArrayUtil.setLong(key, 0, ledgerId);
+            ArrayUtil.setLong(key, 8, firstEntryId + i);
+            keys.add(key);
+        }
+
+        long startTimeNanos = MathUtils.nowInNano();
+        boolean operationSuccess = false;
+        try {
+            List<byte[]> values = locationsDb.multiGet(keys);
+            long[] locations = new long[count];
+            for (int i = 0; i < count; i++) {
+                byte[] value = values.get(i);
+                if (value != null) {
+                    locations[i] = ArrayUtil.getLong(value, 0);
+                } else if (log.isDebugEnabled()) {
+                    log.debug("Entry not found {}@{} in db index", ledgerId, firstEntryId + i);
+                }
+            }
+            operationSuccess = true;
+            return locations;
+        } finally {
+            if (operationSuccess) {
+                stats.getLookupEntryLocationsBatchStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                stats.getLookupEntryLocationsBatchStats()
+                        .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
     public long getLastEntryInLedger(long ledgerId) throws IOException {
         if (deletedLedgers.contains(ledgerId)) {
             // Ledger already deleted
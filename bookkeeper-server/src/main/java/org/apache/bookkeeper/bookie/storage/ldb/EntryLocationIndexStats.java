@@ -42,6 +42,7 @@ class EntryLocationIndexStats {
 
     private static final String ENTRIES_COUNT = "entries-count";
     private static final String LOOKUP_ENTRY_LOCATION = "lookup-entry-location";
+    private static final String LOOKUP_ENTRY_LOCATIONS_BATCH = "lookup-entry-locations-batch";
     private static final String GET_LAST_ENTRY_IN_LEDGER = "get-last-entry-in-ledger";
 
     @StatsDoc(
@@ -56,6 +57,12 @@ class EntryLocationIndexStats {
     )
     private final OpStatsLogger lookupEntryLocationStats;
 
+    @StatsDoc(
+            name = LOOKUP_ENTRY_LOCATIONS_BATCH,
+            help = "operation stats of looking up the locations of a range of entries in a single batch"
+    )
+    private final OpStatsLogger lookupEntryLocationsBatchStats;
+
     @StatsDoc(
             name = GET_LAST_ENTRY_IN_LEDGER,
             help = "operation stats of get last entry in ledger"
@@ -77,6 +84,7 @@ class EntryLocationIndexStats {
         };
         statsLogger.registerGauge(ENTRIES_COUNT, entriesCountGauge);
         lookupEntryLocationStats = statsLogger.getOpStatsLogger(LOOKUP_ENTRY_LOCATION);
+        lookupEntryLocationsBatchStats = statsLogger.getOpStatsLogger(LOOKUP_ENTRY_LOCATIONS_BATCH);
         getLastEntryInLedgerStats = statsLogger.getOpStatsLogger(GET_LAST_ENTRY_IN_LEDGER);
     }
 
@@ -0,0 +1,95 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import java.io.Closeable;
+
+/**
+ * Cache for the entries read from the entry logs, populated by the read-ahead.
+ *
+ * <p>The entries returned by {@link #get(long, long)} are owned by the caller, which is responsible
+ * for releasing them.
+ */
+public interface EntryReadCache extends Closeable {
+
+    /**
+     * Available read cache implementations, selected with {@link DbLedgerStorage#READ_CACHE_POLICY}.
+     */
+    enum Policy {
+        /**
+         * Ring of large segments, where the oldest segment is cleared when the cache is full.
+         */
+        RING,
+        /**
+         * Segmented LRU with per-ledger admission control.
+         */
+        SLRU
+    }
+
+    /**
+     * Consumer of the keys of the cached entries.
+     */
+    interface EntryKeyConsumer {
+        void accept(long ledgerId, long entryId);
+    }
+
+    void put(long ledgerId, long entryId, ByteBuf entry);
+
+    /**
+     * Add an entry that was read from the entry logs for a reader. Unlike the entries added by the read-ahead,
+     * this entry counts as accessed once.
+     */
+    default void putAccessed(long ledgerId, long entryId, ByteBuf entry) {
+        put(ledgerId, entryId, entry);
+    }
+
+    ByteBuf get(long ledgerId, long entryId);
+
+    /**
+     * Get an entry without waiting for another thread using the cache, as the I/O threads do. An entry that
+     * can't be looked up right away is reported as missing.
+     */
+    default ByteBuf tryGet(long ledgerId, long entryId) {
+        return get(ledgerId, entryId);
+    }
+
+    boolean hasEntry(long ledgerId, long entryId);
+
+    /**
+     * Iterate over the keys of the cached entries, from the most recently cached or used ones to the
+     * ones that would be evicted first.
+     */
+    void forEachKey(EntryKeyConsumer consumer);
+
+    /**
+     * @return the total size of cached entries
+     */
+    long size();
+
+    /**
+     * @return the total number of cached entries
+     */
+    long count();
+
+    @Override
+    void close();
+}
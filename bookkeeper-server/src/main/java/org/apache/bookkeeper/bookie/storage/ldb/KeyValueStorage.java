@@ -22,6 +22,8 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 
 /**
@@ -55,6 +57,24 @@ public interface KeyValueStorage extends Closeable {
      */
     int get(byte[] key, byte[] value) throws IOException;
 
+    /**
+     * Get the values associated with a list of keys, in a single batched lookup.
+     *
+     * <p>The default implementation falls back to a {@link #get(byte[])} per key.
+     *
+     * @param keys
+     *            the keys to lookup
+     * @return a list with one element per key, in the same order as the keys. Keys that were not found are
+     *         mapped to null
+     */
+    default List<byte[]> multiGet(List<byte[]> keys) throws IOException {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            values.add(get(key));
+        }
+        return values;
+    }
+
     /**
      * Get the entry whose key is the biggest and it's lesser than the supplied key.
      *
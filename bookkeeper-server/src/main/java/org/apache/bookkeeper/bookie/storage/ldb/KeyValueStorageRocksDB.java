@@ -348,6 +348,15 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         }
     }
 
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) throws IOException {
+        try {
+            return db.multiGetAsList(optionCache, keys);
+        } catch (RocksDBException e) {
+            throw new IOException("Error in RocksDB multiGet", e);
+        }
+    }
+
     @Override
     @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_WOULD_HAVE_BEEN_A_NPE")
     public Entry<byte[], byte[]> getFloor(byte[] key) throws IOException {
@@ -35,6 +35,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.apache.bookkeeper.bookie.BookieImpl;
 import org.apache.bookkeeper.bookie.DefaultEntryLogger;
@@ -43,7 +44,6 @@ import org.apache.bookkeeper.bookie.LedgerDirsManager;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
-import org.apache.bookkeeper.util.BookKeeperConstants;
 import org.apache.bookkeeper.util.DiskChecker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -200,9 +200,8 @@ public class LedgersIndexRebuildOp {
 
     private List<Journal> getJournals(ServerConfiguration conf) throws IOException {
         List<Journal> journals = Lists.newArrayListWithCapacity(conf.getJournalDirs().length);
-        int idx = 0;
-        for (File journalDir : conf.getJournalDirs()) {
-            journals.add(new Journal(idx++, new File(journalDir, BookKeeperConstants.CURRENT_DIR), conf,
+        for (Map.Entry<Integer, File> writerDir : Journal.listWriterDirectories(conf).entrySet()) {
+            journals.add(new Journal(writerDir.getKey(), writerDir.getValue(), conf,
                     new LedgerDirsManager(conf, conf.getLedgerDirs(),
                             new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()))));
         }
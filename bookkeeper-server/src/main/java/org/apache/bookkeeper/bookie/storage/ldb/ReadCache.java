@@ -26,11 +26,11 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
-import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
 import org.slf4j.Logger;
@@ -46,7 +46,7 @@ import org.slf4j.LoggerFactory;
  * is cleared and rotated to make space for new entries to be added to
  * the read cache.
  */
-public class ReadCache implements Closeable {
+public class ReadCache implements EntryReadCache {
     private static final Logger log = LoggerFactory.getLogger(ReadCache.class);
 
     private static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
@@ -62,12 +62,23 @@ public class ReadCache implements Closeable {
     private ByteBufAllocator allocator;
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
+    private final ReadCacheStats stats;
+
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize) {
         this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
     }
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this(allocator, maxCacheSize, maxSegmentSize, new ReadCacheStats(NullStatsLogger.INSTANCE, Policy.RING));
+    }
+
+    ReadCache(ByteBufAllocator allocator, long maxCacheSize, ReadCacheStats stats) {
+        this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE, stats);
+    }
+
+    ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, ReadCacheStats stats) {
         this.allocator = allocator;
+        this.stats = stats;
         int segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
         segmentSize = (int) (maxCacheSize / segmentsCount);
 
@@ -89,6 +100,7 @@ public class ReadCache implements Closeable {
         cacheSegments.forEach(ReferenceCountUtil::safeRelease);
     }
 
+    @Override
     public void put(long ledgerId, long entryId, ByteBuf entry) {
         int entrySize = entry.readableBytes();
         int alignedSize = align64(entrySize);
@@ -124,6 +136,7 @@ public class ReadCache implements Closeable {
                 // Rollover to next segment
                 currentSegmentIdx = (currentSegmentIdx + 1) % cacheSegments.size();
                 currentSegmentOffset.set(alignedSize);
+                stats.getEvictionCounter().addCount(cacheIndexes.get(currentSegmentIdx).size());
                 cacheIndexes.get(currentSegmentIdx).clear();
                 offset = 0;
             }
@@ -136,6 +149,7 @@ public class ReadCache implements Closeable {
         }
     }
 
+    @Override
     public ByteBuf get(long ledgerId, long entryId) {
         lock.readLock().lock();
 
@@ -154,6 +168,7 @@ public class ReadCache implements Closeable {
 
                     ByteBuf entry = allocator.buffer(entryLen, entryLen);
                     entry.writeBytes(cacheSegments.get(segmentIdx), entryOffset, entryLen);
+                    stats.getHitCounter().inc();
                     return entry;
                 }
             }
@@ -162,9 +177,11 @@ public class ReadCache implements Closeable {
         }
 
         // Entry not found in any segment
+        stats.getMissCounter().inc();
         return null;
     }
 
+    @Override
     public boolean hasEntry(long ledgerId, long entryId) {
         lock.readLock().lock();
 
@@ -186,9 +203,23 @@ public class ReadCache implements Closeable {
         return false;
     }
 
-    /**
-     * @return the total size of cached entries
-     */
+    @Override
+    public void forEachKey(EntryKeyConsumer consumer) {
+        lock.readLock().lock();
+
+        try {
+            int size = cacheSegments.size();
+            for (int i = 0; i < size; i++) {
+                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
+                cacheIndexes.get(segmentIdx).forEach((ledgerId, entryId, offset, entrySize) ->
+                        consumer.accept(ledgerId, entryId));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
     public long size() {
         lock.readLock().lock();
 
@@ -210,9 +241,7 @@ public class ReadCache implements Closeable {
         }
     }
 
-    /**
-     * @return the total number of cached entries
-     */
+    @Override
     public long count() {
         lock.readLock().lock();
 
@@ -0,0 +1,188 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshot of the keys of the entries held in a read cache, used to warm up the cache after a restart.
+ *
+ * <p>The snapshot only stores the ranges of consecutive entries of each ledger, not the entries content. The
+ * ledgers are kept in the order in which they are first found in the cache, so that the hottest ones come first.
+ * The content is followed by its checksum, so that a corrupt snapshot is rejected rather than used to warm up
+ * the cache with ranges of entries that were never in it.
+ */
+class ReadCacheSnapshot {
+
+    static final String FILE_NAME = "read-cache-snapshot";
+
+    private static final int VERSION = 2;
+
+    /**
+     * A range of consecutive entries of a ledger.
+     */
+    static final class Range {
+        final long ledgerId;
+        final long firstEntryId;
+        final long lastEntryId;
+
+        Range(long ledgerId, long firstEntryId, long lastEntryId) {
+            this.ledgerId = ledgerId;
+            this.firstEntryId = firstEntryId;
+            this.lastEntryId = lastEntryId;
+        }
+    }
+
+    private final List<Range> ranges;
+
+    ReadCacheSnapshot(List<Range> ranges) {
+        this.ranges = ranges;
+    }
+
+    List<Range> getRanges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    long getEntriesCount() {
+        long count = 0;
+        for (Range range : ranges) {
+            count += range.lastEntryId - range.firstEntryId + 1;
+        }
+        return count;
+    }
+
+    static ReadCacheSnapshot of(EntryReadCache cache) {
+        Map<Long, EntryIds> ledgers = new LinkedHashMap<>();
+        cache.forEachKey((ledgerId, entryId) -> ledgers.computeIfAbsent(ledgerId, k -> new EntryIds()).add(entryId));
+
+        List<Range> ranges = new ArrayList<>();
+        ledgers.forEach((ledgerId, entryIds) -> {
+            long[] ids = Arrays.copyOf(entryIds.ids, entryIds.size);
+            Arrays.sort(ids);
+
+            long first = ids[0];
+            long last = ids[0];
+            for (int i = 1; i < ids.length; i++) {
+                if (ids[i] == last) {
+                    continue;
+                } else if (ids[i] != last + 1) {
+                    ranges.add(new Range(ledgerId, first, last));
+                    first = ids[i];
+                }
+                last = ids[i];
+            }
+            ranges.add(new Range(ledgerId, first, last));
+        });
+        return new ReadCacheSnapshot(ranges);
+    }
+
+    /**
+     * Write the snapshot to a temporary file first, and then move it in place, so that a crash while writing
+     * never leaves a partial snapshot behind.
+     */
+    void write(File file) throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile);
+             BufferedOutputStream bos = new BufferedOutputStream(fos)) {
+            CRC32 checksum = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(bos, checksum));
+            out.writeInt(VERSION);
+            out.writeInt(ranges.size());
+            for (Range range : ranges) {
+                out.writeLong(range.ledgerId);
+                out.writeLong(range.firstEntryId);
+                out.writeLong(range.lastEntryId);
+            }
+            new DataOutputStream(bos).writeLong(checksum.getValue());
+            bos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static ReadCacheSnapshot read(File file) throws IOException {
+        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
+            CRC32 checksum = new CRC32();
+            DataInputStream in = new DataInputStream(new CheckedInputStream(bis, checksum));
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported read cache snapshot version " + version + " in " + file);
+            }
+
+            int rangesCount = in.readInt();
+            if (rangesCount < 0) {
+                throw new IOException("Invalid ranges count " + rangesCount + " in read cache snapshot " + file);
+            }
+            // The count is only trusted once the checksum is verified, so the list is not sized from it
+            List<Range> ranges = new ArrayList<>();
+            for (int i = 0; i < rangesCount; i++) {
+                long ledgerId = in.readLong();
+                long firstEntryId = in.readLong();
+                long lastEntryId = in.readLong();
+                if (ledgerId < 0 || firstEntryId < 0 || lastEntryId < firstEntryId) {
+                    throw new IOException("Invalid range " + ledgerId + "@" + firstEntryId + "-" + lastEntryId
+                            + " in read cache snapshot " + file);
+                }
+                ranges.add(new Range(ledgerId, firstEntryId, lastEntryId));
+            }
+
+            long expectedChecksum = checksum.getValue();
+            if (new DataInputStream(bis).readLong() != expectedChecksum || bis.read() != -1) {
+                throw new IOException("Corrupt read cache snapshot " + file);
+            }
+            return new ReadCacheSnapshot(ranges);
+        } catch (EOFException e) {
+            throw new IOException("Truncated read cache snapshot " + file, e);
+        }
+    }
+
+    private static final class EntryIds {
+        private long[] ids = new long[16];
+        private int size = 0;
+
+        void add(long entryId) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = entryId;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+
+import lombok.Getter;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+
+/**
+ * A umbrella class for read cache stats, labeled with the read cache policy in use.
+ */
+@StatsDoc(
+    name = BOOKIE_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "Read cache stats"
+)
+@Getter
+class ReadCacheStats {
+
+    static final String POLICY_LABEL = "readCachePolicy";
+
+    private static final String READ_CACHE_POLICY_HITS = "read-cache-policy-hits";
+    private static final String READ_CACHE_POLICY_MISSES = "read-cache-policy-misses";
+    private static final String READ_CACHE_EVICTIONS = "read-cache-evictions";
+    private static final String READ_CACHE_PROMOTIONS = "read-cache-promotions";
+    private static final String READ_CACHE_ADMISSION_REJECTED = "read-cache-admission-rejected";
+
+    @StatsDoc(
+        name = READ_CACHE_POLICY_HITS,
+        help = "number of hits in the read cache"
+    )
+    private final Counter hitCounter;
+
+    @StatsDoc(
+        name = READ_CACHE_POLICY_MISSES,
+        help = "number of misses in the read cache"
+    )
+    private final Counter missCounter;
+
+    @StatsDoc(
+        name = READ_CACHE_EVICTIONS,
+        help = "number of entries evicted from the read cache to make space for new entries"
+    )
+    private final Counter evictionCounter;
+
+    @StatsDoc(
+        name = READ_CACHE_PROMOTIONS,
+        help = "number of entries promoted to the protected segment of the read cache"
+    )
+    private final Counter promotionCounter;
+
+    @StatsDoc(
+        name = READ_CACHE_ADMISSION_REJECTED,
+        help = "number of entries not admitted in the read cache because their ledger exceeded its quota"
+    )
+    private final Counter admissionRejectedCounter;
+
+    ReadCacheStats(StatsLogger statsLogger, EntryReadCache.Policy policy) {
+        StatsLogger stats = statsLogger.scopeLabel(POLICY_LABEL, policy.name().toLowerCase());
+        hitCounter = stats.getCounter(READ_CACHE_POLICY_HITS);
+        missCounter = stats.getCounter(READ_CACHE_POLICY_MISSES);
+        evictionCounter = stats.getCounter(READ_CACHE_EVICTIONS);
+        promotionCounter = stats.getCounter(READ_CACHE_PROMOTIONS);
+        admissionRejectedCounter = stats.getCounter(READ_CACHE_ADMISSION_REJECTED);
+    }
+}
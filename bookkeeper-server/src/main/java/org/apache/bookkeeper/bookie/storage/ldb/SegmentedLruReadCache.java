@@ -0,0 +1,575 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scan-resistant read cache implementation, based on a segmented LRU with per-ledger admission control.
+ *
+ * <p>The cache is split in shards, each one with two LRU segments. New entries are inserted in the
+ * <i>probation</i> segment and are promoted to the <i>protected</i> segment on their second access. The
+ * entries added by the read-ahead were not accessed yet, so a single sequential read of a ledger doesn't
+ * promote them. When the protected segment exceeds its capacity, its least recently used entries are demoted
+ * back into the probation segment. Evictions always start from the least recently used entries of the
+ * probation segment.
+ *
+ * <p>The bytes cached for each ledger are accounted for across all shards. A ledger that reached its quota of
+ * the cache can only replace its own least recently used entries, even when the cache is not full. This
+ * prevents a single backlog reader from flushing the entries of all the tailing readers.
+ *
+ * <p>Like {@link ReadCache}, the entries are copied in direct memory segments, one for each shard, and the
+ * shard index maps the entries to their position in the segment. The segment memory is allocated by blocks to
+ * the entries, and the LRU lists are kept in arrays, so that the cache doesn't hold any object for each entry.
+ */
+public class SegmentedLruReadCache implements EntryReadCache {
+    private static final Logger log = LoggerFactory.getLogger(SegmentedLruReadCache.class);
+
+    private static final long MIN_SHARD_SIZE = 64 * 1024 * 1024;
+    private static final long MAX_SHARD_SIZE = 1024 * 1024 * 1024;
+    private static final int MAX_SHARDS = 16;
+
+    // Size of the blocks of the segment memory allocated to the entries
+    static final int BLOCK_SIZE = 512;
+
+    private static final int NONE = -1;
+    private static final int INITIAL_NODES_CAPACITY = 1024;
+
+    // States of the cached entries
+    private static final byte PROBATION = 0;
+    private static final byte PROBATION_ACCESSED = 1;
+    private static final byte PROTECTED = 2;
+
+    private final ByteBufAllocator allocator;
+    private final Shard[] shards;
+    private final long maxLedgerSize;
+
+    // Total size of the blocks allocated to the cached entries, for each ledger
+    private final ConcurrentLongLongHashMap ledgersSize;
+
+    private final ReadCacheStats stats;
+
+    /**
+     * @param allocator the allocator used for the entries returned by the cache
+     * @param maxCacheSize the max total size of the cached entries
+     * @param protectedRatio the fraction of the cache reserved to the protected segment
+     * @param maxLedgerRatio the fraction of the cache that a single ledger can occupy
+     * @param stats the read cache stats
+     */
+    public SegmentedLruReadCache(ByteBufAllocator allocator, long maxCacheSize, double protectedRatio,
+                                 double maxLedgerRatio, ReadCacheStats stats) {
+        checkArgument(protectedRatio >= 0 && protectedRatio < 1, "Invalid protected ratio: %s", protectedRatio);
+        checkArgument(maxLedgerRatio > 0 && maxLedgerRatio <= 1, "Invalid max ledger ratio: %s", maxLedgerRatio);
+
+        this.allocator = allocator;
+        this.stats = stats;
+        this.maxLedgerSize = (long) (maxCacheSize * maxLedgerRatio);
+        this.ledgersSize = ConcurrentLongLongHashMap.newBuilder()
+                .expectedItems(4096)
+                .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                .build();
+
+        // Each shard uses a single buffer, which can't be larger than MAX_SHARD_SIZE
+        int shardsCount = (int) Math.max(1, Math.min(MAX_SHARDS, maxCacheSize / MIN_SHARD_SIZE));
+        shardsCount = (int) Math.max(shardsCount, (maxCacheSize + MAX_SHARD_SIZE - 1) / MAX_SHARD_SIZE);
+        int shardBlocks = (int) (maxCacheSize / shardsCount / BLOCK_SIZE);
+        this.shards = new Shard[shardsCount];
+        for (int i = 0; i < shardsCount; i++) {
+            shards[i] = new Shard(shardBlocks, (int) (shardBlocks * protectedRatio));
+        }
+    }
+
+    @Override
+    public void put(long ledgerId, long entryId, ByteBuf entry) {
+        put(ledgerId, entryId, entry, false);
+    }
+
+    @Override
+    public void putAccessed(long ledgerId, long entryId, ByteBuf entry) {
+        put(ledgerId, entryId, entry, true);
+    }
+
+    private void put(long ledgerId, long entryId, ByteBuf entry, boolean accessed) {
+        int entrySize = entry.readableBytes();
+        int entryBlocks = blocks(entrySize);
+        Shard shard = getShard(ledgerId, entryId);
+        if (entryBlocks > shard.blocksCount) {
+            log.warn("entrySize {} > shard size {}, skip update read cache!", entrySize,
+                    (long) shard.blocksCount * BLOCK_SIZE);
+            return;
+        }
+
+        long allocatedSize = (long) entryBlocks * BLOCK_SIZE;
+        shard.lock.lock();
+        try {
+            LongPair cached = shard.index.get(ledgerId, entryId);
+            if (cached != null) {
+                if (accessed) {
+                    shard.access((int) cached.first);
+                }
+                return;
+            }
+
+            if (ledgerSize(ledgerId) + allocatedSize > maxLedgerSize
+                    && !shard.evictLedgerEntries(ledgerId, allocatedSize)) {
+                // The ledger has already taken its share of the cache, and there's not enough of its own entries
+                // in the shard to make room for this one
+                stats.getAdmissionRejectedCounter().inc();
+                return;
+            }
+
+            while (shard.freeBlocksCount < entryBlocks) {
+                shard.evict(shard.probation.tail != NONE ? shard.probation.tail : shard.protectedSegment.tail);
+                stats.getEvictionCounter().inc();
+            }
+
+            shard.insert(ledgerId, entryId, entry, entryBlocks, accessed ? PROBATION_ACCESSED : PROBATION);
+            ledgersSize.addAndGet(ledgerId, allocatedSize);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public ByteBuf get(long ledgerId, long entryId) {
+        Shard shard = getShard(ledgerId, entryId);
+        shard.lock.lock();
+        try {
+            return shard.get(ledgerId, entryId);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public ByteBuf tryGet(long ledgerId, long entryId) {
+        Shard shard = getShard(ledgerId, entryId);
+        if (!shard.lock.tryLock()) {
+            // The shard is busy with an insertion or another reader
+            stats.getMissCounter().inc();
+            return null;
+        }
+        try {
+            return shard.get(ledgerId, entryId);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean hasEntry(long ledgerId, long entryId) {
+        return getShard(ledgerId, entryId).index.containsKey(ledgerId, entryId);
+    }
+
+    @Override
+    public void forEachKey(EntryKeyConsumer consumer) {
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                for (int node = shard.protectedSegment.head; node != NONE; node = shard.lruNext[node]) {
+                    consumer.accept(shard.nodeLedgerIds[node], shard.nodeEntryIds[node]);
+                }
+                for (int node = shard.probation.head; node != NONE; node = shard.lruNext[node]) {
+                    consumer.accept(shard.nodeLedgerIds[node], shard.nodeEntryIds[node]);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.size;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (Shard shard : shards) {
+            count += shard.index.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                while (shard.probation.tail != NONE) {
+                    shard.evict(shard.probation.tail);
+                }
+                while (shard.protectedSegment.tail != NONE) {
+                    shard.evict(shard.protectedSegment.tail);
+                }
+                if (shard.memory.refCnt() > 0) {
+                    shard.memory.release();
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    private long ledgerSize(long ledgerId) {
+        return Math.max(0, ledgersSize.get(ledgerId));
+    }
+
+    private static int blocks(int entrySize) {
+        return Math.max(1, (entrySize + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    private Shard getShard(long ledgerId, long entryId) {
+        long hash = ledgerId * 31 + entryId;
+        hash ^= hash >>> 32;
+        return shards[(int) ((hash & Long.MAX_VALUE) % shards.length)];
+    }
+
+    private final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // Maps each entry to its node, and its size
+        private final ConcurrentLongLongPairHashMap index = ConcurrentLongLongPairHashMap.newBuilder()
+                .expectedItems(4096)
+                .concurrencyLevel(1)
+                .build();
+        // Maps each ledger and segment to the most and least recently used nodes of the ledger in the segment
+        private final ConcurrentLongLongPairHashMap ledgerLists = ConcurrentLongLongPairHashMap.newBuilder()
+                .expectedItems(256)
+                .concurrencyLevel(1)
+                .build();
+
+        // Memory of the shard, and the next block of each block, either in the blocks of an entry or in the free
+        // blocks
+        private final ByteBuf memory;
+        private final int blocksCount;
+        private final int[] nextBlocks;
+        private int freeBlocksHead;
+        private int freeBlocksCount;
+
+        // Nodes of the cached entries, with the links of the LRU segments and of the lists of the entries of each
+        // ledger in the segments. The free nodes are linked with lruNext.
+        private long[] nodeLedgerIds;
+        private long[] nodeEntryIds;
+        private int[] nodeSizes;
+        private int[] nodeFirstBlocks;
+        private byte[] nodeStates;
+        private int[] lruPrev;
+        private int[] lruNext;
+        private int[] ledgerPrev;
+        private int[] ledgerNext;
+        private int freeNodesHead = NONE;
+
+        private final Segment probation = new Segment(0);
+        private final Segment protectedSegment = new Segment(1);
+        private final int maxProtectedBlocks;
+
+        // Total size of the cached entries
+        private long size;
+
+        Shard(int blocksCount, int maxProtectedBlocks) {
+            this.blocksCount = blocksCount;
+            this.maxProtectedBlocks = maxProtectedBlocks;
+            this.memory = Unpooled.directBuffer(blocksCount * BLOCK_SIZE, blocksCount * BLOCK_SIZE);
+            this.nextBlocks = new int[blocksCount];
+            for (int i = 0; i < blocksCount; i++) {
+                nextBlocks[i] = i + 1 < blocksCount ? i + 1 : NONE;
+            }
+            this.freeBlocksHead = blocksCount > 0 ? 0 : NONE;
+            this.freeBlocksCount = blocksCount;
+
+            this.nodeLedgerIds = new long[0];
+            this.nodeEntryIds = new long[0];
+            this.nodeSizes = new int[0];
+            this.nodeFirstBlocks = new int[0];
+            this.nodeStates = new byte[0];
+            this.lruPrev = new int[0];
+            this.lruNext = new int[0];
+            this.ledgerPrev = new int[0];
+            this.ledgerNext = new int[0];
+        }
+
+        ByteBuf get(long ledgerId, long entryId) {
+            LongPair cached = index.get(ledgerId, entryId);
+            if (cached == null) {
+                stats.getMissCounter().inc();
+                return null;
+            }
+
+            int node = (int) cached.first;
+            access(node);
+            stats.getHitCounter().inc();
+
+            int entrySize = nodeSizes[node];
+            ByteBuf entry = allocator.buffer(entrySize, entrySize);
+            for (int block = nodeFirstBlocks[node]; block != NONE; block = nextBlocks[block]) {
+                entry.writeBytes(memory, block * BLOCK_SIZE, Math.min(BLOCK_SIZE, entry.writableBytes()));
+            }
+            return entry;
+        }
+
+        void insert(long ledgerId, long entryId, ByteBuf entry, int entryBlocks, byte state) {
+            int node = allocateNode();
+            int entrySize = entry.readableBytes();
+            int readerIndex = entry.readerIndex();
+
+            int previousBlock = NONE;
+            for (int i = 0; i < entryBlocks; i++) {
+                int block = freeBlocksHead;
+                freeBlocksHead = nextBlocks[block];
+                nextBlocks[block] = NONE;
+                if (previousBlock == NONE) {
+                    nodeFirstBlocks[node] = block;
+                } else {
+                    nextBlocks[previousBlock] = block;
+                }
+
+                int offset = i * BLOCK_SIZE;
+                memory.setBytes(block * BLOCK_SIZE, entry, readerIndex + offset,
+                        Math.min(BLOCK_SIZE, entrySize - offset));
+                previousBlock = block;
+            }
+            freeBlocksCount -= entryBlocks;
+
+            nodeLedgerIds[node] = ledgerId;
+            nodeEntryIds[node] = entryId;
+            nodeSizes[node] = entrySize;
+            nodeStates[node] = state;
+            addFirst(probation, node);
+
+            index.put(ledgerId, entryId, node, entrySize);
+            size += entrySize;
+        }
+
+        void access(int node) {
+            switch (nodeStates[node]) {
+                case PROTECTED:
+                    remove(protectedSegment, node);
+                    addFirst(protectedSegment, node);
+                    break;
+                case PROBATION_ACCESSED:
+                    promote(node);
+                    stats.getPromotionCounter().inc();
+                    break;
+                default:
+                    // First access of an entry added by the read-ahead, it will be promoted if accessed again
+                    nodeStates[node] = PROBATION_ACCESSED;
+                    remove(probation, node);
+                    addFirst(probation, node);
+                    break;
+            }
+        }
+
+        private void promote(int node) {
+            remove(probation, node);
+            nodeStates[node] = PROTECTED;
+            addFirst(protectedSegment, node);
+
+            // Demote the least recently used protected entries, giving them another chance in probation
+            while (protectedSegment.blocks > maxProtectedBlocks && protectedSegment.tail != NONE) {
+                int demoted = protectedSegment.tail;
+                remove(protectedSegment, demoted);
+                nodeStates[demoted] = PROBATION_ACCESSED;
+                addFirst(probation, demoted);
+            }
+        }
+
+        /**
+         * Evict the least recently used entries of a ledger, starting with the ones in probation, until an entry
+         * of the given size fits in the quota of the ledger.
+         *
+         * @return true if the entry fits in the quota of the ledger
+         */
+        boolean evictLedgerEntries(long ledgerId, long allocatedSize) {
+            evictLedgerEntries(ledgerId, allocatedSize, probation);
+            evictLedgerEntries(ledgerId, allocatedSize, protectedSegment);
+            return ledgerSize(ledgerId) + allocatedSize <= maxLedgerSize;
+        }
+
+        private void evictLedgerEntries(long ledgerId, long allocatedSize, Segment segment) {
+            LongPair ledgerList = ledgerLists.get(ledgerId, segment.id);
+            int node = ledgerList != null ? (int) ledgerList.second : NONE;
+            while (node != NONE && ledgerSize(ledgerId) + allocatedSize > maxLedgerSize) {
+                int previous = ledgerPrev[node];
+                evict(node);
+                stats.getEvictionCounter().inc();
+                node = previous;
+            }
+        }
+
+        void evict(int node) {
+            remove(nodeStates[node] == PROTECTED ? protectedSegment : probation, node);
+            long ledgerId = nodeLedgerIds[node];
+            index.remove(ledgerId, nodeEntryIds[node]);
+
+            int entrySize = nodeSizes[node];
+            int entryBlocks = blocks(entrySize);
+            int lastBlock = nodeFirstBlocks[node];
+            while (nextBlocks[lastBlock] != NONE) {
+                lastBlock = nextBlocks[lastBlock];
+            }
+            nextBlocks[lastBlock] = freeBlocksHead;
+            freeBlocksHead = nodeFirstBlocks[node];
+            freeBlocksCount += entryBlocks;
+
+            size -= entrySize;
+            long allocatedSize = (long) entryBlocks * BLOCK_SIZE;
+            if (ledgersSize.addAndGet(ledgerId, -allocatedSize) == 0) {
+                ledgersSize.remove(ledgerId, 0);
+            }
+
+            lruNext[node] = freeNodesHead;
+            freeNodesHead = node;
+        }
+
+        private int allocateNode() {
+            if (freeNodesHead == NONE) {
+                int capacity = nodeStates.length;
+                int newCapacity = Math.max(INITIAL_NODES_CAPACITY, Math.min(blocksCount, capacity * 2));
+                nodeLedgerIds = Arrays.copyOf(nodeLedgerIds, newCapacity);
+                nodeEntryIds = Arrays.copyOf(nodeEntryIds, newCapacity);
+                nodeSizes = Arrays.copyOf(nodeSizes, newCapacity);
+                nodeFirstBlocks = Arrays.copyOf(nodeFirstBlocks, newCapacity);
+                nodeStates = Arrays.copyOf(nodeStates, newCapacity);
+                lruPrev = Arrays.copyOf(lruPrev, newCapacity);
+                lruNext = Arrays.copyOf(lruNext, newCapacity);
+                ledgerPrev = Arrays.copyOf(ledgerPrev, newCapacity);
+                ledgerNext = Arrays.copyOf(ledgerNext, newCapacity);
+                for (int i = newCapacity - 1; i >= capacity; i--) {
+                    lruNext[i] = freeNodesHead;
+                    freeNodesHead = i;
+                }
+            }
+
+            int node = freeNodesHead;
+            freeNodesHead = lruNext[node];
+            return node;
+        }
+
+        private void addFirst(Segment segment, int node) {
+            lruPrev[node] = NONE;
+            lruNext[node] = segment.head;
+            if (segment.head != NONE) {
+                lruPrev[segment.head] = node;
+            } else {
+                segment.tail = node;
+            }
+            segment.head = node;
+            segment.blocks += blocks(nodeSizes[node]);
+            addFirstInLedger(segment, node);
+        }
+
+        private void remove(Segment segment, int node) {
+            if (lruPrev[node] != NONE) {
+                lruNext[lruPrev[node]] = lruNext[node];
+            } else {
+                segment.head = lruNext[node];
+            }
+            if (lruNext[node] != NONE) {
+                lruPrev[lruNext[node]] = lruPrev[node];
+            } else {
+                segment.tail = lruPrev[node];
+            }
+            lruPrev[node] = NONE;
+            lruNext[node] = NONE;
+            segment.blocks -= blocks(nodeSizes[node]);
+            removeFromLedger(segment, node);
+        }
+
+        private void addFirstInLedger(Segment segment, int node) {
+            long ledgerId = nodeLedgerIds[node];
+            LongPair ledgerList = ledgerLists.get(ledgerId, segment.id);
+            ledgerPrev[node] = NONE;
+            if (ledgerList == null) {
+                ledgerNext[node] = NONE;
+                ledgerLists.put(ledgerId, segment.id, node, node);
+            } else {
+                int head = (int) ledgerList.first;
+                ledgerNext[node] = head;
+                ledgerPrev[head] = node;
+                ledgerLists.put(ledgerId, segment.id, node, ledgerList.second);
+            }
+        }
+
+        private void removeFromLedger(Segment segment, int node) {
+            long ledgerId = nodeLedgerIds[node];
+            LongPair ledgerList = ledgerLists.get(ledgerId, segment.id);
+            int head = (int) ledgerList.first;
+            int tail = (int) ledgerList.second;
+            int prev = ledgerPrev[node];
+            int next = ledgerNext[node];
+            if (prev != NONE) {
+                ledgerNext[prev] = next;
+            } else {
+                head = next;
+            }
+            if (next != NONE) {
+                ledgerPrev[next] = prev;
+            } else {
+                tail = prev;
+            }
+            ledgerPrev[node] = NONE;
+            ledgerNext[node] = NONE;
+
+            if (head == NONE) {
+                ledgerLists.remove(ledgerId, segment.id);
+            } else {
+                ledgerLists.put(ledgerId, segment.id, head, tail);
+            }
+        }
+    }
+
+    /**
+     * List of nodes, ordered from the most recently used to the least recently used.
+     */
+    private static final class Segment {
+        private final int id;
+        private int head = NONE;
+        private int tail = NONE;
+        // Total number of blocks of the entries of the segment
+        private long blocks;
+
+        Segment(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -32,18 +32,28 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
@@ -68,6 +78,7 @@ import org.apache.bookkeeper.bookie.StateManager;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorageDataFormats.LedgerData;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
@@ -78,6 +89,7 @@ import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.ThreadRegistry;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.mutable.MutableLong;
 import org.slf4j.Logger;
@@ -102,11 +114,15 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     // Write cache where all new entries are inserted into
     protected volatile WriteCache writeCache;
 
-    // Write cache that is used to swap with writeCache during flushes
-    protected volatile WriteCache writeCacheBeingFlushed;
+    // Write caches that are full or rotated by a flush, and not yet flushed. Ordered from the oldest to the newest,
+    // the array is never modified in place, it's replaced on each rotation
+    protected volatile WriteCache[] writeCachesToFlush = new WriteCache[0];
+
+    // Empty write caches ready to replace the current write cache. Guarded by the rotation write lock
+    private final Deque<WriteCache> freeWriteCaches = new ArrayDeque<>();
 
     // Cache where we insert entries for speculative reading
-    private final ReadCache readCache;
+    private final EntryReadCache readCache;
 
     private final StampedLock writeCacheRotationLock = new StampedLock();
 
@@ -124,6 +140,18 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 }
             });
 
+    // Executor used to build and commit the locations index batch during pipelined flushes, null if disabled
+    private final ExecutorService indexFlushExecutor;
+
+    // Executor used to fill the read cache in background, null if read-ahead is done by the reading thread
+    private final ExecutorService readAheadExecutor;
+    // Ledgers with a read-ahead task queued or running
+    private final ConcurrentLongHashSet pendingReadAheads = ConcurrentLongHashSet.newBuilder().build();
+
+    // Snapshot of the read cache keys taken on shutdown and used to warm up the cache on start, null if disabled
+    private final File readCacheSnapshotFile;
+    private final ExecutorService readCacheWarmUpExecutor;
+
     // Executor used to for db index cleanup
     private final ScheduledExecutorService cleanupExecutor = Executors
             .newSingleThreadScheduledExecutor(new DefaultThreadFactory("db-storage-cleanup"));
@@ -138,6 +166,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     private final long readCacheMaxSize;
     private final int readAheadCacheBatchSize;
     private final long readAheadCacheBatchBytesSize;
+    private final boolean readAheadAdaptiveBatchSize;
 
     private final long maxThrottleTimeNanos;
 
@@ -145,6 +174,21 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private static final long DEFAULT_MAX_THROTTLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
+    // Number of entry locations handed over to the index flush thread at once during pipelined flushes
+    private static final int PIPELINED_FLUSH_CHUNK_SIZE = 4096;
+
+    // Max number of entry locations fetched from the index with a single batched lookup
+    private static final int LOCATIONS_LOOKUP_BATCH_SIZE = 128;
+    // Max number of entries read from the entry log with a single batch, when serving a range read
+    private static final int ENTRY_LOG_READ_BATCH_SIZE = 32;
+
+    // Max number of bytes fetched from the entry log with a single read-ahead I/O
+    private static final int MAX_READ_AHEAD_RANGE_SIZE = 4 * 1024 * 1024;
+    // Max number of read-ahead requests waiting in the queue, for each read-ahead thread
+    private static final int READ_AHEAD_QUEUE_SIZE_PER_THREAD = 64;
+    // Bounds of the adaptive read-ahead batch size, relative to the configured batch size
+    private static final int READ_AHEAD_ADAPTIVE_FACTOR = 8;
+
     private final long maxReadAheadBytesSize;
 
     private final Counter flushExecutorTime;
@@ -156,6 +200,18 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                                           long writeCacheSize, long readCacheSize, int readAheadCacheBatchSize,
                                           long readAheadCacheBatchBytesSize)
             throws IOException {
+        this(conf, ledgerManager, ledgerDirsManager, indexDirsManager, entryLogger, statsLogger, allocator,
+                writeCacheSize, readCacheSize, readAheadCacheBatchSize, readAheadCacheBatchBytesSize,
+                KeyValueStorageRocksDB.factory);
+    }
+
+    @VisibleForTesting
+    SingleDirectoryDbLedgerStorage(ServerConfiguration conf, LedgerManager ledgerManager,
+                                   LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager,
+                                   EntryLogger entryLogger, StatsLogger statsLogger, ByteBufAllocator allocator,
+                                   long writeCacheSize, long readCacheSize, int readAheadCacheBatchSize,
+                                   long readAheadCacheBatchBytesSize, KeyValueStorageFactory storageFactory)
+            throws IOException {
         checkArgument(ledgerDirsManager.getAllLedgerDirs().size() == 1,
                 "Db implementation only allows for one storage dir");
 
@@ -178,8 +234,12 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 .scopeLabel("indexDir", indexBaseDir);
 
         this.writeCacheMaxSize = writeCacheSize;
-        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2);
-        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2);
+        int writeCacheCount = Math.max(2, conf.getInt(DbLedgerStorage.WRITE_CACHE_COUNT,
+                DbLedgerStorage.DEFAULT_WRITE_CACHE_COUNT));
+        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / writeCacheCount);
+        for (int i = 1; i < writeCacheCount; i++) {
+            freeWriteCaches.add(new WriteCache(allocator, writeCacheMaxSize / writeCacheCount));
+        }
         this.singleLedgerDirs = conf.getLedgerDirs().length == 1;
 
         readCacheMaxSize = readCacheSize;
@@ -189,16 +249,42 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         // Do not attempt to perform read-ahead more than half the total size of the cache
         maxReadAheadBytesSize = readCacheMaxSize / 2;
 
+        this.readAheadAdaptiveBatchSize = conf.getBoolean(DbLedgerStorage.READ_AHEAD_ADAPTIVE_BATCH_SIZE, false);
+        int readAheadThreads = conf.getInt(DbLedgerStorage.READ_AHEAD_THREADS, 0);
+        if (readAheadThreads > 0) {
+            // Read-ahead is best effort: when the queue is full, the request is simply dropped
+            readAheadExecutor = new ThreadPoolExecutor(readAheadThreads, readAheadThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(READ_AHEAD_QUEUE_SIZE_PER_THREAD * readAheadThreads),
+                    new DefaultThreadFactory("db-storage-read-ahead"));
+        } else {
+            readAheadExecutor = null;
+        }
+
         long maxThrottleTimeMillis = conf.getLong(DbLedgerStorage.MAX_THROTTLE_TIME_MILLIS,
                 DEFAULT_MAX_THROTTLE_TIME_MILLIS);
         maxThrottleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleTimeMillis);
 
-        readCache = new ReadCache(allocator, readCacheMaxSize);
+        readCache = newReadCache(conf, allocator, readCacheMaxSize, ledgerIndexDirStatsLogger);
+
+        if (conf.getBoolean(DbLedgerStorage.READ_CACHE_WARM_UP_ENABLED, false)) {
+            readCacheSnapshotFile = new File(indexBaseDir, ReadCacheSnapshot.FILE_NAME);
+            readCacheWarmUpExecutor = Executors.newSingleThreadExecutor(
+                    new DefaultThreadFactory("db-storage-read-cache-warm-up"));
+        } else {
+            readCacheSnapshotFile = null;
+            readCacheWarmUpExecutor = null;
+        }
+
+        if (conf.getBoolean(DbLedgerStorage.PIPELINED_FLUSH_ENABLED, false)) {
+            indexFlushExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("db-storage-index-flush"));
+        } else {
+            indexFlushExecutor = null;
+        }
 
         ledgerIndex = new LedgerMetadataIndex(conf,
-                KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
+                storageFactory, indexBaseDir, ledgerIndexDirStatsLogger);
         entryLocationIndex = new EntryLocationIndex(conf,
-                KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
+                storageFactory, indexBaseDir, ledgerIndexDirStatsLogger);
 
         transientLedgerInfoCache = ConcurrentLongHashMap.<TransientLedgerInfo>newBuilder()
                 .expectedItems(16 * 1024)
@@ -214,8 +300,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         dbLedgerStorageStats = new DbLedgerStorageStats(
             ledgerIndexDirStatsLogger,
-            () -> writeCache.size() + writeCacheBeingFlushed.size(),
-            () -> writeCache.count() + writeCacheBeingFlushed.count(),
+            this::getWriteCachesSize,
+            this::getWriteCachesCount,
             () -> readCache.size(),
             () -> readCache.count()
         );
@@ -234,6 +320,27 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    private static EntryReadCache newReadCache(ServerConfiguration conf, ByteBufAllocator allocator,
+                                               long readCacheMaxSize, StatsLogger statsLogger) {
+        EntryReadCache.Policy policy = EntryReadCache.Policy.valueOf(
+                conf.getString(DbLedgerStorage.READ_CACHE_POLICY, EntryReadCache.Policy.RING.name()).toUpperCase());
+        ReadCacheStats readCacheStats = new ReadCacheStats(statsLogger, policy);
+        switch (policy) {
+            case SLRU:
+                double protectedRatio = conf.getDouble(DbLedgerStorage.READ_CACHE_PROTECTED_RATIO,
+                        DbLedgerStorage.DEFAULT_READ_CACHE_PROTECTED_RATIO);
+                double maxLedgerRatio = conf.getDouble(DbLedgerStorage.READ_CACHE_MAX_LEDGER_RATIO,
+                        DbLedgerStorage.DEFAULT_READ_CACHE_MAX_LEDGER_RATIO);
+                log.info("Using segmented LRU read cache - protected ratio: {} - max ledger ratio: {}",
+                        protectedRatio, maxLedgerRatio);
+                return new SegmentedLruReadCache(allocator, readCacheMaxSize, protectedRatio, maxLedgerRatio,
+                        readCacheStats);
+            case RING:
+            default:
+                return new ReadCache(allocator, readCacheMaxSize, readCacheStats);
+        }
+    }
+
     @Override
     public void initialize(ServerConfiguration conf, LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager,
             LedgerDirsManager indexDirsManager, StatsLogger statsLogger,
@@ -268,6 +375,78 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     @Override
     public void start() {
         gcThread.start();
+
+        if (readCacheSnapshotFile != null && readCacheSnapshotFile.exists()) {
+            readCacheWarmUpExecutor.execute(this::warmUpReadCache);
+        }
+    }
+
+    /**
+     * Load in the read cache the entries listed in the snapshot taken on the last shutdown, hottest ledgers
+     * first, through the read-ahead path.
+     */
+    private void warmUpReadCache() {
+        ReadCacheSnapshot snapshot;
+        try {
+            snapshot = ReadCacheSnapshot.read(readCacheSnapshotFile);
+        } catch (IOException e) {
+            log.warn("Failed to load the read cache snapshot {}", readCacheSnapshotFile, e);
+            return;
+        } finally {
+            // The snapshot is only meaningful for the first start after it was taken
+            if (!readCacheSnapshotFile.delete()) {
+                log.warn("Failed to delete the read cache snapshot {}", readCacheSnapshotFile);
+            }
+        }
+
+        log.info("Warming up the read cache with {} entries from {}", snapshot.getEntriesCount(),
+                readCacheSnapshotFile);
+        long startTime = MathUtils.nowInNano();
+        long count = 0;
+        try {
+            for (ReadCacheSnapshot.Range range : snapshot.getRanges()) {
+                if (!ledgerExists(range.ledgerId)) {
+                    continue;
+                }
+
+                // A stale or corrupt range can't go past the entries stored for the ledger
+                long lastEntryId;
+                try {
+                    lastEntryId = Math.min(range.lastEntryId, entryLocationIndex.getLastEntryInLedger(range.ledgerId));
+                } catch (Bookie.NoEntryException e) {
+                    continue;
+                }
+
+                long entryId = range.firstEntryId;
+                while (entryId <= lastEntryId) {
+                    int lookupCount = (int) Math.min(lastEntryId - entryId + 1, LOCATIONS_LOOKUP_BATCH_SIZE);
+                    long[] locations = entryLocationIndex.getLocations(range.ledgerId, entryId, lookupCount);
+
+                    int i = 0;
+                    while (i < lookupCount) {
+                        if (readCacheWarmUpExecutor.isShutdown()) {
+                            log.info("Stopped the read cache warm up after {} entries", count);
+                            return;
+                        }
+
+                        if (locations[i] == 0 || readCache.hasEntry(range.ledgerId, entryId + i)) {
+                            i++;
+                            continue;
+                        }
+
+                        int entriesRead = fillReadAheadCache(range.ledgerId, entryId + i, locations[i], 0,
+                                lookupCount - i);
+                        count += entriesRead;
+                        i += Math.max(1, entriesRead);
+                    }
+                    entryId += lookupCount;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to warm up the read cache", e);
+        }
+        log.info("Warmed up the read cache with {} entries in {} ms", count,
+                TimeUnit.NANOSECONDS.toMillis(MathUtils.elapsedNanos(startTime)));
     }
 
     @Override
@@ -342,6 +521,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     @Override
     public void shutdown() throws InterruptedException {
         try {
+            if (readCacheWarmUpExecutor != null) {
+                readCacheWarmUpExecutor.shutdown();
+                readCacheWarmUpExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            // Stop the read-ahead before closing the entry logger and the caches it reads from and fills
+            if (readAheadExecutor != null) {
+                readAheadExecutor.shutdown();
+                readAheadExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+
             flush();
 
             gcThread.shutdown();
@@ -354,9 +543,18 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             entryLocationIndex.close();
 
             writeCache.close();
-            writeCacheBeingFlushed.close();
+            for (WriteCache cache : writeCachesToFlush) {
+                cache.close();
+            }
+            freeWriteCaches.forEach(WriteCache::close);
+            if (readCacheSnapshotFile != null) {
+                writeReadCacheSnapshot();
+            }
             readCache.close();
             executor.shutdown();
+            if (indexFlushExecutor != null) {
+                indexFlushExecutor.shutdown();
+            }
 
         } catch (IOException e) {
             log.error("Error closing db storage", e);
@@ -383,35 +581,43 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return false;
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
-        // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
+        // We need to try to read from all the unflushed write caches, since recent entries could be found in any of
+        // them. The write caches are already thread safe on their own, here we just need to make sure we get
+        // references to all of them. Using an optimistic lock since the read lock is always free, unless we're
+        // rotating the caches.
         long stamp = writeCacheRotationLock.tryOptimisticRead();
         WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+        WriteCache[] localWriteCachesToFlush = writeCachesToFlush;
         if (!writeCacheRotationLock.validate(stamp)) {
             // Fallback to regular read lock approach
             stamp = writeCacheRotationLock.readLock();
             try {
                 localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+                localWriteCachesToFlush = writeCachesToFlush;
             } finally {
                 writeCacheRotationLock.unlockRead(stamp);
             }
         }
 
-        boolean inCache = localWriteCache.hasEntry(ledgerId, entryId)
-             || localWriteCacheBeingFlushed.hasEntry(ledgerId, entryId)
-             || readCache.hasEntry(ledgerId, entryId);
-
-        if (inCache) {
+        if (localWriteCache.hasEntry(ledgerId, entryId)) {
+            return true;
+        }
+        for (int i = localWriteCachesToFlush.length - 1; i >= 0; i--) {
+            if (localWriteCachesToFlush[i].hasEntry(ledgerId, entryId)) {
+                return true;
+            }
+        }
+        if (readCache.hasEntry(ledgerId, entryId)) {
             return true;
         }
 
         // Read from main storage
-        long entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
-        if (entryLocation != 0) {
-            return true;
+        if (!isPastLastStoredEntry(ledgerId, entryId)) {
+            long entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
+            if (entryLocation != 0) {
+                return true;
+            }
+            loadLastStoredEntryId(ledgerId);
         }
 
         // Only a negative result while in limbo equates to unknown
@@ -480,21 +686,22 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             log.debug("Add entry. {}@{}, lac = {}", ledgerId, entryId, lac);
         }
 
-        // First we try to do an optimistic locking to get access to the current write cache.
-        // This is based on the fact that the write cache is only being rotated (swapped) every 1 minute. During the
-        // rest of the time, we can have multiple thread using the optimistic lock here without interfering.
+        // Optimistically put the entry without taking the lock. The put is registered in the write cache before
+        // validating the stamp, so that if the cache is rotated after the validation, its flush waits for the put
+        // to complete before reading the cache, clearing it and reusing it from the ring.
+        boolean inserted;
         long stamp = writeCacheRotationLock.tryOptimisticRead();
-        boolean inserted = false;
-
-        // If the stamp is 0, the lock was exclusively acquired, validation will fail, and we can skip this put.
-        if (stamp != 0) {
-            inserted = writeCache.put(ledgerId, entryId, entry);
-        }
-
-        if (stamp == 0 || !writeCacheRotationLock.validate(stamp)) {
-            // The write cache was rotated while we were inserting. We need to acquire the proper read lock and repeat
-            // the operation because we might have inserted in a write cache that was already being flushed and cleared,
-            // without being sure about this last entry being flushed or not.
+        WriteCache cache = writeCache;
+        cache.beginPut();
+        if (writeCacheRotationLock.validate(stamp)) {
+            try {
+                inserted = cache.put(ledgerId, entryId, entry);
+            } finally {
+                cache.endPut();
+            }
+        } else {
+            // The write cache is being rotated, put the entry under the read lock
+            cache.endPut();
             stamp = writeCacheRotationLock.readLock();
             try {
                 inserted = writeCache.put(ledgerId, entryId, entry);
@@ -508,7 +715,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
 
         // after successfully insert the entry, update LAC and notify the watchers
-        updateCachedLacIfNeeded(ledgerId, lac);
+        updateCachedLedgerInfoIfNeeded(ledgerId, entryId, lac);
 
         recordSuccessfulEvent(dbLedgerStorageStats.getAddEntryStats(), startTime);
         return entryId;
@@ -539,9 +746,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                     });
             }
 
+            WriteCache fullWriteCache;
             long stamp = writeCacheRotationLock.readLock();
             try {
-                if (writeCache.put(ledgerId, entryId, entry)) {
+                fullWriteCache = writeCache;
+                if (fullWriteCache.put(ledgerId, entryId, entry)) {
                     // We succeeded in putting the entry in write cache in the
                     recordSuccessfulEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
                     return;
@@ -550,6 +759,12 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 writeCacheRotationLock.unlockRead(stamp);
             }
 
+            // While a flush is ongoing, rotate into a spare write cache if there's one, so that writes can continue
+            // while the full write cache waits to be flushed
+            if (isFlushOngoing.get() && rotateWriteCache(fullWriteCache)) {
+                continue;
+            }
+
             // Wait some time and try again
             try {
                 Thread.sleep(1);
@@ -587,18 +802,146 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return getLastEntry(ledgerId);
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
-        // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
+        ByteBuf entry = getEntryFromCaches(ledgerId, entryId);
+        if (entry != null) {
+            return entry;
+        }
+
+        // Read from main storage
+        long entryLocation = lookupEntryLocation(ledgerId, entryId);
+
+        long readEntryStartNano = MathUtils.nowInNano();
+        try {
+            entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
+        } finally {
+            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
+                    MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+        }
+
+        readCache.putAccessed(ledgerId, entryId, entry);
+
+        // Try to read more entries
+        long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
+        scheduleReadAhead(ledgerId, entryId + 1, nextEntryLocation, entry.readableBytes());
+
+        return entry;
+    }
+
+    @Override
+    public ReferenceCounted getEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, BookieException {
+        long startTime = MathUtils.nowInNano();
+        try {
+            ReferenceCounted entry = doGetEntryOrRegion(ledgerId, entryId, minRegionSize);
+            recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            return entry;
+        } catch (IOException e) {
+            recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            throw e;
+        }
+    }
+
+    private ReferenceCounted doGetEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, BookieException {
+        if (entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            return getLastEntry(ledgerId);
+        }
+
+        ByteBuf entry = getEntryFromCaches(ledgerId, entryId);
+        if (entry != null) {
+            return entry;
+        }
+
+        long entryLocation = lookupEntryLocation(ledgerId, entryId);
+
+        ReferenceCounted data;
+        long readEntryStartNano = MathUtils.nowInNano();
+        try {
+            data = entryLogger.readEntryOrRegion(ledgerId, entryId, entryLocation, minRegionSize);
+        } finally {
+            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
+                    MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+        }
+
+        // Large entries sent straight from the entry log are neither cached nor read ahead, since copying them in
+        // the read cache is exactly what the zero-copy read is avoiding
+        if (data instanceof ByteBuf) {
+            entry = (ByteBuf) data;
+            readCache.putAccessed(ledgerId, entryId, entry);
+
+            long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
+            scheduleReadAhead(ledgerId, entryId + 1, nextEntryLocation, entry.readableBytes());
+        }
+        return data;
+    }
+
+    @Override
+    public ByteBuf getEntryIfCached(long ledgerId, long entryId) {
+        if (entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            return null;
+        }
+
+        long startTime = MathUtils.nowInNano();
+        ByteBuf entry = getEntryFromCaches(ledgerId, entryId, false);
+        if (entry != null) {
+            recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+        }
+        return entry;
+    }
+
+    private long lookupEntryLocation(long ledgerId, long entryId) throws IOException, BookieException {
+        if (isPastLastStoredEntry(ledgerId, entryId)) {
+            // Only a negative result while in limbo equates to unknown
+            throwIfLimbo(ledgerId);
+
+            throw new NoEntryException(ledgerId, entryId);
+        }
+
+        long locationIndexStartNano = MathUtils.nowInNano();
+        try {
+            long entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
+            if (entryLocation == 0) {
+                loadLastStoredEntryId(ledgerId);
+
+                // Only a negative result while in limbo equates to unknown
+                throwIfLimbo(ledgerId);
+
+                throw new NoEntryException(ledgerId, entryId);
+            }
+            return entryLocation;
+        } finally {
+            dbLedgerStorageStats.getReadFromLocationIndexTime().addLatency(
+                    MathUtils.elapsedNanos(locationIndexStartNano), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Lookup an entry in the write caches and in the read cache, without touching the main storage.
+     *
+     * @return the entry or null if it's not present in any of the caches
+     */
+    private ByteBuf getEntryFromCaches(long ledgerId, long entryId) {
+        return getEntryFromCaches(ledgerId, entryId, true);
+    }
+
+    /**
+     * @param blocking false for the lookups of the I/O threads, which don't wait for a busy read cache and
+     *                 don't record the misses, since the entry will then be read through getEntry()
+     */
+    private ByteBuf getEntryFromCaches(long ledgerId, long entryId, boolean blocking) {
+        // We need to try to read from all the unflushed write caches, since recent entries could be found in any of
+        // them. The write caches are already thread safe on their own, here we just need to make sure we get
+        // references to all of them. Using an optimistic lock since the read lock is always free, unless we're
+        // rotating the caches.
         long stamp = writeCacheRotationLock.tryOptimisticRead();
         WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+        WriteCache[] localWriteCachesToFlush = writeCachesToFlush;
         if (!writeCacheRotationLock.validate(stamp)) {
             // Fallback to regular read lock approach
             stamp = writeCacheRotationLock.readLock();
             try {
                 localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+                localWriteCachesToFlush = writeCachesToFlush;
             } finally {
                 writeCacheRotationLock.unlockRead(stamp);
             }
@@ -611,58 +954,217 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return entry;
         }
 
-        // If there's a flush going on, the entry might be in the flush buffer
-        entry = localWriteCacheBeingFlushed.get(ledgerId, entryId);
-        if (entry != null) {
-            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-            return entry;
+        // If there's a flush going on, the entry might be in one of the write caches waiting to be flushed
+        for (int i = localWriteCachesToFlush.length - 1; i >= 0; i--) {
+            entry = localWriteCachesToFlush[i].get(ledgerId, entryId);
+            if (entry != null) {
+                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+                return entry;
+            }
         }
 
-        dbLedgerStorageStats.getWriteCacheMissCounter().inc();
+        if (blocking) {
+            dbLedgerStorageStats.getWriteCacheMissCounter().inc();
+        }
 
         // Try reading from read-ahead cache
-        entry = readCache.get(ledgerId, entryId);
+        entry = blocking ? readCache.get(ledgerId, entryId) : readCache.tryGet(ledgerId, entryId);
         if (entry != null) {
             dbLedgerStorageStats.getReadCacheHitCounter().inc();
             return entry;
         }
 
-        dbLedgerStorageStats.getReadCacheMissCounter().inc();
+        if (blocking) {
+            dbLedgerStorageStats.getReadCacheMissCounter().inc();
+        }
+        return null;
+    }
+
+    @Override
+    public List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        if (firstEntryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            return Lists.newArrayList(getEntry(ledgerId, firstEntryId));
+        }
+
+        long startTime = MathUtils.nowInNano();
+        List<ByteBuf> entries = new ArrayList<>();
+        long size = 0;
+
+        // Locations of the entries that are not in the caches are fetched from the index in batches, so that
+        // a range read only pays a single lookup in the location index for each batch
+        long[] locations = null;
+        long locationsFirstEntryId = -1;
 
-        // Read from main storage
-        long entryLocation;
-        long locationIndexStartNano = MathUtils.nowInNano();
         try {
-            entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
-            if (entryLocation == 0) {
-                // Only a negative result while in limbo equates to unknown
-                throwIfLimbo(ledgerId);
+            for (int i = 0; i < maxCount && size < maxSize; i++) {
+                long entryId = firstEntryId + i;
+                long entryStartTime = MathUtils.nowInNano();
+                ByteBuf entry = getEntryFromCaches(ledgerId, entryId);
+
+                if (entry == null) {
+                    if (locations == null || entryId >= locationsFirstEntryId + locations.length) {
+                        if (isPastLastStoredEntry(ledgerId, entryId)) {
+                            if (entries.isEmpty()) {
+                                // Only a negative result while in limbo equates to unknown
+                                throwIfLimbo(ledgerId);
+
+                                throw new NoEntryException(ledgerId, entryId);
+                            }
+                            break;
+                        }
+                        int lookupCount = Math.min(maxCount - i, LOCATIONS_LOOKUP_BATCH_SIZE);
+                        long locationIndexStartNano = MathUtils.nowInNano();
+                        try {
+                            locations = entryLocationIndex.getLocations(ledgerId, entryId, lookupCount);
+                            locationsFirstEntryId = entryId;
+                        } finally {
+                            dbLedgerStorageStats.getReadFromLocationIndexTime().addLatency(
+                                    MathUtils.elapsedNanos(locationIndexStartNano), TimeUnit.NANOSECONDS);
+                        }
+                    }
 
-                throw new NoEntryException(ledgerId, entryId);
+                    int locationIdx = (int) (entryId - locationsFirstEntryId);
+                    if (locations[locationIdx] == 0) {
+                        loadLastStoredEntryId(ledgerId);
+                        if (entries.isEmpty()) {
+                            // Only a negative result while in limbo equates to unknown
+                            throwIfLimbo(ledgerId);
+
+                            throw new NoEntryException(ledgerId, entryId);
+                        }
+                        break;
+                    }
+
+                    // The following entries that are not in the read cache either are read from the entry log
+                    // with a single batch, as long as the entries before them are known to fit in the max size
+                    int batchCount = 1;
+                    long batchSizeBound = 0;
+                    while (batchCount < ENTRY_LOG_READ_BATCH_SIZE && i + batchCount < maxCount
+                            && locationIdx + batchCount < locations.length
+                            && locations[locationIdx + batchCount] != 0
+                            && !readCache.hasEntry(ledgerId, entryId + batchCount)) {
+                        long previousSizeBound = entrySizeUpperBound(locations[locationIdx + batchCount - 1],
+                                locations[locationIdx + batchCount]);
+                        if (previousSizeBound < 0 || size + batchSizeBound + previousSizeBound >= maxSize) {
+                            break;
+                        }
+                        batchSizeBound += previousSizeBound;
+                        batchCount++;
+                    }
+
+                    List<ByteBuf> batch;
+                    long readEntryStartNano = MathUtils.nowInNano();
+                    try {
+                        batch = entryLogger.readEntries(ledgerId, entryId, locations, locationIdx, batchCount);
+                    } finally {
+                        dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
+                                MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+                    }
+
+                    for (ByteBuf batchEntry : batch) {
+                        entries.add(batchEntry);
+                        size += batchEntry.readableBytes();
+                        recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), entryStartTime);
+                    }
+
+                    if (batch.size() < batchCount) {
+                        // Stop at the first entry that could not be read
+                        break;
+                    }
+                    i += batchCount - 1;
+                    continue;
+                }
+
+                entries.add(entry);
+                size += entry.readableBytes();
+                recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), entryStartTime);
+            }
+        } catch (IOException | BookieException e) {
+            if (entries.isEmpty()) {
+                recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+                throw e;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Stopping batch read of ledger {} at entry {}", ledgerId, firstEntryId + entries.size(), e);
             }
-        } finally {
-            dbLedgerStorageStats.getReadFromLocationIndexTime().addLatency(
-                    MathUtils.elapsedNanos(locationIndexStartNano), TimeUnit.NANOSECONDS);
         }
 
-        long readEntryStartNano = MathUtils.nowInNano();
+        return entries;
+    }
+
+    /**
+     * Get an upper bound of the size of an entry from its location and the location of the next entry, since the
+     * entries of an entry log don't overlap. It's the size of the entry when they are contiguous in the entry log.
+     *
+     * @return the upper bound, or -1 if the next entry isn't after it in the same entry log
+     */
+    private static long entrySizeUpperBound(long entryLocation, long nextEntryLocation) {
+        if ((entryLocation >> 32) != (nextEntryLocation >> 32) || nextEntryLocation <= entryLocation) {
+            return -1;
+        }
+        return nextEntryLocation - entryLocation - 4 /* size header */;
+    }
+
+    private void scheduleReadAhead(long ledgerId, long firstEntryId, long firstEntryLocation, int entrySizeHint) {
+        if (readAheadExecutor == null) {
+            fillReadAheadCache(ledgerId, firstEntryId, firstEntryLocation, entrySizeHint,
+                    readAheadBatchSize(ledgerId, firstEntryId));
+            return;
+        }
+
+        if (!pendingReadAheads.add(ledgerId)) {
+            // A read-ahead is already in progress for this ledger
+            return;
+        }
+
         try {
-            entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
-        } finally {
-            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
-                    MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+            int batchSize = readAheadBatchSize(ledgerId, firstEntryId);
+            readAheadExecutor.execute(() -> {
+                try {
+                    fillReadAheadCache(ledgerId, firstEntryId, firstEntryLocation, entrySizeHint, batchSize);
+                } finally {
+                    pendingReadAheads.remove(ledgerId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingReadAheads.remove(ledgerId);
+            dbLedgerStorageStats.getReadAheadRejectedCounter().inc();
         }
+    }
 
-        readCache.put(ledgerId, entryId, entry);
+    private int readAheadBatchSize(long ledgerId, long firstEntryId) {
+        if (!readAheadAdaptiveBatchSize) {
+            return readAheadCacheBatchSize;
+        }
 
-        // Try to read more entries
-        long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
-        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        return getOrAddLedgerInfo(ledgerId).nextReadAheadBatchSize(firstEntryId, readAheadCacheBatchSize,
+                Math.max(1, readAheadCacheBatchSize / READ_AHEAD_ADAPTIVE_FACTOR),
+                readAheadCacheBatchSize * READ_AHEAD_ADAPTIVE_FACTOR);
+    }
 
-        return entry;
+    private void writeReadCacheSnapshot() {
+        ReadCacheSnapshot snapshot = ReadCacheSnapshot.of(readCache);
+        if (snapshot.getRanges().isEmpty()) {
+            return;
+        }
+
+        try {
+            snapshot.write(readCacheSnapshotFile);
+            log.info("Saved the keys of {} read cache entries to {}", snapshot.getEntriesCount(),
+                    readCacheSnapshotFile);
+        } catch (IOException e) {
+            log.warn("Failed to save the read cache snapshot {}", readCacheSnapshotFile, e);
+        }
     }
 
-    private void fillReadAheadCache(long originalLedgerId, long firstEntryId, long firstEntryLocation) {
+    /**
+     * Fill the read cache with the entries following the given one in the same entry log.
+     *
+     * @return the number of entries added to the read cache
+     */
+    private int fillReadAheadCache(long originalLedgerId, long firstEntryId, long firstEntryLocation,
+                                   int entrySizeHint, int batchSize) {
         long readAheadStartNano = MathUtils.nowInNano();
         int count = 0;
         long size = 0;
@@ -671,48 +1173,104 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             long firstEntryLogId = (firstEntryLocation >> 32);
             long currentEntryLogId = firstEntryLogId;
             long currentEntryLocation = firstEntryLocation;
+            long currentEntryId = firstEntryId;
+            int lastEntrySize = entrySizeHint;
 
-            while (chargeReadAheadCache(count, size) && currentEntryLogId == firstEntryLogId) {
-                ByteBuf entry = entryLogger.readEntry(originalLedgerId,
-                        firstEntryId, currentEntryLocation);
+            while (chargeReadAheadCache(batchSize, count, size) && currentEntryLogId == firstEntryLogId) {
+                int entriesRead = 0;
 
-                try {
-                    long currentEntryLedgerId = entry.getLong(0);
-                    long currentEntryId = entry.getLong(8);
+                if (entryLogger.supportsRangeReads() && lastEntrySize > 0) {
+                    // Read the rest of the batch with a single I/O, estimating its size from the last entry
+                    long bytesLeft = readAheadCacheBatchBytesSize > 0
+                            ? Math.min(maxReadAheadBytesSize, readAheadCacheBatchBytesSize) - size
+                            : maxReadAheadBytesSize - size;
+                    long rangeSize = Math.min((long) (batchSize - count) * (4 + lastEntrySize), bytesLeft);
+                    rangeSize = Math.max(4 + lastEntrySize, Math.min(rangeSize, MAX_READ_AHEAD_RANGE_SIZE));
 
-                    if (currentEntryLedgerId != originalLedgerId) {
-                        // Found an entry belonging to a different ledger, stopping read-ahead
-                        break;
+                    ByteBuf range = entryLogger.readEntriesRange(currentEntryLocation, (int) rangeSize);
+                    try {
+                        while (chargeReadAheadCache(batchSize, count, size) && range.readableBytes() >= 4) {
+                            int entrySize = range.getInt(range.readerIndex());
+                            if (entrySize <= 0 || range.readableBytes() < 4 + entrySize) {
+                                // Padding, or last entry truncated
+                                break;
+                            }
+
+                            ByteBuf entry = range.slice(range.readerIndex() + 4, entrySize);
+                            if (entry.getLong(0) != originalLedgerId || entry.getLong(8) != currentEntryId) {
+                                // Found an entry belonging to a different ledger, stopping read-ahead
+                                return count;
+                            }
+
+                            // Insert entry in read cache
+                            readCache.put(originalLedgerId, currentEntryId, entry);
+
+                            range.skipBytes(4 + entrySize);
+                            count++;
+                            entriesRead++;
+                            currentEntryId++;
+                            size += entrySize;
+                            lastEntrySize = entrySize;
+                            currentEntryLocation += 4 + entrySize;
+                        }
+                    } finally {
+                        ReferenceCountUtil.release(range);
                     }
+                }
+
+                if (entriesRead == 0) {
+                    // Could not make progress with a range read, fall back to reading a single entry
+                    ByteBuf entry = entryLogger.readEntry(originalLedgerId, currentEntryId, currentEntryLocation);
 
-                    // Insert entry in read cache
-                    readCache.put(originalLedgerId, currentEntryId, entry);
+                    try {
+                        long currentEntryLedgerId = entry.getLong(0);
+                        if (currentEntryLedgerId != originalLedgerId) {
+                            // Found an entry belonging to a different ledger, stopping read-ahead
+                            break;
+                        }
 
-                    count++;
-                    firstEntryId++;
-                    size += entry.readableBytes();
+                        // Insert entry in read cache
+                        readCache.put(originalLedgerId, currentEntryId, entry);
 
-                    currentEntryLocation += 4 + entry.readableBytes();
-                    currentEntryLogId = currentEntryLocation >> 32;
-                } finally {
-                    ReferenceCountUtil.release(entry);
+                        count++;
+                        currentEntryId++;
+                        size += entry.readableBytes();
+                        lastEntrySize = entry.readableBytes();
+                        currentEntryLocation += 4 + entry.readableBytes();
+                    } finally {
+                        ReferenceCountUtil.release(entry);
+                    }
                 }
+
+                currentEntryLogId = currentEntryLocation >> 32;
             }
         } catch (Exception e) {
             if (log.isDebugEnabled()) {
                 log.debug("Exception during read ahead for ledger: {}: e", originalLedgerId, e);
             }
         } finally {
+            if (readAheadAdaptiveBatchSize) {
+                TransientLedgerInfo ledgerInfo = transientLedgerInfoCache.get(originalLedgerId);
+                if (ledgerInfo != null) {
+                    ledgerInfo.setNextReadAheadEntryId(firstEntryId + count);
+                }
+            }
             dbLedgerStorageStats.getReadAheadBatchCountStats().registerSuccessfulValue(count);
             dbLedgerStorageStats.getReadAheadBatchSizeStats().registerSuccessfulValue(size);
             dbLedgerStorageStats.getReadAheadTime().addLatency(
                     MathUtils.elapsedNanos(readAheadStartNano), TimeUnit.NANOSECONDS);
         }
+        return count;
     }
 
     protected boolean chargeReadAheadCache(int currentReadAheadCount, long currentReadAheadBytes) {
+        return chargeReadAheadCache(readAheadCacheBatchSize, currentReadAheadCount, currentReadAheadBytes);
+    }
+
+    protected boolean chargeReadAheadCache(int readAheadBatchSize, int currentReadAheadCount,
+                                           long currentReadAheadBytes) {
         // compatible with old logic
-        boolean chargeSizeCondition = currentReadAheadCount < readAheadCacheBatchSize
+        boolean chargeSizeCondition = currentReadAheadCount < readAheadBatchSize
                 && currentReadAheadBytes < maxReadAheadBytesSize;
         if (chargeSizeCondition && readAheadCacheBatchBytesSize > 0) {
             // exact limits limit the size and count for each batch
@@ -743,20 +1301,23 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 return entry;
             }
 
-            // If there's a flush going on, the entry might be in the flush buffer
-            entry = writeCacheBeingFlushed.getLastEntry(ledgerId);
-            if (entry != null) {
-                if (log.isDebugEnabled()) {
-                    entry.readLong(); // ledgerId
-                    long entryId = entry.readLong();
-                    entry.resetReaderIndex();
+            // If there's a flush going on, the entry might be in the write caches waiting to be flushed
+            for (int i = writeCachesToFlush.length - 1; i >= 0; i--) {
+                entry = writeCachesToFlush[i].getLastEntry(ledgerId);
+                if (entry != null) {
                     if (log.isDebugEnabled()) {
-                        log.debug("Found last entry for ledger {} in write cache being flushed: {}", ledgerId, entryId);
+                        entry.readLong(); // ledgerId
+                        long entryId = entry.readLong();
+                        entry.resetReaderIndex();
+                        if (log.isDebugEnabled()) {
+                            log.debug("Found last entry for ledger {} in write cache being flushed: {}", ledgerId,
+                                    entryId);
+                        }
                     }
-                }
 
-                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-                return entry;
+                    dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+                    return entry;
+                }
             }
         } finally {
             writeCacheRotationLock.unlockRead(stamp);
@@ -786,7 +1347,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     boolean isFlushRequired() {
         long stamp = writeCacheRotationLock.readLock();
         try {
-            return !writeCache.isEmpty();
+            return !writeCache.isEmpty() || writeCachesToFlush.length > 0;
         } finally {
             writeCacheRotationLock.unlockRead(stamp);
         }
@@ -811,41 +1372,23 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
 
         try {
-            if (writeCache.isEmpty()) {
+            WriteCache writeCacheToRotate = writeCache;
+            if (writeCacheToRotate.isEmpty() && writeCachesToFlush.length == 0) {
                 return;
             }
-            // Swap the write cache so that writes can continue to happen while the flush is
-            // ongoing
-            swapWriteCache();
 
-            long sizeToFlush = writeCacheBeingFlushed.size();
-            if (log.isDebugEnabled()) {
-                log.debug("Flushing entries. count: {} -- size {} Mb", writeCacheBeingFlushed.count(),
-                        sizeToFlush / 1024.0 / 1024);
-            }
-
-            // Write all the pending entries into the entry logger and collect the offset
-            // position for each entry
-
-            try (Batch batch = entryLocationIndex.newBatch()) {
-                writeCacheBeingFlushed.forEach((ledgerId, entryId, entry) -> {
-                    long location = entryLogger.addEntry(ledgerId, entry);
-                    entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
-                });
-
-                long entryLoggerStart = MathUtils.nowInNano();
-                entryLogger.flush();
-                recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
-
-                long batchFlushStartTime = MathUtils.nowInNano();
-                batch.flush();
+            // Set to true before updating hasFlushBeenTriggered to false.
+            isFlushOngoing.set(true);
+            // since the cache is rotated below, we can allow flush to be triggered
+            hasFlushBeenTriggered.set(false);
 
-                recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
-                if (log.isDebugEnabled()) {
-                    log.debug("DB batch flushed time : {} s",
-                            MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
-                }
+            // Rotate the write cache so that writes can continue to happen while the flush is
+            // ongoing. If all the write caches are in use, the ones already waiting are flushed first.
+            long sizeToFlush = 0;
+            while (!writeCacheToRotate.isEmpty() && !rotateWriteCache(writeCacheToRotate)) {
+                sizeToFlush += flushWriteCaches();
             }
+            sizeToFlush += flushWriteCaches();
 
             long ledgerIndexStartTime = MathUtils.nowInNano();
             ledgerIndex.flush();
@@ -853,9 +1396,6 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
             lastCheckpoint = thisCheckpoint;
 
-            // Discard all the entry from the write cache, since they're now persisted
-            writeCacheBeingFlushed.clear();
-
             double flushTimeSeconds = MathUtils.elapsedNanos(startTime) / (double) TimeUnit.SECONDS.toNanos(1);
             double flushThroughput = sizeToFlush / 1024.0 / 1024.0 / flushTimeSeconds;
 
@@ -887,6 +1427,17 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 });
 
                 isFlushOngoing.set(false);
+
+                // Write caches rotated during this flush are not covered by it, schedule a new flush for them
+                if (writeCachesToFlush.length > 0 && hasFlushBeenTriggered.compareAndSet(false, true)) {
+                    executor.execute(() -> {
+                        try {
+                            flush();
+                        } catch (IOException e) {
+                            log.error("Error during flush", e);
+                        }
+                    });
+                }
             } finally {
                 flushMutex.unlock();
             }
@@ -894,26 +1445,219 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     }
 
     /**
-     * Swap the current write cache with the replacement cache.
+     * Flush all the write caches currently waiting to be flushed, from the oldest to the newest, and return them to
+     * the free write caches.
+     *
+     * @return the size of the flushed entries
+     */
+    private long flushWriteCaches() throws IOException {
+        WriteCache[] caches = writeCachesToFlush;
+        long flushedSize = 0;
+        for (WriteCache cache : caches) {
+            // The cache is not the current write cache anymore, wait for the optimistic puts that were still
+            // writing into it
+            cache.waitForPendingPuts();
+            long sizeToFlush = cache.size();
+            if (log.isDebugEnabled()) {
+                log.debug("Flushing entries. count: {} -- size {} Mb", cache.count(), sizeToFlush / 1024.0 / 1024);
+            }
+
+            // Write all the pending entries into the entry logger and collect the offset
+            // position for each entry
+            if (indexFlushExecutor != null) {
+                flushWriteCachePipelined(cache);
+            } else {
+                try (Batch batch = entryLocationIndex.newBatch()) {
+                    cache.forEach((ledgerId, entryId, entry) -> {
+                        long location = entryLogger.addEntry(ledgerId, entry);
+                        entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
+                    });
+
+                    long entryLoggerStart = MathUtils.nowInNano();
+                    entryLogger.flush();
+                    recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
+
+                    flushLocationsBatch(batch);
+                }
+            }
+
+            // Discard all the entry from the write cache, since they're now persisted
+            cache.clear();
+            releaseFlushedWriteCache(cache);
+            flushedSize += sizeToFlush;
+        }
+        return flushedSize;
+    }
+
+    private void flushLocationsBatch(Batch batch) throws IOException {
+        long batchFlushStartTime = MathUtils.nowInNano();
+        batch.flush();
+
+        recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
+        if (log.isDebugEnabled()) {
+            log.debug("DB batch flushed time : {} s",
+                    MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Flush a write cache, building the locations index batch on the index flush thread while the entries are
+     * written to the entry log and the entry log is flushed on the current thread.
+     *
+     * <p>The batch is only committed once the entry log flush is complete, so that the locations index never
+     * points to entries that are not durable in the entry log.
+     */
+    private void flushWriteCachePipelined(WriteCache cache) throws IOException {
+        try (Batch batch = entryLocationIndex.newBatch()) {
+            PipelinedLocationsWriter locationsWriter = new PipelinedLocationsWriter(batch);
+            try {
+                cache.forEach((ledgerId, entryId, entry) -> {
+                    long location = entryLogger.addEntry(ledgerId, entry);
+                    locationsWriter.addLocation(ledgerId, entryId, location);
+                });
+
+                CompletableFuture<Void> batchFuture = locationsWriter.complete();
+
+                long entryLoggerStart = MathUtils.nowInNano();
+                entryLogger.flush();
+                recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
+
+                FutureUtils.result(batchFuture, cause -> {
+                    if (cause instanceof UncheckedIOException) {
+                        return ((UncheckedIOException) cause).getCause();
+                    } else if (cause instanceof IOException) {
+                        return (IOException) cause;
+                    } else {
+                        return new IOException(cause);
+                    }
+                });
+                flushLocationsBatch(batch);
+            } finally {
+                // The batch cannot be closed while still in use by the index flush thread
+                locationsWriter.awaitPendingTasks();
+            }
+        }
+    }
+
+    /**
+     * Accumulates the locations of the flushed entries in chunks, and adds them to the locations index batch on the
+     * index flush thread. The batch is committed by the flushing thread.
      */
-    private void swapWriteCache() {
+    private final class PipelinedLocationsWriter {
+        private final Batch batch;
+        private long[] chunk = new long[3 * PIPELINED_FLUSH_CHUNK_SIZE];
+        private int chunkCount = 0;
+        private CompletableFuture<Void> pendingTasks = FutureUtils.Void();
+
+        PipelinedLocationsWriter(Batch batch) {
+            this.batch = batch;
+        }
+
+        void addLocation(long ledgerId, long entryId, long location) {
+            int idx = 3 * chunkCount;
+            chunk[idx] = ledgerId;
+            chunk[idx + 1] = entryId;
+            chunk[idx + 2] = location;
+            if (++chunkCount == PIPELINED_FLUSH_CHUNK_SIZE) {
+                submitChunk();
+            }
+        }
+
+        /**
+         * Submit the last locations to the index flush thread.
+         *
+         * @return a future completed once all the locations are added to the batch
+         */
+        CompletableFuture<Void> complete() {
+            submitChunk();
+            return pendingTasks;
+        }
+
+        void awaitPendingTasks() {
+            pendingTasks.handle((result, cause) -> null).join();
+        }
+
+        private void submitChunk() {
+            if (chunkCount == 0) {
+                return;
+            }
+
+            final long[] locations = chunk;
+            final int count = chunkCount;
+            pendingTasks = pendingTasks.thenRunAsync(() -> {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        int idx = 3 * i;
+                        entryLocationIndex.addLocation(batch, locations[idx], locations[idx + 1], locations[idx + 2]);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, indexFlushExecutor);
+
+            chunk = new long[3 * PIPELINED_FLUSH_CHUNK_SIZE];
+            chunkCount = 0;
+        }
+    }
+
+    /**
+     * Replace the current write cache with a free one, and queue it to be flushed.
+     *
+     * @param expectedWriteCache the write cache to rotate
+     * @return true if the write cache was rotated, either by this call or concurrently, or false if there is no
+     *         free write cache to replace it with
+     */
+    private boolean rotateWriteCache(WriteCache expectedWriteCache) {
         long stamp = writeCacheRotationLock.writeLock();
         try {
-            // First, swap the current write-cache map with an empty one so that writes will
-            // go on unaffected. Only a single flush is happening at the same time
-            WriteCache tmp = writeCacheBeingFlushed;
-            writeCacheBeingFlushed = writeCache;
-            writeCache = tmp;
+            if (writeCache != expectedWriteCache) {
+                // Already rotated
+                return true;
+            }
 
-            // Set to true before updating hasFlushBeenTriggered to false.
-            isFlushOngoing.set(true);
-            // since the cache is switched, we can allow flush to be triggered
-            hasFlushBeenTriggered.set(false);
+            WriteCache newWriteCache = freeWriteCaches.poll();
+            if (newWriteCache == null) {
+                return false;
+            }
+
+            WriteCache[] newWriteCachesToFlush = Arrays.copyOf(writeCachesToFlush, writeCachesToFlush.length + 1);
+            newWriteCachesToFlush[newWriteCachesToFlush.length - 1] = writeCache;
+            writeCachesToFlush = newWriteCachesToFlush;
+            writeCache = newWriteCache;
+            return true;
         } finally {
             writeCacheRotationLock.unlockWrite(stamp);
         }
     }
 
+    private void releaseFlushedWriteCache(WriteCache flushedWriteCache) {
+        long stamp = writeCacheRotationLock.writeLock();
+        try {
+            List<WriteCache> caches = Lists.newArrayList(writeCachesToFlush);
+            caches.remove(flushedWriteCache);
+            writeCachesToFlush = caches.toArray(new WriteCache[0]);
+            freeWriteCaches.add(flushedWriteCache);
+        } finally {
+            writeCacheRotationLock.unlockWrite(stamp);
+        }
+    }
+
+    private long getWriteCachesSize() {
+        long size = writeCache.size();
+        for (WriteCache cache : writeCachesToFlush) {
+            size += cache.size();
+        }
+        return size;
+    }
+
+    private long getWriteCachesCount() {
+        long count = writeCache.count();
+        for (WriteCache cache : writeCachesToFlush) {
+            count += cache.count();
+        }
+        return count;
+    }
+
     @Override
     public void flush() throws IOException {
         Checkpoint cp = checkpointSource.newCheckpoint();
@@ -1064,9 +1808,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         });
     }
 
-    private void updateCachedLacIfNeeded(long ledgerId, long lac) {
+    private void updateCachedLedgerInfoIfNeeded(long ledgerId, long entryId, long lac) {
         TransientLedgerInfo tli = transientLedgerInfoCache.get(ledgerId);
         if (tli != null) {
+            tli.entryAdded(entryId);
             tli.setLastAddConfirmed(lac);
         }
     }
@@ -1111,6 +1856,12 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             batch.flush();
         }
 
+        // The last entry of the ledger has to be loaded again from the location index
+        TransientLedgerInfo tli = transientLedgerInfoCache.get(ledgerId);
+        if (tli != null) {
+            tli.resetLastStoredEntryId();
+        }
+
         return numberOfEntries.longValue();
     }
 
@@ -1233,6 +1984,51 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         ledgerIndex.clearLimbo(ledgerId);
     }
 
+    /**
+     * Check whether the entry is past the last entry stored for the ledger, in which case there is no need to look
+     * it up in the location index. This is the case of the reads probing for the end of a ledger, as done by the
+     * ledger recovery and by the speculative and long poll reads.
+     */
+    private boolean isPastLastStoredEntry(long ledgerId, long entryId) {
+        TransientLedgerInfo ledgerInfo = transientLedgerInfoCache.get(ledgerId);
+        if (ledgerInfo != null && ledgerInfo.isPastLastStoredEntry(entryId)) {
+            dbLedgerStorageStats.getReadPastLastEntryCounter().inc();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Load the last entry stored for the ledger, after the lookup of a missing entry, so that the next lookups past
+     * the last entry can be skipped. The entries added afterwards are tracked by addEntry().
+     */
+    private void loadLastStoredEntryId(long ledgerId) throws IOException {
+        TransientLedgerInfo ledgerInfo = getOrAddLedgerInfo(ledgerId);
+        if (ledgerInfo.isLastStoredEntryIdLoaded()) {
+            return;
+        }
+
+        // The write caches are checked before the location index, since the entries of a write cache are added to
+        // the location index before the cache is cleared
+        long lastEntryId;
+        long stamp = writeCacheRotationLock.readLock();
+        try {
+            lastEntryId = writeCache.getLastEntryId(ledgerId);
+            for (WriteCache cache : writeCachesToFlush) {
+                lastEntryId = Math.max(lastEntryId, cache.getLastEntryId(ledgerId));
+            }
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+
+        try {
+            lastEntryId = Math.max(lastEntryId, entryLocationIndex.getLastEntryInLedger(ledgerId));
+        } catch (NoEntryException e) {
+            // No entry of the ledger in the location index
+        }
+        ledgerInfo.setLastStoredEntryId(lastEntryId);
+    }
+
     private void throwIfLimbo(long ledgerId) throws IOException, BookieException {
         if (hasLimboState(ledgerId)) {
             if (log.isDebugEnabled()) {
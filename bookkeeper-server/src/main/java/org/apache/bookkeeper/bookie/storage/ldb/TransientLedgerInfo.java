@@ -55,6 +55,15 @@ class TransientLedgerInfo extends Watchable<LastAddConfirmedUpdateNotification>
 
     private long lastAccessed;
 
+    // read-ahead state, used to detect sequential reads and adapt the read-ahead batch size
+    private long nextReadAheadEntryId = -1;
+    private int readAheadBatchSize = 0;
+
+    // last entry stored for the ledger, used to skip the lookups of the entries past it once it has been loaded
+    // from the storage
+    private long lastStoredEntryId = -1;
+    private boolean lastStoredEntryIdLoaded = false;
+
     /**
      * Construct an Watchable with zero watchers.
      */
@@ -137,6 +146,58 @@ class TransientLedgerInfo extends Watchable<LastAddConfirmedUpdateNotification>
         setLastAddConfirmed(explicitLacValue);
     }
 
+    /**
+     * Compute the size of the next read-ahead batch for this ledger.
+     *
+     * <p>If the read-ahead starts where the previous batch ended, the ledger is read sequentially and the batch
+     * size is doubled. Otherwise the reads are random and the batch size is halved.
+     */
+    synchronized int nextReadAheadBatchSize(long firstEntryId, int defaultBatchSize, int minBatchSize,
+                                            int maxBatchSize) {
+        if (readAheadBatchSize == 0) {
+            readAheadBatchSize = defaultBatchSize;
+        } else if (firstEntryId == nextReadAheadEntryId) {
+            readAheadBatchSize = Math.min(maxBatchSize, readAheadBatchSize * 2);
+        } else {
+            readAheadBatchSize = Math.max(minBatchSize, readAheadBatchSize / 2);
+        }
+        return readAheadBatchSize;
+    }
+
+    synchronized void setNextReadAheadEntryId(long entryId) {
+        this.nextReadAheadEntryId = entryId;
+    }
+
+    synchronized void entryAdded(long entryId) {
+        if (entryId > lastStoredEntryId) {
+            lastStoredEntryId = entryId;
+        }
+    }
+
+    /**
+     * Set the last entry stored for the ledger, as loaded from the storage. The entries added while loading it
+     * are taken into account.
+     */
+    synchronized void setLastStoredEntryId(long entryId) {
+        entryAdded(entryId);
+        lastStoredEntryIdLoaded = true;
+    }
+
+    synchronized void resetLastStoredEntryId() {
+        lastStoredEntryIdLoaded = false;
+    }
+
+    synchronized boolean isLastStoredEntryIdLoaded() {
+        return lastStoredEntryIdLoaded;
+    }
+
+    /**
+     * Check whether the entry is known to be past the last entry stored for the ledger.
+     */
+    synchronized boolean isPastLastStoredEntry(long entryId) {
+        return lastStoredEntryIdLoaded && entryId > lastStoredEntryId;
+    }
+
     boolean isStale() {
         return (lastAccessed + TimeUnit.MINUTES.toMillis(LEDGER_INFO_CACHING_TIME_MINUTES)) < System
                 .currentTimeMillis();
@@ -29,11 +29,9 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.concurrent.locks.ReentrantLock;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
-import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,11 +42,12 @@ import org.slf4j.LoggerFactory;
  * <p>The write cache will allocate the requested size from direct memory and it
  * will break it down into multiple segments.
  *
- * <p>The entries are appended in a common buffer and indexed though a hashmap,
- * until the cache is cleared.
+ * <p>The entries are appended in a common buffer and indexed though an off-heap
+ * {@link WriteCacheIndex}, until the cache is cleared.
  *
  * <p>There is the possibility to iterate through the stored entries in an ordered
- * way, by (ledgerId, entry).
+ * way, by (ledgerId, entry). The index keeps the entries of each ledger in insertion
+ * order, so the ordered iteration only needs to merge a few sorted runs per ledger.
  */
 public class WriteCache implements Closeable {
 
@@ -59,10 +58,7 @@ public class WriteCache implements Closeable {
         void accept(long ledgerId, long entryId, ByteBuf entry) throws IOException;
     }
 
-    private final ConcurrentLongLongPairHashMap index = ConcurrentLongLongPairHashMap.newBuilder()
-            .expectedItems(4096)
-            .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
-            .build();
+    private final WriteCacheIndex index;
 
     private final ConcurrentLongLongHashMap lastEntryMap = ConcurrentLongLongHashMap.newBuilder()
             .expectedItems(4096)
@@ -80,6 +76,12 @@ public class WriteCache implements Closeable {
     private final AtomicLong cacheSize = new AtomicLong(0);
     private final AtomicLong cacheOffset = new AtomicLong(0);
     private final LongAdder cacheCount = new LongAdder();
+    // Incremented each time the cache is cleared, so that a read overlapping a clear can detect that the segments
+    // may have been reused for other entries
+    private final AtomicLong clearCount = new AtomicLong(0);
+    // Puts done without holding the lock that prevents the cache from being rotated, which may still be writing
+    // into the cache
+    private final LongAdder pendingPuts = new LongAdder();
 
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
 
@@ -97,6 +99,7 @@ public class WriteCache implements Closeable {
         checkArgument(maxSegmentSize == alignedMaxSegmentSize, "Max segment size needs to be in form of 2^n");
 
         this.allocator = allocator;
+        this.index = new WriteCacheIndex(allocator, 4096, 2 * Runtime.getRuntime().availableProcessors());
         this.maxCacheSize = maxCacheSize;
         this.maxSegmentSize = (int) maxSegmentSize;
         this.segmentOffsetMask = maxSegmentSize - 1;
@@ -122,6 +125,8 @@ public class WriteCache implements Closeable {
         index.clear();
         lastEntryMap.clear();
         deletedLedgers.clear();
+        // After the index is cleared, so that a read which doesn't see the increment can't see the old index either
+        clearCount.incrementAndGet();
     }
 
     @Override
@@ -129,6 +134,29 @@ public class WriteCache implements Closeable {
         for (ByteBuf buf : cacheSegments) {
             buf.release();
         }
+        index.close();
+    }
+
+    /**
+     * Register a put that is done without holding the lock that prevents the cache from being rotated. It must be
+     * completed with {@link #endPut()}.
+     */
+    void beginPut() {
+        pendingPuts.increment();
+    }
+
+    void endPut() {
+        pendingPuts.decrement();
+    }
+
+    /**
+     * Wait for the registered puts to complete, before the cache is flushed or cleared. The cache must not be
+     * accepting new puts anymore.
+     */
+    void waitForPendingPuts() {
+        while (pendingPuts.sum() != 0) {
+            Thread.yield();
+        }
     }
 
     public boolean put(long ledgerId, long entryId, ByteBuf entry) {
@@ -184,6 +212,7 @@ public class WriteCache implements Closeable {
     }
 
     public ByteBuf get(long ledgerId, long entryId) {
+        long clearCountBefore = clearCount.get();
         LongPair result = index.get(ledgerId, entryId);
         if (result == null) {
             return null;
@@ -196,6 +225,13 @@ public class WriteCache implements Closeable {
         int localOffset = (int) (offset & segmentOffsetMask);
         int segmentIdx = (int) (offset >>> segmentOffsetBits);
         entry.writeBytes(cacheSegments[segmentIdx], localOffset, size);
+
+        if (clearCount.get() != clearCountBefore) {
+            // The cache was cleared while copying the entry, the segment could already hold other entries. The
+            // entry was flushed before the clear, so the caller will find it in the entry logs.
+            entry.release();
+            return null;
+        }
         return entry;
     }
 
@@ -213,71 +249,42 @@ public class WriteCache implements Closeable {
         }
     }
 
+    /**
+     * @return the id of the last entry of the ledger in the cache, or -1 if there is none
+     */
+    public long getLastEntryId(long ledgerId) {
+        return lastEntryMap.get(ledgerId);
+    }
+
     public void deleteLedger(long ledgerId) {
         deletedLedgers.add(ledgerId);
     }
 
     public void forEach(EntryConsumer consumer) throws IOException {
-        sortedEntriesLock.lock();
-
-        try {
-            int entriesToSort = (int) index.size();
-            int arrayLen = entriesToSort * 4;
-            if (sortedEntries == null || sortedEntries.length < arrayLen) {
-                sortedEntries = new long[(int) (arrayLen * 2)];
-            }
-
-            long startTime = MathUtils.nowInNano();
-
-            sortedEntriesIdx = 0;
-            index.forEach((ledgerId, entryId, offset, length) -> {
-                if (deletedLedgers.contains(ledgerId)) {
-                    // Ignore deleted ledgers
-                    return;
-                }
-
-                sortedEntries[sortedEntriesIdx] = ledgerId;
-                sortedEntries[sortedEntriesIdx + 1] = entryId;
-                sortedEntries[sortedEntriesIdx + 2] = offset;
-                sortedEntries[sortedEntriesIdx + 3] = length;
-                sortedEntriesIdx += 4;
-            });
-
-            if (log.isDebugEnabled()) {
-                log.debug("iteration took {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
-            }
-            startTime = MathUtils.nowInNano();
+        long startTime = MathUtils.nowInNano();
 
-            // Sort entries by (ledgerId, entryId) maintaining the 4 items groups
-            ArrayGroupSort.sort(sortedEntries, 0, sortedEntriesIdx);
-            if (log.isDebugEnabled()) {
-                log.debug("sorting {} ms", (MathUtils.elapsedNanos(startTime) / 1e6));
-            }
-            startTime = MathUtils.nowInNano();
+        ByteBuf[] entrySegments = new ByteBuf[segmentsCount];
+        for (int i = 0; i < segmentsCount; i++) {
+            entrySegments[i] = cacheSegments[i].slice(0, cacheSegments[i].capacity());
+        }
 
-            ByteBuf[] entrySegments = new ByteBuf[segmentsCount];
-            for (int i = 0; i < segmentsCount; i++) {
-                entrySegments[i] = cacheSegments[i].slice(0, cacheSegments[i].capacity());
+        for (long ledgerId : index.sortedLedgers()) {
+            if (deletedLedgers.contains(ledgerId)) {
+                // Ignore deleted ledgers
+                continue;
             }
 
-            for (int i = 0; i < sortedEntriesIdx; i += 4) {
-                long ledgerId = sortedEntries[i];
-                long entryId = sortedEntries[i + 1];
-                long offset = sortedEntries[i + 2];
-                long length = sortedEntries[i + 3];
-
+            index.forEach(ledgerId, (entryId, offset, length) -> {
                 int localOffset = (int) (offset & segmentOffsetMask);
                 int segmentIdx = (int) (offset >>> segmentOffsetBits);
                 ByteBuf entry = entrySegments[segmentIdx];
-                entry.setIndex(localOffset, localOffset + (int) length);
+                entry.setIndex(localOffset, localOffset + length);
                 consumer.accept(ledgerId, entryId, entry);
-            }
+            });
+        }
 
-            if (log.isDebugEnabled()) {
-                log.debug("entry log adding {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
-            }
-        } finally {
-            sortedEntriesLock.unlock();
+        if (log.isDebugEnabled()) {
+            log.debug("entry log adding {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
         }
     }
 
@@ -303,9 +310,5 @@ public class WriteCache implements Closeable {
         return (long) Math.pow(2, 64 - Long.numberOfLeadingZeros(n - 1));
     }
 
-    private final ReentrantLock sortedEntriesLock = new ReentrantLock();
-    private long[] sortedEntries;
-    private int sortedEntriesIdx;
-
     private static final Logger log = LoggerFactory.getLogger(WriteCache.class);
 }
@@ -0,0 +1,429 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+
+/**
+ * Index of the entries stored in a {@link WriteCache}, kept in direct memory.
+ *
+ * <p>The index is made of two parts:
+ * <ul>
+ * <li>An open-addressing hash table mapping (ledgerId, entryId) to the (offset, size) of the entry in the cache,
+ * used for point lookups.</li>
+ * <li>For each ledger, the list of its entries in insertion order. Since the entries of a ledger are normally
+ * added with increasing entry ids, each list is made of very few sorted runs, which are merged when iterating
+ * instead of sorting the whole content of the cache.</li>
+ * </ul>
+ *
+ * <p>Entries cannot be removed individually, the index can only be cleared.
+ */
+class WriteCacheIndex implements Closeable {
+
+    /**
+     * Consumer of the entries of a ledger.
+     */
+    interface LedgerEntryConsumer {
+        void accept(long entryId, long offset, int size) throws IOException;
+    }
+
+    private static final float FILL_FACTOR = 0.66f;
+
+    private final Section[] sections;
+    private final ConcurrentLongHashMap<LedgerEntries> ledgers;
+    private final ByteBufAllocator allocator;
+
+    WriteCacheIndex(ByteBufAllocator allocator, int expectedItems, int concurrencyLevel) {
+        this.allocator = allocator;
+        int sectionsCount = alignToPowerOfTwo(concurrencyLevel);
+        int perSectionCapacity = alignToPowerOfTwo(Math.max(16, (int) (expectedItems / sectionsCount / FILL_FACTOR)));
+        this.sections = new Section[sectionsCount];
+        for (int i = 0; i < sectionsCount; i++) {
+            sections[i] = new Section(allocator, perSectionCapacity);
+        }
+        this.ledgers = ConcurrentLongHashMap.<LedgerEntries>newBuilder()
+                .expectedItems(1024)
+                .concurrencyLevel(concurrencyLevel)
+                .build();
+    }
+
+    void put(long ledgerId, long entryId, long offset, int size) {
+        long h = hash(ledgerId, entryId);
+        LedgerEntries entries = ledgers.computeIfAbsent(ledgerId, l -> new LedgerEntries(allocator));
+        getSection(h).put(ledgerId, entryId, offset, size, (int) h, entries);
+    }
+
+    LongPair get(long ledgerId, long entryId) {
+        long h = hash(ledgerId, entryId);
+        return getSection(h).get(ledgerId, entryId, (int) h);
+    }
+
+    /**
+     * @return the ids of the ledgers having entries in the index, in ascending order
+     */
+    long[] sortedLedgers() {
+        List<Long> keys = ledgers.keys();
+        long[] ledgerIds = new long[keys.size()];
+        for (int i = 0; i < ledgerIds.length; i++) {
+            ledgerIds[i] = keys.get(i);
+        }
+        Arrays.sort(ledgerIds);
+        return ledgerIds;
+    }
+
+    /**
+     * Iterate over the entries of a ledger, in ascending entry id order. When an entry was added multiple times,
+     * only the last version is returned.
+     */
+    void forEach(long ledgerId, LedgerEntryConsumer consumer) throws IOException {
+        LedgerEntries entries = ledgers.get(ledgerId);
+        if (entries != null) {
+            entries.forEachSorted(consumer);
+        }
+    }
+
+    void clear() {
+        for (Section s : sections) {
+            s.clear();
+        }
+        // Remove the ledgers one by one, a ledger added by a concurrent put is either released here or kept
+        ledgers.removeIf((ledgerId, entries) -> {
+            entries.release();
+            return true;
+        });
+    }
+
+    @Override
+    public void close() {
+        for (Section s : sections) {
+            s.close();
+        }
+        ledgers.forEach((ledgerId, entries) -> entries.release());
+        ledgers.clear();
+    }
+
+    private Section getSection(long hash) {
+        // Use 32 msb out of long to get the section
+        final int sectionIdx = (int) (hash >>> 32) & (sections.length - 1);
+        return sections[sectionIdx];
+    }
+
+    /**
+     * Section of the hash table.
+     *
+     * <p>Each bucket takes 32 bytes: [ledgerId][entryId][offset + 1][size]. A bucket is empty when its offset field
+     * is 0.
+     */
+    private static final class Section extends StampedLock {
+        private static final int BUCKET_SIZE = 32;
+
+        private final ByteBufAllocator allocator;
+        private ByteBuf table;
+        private int capacity;
+        private int size;
+        private int resizeThreshold;
+
+        Section(ByteBufAllocator allocator, int capacity) {
+            this.allocator = allocator;
+            allocateTable(capacity);
+        }
+
+        private void allocateTable(int capacity) {
+            this.capacity = capacity;
+            this.table = allocator.directBuffer(capacity * BUCKET_SIZE, capacity * BUCKET_SIZE);
+            this.table.setZero(0, table.capacity());
+            this.resizeThreshold = (int) (capacity * FILL_FACTOR);
+        }
+
+        /**
+         * Put an entry in the table and append it to the entries of its ledger. Both are done under the section lock,
+         * so that concurrent overwrites of an entry are appended in the order in which they were put in the table.
+         */
+        void put(long ledgerId, long entryId, long offset, int entrySize, int keyHash, LedgerEntries entries) {
+            long stamp = writeLock();
+            try {
+                int bucket = keyHash & (capacity - 1);
+                while (true) {
+                    int idx = bucket * BUCKET_SIZE;
+                    if (table.getLong(idx + 16) == 0) {
+                        table.setLong(idx, ledgerId);
+                        table.setLong(idx + 8, entryId);
+                        table.setLong(idx + 16, offset + 1);
+                        table.setLong(idx + 24, entrySize);
+                        if (++size > resizeThreshold) {
+                            rehash(capacity * 2);
+                        }
+                        entries.add(entryId, offset, entrySize, false);
+                        return;
+                    } else if (table.getLong(idx) == ledgerId && table.getLong(idx + 8) == entryId) {
+                        table.setLong(idx + 16, offset + 1);
+                        table.setLong(idx + 24, entrySize);
+                        entries.add(entryId, offset, entrySize, true);
+                        return;
+                    }
+
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        LongPair get(long ledgerId, long entryId, int keyHash) {
+            long stamp = readLock();
+            try {
+                int bucket = keyHash & (capacity - 1);
+                while (true) {
+                    int idx = bucket * BUCKET_SIZE;
+                    long storedOffset = table.getLong(idx + 16);
+                    if (storedOffset == 0) {
+                        return null;
+                    } else if (table.getLong(idx) == ledgerId && table.getLong(idx + 8) == entryId) {
+                        return new LongPair(storedOffset - 1, table.getLong(idx + 24));
+                    }
+
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        private void rehash(int newCapacity) {
+            ByteBuf oldTable = table;
+            int oldCapacity = capacity;
+            allocateTable(newCapacity);
+
+            for (int i = 0; i < oldCapacity; i++) {
+                int oldIdx = i * BUCKET_SIZE;
+                if (oldTable.getLong(oldIdx + 16) == 0) {
+                    continue;
+                }
+
+                long ledgerId = oldTable.getLong(oldIdx);
+                long entryId = oldTable.getLong(oldIdx + 8);
+                int bucket = ((int) hash(ledgerId, entryId)) & (capacity - 1);
+                while (table.getLong(bucket * BUCKET_SIZE + 16) != 0) {
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+                table.setBytes(bucket * BUCKET_SIZE, oldTable, oldIdx, BUCKET_SIZE);
+            }
+
+            oldTable.release();
+        }
+
+        void clear() {
+            long stamp = writeLock();
+            try {
+                if (size > 0) {
+                    table.setZero(0, table.capacity());
+                    size = 0;
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        void close() {
+            long stamp = writeLock();
+            try {
+                table.release();
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Entries of a single ledger, as a sequence of [entryId][offset][size] records in insertion order.
+     */
+    private static final class LedgerEntries {
+        private static final int RECORD_SIZE = 20;
+        private static final int INITIAL_RECORDS = 64;
+
+        private final ByteBuf records;
+        private int count;
+        private long lastEntryId = -1;
+        // Number of sorted runs in the records
+        private int runs;
+        private boolean hasOverwrites;
+        private boolean released;
+
+        LedgerEntries(ByteBufAllocator allocator) {
+            this.records = allocator.directBuffer(INITIAL_RECORDS * RECORD_SIZE);
+        }
+
+        synchronized void add(long entryId, long offset, int size, boolean overwritten) {
+            if (released) {
+                // The index was cleared concurrently
+                return;
+            }
+            if (count == 0 || entryId < lastEntryId) {
+                runs++;
+            }
+            hasOverwrites |= overwritten;
+            lastEntryId = entryId;
+
+            records.writeLong(entryId);
+            records.writeLong(offset);
+            records.writeInt(size);
+            count++;
+        }
+
+        private long entryId(int i) {
+            return records.getLong(i * RECORD_SIZE);
+        }
+
+        private long offset(int i) {
+            return records.getLong(i * RECORD_SIZE + 8);
+        }
+
+        private int size(int i) {
+            return records.getInt(i * RECORD_SIZE + 16);
+        }
+
+        synchronized void forEachSorted(LedgerEntryConsumer consumer) throws IOException {
+            if (runs == 1 && !hasOverwrites) {
+                // Common case, entries were added in order
+                for (int i = 0; i < count; i++) {
+                    consumer.accept(entryId(i), offset(i), size(i));
+                }
+                return;
+            }
+
+            // Find the boundaries of the sorted runs
+            int[] runPos = new int[runs];
+            int[] runEnd = new int[runs];
+            int r = 0;
+            for (int i = 1; i < count; i++) {
+                if (entryId(i) < entryId(i - 1)) {
+                    runEnd[r++] = i;
+                    runPos[r] = i;
+                }
+            }
+            runEnd[r] = count;
+
+            // K-way merge of the runs, through a min-heap of run indexes ordered by (entryId, position)
+            int[] heap = new int[runs];
+            int heapSize = 0;
+            for (int i = 0; i < runs; i++) {
+                heap[heapSize++] = i;
+                siftUp(heap, heapSize - 1, runPos);
+            }
+
+            // An overwritten entry is emitted only once, with its last version
+            int pending = -1;
+            while (heapSize > 0) {
+                int run = heap[0];
+                int i = runPos[run];
+
+                if (pending != -1 && entryId(pending) != entryId(i)) {
+                    consumer.accept(entryId(pending), offset(pending), size(pending));
+                }
+                pending = i;
+
+                if (++runPos[run] == runEnd[run]) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heapSize, runPos);
+            }
+
+            if (pending != -1) {
+                consumer.accept(entryId(pending), offset(pending), size(pending));
+            }
+        }
+
+        private boolean less(int posA, int posB) {
+            long a = entryId(posA);
+            long b = entryId(posB);
+            return a < b || (a == b && posA < posB);
+        }
+
+        private void siftUp(int[] heap, int idx, int[] runPos) {
+            while (idx > 0) {
+                int parent = (idx - 1) / 2;
+                if (!less(runPos[heap[idx]], runPos[heap[parent]])) {
+                    break;
+                }
+                swap(heap, idx, parent);
+                idx = parent;
+            }
+        }
+
+        private void siftDown(int[] heap, int heapSize, int[] runPos) {
+            int idx = 0;
+            while (true) {
+                int smallest = idx;
+                int left = 2 * idx + 1;
+                int right = left + 1;
+                if (left < heapSize && less(runPos[heap[left]], runPos[heap[smallest]])) {
+                    smallest = left;
+                }
+                if (right < heapSize && less(runPos[heap[right]], runPos[heap[smallest]])) {
+                    smallest = right;
+                }
+                if (smallest == idx) {
+                    return;
+                }
+                swap(heap, idx, smallest);
+                idx = smallest;
+            }
+        }
+
+        private static void swap(int[] heap, int a, int b) {
+            int tmp = heap[a];
+            heap[a] = heap[b];
+            heap[b] = tmp;
+        }
+
+        synchronized void release() {
+            if (!released) {
+                released = true;
+                records.release();
+            }
+        }
+    }
+
+    private static final long HashMixer = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    static long hash(long key1, long key2) {
+        long hash = key1 * HashMixer;
+        hash ^= hash >>> R;
+        hash *= HashMixer;
+        hash += 31 + (key2 * HashMixer);
+        hash ^= hash >>> R;
+        hash *= HashMixer;
+        return hash;
+    }
+
+    private static int alignToPowerOfTwo(int n) {
+        return (int) Math.pow(2, 32 - Integer.numberOfLeadingZeros(n - 1));
+    }
+}
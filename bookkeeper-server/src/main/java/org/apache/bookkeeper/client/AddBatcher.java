@@ -0,0 +1,160 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the adds of a ledger, so that their digests are computed and their write requests
+ * are sent to the bookies together rather than one by one.
+ *
+ * <p>An add is sent right away when none of the adds sent before it is still waiting for the
+ * bookies, so a lightly loaded ledger keeps the minimum latency. Otherwise the add is held back
+ * until the adds in flight are acknowledged, the batch reaches {@code addBatchMaxBytes}, or the
+ * linger delay expires. The linger delay is half of the smoothed add latency, bounded by
+ * {@code addBatchMaxDelayMicros}, so that the batches grow with the load of the bookies.
+ *
+ * <p>The adds must be handed over in the order of their entry ids, while holding the lock of
+ * the ledger handle. The returned batches are sent by the caller, without holding any lock.
+ */
+class AddBatcher {
+    static final Logger LOG = LoggerFactory.getLogger(AddBatcher.class);
+
+    private final LedgerHandle lh;
+    private final ClientContext clientCtx;
+    private final long maxDelayNanos;
+    private final int maxBytes;
+
+    private List<PendingAddOp> batch = new ArrayList<>();
+    private long batchBytes = 0;
+    private long lastSentEntryId = LedgerHandle.INVALID_ENTRY_ID;
+    private long addLatencyNanos = 0;
+    private ScheduledFuture<?> lingerFuture = null;
+
+    AddBatcher(LedgerHandle lh, ClientContext clientCtx) {
+        this.lh = lh;
+        this.clientCtx = clientCtx;
+        this.maxDelayNanos = clientCtx.getConf().addBatchMaxDelayNanos;
+        this.maxBytes = clientCtx.getConf().addBatchMaxBytes;
+    }
+
+    /**
+     * Add an operation to the current batch.
+     *
+     * @return the batch to send right away, or null if the operation is held back
+     */
+    synchronized List<PendingAddOp> add(PendingAddOp op) {
+        batch.add(op);
+        batchBytes += op.entryLength;
+        return maybeTakeBatch();
+    }
+
+    /**
+     * Add a run of operations to the current batch.
+     *
+     * @return the batch to send right away, or null if the operations are held back
+     */
+    synchronized List<PendingAddOp> addAll(List<PendingAddOp> ops) {
+        for (PendingAddOp op : ops) {
+            batch.add(op);
+            batchBytes += op.entryLength;
+        }
+        return maybeTakeBatch();
+    }
+
+    private List<PendingAddOp> maybeTakeBatch() {
+        if (batchBytes >= maxBytes || !hasAddsInFlight()) {
+            return takeBatch();
+        }
+        if (lingerFuture == null) {
+            long delayNanos = Math.min(maxDelayNanos, addLatencyNanos / 2);
+            try {
+                lingerFuture = clientCtx.getScheduler().scheduleOrdered(lh.getId(), this::flush,
+                        delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Failed to schedule the batched adds of ledger {}, sending them now", lh.getId());
+                return takeBatch();
+            }
+        }
+        return null;
+    }
+
+    private boolean hasAddsInFlight() {
+        return lh.pendingAddsSequenceHead < lastSentEntryId;
+    }
+
+    private List<PendingAddOp> takeBatch() {
+        List<PendingAddOp> ops = batch;
+        lastSentEntryId = ops.get(ops.size() - 1).getEntryId();
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        if (lingerFuture != null) {
+            lingerFuture.cancel(false);
+            lingerFuture = null;
+        }
+        return ops;
+    }
+
+    /**
+     * Record the latency of a successful add, and send the current batch if it was waiting for
+     * the last adds in flight.
+     */
+    void addCompleted(long latencyNanos) {
+        boolean flushNow;
+        synchronized (this) {
+            if (addLatencyNanos == 0) {
+                addLatencyNanos = latencyNanos;
+            } else {
+                addLatencyNanos += (latencyNanos - addLatencyNanos) / 8;
+            }
+            flushNow = !batch.isEmpty() && !hasAddsInFlight();
+        }
+        if (flushNow) {
+            try {
+                // the callbacks of the adds are run while holding their locks, so the batch
+                // is sent from another task
+                lh.executeOrdered(this::flush);
+            } catch (RejectedExecutionException e) {
+                // the linger delay will send the batch
+            }
+        }
+    }
+
+    /**
+     * Send the current batch, if any.
+     */
+    void flush() {
+        List<PendingAddOp> ops;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            ops = takeBatch();
+        }
+        lh.initiateAdds(ops);
+    }
+}
@@ -102,12 +102,14 @@ public class BatchedReadOp extends ReadOpBase implements BatchedReadEntryCallbac
         final BatchedLedgerEntryRequest entry = (BatchedLedgerEntryRequest) rctx.entry;
 
         if (rc != BKException.Code.OK) {
+            recordReadError(rctx, rc);
             entry.logErrorAndReattemptRead(rctx.bookieIndex, rctx.to, "Error: " + BKException.getMessage(rc), rc);
             return;
         }
 
         heardFromHosts.add(rctx.to);
         heardFromHostsBitSet.set(rctx.bookieIndex, true);
+        recordReadLatency(rctx);
 
         bufList.retain();
         // if entry has completed don't handle twice
@@ -269,6 +271,7 @@ public class BatchedReadOp extends ReadOpBase implements BatchedReadEntryCallbac
 
             try {
                 BookieId to = ensemble.get(bookieIndex);
+                lastReadTarget = to;
                 sendReadTo(bookieIndex, to, this);
                 sentToHosts.add(to);
                 sentReplicas.set(replica);
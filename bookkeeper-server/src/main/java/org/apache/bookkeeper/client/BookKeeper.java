@@ -130,6 +130,7 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
     final BookieWatcherImpl bookieWatcher;
 
     final OrderedExecutor mainWorkerPool;
+    final ClientEntryCache entryCache;
     final OrderedScheduler scheduler;
     final HashedWheelTimer requestTimer;
     final boolean ownTimer;
@@ -517,6 +518,13 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
         this.bookieClient = new BookieClientImpl(conf, this.eventLoopGroup, this.allocator, this.mainWorkerPool,
                 scheduler, rootStatsLogger, this.bookieWatcher.getBookieAddressResolver());
 
+        if (conf.getEntryCacheMaxSizeBytes() > 0) {
+            this.entryCache = new ClientEntryCache(this.allocator, conf.getEntryCacheMaxSizeBytes(),
+                    this.statsLogger.scope(BookKeeperClientStats.ENTRY_CACHE_SCOPE));
+        } else {
+            this.entryCache = null;
+        }
+
         if (conf.getDiskWeightBasedPlacementEnabled()) {
             LOG.info("Weighted ledger placement enabled");
             ThreadFactoryBuilder tFBuilder = new ThreadFactoryBuilder()
@@ -570,6 +578,7 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
         bookieWatcher = null;
         bookieInfoScheduler = null;
         bookieClient = null;
+        entryCache = null;
         allocator = UnpooledByteBufAllocator.DEFAULT;
         bookieQuarantineRatio = 1.0;
     }
@@ -1480,6 +1489,9 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
         if (!mainWorkerPool.awaitTermination(10, TimeUnit.SECONDS)) {
             LOG.warn("The mainWorkerPool did not shutdown cleanly");
         }
+        if (entryCache != null) {
+            entryCache.close();
+        }
         if (this.bookieInfoScheduler != null) {
             this.bookieInfoScheduler.shutdown();
             if (!bookieInfoScheduler.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -1669,6 +1681,11 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
                 return clientStats;
             }
 
+            @Override
+            public ClientEntryCache getEntryCache() {
+                return entryCache;
+            }
+
             @Override
             public boolean isClientClosed() {
                 return BookKeeper.this.isClosed();
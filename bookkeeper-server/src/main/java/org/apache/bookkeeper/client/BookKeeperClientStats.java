@@ -66,6 +66,14 @@ public interface BookKeeperClientStats {
     String READ_REQUESTS_REORDERED = "READ_REQUESTS_REORDERED";
     String GET_LIST_OF_ENTRIES_OF_LEDGER_OP = "GET_LIST_OF_ENTRIES_OF_LEDGER";
 
+    // entry cache stats
+    String ENTRY_CACHE_SCOPE = "entry_cache";
+    String ENTRY_CACHE_HITS = "HITS";
+    String ENTRY_CACHE_MISSES = "MISSES";
+    String ENTRY_CACHE_DEDUPLICATED_READS = "DEDUPLICATED_READS";
+    String ENTRY_CACHE_SIZE = "SIZE";
+    String ENTRY_CACHE_COUNT = "COUNT";
+
     // per channel stats
     String CHANNEL_SCOPE = "per_channel_bookie_client";
 
@@ -90,6 +98,9 @@ public interface BookKeeperClientStats {
     String ADD_OP_OUTSTANDING = "ADD_OP_OUTSTANDING";
     String READ_OP_OUTSTANDING = "READ_OP_OUTSTANDING";
     String NETTY_OPS = "NETTY_OPS";
+    String CHANNEL_IN_FLIGHT_REQUESTS = "IN_FLIGHT_REQUESTS";
+    String CHANNEL_IN_FLIGHT_BYTES = "IN_FLIGHT_BYTES";
+    String CHANNEL_IN_FLIGHT_LIMIT_REJECTED = "IN_FLIGHT_LIMIT_REJECTED";
     String ACTIVE_NON_TLS_CHANNEL_COUNTER = "ACTIVE_NON_TLS_CHANNEL_COUNTER";
     String ACTIVE_TLS_CHANNEL_COUNTER = "ACTIVE_TLS_CHANNEL_COUNTER";
     String FAILED_CONNECTION_COUNTER = "FAILED_CONNECTION_COUNTER";
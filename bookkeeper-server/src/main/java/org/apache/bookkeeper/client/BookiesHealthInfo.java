@@ -44,4 +44,15 @@ public interface BookiesHealthInfo {
      */
     long getBookiePendingRequests(BookieId bookieSocketAddress);
 
+    /**
+     * Returns the recent read latency of a bookie, at the percentile tracked by the
+     * speculative read policy.
+     *
+     * @param bookieSocketAddress
+     * @return read latency in nanoseconds, -1 if it is not tracked or not known yet
+     */
+    default long getBookieReadLatencyNanos(BookieId bookieSocketAddress) {
+        return -1L;
+    }
+
 }
@@ -0,0 +1,294 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_COUNT;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_DEDUPLICATED_READS;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_HITS;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_MISSES;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_SIZE;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.bookkeeper.bookie.EntryKey;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
+import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+
+/**
+ * A bounded cache of the entries read by the client, shared by all its ledger handles.
+ *
+ * <p>Only confirmed entries go through the cache, since they can't change anymore. The entries read
+ * from the bookies are copied off-heap and evicted in least recently used order once their total size
+ * exceeds the max size of the cache.
+ *
+ * <p>A read of entries which are not cached registers itself as the pending read of those entries.
+ * The concurrent reads of the same entries wait for it and then take them from the cache, instead of
+ * sending their own requests to the bookies. If the pending read fails, or the entries were evicted
+ * already, they read the entries on their own.
+ */
+class ClientEntryCache {
+
+    /**
+     * Read a range of entries from the bookies.
+     */
+    interface RangeReader {
+        CompletableFuture<LedgerEntries> read(long firstEntry, long lastEntry);
+    }
+
+    private final ByteBufAllocator allocator;
+    private final long maxSizeBytes;
+
+    // the cached entries in least recently used order, guarded by this
+    private final LinkedHashMap<EntryKey, CachedEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes = 0;
+    private boolean closed = false;
+
+    // completed once the entries read from the bookies are in the cache
+    private final ConcurrentHashMap<EntryKey, CompletableFuture<Void>> pendingReads = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter deduplicatedReads;
+
+    ClientEntryCache(ByteBufAllocator allocator, long maxSizeBytes, StatsLogger statsLogger) {
+        this.allocator = allocator;
+        this.maxSizeBytes = maxSizeBytes;
+        this.hits = statsLogger.getCounter(ENTRY_CACHE_HITS);
+        this.misses = statsLogger.getCounter(ENTRY_CACHE_MISSES);
+        this.deduplicatedReads = statsLogger.getCounter(ENTRY_CACHE_DEDUPLICATED_READS);
+        statsLogger.registerGauge(ENTRY_CACHE_SIZE, new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return size();
+            }
+        });
+        statsLogger.registerGauge(ENTRY_CACHE_COUNT, new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return (long) count();
+            }
+        });
+    }
+
+    /**
+     * Read a range of confirmed entries, taking the cached ones from the cache and the others from
+     * the pending reads or from the bookies.
+     */
+    CompletableFuture<LedgerEntries> read(long ledgerId, long firstEntry, long lastEntry, RangeReader reader) {
+        final LedgerEntry[] result = new LedgerEntry[(int) (lastEntry - firstEntry + 1)];
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        List<CompletableFuture<Void>> runPendingReads = new ArrayList<>();
+        long runFirstEntry = -1;
+
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            final int idx = (int) (entryId - firstEntry);
+            final EntryKey key = new EntryKey(ledgerId, entryId);
+            boolean readFromBookies = false;
+            result[idx] = get(key);
+            if (result[idx] != null) {
+                hits.inc();
+            } else {
+                misses.inc();
+                CompletableFuture<Void> pendingRead = new CompletableFuture<>();
+                CompletableFuture<Void> otherRead = pendingReads.putIfAbsent(key, pendingRead);
+                if (otherRead == null) {
+                    readFromBookies = true;
+                    if (runFirstEntry < 0) {
+                        runFirstEntry = entryId;
+                    }
+                    runPendingReads.add(pendingRead);
+                } else {
+                    deduplicatedReads.inc();
+                    final long otherEntryId = entryId;
+                    reads.add(otherRead.thenCompose(ignored -> {
+                        result[idx] = get(key);
+                        if (result[idx] != null) {
+                            return FutureUtils.Void();
+                        }
+                        return readRun(ledgerId, otherEntryId, otherEntryId, firstEntry, result, null, reader);
+                    }));
+                }
+            }
+            // read the consecutive entries which are neither cached nor being read with a single request
+            if (!readFromBookies && runFirstEntry >= 0) {
+                reads.add(readRun(ledgerId, runFirstEntry, entryId - 1, firstEntry, result, runPendingReads, reader));
+                runFirstEntry = -1;
+                runPendingReads = new ArrayList<>();
+            }
+        }
+        if (runFirstEntry >= 0) {
+            reads.add(readRun(ledgerId, runFirstEntry, lastEntry, firstEntry, result, runPendingReads, reader));
+        }
+
+        CompletableFuture<LedgerEntries> future = new CompletableFuture<>();
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture[0])).whenComplete((ignored, cause) -> {
+            if (cause == null && Arrays.asList(result).contains(null)) {
+                cause = new BKException.BKReadException();
+            }
+            if (cause != null) {
+                for (LedgerEntry entry : result) {
+                    if (entry != null) {
+                        entry.close();
+                    }
+                }
+                future.completeExceptionally(unwrap(cause));
+            } else {
+                future.complete(LedgerEntriesImpl.create(new ArrayList<>(Arrays.asList(result))));
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Void> readRun(long ledgerId, long runFirstEntry, long runLastEntry, long firstEntry,
+                                            LedgerEntry[] result, List<CompletableFuture<Void>> runPendingReads,
+                                            RangeReader reader) {
+        CompletableFuture<LedgerEntries> read;
+        try {
+            read = reader.read(runFirstEntry, runLastEntry);
+        } catch (Throwable t) {
+            read = FutureUtils.exception(t);
+        }
+        return read.handle((entries, cause) -> {
+            if (entries != null) {
+                try {
+                    for (LedgerEntry entry : entries) {
+                        put(ledgerId, entry);
+                        result[(int) (entry.getEntryId() - firstEntry)] = entry.duplicate();
+                    }
+                } finally {
+                    entries.close();
+                }
+            }
+            if (runPendingReads != null) {
+                for (long entryId = runFirstEntry; entryId <= runLastEntry; entryId++) {
+                    CompletableFuture<Void> pendingRead = runPendingReads.get((int) (entryId - runFirstEntry));
+                    pendingReads.remove(new EntryKey(ledgerId, entryId), pendingRead);
+                    pendingRead.complete(null);
+                }
+            }
+            if (cause != null) {
+                throw new CompletionException(unwrap(cause));
+            }
+            return null;
+        });
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return unwrap(e.getCause());
+        }
+        return e;
+    }
+
+    private synchronized LedgerEntry get(EntryKey key) {
+        CachedEntry cached = entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        return LedgerEntryImpl.create(key.getLedgerId(), key.getEntryId(), cached.length,
+                cached.data.retainedDuplicate());
+    }
+
+    private void put(long ledgerId, LedgerEntry entry) {
+        ByteBuf buf = entry.getEntryBuffer();
+        int size = buf.readableBytes();
+        if (size > maxSizeBytes) {
+            return;
+        }
+        ByteBuf data = allocator.directBuffer(size, size);
+        data.writeBytes(buf, buf.readerIndex(), size);
+
+        synchronized (this) {
+            if (closed) {
+                data.release();
+                return;
+            }
+            CachedEntry previous = entries.put(new EntryKey(ledgerId, entry.getEntryId()),
+                    new CachedEntry(entry.getLength(), data));
+            if (previous != null) {
+                sizeBytes -= previous.data.readableBytes();
+                previous.data.release();
+            }
+            sizeBytes += size;
+
+            Iterator<Map.Entry<EntryKey, CachedEntry>> eldest = entries.entrySet().iterator();
+            while (sizeBytes > maxSizeBytes && eldest.hasNext()) {
+                CachedEntry evicted = eldest.next().getValue();
+                eldest.remove();
+                sizeBytes -= evicted.data.readableBytes();
+                evicted.data.release();
+            }
+        }
+    }
+
+    synchronized long size() {
+        return sizeBytes;
+    }
+
+    synchronized int count() {
+        return entries.size();
+    }
+
+    /**
+     * Release all the cached entries.
+     */
+    synchronized void close() {
+        closed = true;
+        entries.values().forEach(cached -> cached.data.release());
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    private static class CachedEntry {
+        final long length;
+        final ByteBuf data;
+
+        CachedEntry(long length, ByteBuf data) {
+            this.length = length;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.net.BookieId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SpeculativeRequestExecutionPolicy} driven by the read latencies observed from each bookie.
+ *
+ * <p>The policy keeps a rolling latency histogram per bookie. The timeout of a speculative request
+ * is the configured percentile of the latencies of the bookie the request is waiting on, bounded
+ * by {@code maxSpeculativeRequestTimeout}. Until enough latencies were observed from that bookie,
+ * the timeouts fall back to {@code firstSpeculativeRequestTimeout}, backing off like
+ * {@link DefaultSpeculativeRequestExecutionPolicy}.
+ *
+ * <p>The policy also orders the replicas of a read so that the bookies which are much faster at
+ * the configured percentile are tried first.
+ */
+public class LatencyAwareSpeculativeRequestExecutionPolicy implements SpeculativeRequestExecutionPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyAwareSpeculativeRequestExecutionPolicy.class);
+
+    static final long LATENCY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // a replica is preferred to another one only if its latency is lower by this factor,
+    // so that similar bookies keep the order of the write set
+    static final int FASTER_REPLICA_FACTOR = 2;
+
+    final int firstSpeculativeRequestTimeout;
+    final int maxSpeculativeRequestTimeout;
+    final float backoffMultiplier;
+    final double latencyPercentile;
+
+    private final ConcurrentHashMap<BookieId, RollingLatencyHistogram> readLatencies = new ConcurrentHashMap<>();
+
+    public LatencyAwareSpeculativeRequestExecutionPolicy(int firstSpeculativeRequestTimeout,
+            int maxSpeculativeRequestTimeout, float backoffMultiplier, double latencyPercentile) {
+        this.firstSpeculativeRequestTimeout = firstSpeculativeRequestTimeout;
+        this.maxSpeculativeRequestTimeout = maxSpeculativeRequestTimeout;
+        this.backoffMultiplier = backoffMultiplier;
+        this.latencyPercentile = latencyPercentile;
+
+        if (backoffMultiplier <= 0) {
+            throw new IllegalArgumentException("Invalid value provided for backoffMultiplier");
+        }
+        if (latencyPercentile <= 0 || latencyPercentile >= 100) {
+            throw new IllegalArgumentException("Invalid value provided for latencyPercentile");
+        }
+    }
+
+    /**
+     * Record the latency of a successful read from a bookie.
+     *
+     * @param bookie the bookie which served the read
+     * @param latencyNanos the latency of the read, in nanoseconds
+     */
+    public void recordReadLatency(BookieId bookie, long latencyNanos) {
+        readLatencies.computeIfAbsent(bookie, b -> new RollingLatencyHistogram(LATENCY_WINDOW_NANOS))
+                .record(latencyNanos);
+    }
+
+    /**
+     * Record a read from a bookie which failed or timed out, as a latency at least as high as
+     * {@code maxSpeculativeRequestTimeout}, so that the bookie isn't preferred for its fast errors.
+     *
+     * @param bookie the bookie which failed the read
+     * @param latencyNanos the time until the read failed, in nanoseconds
+     */
+    public void recordReadError(BookieId bookie, long latencyNanos) {
+        recordReadLatency(bookie, Math.max(latencyNanos,
+                TimeUnit.MILLISECONDS.toNanos(maxSpeculativeRequestTimeout)));
+    }
+
+    /**
+     * Get the configured percentile of the recent read latencies of a bookie.
+     *
+     * @param bookie the bookie
+     * @return the read latency in nanoseconds, or -1 if not enough reads were observed.
+     */
+    public long getReadLatencyNanos(BookieId bookie) {
+        RollingLatencyHistogram histogram = readLatencies.get(bookie);
+        return histogram == null ? -1L : histogram.getPercentileNanos(latencyPercentile);
+    }
+
+    /**
+     * Move the replicas which are much faster than the ones before them to the front of the read set.
+     *
+     * <p>Only the leading replicas without recent failures are reordered. The placement policy moves
+     * the failed, slow and unavailable bookies after them, and they stay there.
+     *
+     * @param ensemble the ensemble of the entry
+     * @param bookiesHealthInfo the health of the bookies, providing their read latencies
+     * @param writeSet the read set, which is reordered in place
+     * @return the reordered read set
+     */
+    public DistributionSchedule.WriteSet reorderReadSequence(List<BookieId> ensemble,
+                                                            BookiesHealthInfo bookiesHealthInfo,
+                                                            DistributionSchedule.WriteSet writeSet) {
+        int size = 0;
+        while (size < writeSet.size()
+                && bookiesHealthInfo.getBookieFailureHistory(ensemble.get(writeSet.get(size))) < 0) {
+            size++;
+        }
+        long[] latencies = new long[size];
+        for (int i = 0; i < size; i++) {
+            latencies[i] = bookiesHealthInfo.getBookieReadLatencyNanos(ensemble.get(writeSet.get(i)));
+        }
+        // insertion sort, as read sets are small
+        for (int i = 1; i < size; i++) {
+            long latency = latencies[i];
+            int to = i;
+            while (to > 0 && isMuchFaster(latency, latencies[to - 1])) {
+                latencies[to] = latencies[to - 1];
+                to--;
+            }
+            if (to != i) {
+                latencies[to] = latency;
+                writeSet.moveAndShift(i, to);
+            }
+        }
+        return writeSet;
+    }
+
+    private static boolean isMuchFaster(long latency, long otherLatency) {
+        return latency >= 0 && otherLatency >= 0 && latency * FASTER_REPLICA_FACTOR < otherLatency;
+    }
+
+    /**
+     * Initialize the speculative request execution policy.
+     *
+     * @param scheduler The scheduler service to issue the speculative request
+     * @param requestExecutor The executor is used to issue the actual speculative requests
+     * @return ScheduledFuture, in case caller needs to cancel it.
+     */
+    @Override
+    public ScheduledFuture<?> initiateSpeculativeRequest(final ScheduledExecutorService scheduler,
+            final SpeculativeRequestExecutor requestExecutor) {
+        return scheduleSpeculativeRead(scheduler, requestExecutor, firstSpeculativeRequestTimeout);
+    }
+
+    private ScheduledFuture<?> scheduleSpeculativeRead(final ScheduledExecutorService scheduler,
+                                         final SpeculativeRequestExecutor requestExecutor,
+                                         final int fallbackTimeout) {
+        final long speculativeRequestTimeoutMicros = getSpeculativeRequestTimeoutMicros(
+                requestExecutor.getSpeculativeRequestTarget(), fallbackTimeout);
+        try {
+            return scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ListenableFuture<Boolean> issueNextRequest = requestExecutor.issueSpeculativeRequest();
+                    Futures.addCallback(issueNextRequest, new FutureCallback<Boolean>() {
+                        // we want this handler to run immediately after we push the big red button!
+                        @Override
+                        public void onSuccess(Boolean issueNextRequest) {
+                            if (issueNextRequest) {
+                                scheduleSpeculativeRead(scheduler, requestExecutor,
+                                        Math.min(maxSpeculativeRequestTimeout,
+                                        Math.round((float) fallbackTimeout * backoffMultiplier)));
+                            } else {
+                                if (LOG.isTraceEnabled()) {
+                                    LOG.trace("Stopped issuing speculative requests for {}, "
+                                        + "speculativeReadTimeout = {} us", requestExecutor,
+                                            speculativeRequestTimeoutMicros);
+                                }
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(Throwable thrown) {
+                            LOG.warn("Failed to issue speculative request for {}, speculativeReadTimeout = {} us : ",
+                                    requestExecutor, speculativeRequestTimeoutMicros, thrown);
+                        }
+                    }, directExecutor());
+                }
+            }, speculativeRequestTimeoutMicros, TimeUnit.MICROSECONDS);
+        } catch (RejectedExecutionException re) {
+            if (!scheduler.isShutdown()) {
+                LOG.warn("Failed to schedule speculative request for {}, speculativeReadTimeout = {} us : ",
+                        requestExecutor, speculativeRequestTimeoutMicros, re);
+            }
+        }
+        return null;
+    }
+
+    private long getSpeculativeRequestTimeoutMicros(BookieId target, int fallbackTimeout) {
+        long latencyNanos = target == null ? -1L : getReadLatencyNanos(target);
+        if (latencyNanos < 0) {
+            return TimeUnit.MILLISECONDS.toMicros(fallbackTimeout);
+        }
+        return Math.min(TimeUnit.MILLISECONDS.toMicros(maxSpeculativeRequestTimeout),
+                TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+}
@@ -64,6 +64,7 @@ import org.apache.bookkeeper.client.DistributionSchedule.WriteSet;
 import org.apache.bookkeeper.client.SyncCallbackUtils.FutureReadLastConfirmed;
 import org.apache.bookkeeper.client.SyncCallbackUtils.FutureReadLastConfirmedAndEntry;
 import org.apache.bookkeeper.client.SyncCallbackUtils.SyncAddCallback;
+import org.apache.bookkeeper.client.SyncCallbackUtils.SyncAddEntriesCallback;
 import org.apache.bookkeeper.client.SyncCallbackUtils.SyncCloseCallback;
 import org.apache.bookkeeper.client.SyncCallbackUtils.SyncReadCallback;
 import org.apache.bookkeeper.client.SyncCallbackUtils.SyncReadLastConfirmedCallback;
@@ -169,6 +170,7 @@ public class LedgerHandle implements WriteHandle {
     final AtomicInteger numEnsembleChanges = new AtomicInteger(0);
     Queue<PendingAddOp> pendingAddOps;
     ExplicitLacFlushPolicy explicitLacFlushPolicy;
+    AddBatcher addBatcher;
 
     final Counter ensembleChangeCounter;
     final Counter lacUpdateHitsCounter;
@@ -242,6 +244,17 @@ public class LedgerHandle implements WriteHandle {
             public long getBookiePendingRequests(BookieId bookieSocketAddress) {
                 return clientCtx.getBookieClient().getNumPendingRequests(bookieSocketAddress, ledgerId);
             }
+
+            @Override
+            public long getBookieReadLatencyNanos(BookieId bookieSocketAddress) {
+                Optional<SpeculativeRequestExecutionPolicy> policy =
+                        clientCtx.getConf().readSpeculativeRequestPolicy;
+                if (policy.isPresent() && policy.get() instanceof LatencyAwareSpeculativeRequestExecutionPolicy) {
+                    return ((LatencyAwareSpeculativeRequestExecutionPolicy) policy.get())
+                            .getReadLatencyNanos(bookieSocketAddress);
+                }
+                return -1L;
+            }
         };
 
         ensembleChangeCounter = clientCtx.getClientStats().getEnsembleChangeCounter();
@@ -286,6 +299,10 @@ public class LedgerHandle implements WriteHandle {
             explicitLacFlushPolicy = ExplicitLacFlushPolicy.VOID_EXPLICITLAC_FLUSH_POLICY;
         }
 
+        if (clientCtx.getConf().addBatchMaxDelayNanos > 0) {
+            addBatcher = new AddBatcher(this, clientCtx);
+        }
+
         if (clientCtx.getConf().addEntryQuorumTimeoutNanos > 0) {
             this.timeoutFuture = clientCtx.getScheduler().scheduleAtFixedRate(
                     () -> monitorPendingAddOps(),
@@ -297,6 +314,10 @@ public class LedgerHandle implements WriteHandle {
 
     private void tearDownWriteHandleState() {
         explicitLacFlushPolicy.stopExplicitLacFlush();
+        if (addBatcher != null) {
+            // the adds held back have been failed by now, running them releases them
+            addBatcher.flush();
+        }
         if (timeoutFuture != null) {
             timeoutFuture.cancel(false);
         }
@@ -1147,6 +1168,19 @@ public class LedgerHandle implements WriteHandle {
     CompletableFuture<LedgerEntries> readEntriesInternalAsync(long firstEntry,
                                                               long lastEntry,
                                                               boolean isRecoveryRead) {
+        ClientEntryCache entryCache = clientCtx.getEntryCache();
+        // only the confirmed entries go through the cache, as they can't change anymore
+        if (null != entryCache && !isRecoveryRead && lastEntry <= getLastAddConfirmed()
+                && !clientCtx.isClientClosed()) {
+            return entryCache.read(ledgerId, firstEntry, lastEntry,
+                    (first, last) -> readEntriesFromBookiesAsync(first, last, false));
+        }
+        return readEntriesFromBookiesAsync(firstEntry, lastEntry, isRecoveryRead);
+    }
+
+    private CompletableFuture<LedgerEntries> readEntriesFromBookiesAsync(long firstEntry,
+                                                                         long lastEntry,
+                                                                         boolean isRecoveryRead) {
         PendingReadOp op = new PendingReadOp(this, clientCtx,
                                              firstEntry, lastEntry, isRecoveryRead);
         if (!clientCtx.isClientClosed()) {
@@ -1209,6 +1243,19 @@ public class LedgerHandle implements WriteHandle {
         return callback;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Long> appendAsync(List<ByteBuf> data) {
+        if (data.isEmpty()) {
+            return FutureUtils.exception(new BKIncorrectParameterException());
+        }
+        SyncAddEntriesCallback callback = new SyncAddEntriesCallback(data.size());
+        asyncAddEntries(data, callback, null);
+        return callback;
+    }
+
     /**
      * Add entry synchronously to an open ledger. This can be used only with
      * {@link LedgerHandleAdv} returned through ledgers created with {@link
@@ -1342,6 +1389,30 @@ public class LedgerHandle implements WriteHandle {
         doAsyncAddEntry(op);
     }
 
+    /**
+     * Add a run of entries asynchronously to an open ledger. The entries get consecutive ids,
+     * in the order of the list.
+     *
+     * <p>With the v2 wire protocol and range adds enabled, each bookie receives all the entries
+     * in a single request, provided that the ensemble size is equal to the write quorum size.
+     *
+     * @param data
+     *          the entries to be written
+     *          do not reuse the buffers, bk-client will release them appropriately
+     * @param cb
+     *          object implementing callbackinterface, called once per entry
+     * @param ctx
+     *          some control object
+     */
+    public void asyncAddEntries(List<ByteBuf> data, final AddCallback cb, final Object ctx) {
+        List<BookieId> ensemble = getCurrentEnsemble();
+        List<PendingAddOp> ops = new ArrayList<>(data.size());
+        for (ByteBuf entry : data) {
+            ops.add(PendingAddOp.create(this, clientCtx, ensemble, entry, writeFlags, cb, ctx));
+        }
+        doAsyncAddEntries(ops);
+    }
+
     /**
      * Add entry asynchronously to an open ledger, using an offset and range.
      * This can be used only with {@link LedgerHandleAdv} returned through
@@ -1589,6 +1660,7 @@ public class LedgerHandle implements WriteHandle {
         }
 
         boolean wasClosed = false;
+        List<PendingAddOp> batch = null;
         synchronized (this) {
             // synchronized on this to ensure that
             // the ledger isn't closed between checking and
@@ -1599,33 +1671,22 @@ public class LedgerHandle implements WriteHandle {
                 op.setEntryId(entryId);
                 op.setLedgerLength(currentLedgerLength);
                 pendingAddOps.add(op);
+                if (addBatcher != null) {
+                    batch = addBatcher.add(op);
+                }
             } else {
                 wasClosed = true;
             }
         }
 
         if (wasClosed) {
-            // make sure the callback is triggered in main worker pool
-            try {
-                executeOrdered(new Runnable() {
-                    @Override
-                    public void run() {
-                        LOG.warn("Attempt to add to closed ledger: {}", ledgerId);
-                        op.cb.addCompleteWithLatency(BKException.Code.LedgerClosedException,
-                                LedgerHandle.this, INVALID_ENTRY_ID, 0, op.ctx);
-                        op.recyclePendAddOpObject();
-                    }
+            failAddToClosedLedger(op);
+            return;
+        }
 
-                    @Override
-                    public String toString() {
-                        return String.format("AsyncAddEntryToClosedLedger(lid=%d)", ledgerId);
-                    }
-                });
-            } catch (RejectedExecutionException e) {
-                op.cb.addCompleteWithLatency(BookKeeper.getReturnRc(clientCtx.getBookieClient(),
-                                BKException.Code.InterruptedException),
-                        LedgerHandle.this, INVALID_ENTRY_ID, 0, op.ctx);
-                op.recyclePendAddOpObject();
+        if (addBatcher != null) {
+            if (batch != null) {
+                initiateAdds(batch);
             }
             return;
         }
@@ -1645,6 +1706,109 @@ public class LedgerHandle implements WriteHandle {
 
     }
 
+    private void failAddToClosedLedger(final PendingAddOp op) {
+        // make sure the callback is triggered in main worker pool
+        try {
+            executeOrdered(new Runnable() {
+                @Override
+                public void run() {
+                    LOG.warn("Attempt to add to closed ledger: {}", ledgerId);
+                    op.cb.addCompleteWithLatency(BKException.Code.LedgerClosedException,
+                            LedgerHandle.this, INVALID_ENTRY_ID, 0, op.ctx);
+                    op.recyclePendAddOpObject();
+                }
+
+                @Override
+                public String toString() {
+                    return String.format("AsyncAddEntryToClosedLedger(lid=%d)", ledgerId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            op.cb.addCompleteWithLatency(BookKeeper.getReturnRc(clientCtx.getBookieClient(),
+                            BKException.Code.InterruptedException),
+                    LedgerHandle.this, INVALID_ENTRY_ID, 0, op.ctx);
+            op.recyclePendAddOpObject();
+        }
+    }
+
+    /**
+     * Add a run of entries, sending them to each bookie together when range adds or add
+     * batching are enabled.
+     */
+    protected void doAsyncAddEntries(final List<PendingAddOp> ops) {
+        if (ops.size() < 2 || (!useRangeAdd() && addBatcher == null)) {
+            for (PendingAddOp op : ops) {
+                doAsyncAddEntry(op);
+            }
+            return;
+        }
+
+        if (throttler != null) {
+            throttler.acquire(ops.size());
+        }
+
+        boolean wasClosed = false;
+        List<PendingAddOp> batch = ops;
+        synchronized (this) {
+            // synchronized on this to ensure that
+            // the ledger isn't closed between checking and
+            // updating lastAddPushed
+            if (isHandleWritable()) {
+                for (PendingAddOp op : ops) {
+                    long entryId = ++lastAddPushed;
+                    long currentLedgerLength = addToLength(op.payload.readableBytes());
+                    op.setEntryId(entryId);
+                    op.setLedgerLength(currentLedgerLength);
+                    pendingAddOps.add(op);
+                }
+                if (addBatcher != null) {
+                    batch = addBatcher.addAll(ops);
+                }
+            } else {
+                wasClosed = true;
+            }
+        }
+
+        if (wasClosed) {
+            for (PendingAddOp op : ops) {
+                failAddToClosedLedger(op);
+            }
+            return;
+        }
+
+        if (batch != null) {
+            initiateAdds(batch);
+        }
+    }
+
+    /**
+     * Send the write requests of a run of consecutive entries.
+     */
+    void initiateAdds(final List<PendingAddOp> ops) {
+        if (clientCtx.getConf().waitForWriteSetMs >= 0) {
+            DistributionSchedule.WriteSet ws = distributionSchedule.getWriteSet(ops.get(0).getEntryId());
+            try {
+                if (!waitForWritable(ws, 0, clientCtx.getConf().waitForWriteSetMs)) {
+                    for (PendingAddOp op : ops) {
+                        op.allowFailFastOnUnwritableChannel();
+                    }
+                }
+            } finally {
+                ws.recycle();
+            }
+        }
+
+        if (ops.size() == 1) {
+            ops.get(0).initiate();
+        } else {
+            PendingAddOp.initiate(this, clientCtx, ops);
+        }
+    }
+
+    private boolean useRangeAdd() {
+        return clientCtx.getConf().rangeAddEnabled && clientCtx.getConf().useV2WireProtocol;
+    }
+
     synchronized void updateLastConfirmed(long lac, long len) {
         if (lac > lastAddConfirmed) {
             lastAddConfirmed = lac;
@@ -2343,6 +2507,13 @@ public class LedgerHandle implements WriteHandle {
         return LedgerMetadataUtils.getCurrentEnsemble(versionedMetadata.getValue());
     }
 
+    /**
+     * Whether the entries are read from the same bookie, rather than from the first bookie of their write set.
+     */
+    boolean isStickyReadsEnabled() {
+        return stickyBookieIndex != STICKY_READ_BOOKIE_INDEX_UNSET;
+    }
+
     /**
      * Return a {@link WriteSet} suitable for reading a particular entry.
      * This will include all bookies that are part of the ensemble for the entry.
@@ -27,6 +27,7 @@ import java.io.Serializable;
 import java.security.GeneralSecurityException;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.PriorityBlockingQueue;
@@ -293,6 +294,16 @@ public class LedgerHandleAdv extends LedgerHandle implements WriteAdvHandle {
         cb.addCompleteWithLatency(BKException.Code.IllegalOpException, this, LedgerHandle.INVALID_ENTRY_ID, 0, ctx);
     }
 
+    /**
+     * LedgerHandleAdv will not allow addEntry without providing an entryId.
+     */
+    @Override
+    public void asyncAddEntries(List<ByteBuf> data, AddCallback cb, Object ctx) {
+        for (ByteBuf entry : data) {
+            asyncAddEntry(entry, cb, ctx);
+        }
+    }
+
     /**
      * LedgerHandleAdv will not allow addEntry without providing an entryId.
      */
@@ -29,6 +29,7 @@ import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
@@ -229,13 +230,33 @@ class PendingAddOp implements WriteCallback {
      * Initiate the add operation.
      */
     public synchronized void initiate() {
+        if (!prepareToSend()) {
+            return;
+        }
+
+        // We are about to send. Check if we need to make an ensemble change
+        // because of delayed write errors
+        lh.maybeHandleDelayedWriteBookieFailure();
+
+        // Iterate over set and trigger the sendWriteRequests
+        for (int i = 0; i < lh.distributionSchedule.getWriteQuorumSize(); i++) {
+            sendWriteRequest(ensemble, lh.distributionSchedule.getWriteSetBookieIndex(entryId, i));
+        }
+    }
+
+    /**
+     * Mark the operation as run and compute the digest of the entry.
+     *
+     * @return false if the operation has already failed, so there is nothing to send
+     */
+    private boolean prepareToSend() {
         hasRun = true;
         if (callbackTriggered) {
             // this should only be true if the request was failed due
             // to another request ahead in the pending queue,
             // so we can just ignore this request
             maybeRecycle();
-            return;
+            return false;
         }
 
         this.requestTimeNanos = MathUtils.nowInNano();
@@ -248,14 +269,97 @@ class PendingAddOp implements WriteCallback {
                 payload, lh.ledgerKey, flags);
         // ownership of RefCounted ByteBuf was passed to computeDigestAndPackageForSending
         payload = null;
+        return true;
+    }
 
+    /**
+     * Initiate the add operations of a run of consecutive entries. Each bookie of the ensemble is
+     * handed all the entries of the run it stores at once, so that they are sent with a single
+     * range add request or a single flush.
+     */
+    static void initiate(LedgerHandle lh, ClientContext clientCtx, List<PendingAddOp> ops) {
         // We are about to send. Check if we need to make an ensemble change
         // because of delayed write errors
         lh.maybeHandleDelayedWriteBookieFailure();
 
-        // Iterate over set and trigger the sendWriteRequests
-        for (int i = 0; i < lh.distributionSchedule.getWriteQuorumSize(); i++) {
-            sendWriteRequest(ensemble, lh.distributionSchedule.getWriteSetBookieIndex(entryId, i));
+        int writeQuorumSize = lh.distributionSchedule.getWriteQuorumSize();
+        long firstEntryId = ops.get(0).entryId;
+        PendingAddOp[] run = new PendingAddOp[ops.size()];
+        long[] entryIds = new long[ops.size()];
+        ReferenceCounted[] toSend = new ReferenceCounted[ops.size()];
+        List<BookieId> ensemble = null;
+        boolean sameEnsemble = true;
+        boolean allowFailFast = false;
+        int numToSend = 0;
+        for (PendingAddOp op : ops) {
+            synchronized (op) {
+                if (!op.prepareToSend()) {
+                    continue;
+                }
+                // Account for the requests up front, so that the op cannot be recycled before they are sent
+                op.pendingWriteRequests += writeQuorumSize;
+                run[(int) (op.entryId - firstEntryId)] = op;
+                entryIds[numToSend] = op.entryId;
+                toSend[numToSend] = op.toSend.retain();
+                sameEnsemble &= ensemble == null || ensemble == op.ensemble;
+                ensemble = op.ensemble;
+                allowFailFast |= op.allowFailFast;
+                numToSend++;
+            }
+        }
+
+        if (numToSend == 0) {
+            return;
+        }
+
+        int flags = FLAG_NONE;
+        try {
+            if (sameEnsemble) {
+                long[] idsToSend = numToSend == entryIds.length ? entryIds : Arrays.copyOf(entryIds, numToSend);
+                ReferenceCounted[] bufsToSend = numToSend == toSend.length ? toSend : Arrays.copyOf(toSend, numToSend);
+                WriteCallback cb = (rc, ledgerId, entryId, addr, ctx) ->
+                        run[(int) (entryId - firstEntryId)].writeComplete(rc, ledgerId, entryId, addr, ctx);
+                for (int bookieIndex = 0; bookieIndex < ensemble.size(); bookieIndex++) {
+                    int numForBookie = 0;
+                    for (int j = 0; j < numToSend; j++) {
+                        if (lh.distributionSchedule.hasEntry(entryIds[j], bookieIndex)) {
+                            numForBookie++;
+                        }
+                    }
+                    if (numForBookie == 0) {
+                        continue;
+                    }
+                    long[] bookieIds = idsToSend;
+                    ReferenceCounted[] bookieBufs = bufsToSend;
+                    if (numForBookie < numToSend) {
+                        bookieIds = new long[numForBookie];
+                        bookieBufs = new ReferenceCounted[numForBookie];
+                        for (int j = 0, k = 0; j < numToSend; j++) {
+                            if (lh.distributionSchedule.hasEntry(entryIds[j], bookieIndex)) {
+                                bookieIds[k] = entryIds[j];
+                                bookieBufs[k++] = toSend[j];
+                            }
+                        }
+                    }
+                    clientCtx.getBookieClient().addEntries(ensemble.get(bookieIndex), lh.ledgerId, lh.ledgerKey,
+                            bookieIds, bookieBufs, cb, bookieIndex, flags, allowFailFast, lh.writeFlags);
+                }
+            } else {
+                // The ensemble changed while the run was being prepared, fall back to one request per entry
+                for (int j = 0; j < numToSend; j++) {
+                    PendingAddOp op = run[(int) (entryIds[j] - firstEntryId)];
+                    for (int i = 0; i < writeQuorumSize; i++) {
+                        int bookieIndex = lh.distributionSchedule.getWriteSetBookieIndex(entryIds[j], i);
+                        clientCtx.getBookieClient().addEntry(op.ensemble.get(bookieIndex), lh.ledgerId,
+                                lh.ledgerKey, entryIds[j], toSend[j], op, bookieIndex, flags, op.allowFailFast,
+                                lh.writeFlags);
+                    }
+                }
+            }
+        } finally {
+            for (int j = 0; j < numToSend; j++) {
+                ReferenceCountUtil.release(toSend[j]);
+            }
         }
     }
 
@@ -402,6 +506,9 @@ class PendingAddOp implements WriteCallback {
                       lh.getId(), entryId);
         } else {
             clientCtx.getClientStats().getAddOpLogger().registerSuccessfulEvent(latencyNanos, TimeUnit.NANOSECONDS);
+            if (lh.addBatcher != null) {
+                lh.addBatcher.addCompleted(latencyNanos);
+            }
         }
         cb.addCompleteWithLatency(rc, lh, entryId, qwcLatency, ctx);
         callbackTriggered = true;
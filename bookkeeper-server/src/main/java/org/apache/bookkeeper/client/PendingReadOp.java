@@ -98,12 +98,14 @@ class PendingReadOp extends ReadOpBase implements ReadEntryCallback  {
         final SingleLedgerEntryRequest entry = (SingleLedgerEntryRequest) rctx.entry;
 
         if (rc != BKException.Code.OK) {
+            recordReadError(rctx, rc);
             entry.logErrorAndReattemptRead(rctx.bookieIndex, rctx.to, "Error: " + BKException.getMessage(rc), rc);
             return;
         }
 
         heardFromHosts.add(rctx.to);
         heardFromHostsBitSet.set(rctx.bookieIndex, true);
+        recordReadLatency(rctx);
 
         buffer.retain();
         // if entry has completed don't handle twice
@@ -358,6 +360,7 @@ class PendingReadOp extends ReadOpBase implements ReadEntryCallback  {
 
             try {
                 BookieId to = ensemble.get(bookieIndex);
+                lastReadTarget = to;
                 sendReadTo(bookieIndex, to, this);
                 sentToHosts.add(to);
                 sentReplicas.set(replica);
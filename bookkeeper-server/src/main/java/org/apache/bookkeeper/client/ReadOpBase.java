@@ -24,6 +24,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
@@ -31,6 +32,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.bookkeeper.client.api.LedgerEntries;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks;
 import org.slf4j.Logger;
@@ -96,6 +98,36 @@ public abstract class ReadOpBase implements Runnable {
         allowFailFast = true;
     }
 
+    /**
+     * Feed the latency of a successful read to the speculative read policy, if it tracks latencies.
+     */
+    protected void recordReadLatency(ReadContext rctx) {
+        LatencyAwareSpeculativeRequestExecutionPolicy policy = getLatencyAwarePolicy();
+        if (policy != null) {
+            policy.recordReadLatency(rctx.to, MathUtils.elapsedNanos(rctx.sendTimeNanos));
+        }
+    }
+
+    /**
+     * Feed a failed or timed out read to the speculative read policy, if it tracks latencies.
+     */
+    protected void recordReadError(ReadContext rctx, int rc) {
+        LatencyAwareSpeculativeRequestExecutionPolicy policy = getLatencyAwarePolicy();
+        // a bookie without the entry answered the read, it didn't fail it
+        if (policy != null && rc != BKException.Code.NoSuchEntryException
+                && rc != BKException.Code.NoSuchLedgerExistsException) {
+            policy.recordReadError(rctx.to, MathUtils.elapsedNanos(rctx.sendTimeNanos));
+        }
+    }
+
+    private LatencyAwareSpeculativeRequestExecutionPolicy getLatencyAwarePolicy() {
+        Optional<SpeculativeRequestExecutionPolicy> policy = clientCtx.getConf().readSpeculativeRequestPolicy;
+        if (policy.isPresent() && policy.get() instanceof LatencyAwareSpeculativeRequestExecutionPolicy) {
+            return (LatencyAwareSpeculativeRequestExecutionPolicy) policy.get();
+        }
+        return null;
+    }
+
     public void submit() {
         clientCtx.getMainWorkerPool().executeOrdered(lh.ledgerId, this);
     }
@@ -121,7 +153,8 @@ public abstract class ReadOpBase implements Runnable {
 
         final List<BookieId> ensemble;
         final DistributionSchedule.WriteSet writeSet;
-
+        // the bookie the last read of this entry was sent to
+        volatile BookieId lastReadTarget;
 
         LedgerEntryRequest(List<BookieId> ensemble, final long eId) {
             this.ensemble = ensemble;
@@ -135,6 +168,11 @@ public abstract class ReadOpBase implements Runnable {
             } else {
                 writeSet = lh.getWriteSetForReadOperation(eId);
             }
+            LatencyAwareSpeculativeRequestExecutionPolicy policy = getLatencyAwarePolicy();
+            // sticky reads keep reading from the same bookie, to make the most of its read-ahead
+            if (policy != null && !lh.isStickyReadsEnabled()) {
+                policy.reorderReadSequence(ensemble, lh.getBookiesHealthInfo(), writeSet);
+            }
         }
 
         public void close() {
@@ -243,6 +281,11 @@ public abstract class ReadOpBase implements Runnable {
             return String.format("L%d-E%d", lh.getId(), eId);
         }
 
+        @Override
+        public BookieId getSpeculativeRequestTarget() {
+            return lastReadTarget;
+        }
+
         /**
          * Issues a speculative request and indicates if more speculative
          * requests should be issued.
@@ -272,12 +315,14 @@ public abstract class ReadOpBase implements Runnable {
         final int bookieIndex;
         final BookieId to;
         final PendingReadOp.LedgerEntryRequest entry;
+        final long sendTimeNanos;
         long lac = LedgerHandle.INVALID_ENTRY_ID;
 
         ReadContext(int bookieIndex, BookieId to, PendingReadOp.LedgerEntryRequest entry) {
             this.bookieIndex = bookieIndex;
             this.to = to;
             this.entry = entry;
+            this.sendTimeNanos = MathUtils.nowInNano();
         }
 
         @Override
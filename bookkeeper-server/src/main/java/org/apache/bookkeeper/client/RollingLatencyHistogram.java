@@ -0,0 +1,142 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.bookkeeper.common.util.MathUtils;
+
+/**
+ * A latency histogram over a rolling time window.
+ *
+ * <p>Latencies are counted in log-linear buckets of microseconds, with 8 buckets per power of
+ * two, so that a percentile is reported with an error of at most 12.5%. The samples are kept in
+ * two consecutive windows: percentiles are computed over the current window and the previous
+ * one, and the samples older than two windows are dropped.
+ */
+class RollingLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // up to 2^28 micros, that is more than 4 minutes
+    private static final int MAX_EXPONENT = 28;
+    static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    // don't report a percentile until there are enough samples to make it meaningful
+    static final long MIN_SAMPLES = 20;
+    // percentiles are computed at most once in this interval
+    private static final long PERCENTILE_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long windowNanos;
+    private volatile AtomicLongArray current = new AtomicLongArray(NUM_BUCKETS);
+    private volatile AtomicLongArray previous = new AtomicLongArray(NUM_BUCKETS);
+    private volatile long windowStartNanos;
+
+    private volatile double cachedPercentile = Double.NaN;
+    private volatile long cachedPercentileNanos = -1L;
+    private volatile long cachedAtNanos;
+
+    RollingLatencyHistogram(long windowNanos) {
+        this.windowNanos = windowNanos;
+        this.windowStartNanos = MathUtils.nowInNano();
+    }
+
+    void record(long latencyNanos) {
+        maybeRoll(MathUtils.nowInNano());
+        current.incrementAndGet(bucketIndex(TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+    }
+
+    /**
+     * Get a percentile of the latencies recorded in the last two windows.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the latency bucket of the percentile, in nanoseconds,
+     *         or -1 if there are not enough samples.
+     */
+    long getPercentileNanos(double percentile) {
+        long now = MathUtils.nowInNano();
+        if (percentile == cachedPercentile && now - cachedAtNanos < PERCENTILE_REFRESH_NANOS) {
+            return cachedPercentileNanos;
+        }
+        maybeRoll(now);
+
+        AtomicLongArray cur = current;
+        AtomicLongArray prev = previous;
+        long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = cur.get(i) + prev.get(i);
+            total += counts[i];
+        }
+
+        long result = -1L;
+        if (total >= MIN_SAMPLES) {
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    result = TimeUnit.MICROSECONDS.toNanos(bucketUpperBound(i));
+                    break;
+                }
+            }
+        }
+        cachedPercentileNanos = result;
+        cachedPercentile = percentile;
+        cachedAtNanos = now;
+        return result;
+    }
+
+    private void maybeRoll(long now) {
+        if (now - windowStartNanos < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            long elapsed = now - windowStartNanos;
+            if (elapsed < windowNanos) {
+                return;
+            }
+            // the current window becomes the previous one, unless it is too old as well
+            previous = elapsed < 2 * windowNanos ? current : new AtomicLongArray(NUM_BUCKETS);
+            current = new AtomicLongArray(NUM_BUCKETS);
+            windowStartNanos = now;
+        }
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0L);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return Math.min((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket, NUM_BUCKETS - 1);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long lowerBound = ((long) (SUB_BUCKETS + subBucket)) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
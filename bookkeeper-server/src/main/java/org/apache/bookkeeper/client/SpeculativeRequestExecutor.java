@@ -21,6 +21,7 @@
 package org.apache.bookkeeper.client;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.bookkeeper.net.BookieId;
 
 /**
  * Define an executor for issuing speculative requests.
@@ -39,4 +40,14 @@ public interface SpeculativeRequestExecutor {
      * @return whether more speculative requests should be issued
      */
     ListenableFuture<Boolean> issueSpeculativeRequest();
+
+    /**
+     * Returns the bookie that the request is currently waiting for, so that a policy can
+     * adapt the time before the next speculative request to that bookie.
+     *
+     * @return the bookie the last request was sent to, or null if unknown
+     */
+    default BookieId getSpeculativeRequestTarget() {
+        return null;
+    }
 }
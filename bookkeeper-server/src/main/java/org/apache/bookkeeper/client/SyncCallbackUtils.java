@@ -250,6 +250,35 @@ class SyncCallbackUtils {
         }
     }
 
+    static class SyncAddEntriesCallback extends CompletableFuture<Long> implements AsyncCallback.AddCallback {
+
+        private int pendingAdds;
+
+        SyncAddEntriesCallback(int numEntries) {
+            this.pendingAdds = numEntries;
+        }
+
+        /**
+         * Implementation of callback interface for adding a run of entries. It completes with the
+         * id of the last entry once all of them were added, or with the first failure.
+         *
+         * @param rc
+         *          return code
+         * @param lh
+         *          ledger handle
+         * @param entry
+         *          entry identifier
+         * @param ctx
+         *          control object
+         */
+        @Override
+        public synchronized void addComplete(int rc, LedgerHandle lh, long entry, Object ctx) {
+            if (rc != BKException.Code.OK || --pendingAdds == 0) {
+                finish(rc, entry, this);
+            }
+        }
+    }
+
     static class FutureReadLastConfirmed extends CompletableFuture<Long>
         implements AsyncCallback.ReadLastConfirmedCallback {
 
@@ -0,0 +1,78 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.api;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
+import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * Reader of a range of entries of a ledger, in order.
+ *
+ * <p>The reader keeps reading the following entries ahead, up to a bounded number of bytes, while
+ * the previous ones are consumed. The prefetching stops when that many bytes are in flight or read
+ * but not consumed yet, so a slow consumer holds the reads back.
+ *
+ * <p>The entries are returned one at a time: a new entry should be requested only once the
+ * previous one was returned. The caller owns the returned entries and must close them.
+ *
+ * @see ReadHandle#newReader(long, long, long)
+ */
+@Public
+@Unstable
+public interface LedgerEntryReader extends AutoCloseable {
+
+    /**
+     * Return true if there is at least one entry left to read.
+     *
+     * @return true if there is at least one entry left to read.
+     */
+    boolean hasNext();
+
+    /**
+     * Read the next entry asynchronously.
+     *
+     * @return an handle to the next entry, which fails with {@link NoSuchElementException}
+     *         when there are no entries left
+     */
+    CompletableFuture<LedgerEntry> nextAsync();
+
+    /**
+     * Read the next entry synchronously.
+     *
+     * @return the next entry
+     * @throws NoSuchElementException if there are no entries left
+     */
+    default LedgerEntry next() throws BKException, InterruptedException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return FutureUtils.<LedgerEntry, BKException>result(nextAsync(), BKException.HANDLER);
+    }
+
+    /**
+     * Stop reading ahead and release the entries which were read but not consumed.
+     */
+    @Override
+    void close();
+}
@@ -21,6 +21,7 @@
 package org.apache.bookkeeper.client.api;
 
 import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.impl.LedgerEntryReaderImpl;
 import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
 import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
@@ -91,6 +92,25 @@ public interface ReadHandle extends Handle {
         return FutureUtils.result(batchReadAsync(startEntry, maxCount, maxSize), BKException.HANDLER);
     }
 
+    /**
+     * Create a reader of a sequence of entries, which reads the following entries ahead while the
+     * previous ones are consumed.
+     *
+     * <p>The reader uses batch reads when the bookies support them. The entries must be within the
+     * range 0..LastAddConfirmed, like for {@link #readAsync(long, long)}.
+     *
+     * @param firstEntry
+     *          id of first entry of sequence
+     * @param lastEntry
+     *          id of last entry of sequence, inclusive
+     * @param maxBytesInFlight
+     *          the maximum size of the entries being read or read but not consumed yet
+     * @return the reader, which must be closed once done
+     */
+    default LedgerEntryReader newReader(long firstEntry, long lastEntry, long maxBytesInFlight) {
+        return new LedgerEntryReaderImpl(this, firstEntry, lastEntry, maxBytesInFlight);
+    }
+
     /**
      * Read a sequence of entries asynchronously, allowing to read after the LastAddConfirmed range.
      * <br>This is the same of
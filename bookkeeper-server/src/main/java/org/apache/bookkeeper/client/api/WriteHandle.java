@@ -23,6 +23,8 @@ package org.apache.bookkeeper.client.api;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
 import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
@@ -133,6 +135,36 @@ public interface WriteHandle extends ReadHandle, ForceableHandle {
         return append(Unpooled.wrappedBuffer(data, offset, length));
     }
 
+    /**
+     * Add a run of entries asynchronously to an open ledger. The entries get consecutive ids, in the
+     * order of the list.
+     *
+     * @param data the bytebufs to be written, one per entry. Their reference count will be decremented by 1
+     *             after the completable future is returned
+     *             do not reuse the buffers, bk-client will release them appropriately.
+     * @return an handle to the result, in case of success it will return the id of the last appended entry
+     */
+    default CompletableFuture<Long> appendAsync(List<ByteBuf> data) {
+        List<CompletableFuture<Long>> results = new ArrayList<>(data.size());
+        for (ByteBuf entry : data) {
+            results.add(appendAsync(entry));
+        }
+        return FutureUtils.collect(results).thenApply(entryIds -> entryIds.get(entryIds.size() - 1));
+    }
+
+    /**
+     * Add a run of entries synchronously to an open ledger. The entries get consecutive ids, in the
+     * order of the list.
+     *
+     * @param data the bytebufs to be written, one per entry. Their reference count will be decremented by 1
+     *             after the call completes.
+     *             do not reuse the buffers, bk-client will release them appropriately.
+     * @return the id of the last appended entry
+     */
+    default long append(List<ByteBuf> data) throws BKException, InterruptedException {
+        return FutureUtils.<Long, BKException>result(appendAsync(data), BKException.HANDLER);
+    }
+
     /**
      * Get the entry id of the last entry that has been enqueued for addition (but
      * may not have possibly been persisted to the ledger).
@@ -0,0 +1,245 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerEntryReader;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * A {@link LedgerEntryReader} pipelining the reads of a range of entries.
+ *
+ * <p>The range is read with several reads in flight, each one covering about a quarter of the
+ * bytes allowed in flight. The number of entries of each read is derived from the average size of
+ * the entries read so far. Batch reads are used when the handle supports them, and plain range
+ * reads otherwise. When a batch read returns fewer entries than requested, the missing entries are
+ * read again before the following reads are consumed.
+ */
+public class LedgerEntryReaderImpl implements LedgerEntryReader {
+
+    // number of reads in flight when the entries have the estimated size
+    static final int READS_IN_FLIGHT = 4;
+    // number of entries of the first read, before any entry size is known
+    static final int FIRST_READ_ENTRIES = 16;
+    static final int MAX_ENTRIES_PER_READ = 1000;
+
+    private final ReadHandle handle;
+    private final long lastEntryId;
+    private final long maxBytesInFlight;
+    private final long readSizeBytes;
+
+    // the reads in progress or not fully consumed, by first entry id
+    private final TreeMap<Long, PendingRead> reads = new TreeMap<>();
+    private long nextEntryToRead;
+    private long nextEntryToReturn;
+    private long bytesInFlight = 0;
+    private long bytesRead = 0;
+    private long entriesRead = 0;
+    private boolean useBatchRead = true;
+    private boolean closed = false;
+
+    public LedgerEntryReaderImpl(ReadHandle handle, long firstEntryId, long lastEntryId, long maxBytesInFlight) {
+        checkArgument(firstEntryId >= 0, "Invalid first entry id %s", firstEntryId);
+        checkArgument(maxBytesInFlight > 0, "Invalid number of bytes in flight %s", maxBytesInFlight);
+        this.handle = handle;
+        this.lastEntryId = lastEntryId;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.readSizeBytes = Math.max(1, maxBytesInFlight / READS_IN_FLIGHT);
+        this.nextEntryToRead = firstEntryId;
+        this.nextEntryToReturn = firstEntryId;
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        return nextEntryToReturn <= lastEntryId;
+    }
+
+    @Override
+    public CompletableFuture<LedgerEntry> nextAsync() {
+        PendingRead read;
+        synchronized (this) {
+            if (closed) {
+                return FutureUtils.exception(new BKException.BKIllegalOpException());
+            }
+            if (nextEntryToReturn > lastEntryId) {
+                return FutureUtils.exception(new NoSuchElementException());
+            }
+            readAhead();
+            read = reads.firstEntry().getValue();
+        }
+        return read.future.thenCompose(ignored -> {
+            LedgerEntry entry = takeEntry(read);
+            // the read returned less entries than requested, wait for the read of the missing ones
+            return entry != null ? FutureUtils.value(entry) : nextAsync();
+        });
+    }
+
+    private synchronized LedgerEntry takeEntry(PendingRead read) {
+        if (closed) {
+            throw new CompletionException(new BKException.BKIllegalOpException());
+        }
+        LedgerEntry entry = read.entries.poll();
+        if (read.entries.isEmpty()) {
+            // the read of the missing entries may have replaced this read already
+            reads.remove(read.firstEntryId, read);
+        }
+        if (entry != null) {
+            nextEntryToReturn = entry.getEntryId() + 1;
+            bytesInFlight -= entry.getEntryBuffer().readableBytes();
+            readAhead();
+        }
+        return entry;
+    }
+
+    /**
+     * Issue reads of the following entries, as long as the bytes in flight allow it.
+     */
+    private void readAhead() {
+        while (nextEntryToRead <= lastEntryId && (reads.isEmpty() || bytesInFlight < maxBytesInFlight)) {
+            long remaining = lastEntryId - nextEntryToRead + 1;
+            int numEntries;
+            long estimatedBytes = 0;
+            if (entriesRead == 0) {
+                if (!reads.isEmpty()) {
+                    // wait for the first read to estimate the size of the entries
+                    return;
+                }
+                numEntries = (int) Math.min(remaining, FIRST_READ_ENTRIES);
+            } else {
+                long averageEntrySize = Math.max(1, bytesRead / entriesRead);
+                numEntries = (int) Math.max(1, Math.min(Math.min(remaining, MAX_ENTRIES_PER_READ),
+                        readSizeBytes / averageEntrySize));
+                estimatedBytes = numEntries * averageEntrySize;
+                bytesInFlight += estimatedBytes;
+            }
+            issueRead(new PendingRead(nextEntryToRead, numEntries, estimatedBytes));
+            nextEntryToRead += numEntries;
+        }
+    }
+
+    private void issueRead(PendingRead read) {
+        reads.put(read.firstEntryId, read);
+        CompletableFuture<LedgerEntries> result;
+        if (useBatchRead) {
+            result = handle.batchReadAsync(read.firstEntryId, read.numEntries, readSizeBytes)
+                .exceptionally(cause -> {
+                    if (unwrap(cause) instanceof UnsupportedOperationException) {
+                        return null;
+                    }
+                    throw new CompletionException(unwrap(cause));
+                })
+                .thenCompose(entries -> {
+                    if (entries != null) {
+                        return FutureUtils.value(entries);
+                    }
+                    synchronized (this) {
+                        useBatchRead = false;
+                    }
+                    return handle.readAsync(read.firstEntryId, read.firstEntryId + read.numEntries - 1);
+                });
+        } else {
+            result = handle.readAsync(read.firstEntryId, read.firstEntryId + read.numEntries - 1);
+        }
+        result.whenComplete((entries, cause) -> {
+            if (cause != null) {
+                read.future.completeExceptionally(unwrap(cause));
+            } else {
+                readComplete(read, entries);
+                read.future.complete(null);
+            }
+        });
+    }
+
+    private synchronized void readComplete(PendingRead read, LedgerEntries entries) {
+        try {
+            if (closed) {
+                return;
+            }
+            long readBytes = 0;
+            for (LedgerEntry entry : entries) {
+                read.entries.add(entry.duplicate());
+                readBytes += entry.getEntryBuffer().readableBytes();
+            }
+            bytesRead += readBytes;
+            entriesRead += read.entries.size();
+            // replace the estimated size of the read by the size of its entries
+            bytesInFlight += readBytes - read.estimatedBytes;
+
+            int numRead = read.entries.size();
+            if (numRead < read.numEntries) {
+                // read the missing entries before the following reads are consumed
+                issueRead(new PendingRead(read.firstEntryId + numRead, read.numEntries - numRead, 0));
+            }
+        } finally {
+            entries.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Map.Entry<Long, PendingRead> e : reads.entrySet()) {
+                PendingRead read = e.getValue();
+                LedgerEntry entry;
+                while ((entry = read.entries.poll()) != null) {
+                    entry.close();
+                }
+            }
+            reads.clear();
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return unwrap(e.getCause());
+        }
+        return e;
+    }
+
+    private static class PendingRead {
+        final long firstEntryId;
+        final int numEntries;
+        final long estimatedBytes;
+        final ArrayDeque<LedgerEntry> entries = new ArrayDeque<>();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingRead(long firstEntryId, int numEntries, long estimatedBytes) {
+            this.firstEntryId = firstEntryId;
+            this.numEntries = numEntries;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+}
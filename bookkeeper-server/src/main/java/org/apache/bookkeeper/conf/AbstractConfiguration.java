@@ -21,6 +21,7 @@ import static org.apache.bookkeeper.conf.ClientConfiguration.CLIENT_AUTH_PROVIDE
 
 import io.netty.buffer.PooledByteBufAllocator;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -41,6 +42,7 @@ import org.apache.bookkeeper.meta.LedgerManagerFactory;
 import org.apache.bookkeeper.meta.LongHierarchicalLedgerManagerFactory;
 import org.apache.bookkeeper.util.EntryFormatter;
 import org.apache.bookkeeper.util.LedgerIdFormatter;
+import org.apache.bookkeeper.util.NettyTransport;
 import org.apache.bookkeeper.util.StringEntryFormatter;
 import org.apache.commons.configuration2.CompositeConfiguration;
 import org.apache.commons.configuration2.PropertiesConfiguration;
@@ -93,6 +95,10 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
     protected static final String STORE_SYSTEMTIME_AS_LEDGER_CREATION_TIME = "storeSystemTimeAsLedgerCreationTime";
 
     protected static final String ENABLE_BUSY_WAIT = "enableBusyWait";
+    protected static final String NETTY_TRANSPORT = "nettyTransport";
+    protected static final String NETTY_SO_BUSY_POLL_MICROS = "nettySoBusyPollMicros";
+    protected static final String NETTY_IO_URING_RING_SIZE = "nettyIoUringRingSize";
+    protected static final String NETTY_MAX_CONSOLIDATED_FLUSHES = "nettyMaxConsolidatedFlushes";
     protected static final String ENABLE_HEALTH_CHECK = "enableHealthCheck";
 
     // Metastore settings, only being used when LEDGER_MANAGER_FACTORY_CLASS is MSLedgerManagerFactory
@@ -1207,6 +1213,117 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
         return getThis();
     }
 
+    /**
+     * Return the Netty transport of the IO threads. The name of the transport is not case sensitive.
+     *
+     * <p>Default is {@link NettyTransport#Auto}
+     *
+     * @return the Netty transport
+     * @throws IllegalArgumentException if the configured transport is unknown
+     */
+    public NettyTransport getNettyTransport() {
+        String name = getString(NETTY_TRANSPORT, NettyTransport.Auto.toString()).trim();
+        for (NettyTransport transport : NettyTransport.values()) {
+            if (transport.name().equalsIgnoreCase(name)) {
+                return transport;
+            }
+        }
+        throw new IllegalArgumentException("Unknown Netty transport : " + name + ", expected one of "
+                + Arrays.toString(NettyTransport.values()));
+    }
+
+    /**
+     * Set the Netty transport of the IO threads. The bookie server and the client are configured
+     * separately. The busy-wait of the IO threads ({@link #setBusyWaitEnabled(boolean)}) only
+     * applies to the epoll transport.
+     *
+     * <p>Unlike {@link NettyTransport#Auto}, which falls back to NIO, an explicit native transport
+     * fails the startup when it is not available.
+     *
+     * @param transport
+     *            the Netty transport
+     * @return configuration
+     */
+    public T setNettyTransport(NettyTransport transport) {
+        setProperty(NETTY_TRANSPORT, transport.toString());
+        return getThis();
+    }
+
+    /**
+     * Return the SO_BUSY_POLL value of the sockets, in microseconds.
+     *
+     * <p>Default is 0 (disabled)
+     *
+     * @return the SO_BUSY_POLL value of the sockets
+     */
+    public int getNettySoBusyPollMicros() {
+        return getInt(NETTY_SO_BUSY_POLL_MICROS, 0);
+    }
+
+    /**
+     * Set the SO_BUSY_POLL value of the sockets, in microseconds: how long a blocking receive
+     * polls the device queue for packets. This trades CPU for latency and only applies to the
+     * epoll and io_uring transports, on kernels with busy polling support.
+     *
+     * @param busyPollMicros
+     *            the SO_BUSY_POLL value, 0 to disable it
+     * @return configuration
+     */
+    public T setNettySoBusyPollMicros(int busyPollMicros) {
+        setProperty(NETTY_SO_BUSY_POLL_MICROS, busyPollMicros);
+        return getThis();
+    }
+
+    /**
+     * Return the number of entries of the submission queue of each io_uring event loop.
+     *
+     * <p>Default is 0, which uses the Netty default (4096)
+     *
+     * @return the io_uring ring size
+     */
+    public int getNettyIoUringRingSize() {
+        return getInt(NETTY_IO_URING_RING_SIZE, 0);
+    }
+
+    /**
+     * Set the number of entries of the submission queue of each io_uring event loop, that is the
+     * number of operations which can be submitted with a single system call.
+     *
+     * @param ringSize
+     *            the io_uring ring size, 0 for the Netty default
+     * @return configuration
+     */
+    public T setNettyIoUringRingSize(int ringSize) {
+        setProperty(NETTY_IO_URING_RING_SIZE, ringSize);
+        return getThis();
+    }
+
+    /**
+     * Return the max number of flushes consolidated into a single write on a channel.
+     *
+     * <p>Default is 1024
+     *
+     * @return the max number of consolidated flushes
+     */
+    public int getNettyMaxConsolidatedFlushes() {
+        return getInt(NETTY_MAX_CONSOLIDATED_FLUSHES, 1024);
+    }
+
+    /**
+     * Set the max number of flushes consolidated into a single write on a channel. While the
+     * channel is reading, the responses or requests flushed are held back and written together
+     * with a gathering write once the read completes or after this many flushes. Larger values
+     * batch more messages per system call, 1 disables the consolidation.
+     *
+     * @param maxConsolidatedFlushes
+     *            the max number of consolidated flushes
+     * @return configuration
+     */
+    public T setNettyMaxConsolidatedFlushes(int maxConsolidatedFlushes) {
+        setProperty(NETTY_MAX_CONSOLIDATED_FLUSHES, maxConsolidatedFlushes);
+        return getThis();
+    }
+
     /**
      * Return the flag indicating whether to limit stats logging.
      *
@@ -97,6 +97,8 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String CLIENT_CONNECT_TIMEOUT_MILLIS = "clientConnectTimeoutMillis";
     protected static final String CLIENT_TCP_USER_TIMEOUT_MILLIS = "clientTcpUserTimeoutMillis";
     protected static final String NUM_CHANNELS_PER_BOOKIE = "numChannelsPerBookie";
+    protected static final String CHANNEL_MAX_IN_FLIGHT_REQUESTS = "channelMaxInFlightRequests";
+    protected static final String CHANNEL_MAX_IN_FLIGHT_BYTES = "channelMaxInFlightBytes";
     protected static final String USE_V2_WIRE_PROTOCOL = "useV2WireProtocol";
     protected static final String NETTY_USE_POOLED_BUFFERS = "nettyUsePooledBuffers";
 
@@ -105,6 +107,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String SPECULATIVE_READ_TIMEOUT = "speculativeReadTimeout";
     protected static final String FIRST_SPECULATIVE_READ_TIMEOUT = "firstSpeculativeReadTimeout";
     protected static final String MAX_SPECULATIVE_READ_TIMEOUT = "maxSpeculativeReadTimeout";
+    protected static final String SPECULATIVE_READ_LATENCY_PERCENTILE = "speculativeReadLatencyPercentile";
     protected static final String SPECULATIVE_READ_TIMEOUT_BACKOFF_MULTIPLIER =
         "speculativeReadTimeoutBackoffMultiplier";
     protected static final String FIRST_SPECULATIVE_READ_LAC_TIMEOUT = "firstSpeculativeReadLACTimeout";
@@ -116,6 +119,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String REORDER_READ_SEQUENCE_ENABLED = "reorderReadSequenceEnabled";
     protected static final String STICKY_READS_ENABLED = "stickyReadSEnabled";
     protected static final String RECOVERY_BATCH_READ_ENABLED = "recoveryBatchReadEnabled";
+    protected static final String ENTRY_CACHE_MAX_SIZE_BYTES = "entryCacheMaxSizeBytes";
     // Add Parameters
     protected static final String OPPORTUNISTIC_STRIPING = "opportunisticStriping";
     protected static final String DELAY_ENSEMBLE_CHANGE = "delayEnsembleChange";
@@ -204,6 +208,13 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     //For batch read api, it the batch read is not stable, we can fail back to single read by this config.
     protected static final String BATCH_READ_ENABLED = "batchReadEnabled";
 
+    // Send a run of entries appended at once to a bookie in a single range add request
+    protected static final String RANGE_ADD_ENABLED = "rangeAddEnabled";
+
+    // Coalesce the adds of a ledger before sending them to the bookies
+    protected static final String ADD_BATCH_MAX_DELAY_MICROS = "addBatchMaxDelayMicros";
+    protected static final String ADD_BATCH_MAX_BYTES = "addBatchMaxBytes";
+
     /**
      * Construct a default client-side configuration.
      */
@@ -579,6 +590,60 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Get the max number of add and read requests in flight on a channel to a bookie.
+     *
+     * @return max number of requests in flight per channel, 0 for no limit.
+     * @see #setChannelMaxInFlightRequests(int)
+     */
+    public int getChannelMaxInFlightRequests() {
+        return getInt(CHANNEL_MAX_IN_FLIGHT_REQUESTS, 0);
+    }
+
+    /**
+     * Set the max number of add and read requests in flight on a channel to a bookie.
+     *
+     * <p>A channel which reached the limit is not writable: the requests are sent on another
+     * channel of the bookie when there is one with room, reads are failed with
+     * TooManyRequestsException so that they are sent to another replica, and adds are
+     * failed the same way when they are allowed to fail fast (see
+     * {@link #setWaitTimeoutOnBackpressureMillis(long)}). Long poll reads are not limited.
+     *
+     * @param maxInFlightRequests
+     *          max number of requests in flight per channel, 0 for no limit.
+     * @return client configuration.
+     */
+    public ClientConfiguration setChannelMaxInFlightRequests(int maxInFlightRequests) {
+        setProperty(CHANNEL_MAX_IN_FLIGHT_REQUESTS, maxInFlightRequests);
+        return this;
+    }
+
+    /**
+     * Get the max number of bytes of add requests in flight on a channel to a bookie.
+     *
+     * @return max number of bytes in flight per channel, 0 for no limit.
+     * @see #setChannelMaxInFlightBytes(long)
+     */
+    public long getChannelMaxInFlightBytes() {
+        return getLong(CHANNEL_MAX_IN_FLIGHT_BYTES, 0L);
+    }
+
+    /**
+     * Set the max number of bytes of add requests in flight on a channel to a bookie.
+     *
+     * <p>The limit applies like {@link #setChannelMaxInFlightRequests(int)}. A request is
+     * accepted as long as the limit is not reached yet, so a single entry larger than the
+     * limit can still be sent.
+     *
+     * @param maxInFlightBytes
+     *          max number of bytes in flight per channel, 0 for no limit.
+     * @return client configuration.
+     */
+    public ClientConfiguration setChannelMaxInFlightBytes(long maxInFlightBytes) {
+        setProperty(CHANNEL_MAX_IN_FLIGHT_BYTES, maxInFlightBytes);
+        return this;
+    }
+
     /**
      * Use older Bookkeeper wire protocol (no protobuf).
      *
@@ -1042,6 +1107,39 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Get the percentile of the read latencies of a bookie used as the speculative read timeout
+     * of the reads sent to that bookie.
+     *
+     * @return the latency percentile, 0 if the speculative read timeouts are fixed.
+     * @see #setSpeculativeReadLatencyPercentile(double)
+     */
+    public double getSpeculativeReadLatencyPercentile() {
+        return getDouble(SPECULATIVE_READ_LATENCY_PERCENTILE, 0);
+    }
+
+    /**
+     * Set the percentile of the read latencies of a bookie used as the speculative read timeout
+     * of the reads sent to that bookie, for instance 95 or 99.
+     *
+     * <p>With a percentile set, the client tracks the recent read latencies of each bookie. A
+     * speculative read is sent when the bookie being read from takes longer than that percentile
+     * of its latencies, bounded by the max speculative read timeout, and the replicas that are
+     * much faster than the others are read first. The first speculative read timeout is used until
+     * enough reads were observed from a bookie. Speculative reads must be enabled for the
+     * percentile to be used.
+     *
+     * <p>The default is 0, which keeps fixed speculative read timeouts.
+     *
+     * @param percentile
+     *          latency percentile, between 0 and 100 (exclusive), or 0 to disable.
+     * @return client configuration.
+     */
+    public ClientConfiguration setSpeculativeReadLatencyPercentile(double percentile) {
+        setProperty(SPECULATIVE_READ_LATENCY_PERCENTILE, percentile);
+        return this;
+    }
+
     /**
      * Get the period of time after which the first speculative read last add confirmed and entry
      * should be triggered.
@@ -1219,6 +1317,33 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         setProperty(RECOVERY_BATCH_READ_ENABLED, enabled);
         return this;
     }
+
+    /**
+     * Get the max size of the entry cache shared by all the ledger handles of the client.
+     *
+     * @return the max size of the entry cache in bytes, 0 if the cache is disabled.
+     * @see #setEntryCacheMaxSizeBytes(long)
+     */
+    public long getEntryCacheMaxSizeBytes() {
+        return getLong(ENTRY_CACHE_MAX_SIZE_BYTES, 0L);
+    }
+
+    /**
+     * Set the max size of the entry cache shared by all the ledger handles of the client.
+     *
+     * <p>The confirmed entries read from the bookies are kept off-heap, up to this size, and the
+     * following reads of the same entries by any ledger handle of the client are served from the
+     * cache. Concurrent reads of the same entries are sent only once to the bookies. This helps
+     * when several readers of the same ledger consume it at about the same position.
+     *
+     * @param maxSizeBytes
+     *          max size of the entry cache in bytes, 0 to disable the cache.
+     * @return client configuration.
+     */
+    public ClientConfiguration setEntryCacheMaxSizeBytes(long maxSizeBytes) {
+        setProperty(ENTRY_CACHE_MAX_SIZE_BYTES, maxSizeBytes);
+        return this;
+    }
     /**
      * Get Ensemble Placement Policy Class.
      *
@@ -2084,6 +2209,84 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return getBoolean(BATCH_READ_ENABLED, true);
     }
 
+    /**
+     * Enable/disable sending the entries appended through {@code WriteHandle#appendAsync(List)} in a
+     * single range add request per bookie. It is only used with the v2 wire protocol, for ledgers whose
+     * ensemble size is equal to the write quorum size, and requires all the bookies to support
+     * range add requests.
+     *
+     * @param enabled
+     *          flag to enable/disable range add requests.
+     * @return client configuration.
+     */
+    public ClientConfiguration setRangeAddEnabled(boolean enabled) {
+        setProperty(RANGE_ADD_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Whether the entries appended through {@code WriteHandle#appendAsync(List)} are sent in a single
+     * range add request per bookie.
+     *
+     * @return true if range add requests are enabled.
+     */
+    public boolean isRangeAddEnabled() {
+        return getBoolean(RANGE_ADD_ENABLED, false);
+    }
+
+    /**
+     * Set the maximum time, in microseconds, that an add can be held back by the client to be sent
+     * together with the following adds of the same ledger. The adds of a batch have their digests
+     * computed and are written to each bookie with a single flush, or a single range add request when
+     * range adds are enabled.
+     *
+     * <p>The actual delay adapts to the add latency observed from the bookies: an add is sent right away
+     * when the ledger has no other add waiting for the bookies, and is otherwise held back for at most
+     * half of the recent add latency, bounded by this value. A value of 0 disables add batching.
+     *
+     * @param delayMicros
+     *          maximum delay of an add, in microseconds.
+     * @return client configuration.
+     */
+    public ClientConfiguration setAddBatchMaxDelayMicros(long delayMicros) {
+        setProperty(ADD_BATCH_MAX_DELAY_MICROS, delayMicros);
+        return this;
+    }
+
+    /**
+     * Get the maximum time, in microseconds, that an add can be held back to be batched with the
+     * following adds of the same ledger.
+     *
+     * @return maximum delay of an add, in microseconds. 0 means that add batching is disabled.
+     * @see #setAddBatchMaxDelayMicros(long)
+     */
+    public long getAddBatchMaxDelayMicros() {
+        return getLong(ADD_BATCH_MAX_DELAY_MICROS, 0L);
+    }
+
+    /**
+     * Set the size of the pending adds of a ledger, in bytes, at which a batch is sent without waiting
+     * for the batching delay.
+     *
+     * @param maxBytes
+     *          size of a batch of adds, in bytes.
+     * @return client configuration.
+     */
+    public ClientConfiguration setAddBatchMaxBytes(int maxBytes) {
+        setProperty(ADD_BATCH_MAX_BYTES, maxBytes);
+        return this;
+    }
+
+    /**
+     * Get the size of the pending adds of a ledger, in bytes, at which a batch is sent without waiting
+     * for the batching delay.
+     *
+     * @return size of a batch of adds, in bytes.
+     */
+    public int getAddBatchMaxBytes() {
+        return getInt(ADD_BATCH_MAX_BYTES, 64 * 1024);
+    }
+
     @Override
     protected ClientConfiguration getThis() {
         return this;
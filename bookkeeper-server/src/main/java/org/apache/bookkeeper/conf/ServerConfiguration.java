@@ -141,6 +141,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String JOURNAL_WRITE_DATA = "journalWriteData";
     protected static final String JOURNAL_ADAPTIVE_GROUP_WRITES = "journalAdaptiveGroupWrites";
     protected static final String JOURNAL_MAX_GROUP_WAIT_MSEC = "journalMaxGroupWaitMSec";
+    protected static final String JOURNAL_ADAPTIVE_GROUP_WAIT_ENABLED = "journalAdaptiveGroupWaitEnabled";
     protected static final String JOURNAL_BUFFERED_WRITES_THRESHOLD = "journalBufferedWritesThreshold";
     protected static final String JOURNAL_BUFFERED_ENTRIES_THRESHOLD = "journalBufferedEntriesThreshold";
     protected static final String JOURNAL_FLUSH_WHEN_QUEUE_EMPTY = "journalFlushWhenQueueEmpty";
@@ -155,6 +156,9 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String JOURNAL_PAGECACHE_FLUSH_INTERVAL_MSEC = "journalPageCacheFlushIntervalMSec";
     protected static final String JOURNAL_CHANNEL_PROVIDER = "journalChannelProvider";
     protected static final String JOURNAL_REUSE_FILES = "journalReuseFiles";
+    protected static final String JOURNAL_WRITERS_PER_DIRECTORY = "journalWritersPerDirectory";
+    protected static final String JOURNAL_DIRECT_IO_ENABLED = "journalDirectIOEnabled";
+    protected static final String JOURNAL_REPLAY_THREADS = "journalReplayThreads";
     // backpressure control
     protected static final String MAX_ADDS_IN_PROGRESS_LIMIT = "maxAddsInProgressLimit";
     protected static final String MAX_READS_IN_PROGRESS_LIMIT = "maxReadsInProgressLimit";
@@ -231,6 +235,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String NUM_LONG_POLL_WORKER_THREADS = "numLongPollWorkerThreads";
     protected static final String NUM_HIGH_PRIORITY_WORKER_THREADS = "numHighPriorityWorkerThreads";
     protected static final String READ_WORKER_THREADS_THROTTLING_ENABLED = "readWorkerThreadsThrottlingEnabled";
+    protected static final String WORKER_THREADS_LOAD_BALANCING_ENABLED = "workerThreadsLoadBalancingEnabled";
 
     // Long poll parameters
     protected static final String REQUEST_TIMER_TICK_DURATION_MILLISEC = "requestTimerTickDurationMs";
@@ -348,6 +353,8 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
 
     protected static final String MAX_BATCH_READ_SIZE = "maxBatchReadSize";
     protected static final int DEFAULT_MAX_BATCH_READ_SIZE = 5 * 1024 * 1024; // 5MB
+    protected static final String ZERO_COPY_READ_MIN_ENTRY_SIZE = "zeroCopyReadMinEntrySize";
+    protected static final String CACHED_READS_ON_IO_THREAD_ENABLED = "cachedReadsOnIoThreadEnabled";
 
     /**
      * Construct a default configuration object.
@@ -1032,6 +1039,79 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the number of journal writers of each journal directory.
+     *
+     * <p>Each writer is a journal thread writing its own journal files, and the ledgers are striped
+     * across all the writers of all the journal directories.
+     *
+     * @return the number of journal writers of each journal directory.
+     */
+    public int getJournalWritersPerDirectory() {
+        return this.getInt(JOURNAL_WRITERS_PER_DIRECTORY, 1);
+    }
+
+    /**
+     * Set the number of journal writers of each journal directory.
+     *
+     * @param numWriters
+     *          number of journal writers of each journal directory
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalWritersPerDirectory(int numWriters) {
+        setProperty(JOURNAL_WRITERS_PER_DIRECTORY, numWriters);
+        return this;
+    }
+
+    /**
+     * Whether the journal files are written with direct I/O, bypassing the page cache.
+     *
+     * <p>The writes are aligned to {@link #getJournalAlignmentSize()}, which must then be a power of two
+     * and a multiple of the logical block size of the journal device.
+     *
+     * @return whether the journal files are written with direct I/O.
+     */
+    public boolean isJournalDirectIOEnabled() {
+        return this.getBoolean(JOURNAL_DIRECT_IO_ENABLED, false);
+    }
+
+    /**
+     * Enable/disable writing the journal files with direct I/O.
+     *
+     * @param enabled
+     *          flag to enable/disable direct I/O for the journal files
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalDirectIOEnabled(boolean enabled) {
+        setProperty(JOURNAL_DIRECT_IO_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the number of threads applying the journal records replayed on startup.
+     *
+     * <p>With 0, the journals are replayed one after the other by the bookie thread. Otherwise they
+     * are read concurrently, and their records are applied by that many threads, the records of a
+     * ledger in order by the same thread.
+     *
+     * @return the number of threads applying the replayed journal records.
+     */
+    public int getJournalReplayThreads() {
+        return this.getInt(JOURNAL_REPLAY_THREADS, 0);
+    }
+
+    /**
+     * Set the number of threads applying the journal records replayed on startup.
+     *
+     * @param numThreads
+     *          number of threads applying the replayed journal records, 0 to replay serially
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalReplayThreads(int numThreads) {
+        setProperty(JOURNAL_REPLAY_THREADS, numThreads);
+        return this;
+    }
+
     /**
      * Get max number of adds in progress. 0 == unlimited.
      *
@@ -2045,6 +2125,32 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(READ_WORKER_THREADS_THROTTLING_ENABLED, true);
     }
 
+    /**
+     * Set whether the read and add worker threads balance the ledgers by load.
+     *
+     * <p>By default the requests of a ledger run on the thread its id hashes to. When enabled, a
+     * ledger without pending requests is moved to the least loaded thread if the thread it hashes
+     * to is busier, so a few hot ledgers don't saturate a single thread. The requests of a ledger
+     * still run in order.
+     *
+     * @param enabled
+     *          whether to balance the ledgers by load
+     * @return server configuration
+     */
+    public ServerConfiguration setWorkerThreadsLoadBalancingEnabled(boolean enabled) {
+        setProperty(WORKER_THREADS_LOAD_BALANCING_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get whether the read and add worker threads balance the ledgers by load.
+     *
+     * @return true if the worker threads balance the ledgers by load
+     */
+    public boolean isWorkerThreadsLoadBalancingEnabled() {
+        return getBoolean(WORKER_THREADS_LOAD_BALANCING_ENABLED, false);
+    }
+
 
 
     /**
@@ -2375,6 +2481,31 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the time the journal waits to group the entries adapts to the load. Default is false.
+     *
+     * <p>When enabled, the journal waits for more entries only when at least one entry is expected
+     * to arrive during a commit, given the recent arrival rate and commit latency. It then waits
+     * up to the commit latency, capped by {@link #getJournalMaxGroupWaitMSec()}.
+     *
+     * @return whether the group wait adapts to the load.
+     */
+    public boolean isJournalAdaptiveGroupWaitEnabled() {
+        return getBoolean(JOURNAL_ADAPTIVE_GROUP_WAIT_ENABLED, false);
+    }
+
+    /**
+     * Enable/disable the adaptation of the journal group wait to the load.
+     *
+     * @param enabled
+     *          flag to enable/disable the adaptive group wait
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalAdaptiveGroupWaitEnabled(boolean enabled) {
+        setProperty(JOURNAL_ADAPTIVE_GROUP_WAIT_ENABLED, enabled);
+        return this;
+    }
+
     /**
      * Maximum bytes to buffer to impose on a journal write to achieve grouping.
      *
@@ -3233,6 +3364,14 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         if (getJournalAlignmentSize() > getJournalPreAllocSizeMB() * 1024 * 1024) {
             throw new ConfigurationException("Invalid preallocation size : " + getJournalPreAllocSizeMB() + " MB");
         }
+        if (isJournalDirectIOEnabled() && Integer.bitCount(getJournalAlignmentSize()) != 1) {
+            throw new ConfigurationException("Journal alignment size should be a power of two with direct I/O : "
+                    + getJournalAlignmentSize());
+        }
+        if (getJournalWritersPerDirectory() < 1) {
+            throw new ConfigurationException("Invalid number of journal writers per directory : "
+                    + getJournalWritersPerDirectory());
+        }
         if (0 == getBookiePort() && !getAllowEphemeralPorts()) {
             throw new ConfigurationException("Invalid port specified, using ephemeral ports accidentally?");
         }
@@ -4182,6 +4321,56 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this.getLong(MAX_BATCH_READ_SIZE, DEFAULT_MAX_BATCH_READ_SIZE);
     }
 
+    /**
+     * Set the min size of the entries that are sent to the clients straight from the entry log files, without
+     * copying them in memory. A value of 0 disables zero-copy reads.
+     *
+     * @param minEntrySize
+     * @return server configuration
+     */
+    public ServerConfiguration setZeroCopyReadMinEntrySize(int minEntrySize) {
+        this.setProperty(ZERO_COPY_READ_MIN_ENTRY_SIZE, minEntrySize);
+        return this;
+    }
+
+    /**
+     * Get the min size of the entries that are sent to the clients straight from the entry log files.
+     *
+     * <p>Zero-copy reads only apply to the v2 protocol on plain TCP connections, and to entries stored by the
+     * default entry logger that are not in the ledger storage caches.
+     *
+     * @return the min entry size, or 0 if zero-copy reads are disabled
+     */
+    public int getZeroCopyReadMinEntrySize() {
+        return this.getInt(ZERO_COPY_READ_MIN_ENTRY_SIZE, 0);
+    }
+
+    /**
+     * Set whether the reads of entries cached in memory by the ledger storage are served on the network I/O
+     * threads, instead of being handed to the read worker threads.
+     *
+     * @param enabled
+     * @return server configuration
+     */
+    public ServerConfiguration setCachedReadsOnIoThreadEnabled(boolean enabled) {
+        this.setProperty(CACHED_READS_ON_IO_THREAD_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get whether the reads of entries cached in memory by the ledger storage are served on the network I/O
+     * threads.
+     *
+     * <p>This only applies to v2 protocol reads of a single entry, which are neither fencing nor recovery reads,
+     * and to ledger storages which can look up their caches without blocking. The reads of the other entries are
+     * still handed to the read worker threads.
+     *
+     * @return true if the cached reads are served on the network I/O threads
+     */
+    public boolean isCachedReadsOnIoThreadEnabled() {
+        return this.getBoolean(CACHED_READS_ON_IO_THREAD_ENABLED, false);
+    }
+
     /**
      * Retrieves the default file path for the specified file name.
      * This method prioritizes a file available in the classpath, which is often used in testing scenarios.
@@ -60,6 +60,7 @@ class AddCompletion extends CompletionValue implements BookkeeperInternalCallbac
         this.ledgerId = ledgerId;
         this.entryId = entryId;
         this.startTime = org.apache.bookkeeper.common.util.MathUtils.nowInNano();
+        this.inFlightBytes = -1;
 
         this.opLogger = perChannelBookieClient.addEntryOpLogger;
         this.timeoutOpLogger = perChannelBookieClient.addTimeoutOpLogger;
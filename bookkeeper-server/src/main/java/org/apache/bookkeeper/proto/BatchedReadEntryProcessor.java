@@ -23,7 +23,10 @@ package org.apache.bookkeeper.proto;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.Recycler;
 import io.netty.util.ReferenceCounted;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
+import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadRequest;
 import org.apache.bookkeeper.util.ByteBufList;
 
@@ -55,33 +58,70 @@ public class BatchedReadEntryProcessor extends ReadEntryProcessor {
             maxCount = Integer.MAX_VALUE;
         }
         long maxSize = Math.min(batchRequest.getMaxSize(), maxBatchReadSize);
+        int minRegionSize = requestProcessor.getZeroCopyReadMinEntrySize(requestHandler.ctx().channel());
+        if (minRegionSize > 0) {
+            return readPayloads(maxCount, maxSize, minRegionSize);
+        }
         //See BookieProtoEncoding.ResponseEnDeCoderPreV3#encode on BatchedReadResponse case.
         long frameSize = 24 + 8 + 4;
-        for (int i = 0; i < maxCount; i++) {
-            try {
-                ByteBuf entry = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId() + i);
-                frameSize += entry.readableBytes() + 4;
-                if (data == null) {
-                    data = ByteBufList.get(entry);
-                } else {
-                    if (frameSize > maxSize) {
-                        entry.release();
-                        break;
+        // Read the whole range in one call, so that the storage can resolve the entry locations in batch
+        List<ByteBuf> entries = requestProcessor.getBookie().readEntries(request.getLedgerId(),
+                request.getEntryId(), maxCount, maxSize);
+        for (int i = 0; i < entries.size(); i++) {
+            ByteBuf entry = entries.get(i);
+            frameSize += entry.readableBytes() + 4;
+            if (data == null) {
+                data = ByteBufList.get(entry);
+            } else if (frameSize > maxSize) {
+                entry.release();
+            } else {
+                data.add(entry);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Read the entries one by one, so that the large ones can be sent as file regions over the entry logs.
+     */
+    private EntryPayloadList readPayloads(int maxCount, long maxSize, int minRegionSize) throws Exception {
+        EntryPayloadList payloads = new EntryPayloadList();
+        long frameSize = 24 + 8 + 4;
+        try {
+            for (int i = 0; i < maxCount; i++) {
+                ReferenceCounted entry;
+                try {
+                    entry = requestProcessor.getBookie().readEntryOrRegion(request.getLedgerId(),
+                            request.getEntryId() + i, minRegionSize);
+                } catch (IOException | BookieException e) {
+                    if (i == 0) {
+                        throw e;
                     }
-                    data.add(entry);
+                    break;
                 }
-            } catch (Throwable e) {
-                if (data == null) {
-                    throw e;
+                frameSize += EntryPayloadList.sizeOf(entry) + 4;
+                if (i > 0 && frameSize > maxSize) {
+                    entry.release();
+                    break;
                 }
-                break;
+                payloads.add(entry);
             }
+            return payloads;
+        } catch (Exception e) {
+            payloads.release();
+            throw e;
         }
-        return data;
     }
 
     @Override
     protected BookieProtocol.Response buildReadResponse(ReferenceCounted data) {
+        if (data instanceof EntryPayloadList) {
+            EntryPayloadList payloads = (EntryPayloadList) data;
+            if (payloads.hasFileRegions()) {
+                return ResponseBuilder.buildBatchedReadResponse(payloads, (BatchedReadRequest) request);
+            }
+            data = payloads.toByteBufList();
+        }
         return ResponseBuilder.buildBatchedReadResponse((ByteBufList) data, (BatchedReadRequest) request);
     }
 
@@ -144,6 +144,33 @@ public interface BookieClient {
                   long entryId, ReferenceCounted toSend, WriteCallback cb, Object ctx,
                   int options, boolean allowFastFail, EnumSet<WriteFlag> writeFlags);
 
+    /**
+     * Add a run of entries for ledger {@code ledgerId} on the bookie at address {@code address}
+     * at once, using a single range add request when range adds are enabled and the protocol
+     * in use supports them.
+     *
+     * @param address the address of the bookie
+     * @param ledgerId the ledger to which we wish to add the entries
+     * @param entryIds the ids of the entries we wish to add, in increasing order
+     * @param toSend the buffers containing the entries and their digests, one per entry
+     * @param cb the callback notified when the request completes, once per entry
+     * @param ctx a context object passed to the callback on completion
+     * @param options a bit mask of flags from BookieProtocol.FLAG_*
+     *                {@link org.apache.bookkeeper.proto.BookieProtocol}
+     * @param allowFastFail fail the add immediately if the channel is non-writable
+     *                      {@link #isWritable(BookieId,long)}
+     * @param writeFlags a set of write flags
+     *                   {@link org.apache.bookkeeper.client.api.WriteFlag}
+     */
+    default void addEntries(BookieId address, long ledgerId, byte[] masterKey,
+                            long[] entryIds, ReferenceCounted[] toSend, WriteCallback cb, Object ctx,
+                            int options, boolean allowFastFail, EnumSet<WriteFlag> writeFlags) {
+        for (int i = 0; i < entryIds.length; i++) {
+            addEntry(address, ledgerId, masterKey, entryIds[i], toSend[i], cb, ctx,
+                     options, allowFastFail, writeFlags);
+        }
+    }
+
     /**
      * Read entry with a null masterkey, disallowing failfast.
      * @see #readEntry(BookieId,long,long,ReadEntryCallback,Object,int,byte[],boolean)
@@ -316,6 +316,58 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
                       ledgerId);
     }
 
+    @Override
+    public void addEntries(final BookieId addr,
+                           final long ledgerId,
+                           final byte[] masterKey,
+                           final long[] entryIds,
+                           final ReferenceCounted[] toSend,
+                           final WriteCallback cb,
+                           final Object ctx,
+                           final int options,
+                           final boolean allowFastFail,
+                           final EnumSet<WriteFlag> writeFlags) {
+        final PerChannelBookieClientPool client = lookupClient(addr);
+        if (client == null) {
+            for (long entryId : entryIds) {
+                completeAdd(getRc(BKException.Code.BookieHandleNotAvailableException),
+                            ledgerId, entryId, addr, cb, ctx);
+            }
+            return;
+        }
+
+        // Retain the buffers, since the connection could be obtained after
+        // the PendingApps might have already failed
+        for (ReferenceCounted buf : toSend) {
+            buf.retain();
+        }
+
+        client.obtain((rc, pcbc) -> {
+            if (rc != BKException.Code.OK) {
+                executor.executeOrdered(ledgerId, () -> {
+                    try {
+                        for (long entryId : entryIds) {
+                            completeAdd(rc, ledgerId, entryId, addr, cb, ctx);
+                        }
+                    } finally {
+                        for (ReferenceCounted buf : toSend) {
+                            ReferenceCountUtil.release(buf);
+                        }
+                    }
+                });
+            } else {
+                try {
+                    pcbc.addEntries(ledgerId, masterKey, entryIds, toSend, cb, ctx, options, allowFastFail,
+                            writeFlags);
+                } finally {
+                    for (ReferenceCounted buf : toSend) {
+                        ReferenceCountUtil.release(buf);
+                    }
+                }
+            }
+        }, ledgerId);
+    }
+
     @Override
     public CompletableFuture<AvailabilityOfEntriesOfLedger> getListOfEntriesOfLedger(BookieId address,
             long ledgerId) {
@@ -343,9 +343,11 @@ class BookieNettyServer {
 
                     BookieSideConnectionPeerContextHandler contextHandler =
                         new BookieSideConnectionPeerContextHandler();
+                    EventLoopUtil.configureSocketChannel(conf, ch);
                     ChannelPipeline pipeline = ch.pipeline();
 
-                    pipeline.addLast(CONSOLIDATION_HANDLER_NAME, new FlushConsolidationHandler(1024, true));
+                    pipeline.addLast(CONSOLIDATION_HANDLER_NAME,
+                            new FlushConsolidationHandler(conf.getNettyMaxConsolidatedFlushes(), true));
 
                     pipeline.addLast("bytebufList", ByteBufList.ENCODER);
 
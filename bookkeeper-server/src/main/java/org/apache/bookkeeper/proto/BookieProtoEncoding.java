@@ -28,14 +28,19 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.bookkeeper.proto.BookieProtocol.PacketHeader;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
@@ -193,6 +198,36 @@ public class BookieProtoEncoding {
                         masterKey, packet);
             }
 
+            case BookieProtocol.RANGE_ADD_ENTRY: {
+                byte[] masterKey = readMasterKey(packet);
+                ledgerId = packet.readLong();
+                entryId = packet.readLong();
+                long requestId = packet.readLong();
+                int count = packet.readInt();
+                // each entry takes at least its size
+                if (count <= 0 || count > packet.readableBytes() / 4) {
+                    throw new IllegalStateException("Received range add request with " + count + " entries in "
+                            + packet.readableBytes() + " bytes");
+                }
+                List<ByteBuf> entries = new ArrayList<>(count);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        int entrySize = packet.readInt();
+                        if (entrySize < 0 || entrySize > packet.readableBytes()) {
+                            throw new IllegalStateException("Received range add request with entry " + i
+                                    + " of size " + entrySize + " in " + packet.readableBytes() + " bytes");
+                        }
+                        entries.add(packet.retainedSlice(packet.readerIndex(), entrySize));
+                        packet.skipBytes(entrySize);
+                    }
+                } catch (RuntimeException e) {
+                    entries.forEach(ReferenceCountUtil::release);
+                    throw e;
+                }
+                return new BookieProtocol.ParsedRangeAddRequest(
+                        version, ledgerId, entryId, flags, masterKey, requestId, entries);
+            }
+
             case BookieProtocol.READENTRY:
                 ledgerId = packet.readLong();
                 entryId = packet.readLong();
@@ -229,6 +264,83 @@ public class BookieProtoEncoding {
             }
         }
 
+        /**
+         * Serialize a range add request out of add entry requests of consecutive entries, as packaged for the
+         * protocol before version 3. The entries are not consumed, and the returned buffers hold their own
+         * references on them.
+         */
+        static ByteBufList serializeRangeAddRequest(ByteBufAllocator allocator, short flags, byte[] masterKey,
+                                                    long ledgerId, long firstEntryId, long requestId,
+                                                    ReferenceCounted[] addRequests) {
+            int payloadSize = 0;
+            for (ReferenceCounted addRequest : addRequests) {
+                payloadSize += 4 /* entry size */ + addRequestEntrySize(addRequest);
+            }
+            int totalHeaderSize = 4 // for request type
+                    + BookieProtocol.MASTER_KEY_LENGTH
+                    + 8 // for ledger id
+                    + 8 // for first entry id
+                    + 8 // for request id
+                    + 4; // for entries count
+            boolean isSmallEntry = payloadSize < SMALL_ENTRY_SIZE_THRESHOLD;
+
+            ByteBuf buf = allocator.buffer(4 /* frame size */ + totalHeaderSize + (isSmallEntry ? payloadSize : 0));
+            buf.writeInt(totalHeaderSize + payloadSize);
+            buf.writeInt(PacketHeader.toInt(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                    BookieProtocol.RANGE_ADD_ENTRY, flags));
+            buf.writeBytes(masterKey, 0, BookieProtocol.MASTER_KEY_LENGTH);
+            buf.writeLong(ledgerId);
+            buf.writeLong(firstEntryId);
+            buf.writeLong(requestId);
+            buf.writeInt(addRequests.length);
+
+            ByteBufList bufList = ByteBufList.get(buf);
+            for (ReferenceCounted addRequest : addRequests) {
+                ByteBuf sizeBuf = buf;
+                if (!isSmallEntry) {
+                    sizeBuf = allocator.buffer(4);
+                    bufList.add(sizeBuf);
+                }
+                sizeBuf.writeInt(addRequestEntrySize(addRequest));
+
+                // Skip the frame size, request type and master key of the add entry request
+                if (addRequest instanceof ByteBuf) {
+                    ByteBuf addBuf = (ByteBuf) addRequest;
+                    int offset = addBuf.readerIndex() + ADD_REQUEST_HEADER_SIZE;
+                    int length = addBuf.readableBytes() - ADD_REQUEST_HEADER_SIZE;
+                    if (isSmallEntry) {
+                        buf.writeBytes(addBuf, offset, length);
+                    } else {
+                        bufList.add(addBuf.retainedSlice(offset, length));
+                    }
+                } else {
+                    ByteBufList addBufList = (ByteBufList) addRequest;
+                    for (int i = 0; i < addBufList.size(); i++) {
+                        ByteBuf addBuf = addBufList.getBuffer(i);
+                        int offset = addBuf.readerIndex() + (i == 0 ? ADD_REQUEST_HEADER_SIZE : 0);
+                        int length = addBuf.readableBytes() - (i == 0 ? ADD_REQUEST_HEADER_SIZE : 0);
+                        if (isSmallEntry) {
+                            buf.writeBytes(addBuf, offset, length);
+                        } else {
+                            bufList.add(addBuf.retainedSlice(offset, length));
+                        }
+                    }
+                }
+            }
+            return bufList;
+        }
+
+        private static final int ADD_REQUEST_HEADER_SIZE = 4 // frame size
+                + 4 // request type
+                + BookieProtocol.MASTER_KEY_LENGTH;
+
+        private static int addRequestEntrySize(ReferenceCounted addRequest) {
+            int size = addRequest instanceof ByteBuf
+                    ? ((ByteBuf) addRequest).readableBytes()
+                    : ((ByteBufList) addRequest).readableBytes();
+            return size - ADD_REQUEST_HEADER_SIZE;
+        }
+
         private static byte[] readMasterKey(ByteBuf packet) {
             byte[] masterKey = null;
 
@@ -340,6 +452,15 @@ public class BookieProtoEncoding {
                     buf.writeLong(r.getLedgerId());
                     buf.writeLong(r.getEntryId());
                     return buf;
+                } else if (msg instanceof BookieProtocol.RangeAddResponse) {
+                    ByteBuf buf = allocator.buffer(RESPONSE_HEADERS_SIZE + 8 /* request_id */ + 4 /* frame size */);
+                    buf.writeInt(RESPONSE_HEADERS_SIZE + 8);
+                    buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
+                    buf.writeInt(r.getErrorCode());
+                    buf.writeLong(r.getLedgerId());
+                    buf.writeLong(r.getEntryId());
+                    buf.writeLong(((BookieProtocol.RangeAddResponse) r).getRequestId());
+                    return buf;
                 } else if (msg instanceof BookieProtocol.AuthResponse) {
                     BookkeeperProtocol.AuthMessage am = ((BookieProtocol.AuthResponse) r).getAuthMessage();
                     int payloadSize = 4 + am.getSerializedSize();
@@ -358,6 +479,74 @@ public class BookieProtoEncoding {
                 r.recycle();
             }
         }
+        /**
+         * Check whether the response carries entries to be transferred straight from the entry log files.
+         */
+        static boolean hasFileRegions(Object msg) {
+            return (msg instanceof BookieProtocol.ReadResponse
+                        && ((BookieProtocol.ReadResponse) msg).getRegion() != null)
+                    || (msg instanceof BookieProtocol.BatchedReadResponse
+                        && ((BookieProtocol.BatchedReadResponse) msg).getPayloads() != null);
+        }
+
+        /**
+         * Write a read response whose entries are, at least in part, file regions. Those cannot be part of a
+         * {@link ByteBufList}, so the response is written as a sequence of messages on the channel, where the
+         * last one completes the promise. The failure of any of them, e.g. when the entry log can't be read, would
+         * leave a partial response on the connection, so the connection is closed.
+         */
+        static void writeWithFileRegions(ChannelHandlerContext ctx, BookieProtocol.Response r,
+                                         ChannelPromise promise) {
+            promise = promise.unvoid().addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            try {
+                if (r instanceof BookieProtocol.ReadResponse) {
+                    BookieProtocol.ReadResponse rr = (BookieProtocol.ReadResponse) r;
+                    FileRegion region = rr.getRegion();
+                    ByteBuf header = ctx.alloc().buffer(4 /* frame size */ + RESPONSE_HEADERS_SIZE);
+                    header.writeInt(RESPONSE_HEADERS_SIZE + (int) region.count());
+                    header.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
+                    header.writeInt(r.getErrorCode());
+                    header.writeLong(r.getLedgerId());
+                    header.writeLong(r.getEntryId());
+
+                    ctx.write(header, closeOnFailure(ctx));
+                    ctx.write(region, promise);
+                } else {
+                    BookieProtocol.BatchedReadResponse brr = (BookieProtocol.BatchedReadResponse) r;
+                    EntryPayloadList payloads = brr.getPayloads();
+                    int delimiterSize = payloads.size() * 4; // The size of each entry.
+                    long responseSize = RESPONSE_HEADERS_SIZE + 8 /* request_id */ + payloads.payloadSize()
+                            + delimiterSize;
+                    ByteBuf header = ctx.alloc().buffer(4 /* frame size */ + RESPONSE_HEADERS_SIZE + 8 + 4);
+                    header.writeInt((int) responseSize);
+                    header.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
+                    header.writeInt(r.getErrorCode());
+                    header.writeLong(r.getLedgerId());
+                    header.writeLong(r.getEntryId());
+                    header.writeLong(brr.getRequestId());
+
+                    // Each entry is preceded by its size, the first one being appended to the response header
+                    ByteBuf sizeBuf = header;
+                    for (int i = 0; i < payloads.size(); i++) {
+                        ReferenceCounted entry = payloads.get(i);
+                        if (i > 0) {
+                            sizeBuf = ctx.alloc().buffer(4);
+                        }
+                        sizeBuf.writeInt((int) EntryPayloadList.sizeOf(entry));
+                        ctx.write(sizeBuf, closeOnFailure(ctx));
+                        ctx.write(entry.retain(), i == payloads.size() - 1 ? promise : closeOnFailure(ctx));
+                    }
+                    brr.release();
+                }
+            } finally {
+                r.recycle();
+            }
+        }
+
+        private static ChannelPromise closeOnFailure(ChannelHandlerContext ctx) {
+            return ctx.newPromise().addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        }
+
         @Override
         public Object decode(ByteBuf buffer)
                 throws Exception {
@@ -374,6 +563,11 @@ public class BookieProtoEncoding {
                 ledgerId = buffer.readLong();
                 entryId = buffer.readLong();
                 return BookieProtocol.AddResponse.create(version, rc, ledgerId, entryId);
+            case BookieProtocol.RANGE_ADD_ENTRY:
+                rc = buffer.readInt();
+                ledgerId = buffer.readLong();
+                entryId = buffer.readLong();
+                return new BookieProtocol.RangeAddResponse(version, rc, ledgerId, entryId, buffer.readLong());
             case BookieProtocol.READENTRY:
                 rc = buffer.readInt();
                 ledgerId = buffer.readLong();
@@ -412,11 +606,15 @@ public class BookieProtoEncoding {
         }
 
         public static void serializeAddResponseInto(int rc, BookieProtocol.ParsedAddRequest req, ByteBuf buf) {
-            buf.writeInt(RESPONSE_HEADERS_SIZE); // Frame size
+            boolean isRangeAdd = req instanceof BookieProtocol.ParsedRangeAddRequest;
+            buf.writeInt(RESPONSE_HEADERS_SIZE + (isRangeAdd ? 8 : 0)); // Frame size
             buf.writeInt(PacketHeader.toInt(req.getProtocolVersion(), req.getOpCode(), (short) 0));
             buf.writeInt(rc); // rc-code
             buf.writeLong(req.getLedgerId());
             buf.writeLong(req.getEntryId());
+            if (isRangeAdd) {
+                buf.writeLong(((BookieProtocol.ParsedRangeAddRequest) req).getRequestId());
+            }
         }
     }
 
@@ -432,12 +630,15 @@ public class BookieProtoEncoding {
 
         @Override
         public Object decode(ByteBuf packet) throws Exception {
-            return BookkeeperProtocol.Request.parseFrom(new ByteBufInputStream(packet), extensionRegistry);
+            return BookieProtoV3Codec.decodeRequest(packet, extensionRegistry);
         }
 
         @Override
         public Object encode(Object msg, ByteBufAllocator allocator) throws Exception {
             BookkeeperProtocol.Request request = (BookkeeperProtocol.Request) msg;
+            if (BookieProtoV3Codec.canEncode(request)) {
+                return BookieProtoV3Codec.encode(request, allocator);
+            }
             return serializeProtobuf(request, allocator);
         }
 
@@ -455,8 +656,7 @@ public class BookieProtoEncoding {
 
         @Override
         public Object decode(ByteBuf packet) throws Exception {
-            return BookkeeperProtocol.Response.parseFrom(new ByteBufInputStream(packet),
-                                                         extensionRegistry);
+            return BookieProtoV3Codec.decodeResponse(packet, extensionRegistry);
         }
 
         @Override
@@ -467,7 +667,7 @@ public class BookieProtoEncoding {
 
     }
 
-    private static ByteBuf serializeProtobuf(MessageLite msg, ByteBufAllocator allocator) {
+    static ByteBuf serializeProtobuf(MessageLite msg, ByteBufAllocator allocator) {
         int size = msg.getSerializedSize();
         int frameSize = size + 4;
 
@@ -595,6 +795,8 @@ public class BookieProtoEncoding {
                 ctx.write(msg, promise);
             } else if (msg instanceof BookkeeperProtocol.Response) {
                 ctx.write(repV3.encode(msg, ctx.alloc()), promise);
+            } else if (ResponseEnDeCoderPreV3.hasFileRegions(msg)) {
+                ResponseEnDeCoderPreV3.writeWithFileRegions(ctx, (BookieProtocol.Response) msg, promise);
             } else if (msg instanceof BookieProtocol.Response) {
                 ctx.write(repPreV3.encode(msg, ctx.alloc()), promise);
             } else {
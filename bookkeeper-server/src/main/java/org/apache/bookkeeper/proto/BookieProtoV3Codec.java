@@ -0,0 +1,633 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.apache.bookkeeper.proto.BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD;
+
+import com.google.protobuf.ByteOutput;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnsafeByteOperations;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ContextPair;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.util.ByteBufList;
+
+/**
+ * Hand-rolled encoding of the add and read requests of the protocol version 3.
+ *
+ * <p>The requests are written field by field into a pooled buffer, without going through the
+ * generated serialization code. The fields are written in the order of their numbers, so the bytes
+ * are the same as the ones of the generated code. The client encodes its add and read requests
+ * straight from their fields, without building the request messages. The request messages built
+ * elsewhere are encoded by the request encoder, unless they carry unknown fields, which are left to
+ * the generated code.
+ *
+ * <p>The frames are still decoded by the generated parsers, as the request processors and the client
+ * completions work on the generated messages.
+ *
+ * <p>The payloads of the add requests larger than {@link BookieProtoEncoding#SMALL_ENTRY_SIZE_THRESHOLD}
+ * are not copied: the frame is sent as a {@link ByteBufList} of the encoded fields and of the
+ * buffers wrapping the payload, which the client releases only once the write completes.
+ */
+final class BookieProtoV3Codec {
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    // BKPacketHeader
+    private static final int HEADER_VERSION = 1;
+    private static final int HEADER_OPERATION = 2;
+    private static final int HEADER_TXN_ID = 3;
+    private static final int HEADER_PRIORITY = 4;
+    // Request
+    private static final int REQUEST_HEADER = 1;
+    private static final int REQUEST_READ = 100;
+    private static final int REQUEST_ADD = 101;
+    private static final int REQUEST_CONTEXT = 200;
+    // ContextPair
+    private static final int CONTEXT_KEY = 1;
+    private static final int CONTEXT_VALUE = 2;
+    // AddRequest
+    private static final int ADD_LEDGER_ID = 1;
+    private static final int ADD_ENTRY_ID = 2;
+    private static final int ADD_MASTER_KEY = 3;
+    private static final int ADD_BODY = 4;
+    private static final int ADD_WRITE_FLAGS = 5;
+    private static final int ADD_FLAG = 100;
+    // ReadRequest
+    private static final int READ_LEDGER_ID = 1;
+    private static final int READ_ENTRY_ID = 2;
+    private static final int READ_MASTER_KEY = 3;
+    private static final int READ_PREVIOUS_LAC = 4;
+    private static final int READ_TIMEOUT = 5;
+    private static final int READ_FLAG = 100;
+
+    private BookieProtoV3Codec() {
+    }
+
+    /**
+     * Return true if the request is an add or a read request without unknown fields, which can be
+     * encoded by this codec.
+     */
+    static boolean canEncode(Request request) {
+        OperationType operation = request.getHeader().getOperation();
+        boolean supported;
+        if (operation == OperationType.ADD_ENTRY) {
+            supported = request.hasAddRequest() && !request.hasReadRequest()
+                    && !hasUnknownFields(request.getAddRequest());
+        } else if (operation == OperationType.READ_ENTRY) {
+            supported = request.hasReadRequest() && !request.hasAddRequest()
+                    && !hasUnknownFields(request.getReadRequest());
+        } else {
+            return false;
+        }
+        if (!supported || hasUnknownFields(request) || hasUnknownFields(request.getHeader())) {
+            return false;
+        }
+        List<ContextPair> contexts = request.getRequestContextList();
+        for (int i = 0; i < contexts.size(); i++) {
+            if (hasUnknownFields(contexts.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasUnknownFields(Message message) {
+        return !message.getUnknownFields().asMap().isEmpty();
+    }
+
+    /**
+     * Encode an add or a read request into a frame.
+     *
+     * @return a {@link ByteBuf}, or a {@link ByteBufList} if the payload is not copied.
+     */
+    static Object encode(Request request, ByteBufAllocator allocator) {
+        int headerSize = headerSize(request.getHeader());
+        List<ContextPair> contexts = request.getRequestContextList();
+        int contextsSize = contextsSize(contexts);
+
+        if (request.hasAddRequest()) {
+            AddRequest add = request.getAddRequest();
+            ByteString body = add.getBody();
+            int opSize = addRequestSize(add);
+            int size = lengthDelimitedSize(REQUEST_HEADER, headerSize)
+                    + lengthDelimitedSize(REQUEST_ADD, opSize) + contextsSize;
+
+            // a large payload is not copied, the fields following it go into a trailer buffer
+            boolean wrapBody = body.size() > SMALL_ENTRY_SIZE_THRESHOLD;
+            int trailerSize = 0;
+            if (wrapBody) {
+                trailerSize = contextsSize;
+                if (add.hasWriteFlags()) {
+                    trailerSize += varintFieldSize(ADD_WRITE_FLAGS, add.getWriteFlags());
+                }
+                if (add.hasFlag()) {
+                    trailerSize += varintFieldSize(ADD_FLAG, add.getFlag().getNumber());
+                }
+            }
+            int frameSize = 4 + size - (wrapBody ? body.size() + trailerSize : 0);
+            ByteBuf buf = allocator.directBuffer(frameSize, frameSize);
+            buf.writeInt(size);
+            writeLengthDelimitedTag(buf, REQUEST_HEADER, headerSize);
+            writeHeader(buf, request.getHeader());
+            writeLengthDelimitedTag(buf, REQUEST_ADD, opSize);
+            writeInt64(buf, ADD_LEDGER_ID, add.getLedgerId());
+            writeInt64(buf, ADD_ENTRY_ID, add.getEntryId());
+            writeBytes(buf, ADD_MASTER_KEY, add.getMasterKey());
+            writeLengthDelimitedTag(buf, ADD_BODY, body.size());
+
+            ByteBufList frame = null;
+            ByteBuf tail = buf;
+            if (wrapBody) {
+                frame = ByteBufList.get(buf);
+                try {
+                    UnsafeByteOperations.unsafeWriteTo(body, new ByteBufOutput(frame));
+                } catch (IOException e) {
+                    // wrapping buffers does not fail
+                    frame.release();
+                    throw new RuntimeException(e);
+                }
+                if (trailerSize == 0) {
+                    return frame;
+                }
+                tail = allocator.directBuffer(trailerSize, trailerSize);
+                frame.add(tail);
+            } else {
+                writeByteString(buf, body);
+            }
+            if (add.hasWriteFlags()) {
+                writeInt64(tail, ADD_WRITE_FLAGS, add.getWriteFlags());
+            }
+            if (add.hasFlag()) {
+                writeInt64(tail, ADD_FLAG, add.getFlag().getNumber());
+            }
+            writeContexts(tail, contexts);
+            return frame != null ? frame : buf;
+        } else {
+            ReadRequest read = request.getReadRequest();
+            int opSize = readRequestSize(read);
+            int size = lengthDelimitedSize(REQUEST_HEADER, headerSize)
+                    + lengthDelimitedSize(REQUEST_READ, opSize) + contextsSize;
+            int frameSize = 4 + size;
+            ByteBuf buf = allocator.directBuffer(frameSize, frameSize);
+            buf.writeInt(size);
+            writeLengthDelimitedTag(buf, REQUEST_HEADER, headerSize);
+            writeHeader(buf, request.getHeader());
+            writeLengthDelimitedTag(buf, REQUEST_READ, opSize);
+            writeInt64(buf, READ_LEDGER_ID, read.getLedgerId());
+            writeInt64(buf, READ_ENTRY_ID, read.getEntryId());
+            if (read.hasMasterKey()) {
+                writeBytes(buf, READ_MASTER_KEY, read.getMasterKey());
+            }
+            if (read.hasPreviousLAC()) {
+                writeInt64(buf, READ_PREVIOUS_LAC, read.getPreviousLAC());
+            }
+            if (read.hasTimeOut()) {
+                writeInt64(buf, READ_TIMEOUT, read.getTimeOut());
+            }
+            if (read.hasFlag()) {
+                writeInt64(buf, READ_FLAG, read.getFlag().getNumber());
+            }
+            writeContexts(buf, contexts);
+            return buf;
+        }
+    }
+
+    /**
+     * Encode an add request from its fields, without building the request message.
+     *
+     * <p>A payload larger than {@link BookieProtoEncoding#SMALL_ENTRY_SIZE_THRESHOLD} is not copied:
+     * the frame holds retained duplicates of its buffers.
+     *
+     * @param priority the priority of the request, omitted when 0
+     * @param writeFlags the write flags, omitted when 0 so that old bookies can read the request
+     * @return a {@link ByteBuf}, or a {@link ByteBufList} if the payload is not copied.
+     */
+    static Object encodeAddRequest(ByteBufAllocator allocator, long txnId, int priority, long ledgerId,
+                                   long entryId, byte[] masterKey, ByteBufList body, int writeFlags,
+                                   boolean recoveryAdd, List<ContextPair> contexts) {
+        int headerSize = headerSize(ProtocolVersion.VERSION_THREE_VALUE, OperationType.ADD_ENTRY, txnId,
+                priority != 0, priority);
+        int contextsSize = contextsSize(contexts);
+        int bodySize = body.readableBytes();
+        // the fields following the payload
+        int trailerSize = contextsSize;
+        if (writeFlags != 0) {
+            trailerSize += varintFieldSize(ADD_WRITE_FLAGS, writeFlags);
+        }
+        if (recoveryAdd) {
+            trailerSize += varintFieldSize(ADD_FLAG, AddRequest.Flag.RECOVERY_ADD_VALUE);
+        }
+        int opSize = varintFieldSize(ADD_LEDGER_ID, ledgerId)
+                + varintFieldSize(ADD_ENTRY_ID, entryId)
+                + lengthDelimitedSize(ADD_MASTER_KEY, masterKey.length)
+                + lengthDelimitedSize(ADD_BODY, bodySize)
+                + trailerSize - contextsSize;
+        int size = lengthDelimitedSize(REQUEST_HEADER, headerSize)
+                + lengthDelimitedSize(REQUEST_ADD, opSize) + contextsSize;
+
+        boolean wrapBody = bodySize > SMALL_ENTRY_SIZE_THRESHOLD;
+        int frameSize = 4 + size - (wrapBody ? bodySize + trailerSize : 0);
+        ByteBuf buf = allocator.directBuffer(frameSize, frameSize);
+        buf.writeInt(size);
+        writeLengthDelimitedTag(buf, REQUEST_HEADER, headerSize);
+        writeHeader(buf, ProtocolVersion.VERSION_THREE_VALUE, OperationType.ADD_ENTRY, txnId, priority != 0,
+                priority);
+        writeLengthDelimitedTag(buf, REQUEST_ADD, opSize);
+        writeInt64(buf, ADD_LEDGER_ID, ledgerId);
+        writeInt64(buf, ADD_ENTRY_ID, entryId);
+        writeLengthDelimitedTag(buf, ADD_MASTER_KEY, masterKey.length);
+        buf.writeBytes(masterKey);
+        writeLengthDelimitedTag(buf, ADD_BODY, bodySize);
+
+        ByteBufList frame = null;
+        ByteBuf tail = buf;
+        if (wrapBody) {
+            frame = ByteBufList.get(buf);
+            for (int i = 0; i < body.size(); i++) {
+                frame.add(body.getBuffer(i).retainedDuplicate());
+            }
+            if (trailerSize == 0) {
+                return frame;
+            }
+            tail = allocator.directBuffer(trailerSize, trailerSize);
+            frame.add(tail);
+        } else {
+            for (int i = 0; i < body.size(); i++) {
+                ByteBuf part = body.getBuffer(i);
+                buf.writeBytes(part, part.readerIndex(), part.readableBytes());
+            }
+        }
+        if (writeFlags != 0) {
+            writeInt64(tail, ADD_WRITE_FLAGS, writeFlags);
+        }
+        if (recoveryAdd) {
+            writeInt64(tail, ADD_FLAG, AddRequest.Flag.RECOVERY_ADD_VALUE);
+        }
+        writeContexts(tail, contexts);
+        return frame != null ? frame : buf;
+    }
+
+    /**
+     * Encode a read request from its fields, without building the request message.
+     *
+     * @param priority the priority of the request, omitted when 0
+     * @param masterKey the master key, or null
+     * @param previousLAC the last add confirmed known by the client, or null
+     * @param timeOut the time out of a long poll read, or null
+     * @param flag the flag of the read, or null
+     */
+    static ByteBuf encodeReadRequest(ByteBufAllocator allocator, long txnId, int priority, long ledgerId,
+                                     long entryId, byte[] masterKey, Long previousLAC, Long timeOut,
+                                     ReadRequest.Flag flag, List<ContextPair> contexts) {
+        int headerSize = headerSize(ProtocolVersion.VERSION_THREE_VALUE, OperationType.READ_ENTRY, txnId,
+                priority != 0, priority);
+        int opSize = varintFieldSize(READ_LEDGER_ID, ledgerId)
+                + varintFieldSize(READ_ENTRY_ID, entryId);
+        if (masterKey != null) {
+            opSize += lengthDelimitedSize(READ_MASTER_KEY, masterKey.length);
+        }
+        if (previousLAC != null) {
+            opSize += varintFieldSize(READ_PREVIOUS_LAC, previousLAC);
+        }
+        if (timeOut != null) {
+            opSize += varintFieldSize(READ_TIMEOUT, timeOut);
+        }
+        if (flag != null) {
+            opSize += varintFieldSize(READ_FLAG, flag.getNumber());
+        }
+        int size = lengthDelimitedSize(REQUEST_HEADER, headerSize)
+                + lengthDelimitedSize(REQUEST_READ, opSize) + contextsSize(contexts);
+        int frameSize = 4 + size;
+        ByteBuf buf = allocator.directBuffer(frameSize, frameSize);
+        buf.writeInt(size);
+        writeLengthDelimitedTag(buf, REQUEST_HEADER, headerSize);
+        writeHeader(buf, ProtocolVersion.VERSION_THREE_VALUE, OperationType.READ_ENTRY, txnId, priority != 0,
+                priority);
+        writeLengthDelimitedTag(buf, REQUEST_READ, opSize);
+        writeInt64(buf, READ_LEDGER_ID, ledgerId);
+        writeInt64(buf, READ_ENTRY_ID, entryId);
+        if (masterKey != null) {
+            writeLengthDelimitedTag(buf, READ_MASTER_KEY, masterKey.length);
+            buf.writeBytes(masterKey);
+        }
+        if (previousLAC != null) {
+            writeInt64(buf, READ_PREVIOUS_LAC, previousLAC);
+        }
+        if (timeOut != null) {
+            writeInt64(buf, READ_TIMEOUT, timeOut);
+        }
+        if (flag != null) {
+            writeInt64(buf, READ_FLAG, flag.getNumber());
+        }
+        writeContexts(buf, contexts);
+        return buf;
+    }
+
+    /**
+     * Decode a request frame with the generated parser.
+     */
+    static Request decodeRequest(ByteBuf packet, ExtensionRegistryLite extensionRegistry) throws IOException {
+        CodedInputStream input = newCodedInput(packet);
+        Request request = Request.parseFrom(input, registry(extensionRegistry));
+        input.checkLastTagWas(0);
+        return request;
+    }
+
+    /**
+     * Decode a response frame with the generated parser.
+     */
+    static Response decodeResponse(ByteBuf packet, ExtensionRegistryLite extensionRegistry) throws IOException {
+        CodedInputStream input = newCodedInput(packet);
+        Response response = Response.parseFrom(input, registry(extensionRegistry));
+        input.checkLastTagWas(0);
+        return response;
+    }
+
+    private static ExtensionRegistryLite registry(ExtensionRegistryLite extensionRegistry) {
+        return extensionRegistry != null ? extensionRegistry : ExtensionRegistryLite.getEmptyRegistry();
+    }
+
+    // a frame held in a single buffer is parsed directly from its NIO buffer, rather than through
+    // a stream and the intermediate buffer of the parser
+    private static CodedInputStream newCodedInput(ByteBuf packet) {
+        if (packet.nioBufferCount() == 1) {
+            return CodedInputStream.newInstance(packet.nioBuffer());
+        }
+        return CodedInputStream.newInstance(new ByteBufInputStream(packet));
+    }
+
+    private static int headerSize(BKPacketHeader header) {
+        return headerSize(header.getVersion().getNumber(), header.getOperation(), header.getTxnId(),
+                header.hasPriority(), header.getPriority());
+    }
+
+    private static int headerSize(int version, OperationType operation, long txnId, boolean hasPriority,
+                                  int priority) {
+        int size = varintFieldSize(HEADER_VERSION, version)
+                + varintFieldSize(HEADER_OPERATION, operation.getNumber())
+                + varintFieldSize(HEADER_TXN_ID, txnId);
+        if (hasPriority) {
+            size += varintFieldSize(HEADER_PRIORITY, priority & 0xFFFFFFFFL);
+        }
+        return size;
+    }
+
+    private static void writeHeader(ByteBuf buf, BKPacketHeader header) {
+        writeHeader(buf, header.getVersion().getNumber(), header.getOperation(), header.getTxnId(),
+                header.hasPriority(), header.getPriority());
+    }
+
+    private static void writeHeader(ByteBuf buf, int version, OperationType operation, long txnId,
+                                    boolean hasPriority, int priority) {
+        writeInt64(buf, HEADER_VERSION, version);
+        writeInt64(buf, HEADER_OPERATION, operation.getNumber());
+        writeInt64(buf, HEADER_TXN_ID, txnId);
+        if (hasPriority) {
+            writeInt64(buf, HEADER_PRIORITY, priority & 0xFFFFFFFFL);
+        }
+    }
+
+    private static int contextsSize(List<ContextPair> contexts) {
+        int size = 0;
+        for (int i = 0; i < contexts.size(); i++) {
+            size += lengthDelimitedSize(REQUEST_CONTEXT, contextPairSize(contexts.get(i)));
+        }
+        return size;
+    }
+
+    private static void writeContexts(ByteBuf buf, List<ContextPair> contexts) {
+        for (int i = 0; i < contexts.size(); i++) {
+            ContextPair context = contexts.get(i);
+            writeLengthDelimitedTag(buf, REQUEST_CONTEXT, contextPairSize(context));
+            writeString(buf, CONTEXT_KEY, context.getKey());
+            writeString(buf, CONTEXT_VALUE, context.getValue());
+        }
+    }
+
+    private static int contextPairSize(ContextPair context) {
+        return lengthDelimitedSize(CONTEXT_KEY, ByteBufUtil.utf8Bytes(context.getKey()))
+                + lengthDelimitedSize(CONTEXT_VALUE, ByteBufUtil.utf8Bytes(context.getValue()));
+    }
+
+    private static int addRequestSize(AddRequest add) {
+        int size = varintFieldSize(ADD_LEDGER_ID, add.getLedgerId())
+                + varintFieldSize(ADD_ENTRY_ID, add.getEntryId())
+                + lengthDelimitedSize(ADD_MASTER_KEY, add.getMasterKey().size())
+                + lengthDelimitedSize(ADD_BODY, add.getBody().size());
+        if (add.hasWriteFlags()) {
+            size += varintFieldSize(ADD_WRITE_FLAGS, add.getWriteFlags());
+        }
+        if (add.hasFlag()) {
+            size += varintFieldSize(ADD_FLAG, add.getFlag().getNumber());
+        }
+        return size;
+    }
+
+    private static int readRequestSize(ReadRequest read) {
+        int size = varintFieldSize(READ_LEDGER_ID, read.getLedgerId())
+                + varintFieldSize(READ_ENTRY_ID, read.getEntryId());
+        if (read.hasMasterKey()) {
+            size += lengthDelimitedSize(READ_MASTER_KEY, read.getMasterKey().size());
+        }
+        if (read.hasPreviousLAC()) {
+            size += varintFieldSize(READ_PREVIOUS_LAC, read.getPreviousLAC());
+        }
+        if (read.hasTimeOut()) {
+            size += varintFieldSize(READ_TIMEOUT, read.getTimeOut());
+        }
+        if (read.hasFlag()) {
+            size += varintFieldSize(READ_FLAG, read.getFlag().getNumber());
+        }
+        return size;
+    }
+
+    // the int32 and enum fields are sign extended to 64 bits, like the int64 fields
+    private static int varintFieldSize(int field, long value) {
+        return varintSize(tag(field, WIRETYPE_VARINT)) + varintSize(value);
+    }
+
+    private static int lengthDelimitedSize(int field, int length) {
+        return varintSize(tag(field, WIRETYPE_LENGTH_DELIMITED)) + varintSize(length) + length;
+    }
+
+    private static int tag(int field, int wireType) {
+        return (field << 3) | wireType;
+    }
+
+    static int varintSize(long value) {
+        // 7 bits per byte, negative values taking 10 bytes
+        return (70 - Long.numberOfLeadingZeros(value | 1)) / 7;
+    }
+
+    private static void writeInt64(ByteBuf buf, int field, long value) {
+        writeVarint(buf, tag(field, WIRETYPE_VARINT));
+        writeVarint(buf, value);
+    }
+
+    private static void writeLengthDelimitedTag(ByteBuf buf, int field, int length) {
+        writeVarint(buf, tag(field, WIRETYPE_LENGTH_DELIMITED));
+        writeVarint(buf, length);
+    }
+
+    private static void writeBytes(ByteBuf buf, int field, ByteString value) {
+        writeLengthDelimitedTag(buf, field, value.size());
+        writeByteString(buf, value);
+    }
+
+    private static void writeString(ByteBuf buf, int field, String value) {
+        int length = ByteBufUtil.utf8Bytes(value);
+        writeLengthDelimitedTag(buf, field, length);
+        // reserve the exact length, as the buffer can't grow beyond the frame size
+        ByteBufUtil.reserveAndWriteUtf8(buf, value, length);
+    }
+
+    private static void writeByteString(ByteBuf buf, ByteString value) {
+        try {
+            UnsafeByteOperations.unsafeWriteTo(value, new ByteBufOutput(buf));
+        } catch (IOException e) {
+            // in-memory copy, should not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void writeVarint(ByteBuf buf, long value) {
+        if ((value & ~0x7FL) == 0) {
+            buf.writeByte((int) value);
+            return;
+        } else if ((value & ~0x3FFFL) == 0) {
+            buf.writeShort((int) (((value & 0x7F) | 0x80) << 8 | (value >>> 7)));
+            return;
+        }
+        // gather up to 8 bytes in a word, so that they are written with a few wide writes
+        // rather than byte by byte
+        long word = 0;
+        int n = 0;
+        do {
+            long b = value & 0x7F;
+            value >>>= 7;
+            word = (word << 8) | (value != 0 ? b | 0x80 : b);
+            n++;
+        } while (value != 0 && n < 8);
+        word <<= 8 * (8 - n);
+        if (n == 8) {
+            buf.writeLong(word);
+        } else {
+            if (n >= 4) {
+                buf.writeInt((int) (word >>> 32));
+                word <<= 32;
+                n -= 4;
+            }
+            if (n >= 2) {
+                buf.writeShort((int) (word >>> 48));
+                word <<= 16;
+                n -= 2;
+            }
+            if (n == 1) {
+                buf.writeByte((int) (word >>> 56));
+            }
+        }
+        if (value != 0) {
+            writeVarint(buf, value);
+        }
+    }
+
+    /**
+     * Writes the pieces of a {@link ByteString} into a buffer, or wraps them into the buffers of
+     * a {@link ByteBufList} without copying them.
+     */
+    private static final class ByteBufOutput extends ByteOutput {
+        private final ByteBuf buf;
+        private final ByteBufList list;
+
+        ByteBufOutput(ByteBuf buf) {
+            this.buf = buf;
+            this.list = null;
+        }
+
+        ByteBufOutput(ByteBufList list) {
+            this.buf = null;
+            this.list = list;
+        }
+
+        @Override
+        public void write(byte value) {
+            if (list != null) {
+                list.add(Unpooled.wrappedBuffer(new byte[] { value }));
+            } else {
+                buf.writeByte(value);
+            }
+        }
+
+        @Override
+        public void write(byte[] value, int offset, int length) {
+            if (list != null) {
+                list.add(Unpooled.copiedBuffer(value, offset, length));
+            } else {
+                buf.writeBytes(value, offset, length);
+            }
+        }
+
+        @Override
+        public void writeLazy(byte[] value, int offset, int length) {
+            if (list != null) {
+                list.add(Unpooled.wrappedBuffer(value, offset, length));
+            } else {
+                buf.writeBytes(value, offset, length);
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer value) {
+            if (list != null) {
+                list.add(Unpooled.copiedBuffer(value));
+            } else {
+                buf.writeBytes(value);
+            }
+        }
+
+        @Override
+        public void writeLazy(ByteBuffer value) {
+            if (list != null) {
+                list.add(Unpooled.wrappedBuffer(value));
+            } else {
+                buf.writeBytes(value);
+            }
+        }
+    }
+}
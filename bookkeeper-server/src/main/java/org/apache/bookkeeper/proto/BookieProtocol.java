@@ -22,10 +22,12 @@ package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
+import java.util.List;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.AuthMessage;
 import org.apache.bookkeeper.util.ByteBufList;
 
@@ -134,6 +136,14 @@ public interface BookieProtocol {
     byte WRITE_LAC = 5;
     byte GET_BOOKIE_INFO = 6;
     byte BATCH_READ_ENTRY = 7;
+    /**
+     * The Range add entry request carries a run of entries of the same ledger, each
+     * one being a ledger entry exactly as it should be logged, preceded by its 4-byte
+     * size. The response has the same layout as the add entry one, with the id of the
+     * first entry, followed by the 8-byte request id, and acknowledges all the entries
+     * at once.
+     */
+    byte RANGE_ADD_ENTRY = 8;
 
     /**
      * The error code that indicates success.
@@ -286,6 +296,11 @@ public interface BookieProtocol {
         }
 
         private final Handle<ParsedAddRequest> recyclerHandle;
+
+        protected ParsedAddRequest() {
+            recyclerHandle = null;
+        }
+
         private ParsedAddRequest(Handle<ParsedAddRequest> recyclerHandle) {
             this.recyclerHandle = recyclerHandle;
         }
@@ -303,7 +318,45 @@ public interface BookieProtocol {
             entryId = -1;
             masterKey = null;
             data = null;
-            recyclerHandle.recycle(this);
+            if (recyclerHandle != null) {
+                recyclerHandle.recycle(this);
+            }
+        }
+    }
+
+    /**
+     * The request for adding a run of entries of the same ledger, used when processing the
+     * request on the bookie side. The ledger_id and entry_id are the ones of the first entry.
+     */
+    class ParsedRangeAddRequest extends ParsedAddRequest {
+        final long requestId;
+        final List<ByteBuf> entries;
+
+        ParsedRangeAddRequest(byte protocolVersion, long ledgerId, long entryId, short flags, byte[] masterKey,
+                              long requestId, List<ByteBuf> entries) {
+            init(protocolVersion, RANGE_ADD_ENTRY, ledgerId, entryId, flags, masterKey);
+            this.requestId = requestId;
+            this.entries = entries;
+        }
+
+        long getRequestId() {
+            return requestId;
+        }
+
+        List<ByteBuf> getEntries() {
+            return entries;
+        }
+
+        @Override
+        void release() {
+            for (ByteBuf entry : entries) {
+                ReferenceCountUtil.release(entry);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[Ledger:%d,Entry:%d,Count:%d]", opCode, ledgerId, entryId, entries.size());
         }
     }
 
@@ -495,14 +548,26 @@ public interface BookieProtocol {
      */
     class ReadResponse extends Response implements ReferenceCounted {
         final ByteBuf data;
+        // Set instead of data when the entry is transferred straight from the entry log
+        final FileRegion region;
 
         ReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId) {
             this(protocolVersion, errorCode, ledgerId, entryId, Unpooled.EMPTY_BUFFER);
         }
 
         ReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, ByteBuf data) {
+            this(protocolVersion, errorCode, ledgerId, entryId, data, null);
+        }
+
+        ReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, FileRegion region) {
+            this(protocolVersion, errorCode, ledgerId, entryId, Unpooled.EMPTY_BUFFER, region);
+        }
+
+        private ReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, ByteBuf data,
+                             FileRegion region) {
             init(protocolVersion, READENTRY, errorCode, ledgerId, entryId);
             this.data = data;
+            this.region = region;
         }
 
         boolean hasData() {
@@ -513,42 +578,50 @@ public interface BookieProtocol {
             return data;
         }
 
+        FileRegion getRegion() {
+            return region;
+        }
+
+        private ReferenceCounted payload() {
+            return region != null ? region : data;
+        }
+
         @Override
         public int refCnt() {
-            return data.refCnt();
+            return payload().refCnt();
         }
 
         @Override
         public ReferenceCounted retain() {
-            data.retain();
+            payload().retain();
             return this;
         }
 
         @Override
         public ReferenceCounted retain(int increment) {
-            return data.retain(increment);
+            return payload().retain(increment);
         }
 
         @Override
         public ReferenceCounted touch() {
-            data.touch();
+            payload().touch();
             return this;
         }
 
         @Override
         public ReferenceCounted touch(Object hint) {
-            data.touch(hint);
+            payload().touch(hint);
             return this;
         }
 
         @Override
         public boolean release() {
-            return data.release();
+            return payload().release();
         }
 
         @Override
         public boolean release(int decrement) {
-            return data.release(decrement);
+            return payload().release(decrement);
         }
     }
 
@@ -561,6 +634,8 @@ public interface BookieProtocol {
 
         final long requestId;
         final ByteBufList data;
+        // Set instead of data when some of the entries are transferred straight from the entry log
+        final EntryPayloadList payloads;
 
         BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, long requestId) {
             this(protocolVersion, errorCode, ledgerId, entryId, requestId, ByteBufList.get());
@@ -568,55 +643,74 @@ public interface BookieProtocol {
 
         BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, long requestId,
                 ByteBufList data) {
+            this(protocolVersion, errorCode, ledgerId, entryId, requestId, data, null);
+        }
+
+        BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, long requestId,
+                EntryPayloadList payloads) {
+            this(protocolVersion, errorCode, ledgerId, entryId, requestId, null, payloads);
+        }
+
+        private BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, long requestId,
+                ByteBufList data, EntryPayloadList payloads) {
             init(protocolVersion, BATCH_READ_ENTRY, errorCode, ledgerId, entryId);
             this.requestId = requestId;
             this.data = data;
+            this.payloads = payloads;
         }
 
         ByteBufList getData() {
             return data;
         }
 
+        EntryPayloadList getPayloads() {
+            return payloads;
+        }
+
+        private ReferenceCounted payload() {
+            return payloads != null ? payloads : data;
+        }
+
         long getRequestId() {
             return requestId;
         }
 
         @Override
         public int refCnt() {
-            return data.refCnt();
+            return payload().refCnt();
         }
 
         @Override
         public ReferenceCounted retain() {
-            data.retain();
+            payload().retain();
             return this;
         }
 
         @Override
         public ReferenceCounted retain(int increment) {
-            return data.retain(increment);
+            return payload().retain(increment);
         }
 
         @Override
         public ReferenceCounted touch() {
-            data.touch();
+            payload().touch();
             return this;
         }
 
         @Override
         public ReferenceCounted touch(Object hint) {
-            data.touch(hint);
+            payload().touch(hint);
             return this;
         }
 
         @Override
         public boolean release() {
-            return data.release();
+            return payload().release();
         }
 
         @Override
         public boolean release(int decrement) {
-            return data.release(decrement);
+            return payload().release(decrement);
         }
     }
 
@@ -648,6 +742,23 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * The response for a range add, acknowledging all the entries of the request.
+     * The ledger_id and entry_id are the ones of the first entry.
+     */
+    class RangeAddResponse extends Response {
+        final long requestId;
+
+        RangeAddResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, long requestId) {
+            init(protocolVersion, RANGE_ADD_ENTRY, errorCode, ledgerId, entryId);
+            this.requestId = requestId;
+        }
+
+        long getRequestId() {
+            return requestId;
+        }
+    }
+
     /**
      * An error response.
      */
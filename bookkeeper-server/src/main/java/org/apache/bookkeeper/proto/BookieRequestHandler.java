@@ -75,9 +75,10 @@ public class BookieRequestHandler extends ChannelInboundHandlerAdapter {
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         if (cause instanceof ClosedChannelException) {
             log.info("Client died before request could be completed on {}", ctx.channel(), cause);
-            return;
+        } else {
+            log.error("Unhandled exception occurred in I/O thread or handler on {}", ctx.channel(), cause);
         }
-        log.error("Unhandled exception occurred in I/O thread or handler on {}", ctx.channel(), cause);
+        // The failed write could have left a partial response on the connection, which can't be used anymore
         ctx.close();
     }
 
@@ -31,6 +31,7 @@ import com.google.protobuf.ByteString;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.concurrent.Future;
@@ -131,6 +132,9 @@ public class BookieRequestProcessor implements RequestProcessor {
 
     private final boolean throttleReadResponses;
 
+    private final int zeroCopyReadMinEntrySize;
+    private final boolean cachedReadsOnIoThread;
+
     public BookieRequestProcessor(ServerConfiguration serverCfg, Bookie bookie, StatsLogger statsLogger,
                                   SecurityHandlerFactory shFactory, ByteBufAllocator allocator,
                                   ChannelGroup allChannels) throws SecurityException {
@@ -141,15 +145,19 @@ public class BookieRequestProcessor implements RequestProcessor {
         this.preserveMdcForTaskExecution = serverCfg.getPreserveMdcForTaskExecution();
         this.bookie = bookie;
         this.throttleReadResponses = serverCfg.isReadWorkerThreadsThrottlingEnabled();
+        this.zeroCopyReadMinEntrySize = serverCfg.getZeroCopyReadMinEntrySize();
+        this.cachedReadsOnIoThread = serverCfg.isCachedReadsOnIoThreadEnabled();
         this.readThreadPool = createExecutor(
                 this.serverCfg.getNumReadWorkerThreads(),
                 "BookieReadThreadPool",
                 serverCfg.getMaxPendingReadRequestPerThread(),
+                serverCfg.isWorkerThreadsLoadBalancingEnabled(),
                 statsLogger);
         this.writeThreadPool = createExecutor(
                 this.serverCfg.getNumAddWorkerThreads(),
                 "BookieWriteThreadPool",
                 serverCfg.getMaxPendingAddRequestPerThread(),
+                serverCfg.isWorkerThreadsLoadBalancingEnabled(),
                 statsLogger);
         if (serverCfg.getNumLongPollWorkerThreads() <= 0 && readThreadPool != null) {
             this.longPollThreadPool = this.readThreadPool;
@@ -161,12 +169,12 @@ public class BookieRequestProcessor implements RequestProcessor {
             this.longPollThreadPool = createExecutor(
                 numThreads,
                 "BookieLongPollThread",
-                OrderedExecutor.NO_TASK_LIMIT, statsLogger);
+                OrderedExecutor.NO_TASK_LIMIT, false, statsLogger);
         }
         this.highPriorityThreadPool = createExecutor(
                 this.serverCfg.getNumHighPriorityWorkerThreads(),
                 "BookieHighPriorityThread",
-                OrderedExecutor.NO_TASK_LIMIT, statsLogger);
+                OrderedExecutor.NO_TASK_LIMIT, false, statsLogger);
         this.shFactory = shFactory;
         if (shFactory != null) {
             shFactory.init(NodeType.Server, serverCfg, allocator);
@@ -282,6 +290,7 @@ public class BookieRequestProcessor implements RequestProcessor {
             int numThreads,
             String nameFormat,
             int maxTasksInQueue,
+            boolean loadAwareOrdering,
             StatsLogger statsLogger) {
         if (numThreads <= 0) {
             return null;
@@ -294,6 +303,7 @@ public class BookieRequestProcessor implements RequestProcessor {
                     .statsLogger(statsLogger)
                     .maxTasksInQueue(maxTasksInQueue)
                     .enableThreadScopedMetrics(true)
+                    .enableLoadAwareOrdering(loadAwareOrdering)
                     .build();
         }
     }
@@ -377,6 +387,10 @@ public class BookieRequestProcessor implements RequestProcessor {
                     checkArgument(r instanceof BookieProtocol.ParsedAddRequest);
                     processAddRequest((BookieProtocol.ParsedAddRequest) r, requestHandler);
                     break;
+                case BookieProtocol.RANGE_ADD_ENTRY:
+                    checkArgument(r instanceof BookieProtocol.ParsedRangeAddRequest);
+                    processAddRequest((BookieProtocol.ParsedRangeAddRequest) r, requestHandler);
+                    break;
                 case BookieProtocol.READENTRY:
                     checkArgument(r instanceof BookieProtocol.ReadRequest);
                     processReadRequest((BookieProtocol.ReadRequest) r, requestHandler);
@@ -704,6 +718,15 @@ public class BookieRequestProcessor implements RequestProcessor {
             threadPool = readThreadPool;
         }
 
+        // Reads of entries which are still in the ledger storage caches, like the ones of tailing readers, are
+        // served right away on the I/O thread, without the handoff to the read thread pool
+        if (null != threadPool && threadPool == readThreadPool && cachedReadsOnIoThread
+                && !(r instanceof BookieProtocol.BatchedReadRequest)
+                && requestHandler.ctx().channel().isWritable() && read.runIfCached()) {
+            getRequestStats().getReadEntryOnIoThreadCounter().inc();
+            return;
+        }
+
         if (null == threadPool) {
             read.run();
         } else {
@@ -729,6 +752,19 @@ public class BookieRequestProcessor implements RequestProcessor {
         return waitTimeoutOnBackpressureMillis;
     }
 
+    /**
+     * Get the min size of the entries to send straight from the entry log files on the given channel, or 0 when
+     * zero-copy reads are disabled or cannot be used on the channel. File regions can only be written on plain
+     * socket channels, not through TLS or on local channels.
+     */
+    int getZeroCopyReadMinEntrySize(Channel channel) {
+        if (zeroCopyReadMinEntrySize <= 0 || !(channel instanceof SocketChannel)
+                || channel.pipeline().get(TLS_HANDLER_NAME) != null) {
+            return 0;
+        }
+        return zeroCopyReadMinEntrySize;
+    }
+
     public void blacklistChannel(Channel channel) {
         blacklistedChannels
                 .ifPresent(x -> x.put(channel, true));
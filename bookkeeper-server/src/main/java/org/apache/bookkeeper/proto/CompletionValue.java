@@ -43,6 +43,8 @@ abstract class CompletionValue {
     protected OpStatsLogger timeoutOpLogger;
     protected Map<String, String> mdcContextMap;
     protected PerChannelBookieClient perChannelBookieClient;
+    // bytes counted in flight on the channel, or -1 if the request is not counted
+    protected long inFlightBytes = -1;
 
     static final Logger LOG = LoggerFactory.getLogger(CompletionValue.class);
 
@@ -65,6 +67,10 @@ abstract class CompletionValue {
     }
 
     void logOpResult(int rc) {
+        if (inFlightBytes >= 0) {
+            perChannelBookieClient.inFlightCompleted(inFlightBytes);
+            inFlightBytes = -1;
+        }
         if (rc != BKException.Code.OK) {
             opLogger.registerFailedEvent(latency(), TimeUnit.NANOSECONDS);
         } else {
@@ -146,6 +152,11 @@ abstract class CompletionValue {
 
     public abstract void errorOut();
     public abstract void errorOut(int rc);
+    void setInFlight(long bytes) {
+        inFlightBytes = bytes;
+        perChannelBookieClient.inFlightStarted(bytes);
+    }
+
     public void setOutstanding() {
         // no-op
     }
@@ -37,6 +37,9 @@ import org.slf4j.LoggerFactory;
 /**
  *  Provide a simple round-robin style channel pool. We could improve it later to do more
  *  fantastic things.
+ *
+ *  <p>The channel is picked by key, unless it reached its limits of requests in flight, in
+ *  which case the next channel with room is used.
  */
 class DefaultPerChannelBookieClientPool implements PerChannelBookieClientPool,
         GenericCallback<PerChannelBookieClient> {
@@ -101,6 +104,15 @@ class DefaultPerChannelBookieClientPool implements PerChannelBookieClientPool,
             return pcbc[0];
         }
         int idx = MathUtils.signSafeMod(key, pcbc.length);
+        if (pcbc[idx].isInFlightLimitReached()) {
+            // use the next channel which has room for more requests in flight, if any
+            for (int i = 1; i < pcbc.length; i++) {
+                PerChannelBookieClient client = pcbc[(idx + i) % pcbc.length];
+                if (!client.isInFlightLimitReached()) {
+                    return client;
+                }
+            }
+        }
         return pcbc[idx];
     }
     private PerChannelBookieClient getClient(long key, boolean forceUseV3) {
@@ -0,0 +1,97 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.util.ByteBufList;
+
+/**
+ * The entries returned by a zero-copy batched read, where each entry is either a {@link ByteBuf} or a
+ * {@link FileRegion} over the entry log it is stored in.
+ *
+ * <p>Releasing the list releases all the entries it holds.
+ */
+class EntryPayloadList extends AbstractReferenceCounted {
+    private final List<ReferenceCounted> entries = new ArrayList<>();
+    private long payloadSize = 0;
+
+    void add(ReferenceCounted entry) {
+        entries.add(entry);
+        payloadSize += sizeOf(entry);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    ReferenceCounted get(int index) {
+        return entries.get(index);
+    }
+
+    long payloadSize() {
+        return payloadSize;
+    }
+
+    boolean hasFileRegions() {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i) instanceof FileRegion) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the entries, which must all be {@link ByteBuf}s, to a {@link ByteBufList} and release this list.
+     */
+    ByteBufList toByteBufList() {
+        ByteBufList data = ByteBufList.get();
+        for (int i = 0; i < entries.size(); i++) {
+            data.add((ByteBuf) entries.get(i));
+        }
+        entries.clear();
+        release();
+        return data;
+    }
+
+    static long sizeOf(ReferenceCounted entry) {
+        return entry instanceof FileRegion ? ((FileRegion) entry).count() : ((ByteBuf) entry).readableBytes();
+    }
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        return this;
+    }
+
+    @Override
+    protected void deallocate() {
+        for (int i = 0; i < entries.size(); i++) {
+            ReferenceCountUtil.safeRelease(entries.get(i));
+        }
+        entries.clear();
+    }
+}
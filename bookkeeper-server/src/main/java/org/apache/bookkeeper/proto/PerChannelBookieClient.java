@@ -57,6 +57,7 @@ import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
 import io.netty.incubator.channel.uring.IOUringSocketChannel;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -80,6 +81,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiPredicate;
@@ -106,7 +108,6 @@ import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadLacCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteLacCallback;
-import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ForceLedgerRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.GetBookieInfoRequest;
@@ -128,6 +129,7 @@ import org.apache.bookkeeper.tls.SecurityException;
 import org.apache.bookkeeper.tls.SecurityHandlerFactory;
 import org.apache.bookkeeper.tls.SecurityHandlerFactory.NodeType;
 import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.util.EventLoopUtil;
 import org.apache.bookkeeper.util.StringUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentOpenHashMap;
 import org.apache.bookkeeper.util.collections.SynchronizedHashMultiMap;
@@ -160,6 +162,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private static final int DEFAULT_HIGH_PRIORITY_VALUE = 100; // We may add finer grained priority later.
     private static final AtomicLong txnIdGenerator = new AtomicLong(0);
     static final String CONSOLIDATION_HANDLER_NAME = "consolidation";
+    // Upper bound of the size of the frame header and fields of a range add request
+    private static final int RANGE_ADD_HEADER_SIZE = 64;
 
     final BookieId bookieId;
     final BookieAddressResolver bookieAddressResolver;
@@ -279,6 +283,21 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         help = "channel stats for all operations flowing through netty pipeline"
     )
     private final OpStatsLogger nettyOpLogger;
+    @StatsDoc(
+        name = BookKeeperClientStats.CHANNEL_IN_FLIGHT_REQUESTS,
+        help = "the number of add and read requests in flight, sent or waiting to be sent"
+    )
+    private final Counter inFlightRequestsCounter;
+    @StatsDoc(
+        name = BookKeeperClientStats.CHANNEL_IN_FLIGHT_BYTES,
+        help = "the number of bytes of add requests in flight, sent or waiting to be sent"
+    )
+    private final Counter inFlightBytesCounter;
+    @StatsDoc(
+        name = BookKeeperClientStats.CHANNEL_IN_FLIGHT_LIMIT_REJECTED,
+        help = "the number of requests rejected because the channel reached its in flight limits"
+    )
+    private final Counter inFlightLimitRejectedCounter;
     @StatsDoc(
         name = BookKeeperClientStats.ACTIVE_NON_TLS_CHANNEL_COUNTER,
         help = "the number of active non-tls channels"
@@ -301,6 +320,11 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private final Counter failedTlsHandshakeCounter;
 
     private final boolean useV2WireProtocol;
+    private final boolean rangeAddEnabled;
+    private final int maxInFlightRequests;
+    private final long maxInFlightBytes;
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final AtomicLong inFlightBytes = new AtomicLong();
     protected final boolean preserveMdcForTaskExecution;
 
     /**
@@ -388,6 +412,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         this.getBookieInfoTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getBookieInfoTimeout());
         this.startTLSTimeout = conf.getStartTLSTimeout();
         this.useV2WireProtocol = conf.getUseV2WireProtocol();
+        this.rangeAddEnabled = conf.isRangeAddEnabled();
+        this.maxInFlightRequests = conf.getChannelMaxInFlightRequests();
+        this.maxInFlightBytes = conf.getChannelMaxInFlightBytes();
         this.preserveMdcForTaskExecution = conf.getPreserveMdcForTaskExecution();
 
         this.authProviderFactory = authProviderFactory;
@@ -423,6 +450,10 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         addEntryOutstanding = statsLogger.getCounter(BookKeeperClientStats.ADD_OP_OUTSTANDING);
         readEntryOutstanding = statsLogger.getCounter(BookKeeperClientStats.READ_OP_OUTSTANDING);
         nettyOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.NETTY_OPS);
+        inFlightRequestsCounter = statsLogger.getCounter(BookKeeperClientStats.CHANNEL_IN_FLIGHT_REQUESTS);
+        inFlightBytesCounter = statsLogger.getCounter(BookKeeperClientStats.CHANNEL_IN_FLIGHT_BYTES);
+        inFlightLimitRejectedCounter = statsLogger.getCounter(
+                BookKeeperClientStats.CHANNEL_IN_FLIGHT_LIMIT_REJECTED);
         activeNonTlsChannelCounter = statsLogger.getCounter(BookKeeperClientStats.ACTIVE_NON_TLS_CHANNEL_COUNTER);
         activeTlsChannelCounter = statsLogger.getCounter(BookKeeperClientStats.ACTIVE_TLS_CHANNEL_COUNTER);
         failedConnectionCounter = statsLogger.getCounter(BookKeeperClientStats.FAILED_CONNECTION_COUNTER);
@@ -579,8 +610,10 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         bootstrap.handler(new ChannelInitializer<Channel>() {
             @Override
             protected void initChannel(Channel ch) throws Exception {
+                EventLoopUtil.configureSocketChannel(conf, ch);
                 ChannelPipeline pipeline = ch.pipeline();
-                pipeline.addLast(CONSOLIDATION_HANDLER_NAME, new FlushConsolidationHandler(1024, true));
+                pipeline.addLast(CONSOLIDATION_HANDLER_NAME,
+                        new FlushConsolidationHandler(conf.getNettyMaxConsolidatedFlushes(), true));
                 pipeline.addLast("bytebufList", ByteBufList.ENCODER);
                 pipeline.addLast("lengthbasedframedecoder",
                         new LengthFieldBasedFrameDecoder(maxFrameSize, 0, 4, 0, 4));
@@ -619,7 +652,37 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
      * @return boolean, true is PCBC is writable
      */
     public boolean isWritable() {
-        return isWritable;
+        return isWritable && !isInFlightLimitReached();
+    }
+
+    /**
+     * Check whether the add and read requests in flight on this channel reached the configured
+     * limits by count or by bytes. Requests are counted from the time they are issued until their
+     * completion, so this also covers the requests waiting in the channel to be sent.
+     *
+     * @return true if no more requests should be sent on this channel for now
+     */
+    boolean isInFlightLimitReached() {
+        return (maxInFlightRequests > 0 && inFlightRequests.get() >= maxInFlightRequests)
+                || (maxInFlightBytes > 0 && inFlightBytes.get() >= maxInFlightBytes);
+    }
+
+    void inFlightStarted(long bytes) {
+        inFlightRequests.incrementAndGet();
+        inFlightRequestsCounter.inc();
+        if (bytes > 0) {
+            inFlightBytes.addAndGet(bytes);
+            inFlightBytesCounter.addCount(bytes);
+        }
+    }
+
+    void inFlightCompleted(long bytes) {
+        inFlightRequests.decrementAndGet();
+        inFlightRequestsCounter.dec();
+        if (bytes > 0) {
+            inFlightBytes.addAndGet(-bytes);
+            inFlightBytesCounter.addCount(-bytes);
+        }
     }
 
     public void setWritable(boolean val) {
@@ -761,6 +824,12 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
      */
     void addEntry(final long ledgerId, byte[] masterKey, final long entryId, ReferenceCounted toSend, WriteCallback cb,
                   Object ctx, final int options, boolean allowFastFail, final EnumSet<WriteFlag> writeFlags) {
+        addEntry(ledgerId, masterKey, entryId, toSend, cb, ctx, options, allowFastFail, writeFlags, true);
+    }
+
+    private void addEntry(final long ledgerId, byte[] masterKey, final long entryId, ReferenceCounted toSend,
+                          WriteCallback cb, Object ctx, final int options, boolean allowFastFail,
+                          final EnumSet<WriteFlag> writeFlags, boolean flush) {
         Object request = null;
         CompletionKey completionKey = null;
         Runnable cleanupActionFailedBeforeWrite = null;
@@ -787,47 +856,106 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             final long txnId = getTxnId();
             completionKey = new TxnCompletionKey(txnId, OperationType.ADD_ENTRY);
 
-            // Build the request and calculate the total size to be included in the packet.
-            BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
-                    .setVersion(ProtocolVersion.VERSION_THREE)
-                    .setOperation(OperationType.ADD_ENTRY)
-                    .setTxnId(txnId);
+            int priority = 0;
             if (((short) options & BookieProtocol.FLAG_HIGH_PRIORITY) == BookieProtocol.FLAG_HIGH_PRIORITY) {
-                headerBuilder.setPriority(DEFAULT_HIGH_PRIORITY_VALUE);
+                priority = DEFAULT_HIGH_PRIORITY_VALUE;
             }
+            boolean recoveryAdd =
+                    ((short) options & BookieProtocol.FLAG_RECOVERY_ADD) == BookieProtocol.FLAG_RECOVERY_ADD;
+            // add flags only if needed, in order to be able to talk with old bookies
+            int writeFlagsValue = writeFlags.isEmpty() ? 0 : WriteFlag.getWriteFlagsValue(writeFlags);
+
+            // Encode the request straight from its fields, the frame holds its own references to the payload
+            Object frame = BookieProtoV3Codec.encodeAddRequest(allocator, txnId, priority, ledgerId, entryId,
+                    masterKey, (ByteBufList) toSend, writeFlagsValue, recoveryAdd, requestContext());
+            request = frame;
+            cleanupActionFailedBeforeWrite = () -> ReferenceCountUtil.release(frame);
+        }
+
+        long entrySize = toSend instanceof ByteBuf
+                ? ((ByteBuf) toSend).readableBytes()
+                : ((ByteBufList) toSend).readableBytes();
+        if (!putInFlightCompletionKeyValue(completionKey,
+                                           AddCompletion.acquireAddCompletion(completionKey,
+                                                   cb, ctx, ledgerId, entryId, this),
+                                           entrySize, allowFastFail)) {
+            cleanupActionFailedBeforeWrite.run();
+            return;
+        }
+        // addEntry times out on backpressure
+        writeAndFlush(channel, completionKey, request, allowFastFail, cleanupActionFailedBeforeWrite,
+                cleanupActionAfterWrite, flush);
+    }
 
-            ByteBufList bufToSend = (ByteBufList) toSend;
-            ByteString body = ByteStringUtil.byteBufListToByteString(bufToSend);
-            bufToSend.retain();
-            cleanupActionFailedBeforeWrite = bufToSend::release;
-            cleanupActionAfterWrite = cleanupActionFailedBeforeWrite;
-            AddRequest.Builder addBuilder = AddRequest.newBuilder()
-                    .setLedgerId(ledgerId)
-                    .setEntryId(entryId)
-                    .setMasterKey(UnsafeByteOperations.unsafeWrap(masterKey))
-                    .setBody(body);
-
-            if (((short) options & BookieProtocol.FLAG_RECOVERY_ADD) == BookieProtocol.FLAG_RECOVERY_ADD) {
-                addBuilder.setFlag(AddRequest.Flag.RECOVERY_ADD);
+    /**
+     * Add a run of entries of the same ledger. This method should be called only after connection
+     * has been checked for {@link #connectIfNeededAndDoOp(GenericCallback)}.
+     *
+     * <p>When range adds are enabled, the entries are consecutive and fit in a single frame, they
+     * are sent with a single range add request. Range adds are only part of the v2 protocol: with
+     * the v3 protocol, or write flags that the v2 protocol does not support, or when a range add
+     * cannot be used, each entry is sent with its own add request and the channel is flushed once.
+     *
+     * @param ledgerId
+     *          Ledger Id
+     * @param masterKey
+     *          Master Key
+     * @param entryIds
+     *          Ids of the entries, in order
+     * @param toSend
+     *          Buffers to send, one per entry
+     * @param cb
+     *          Write callback, triggered once per entry
+     * @param ctx
+     *          Write callback context
+     * @param allowFastFail
+     *          allowFastFail flag
+     * @param writeFlags
+     *          WriteFlags
+     */
+    void addEntries(final long ledgerId, byte[] masterKey, final long[] entryIds, ReferenceCounted[] toSend,
+                    WriteCallback cb, Object ctx, final int options, boolean allowFastFail,
+                    final EnumSet<WriteFlag> writeFlags) {
+        if (!canUseRangeAdd(entryIds, toSend, writeFlags)) {
+            for (int i = 0; i < entryIds.length; i++) {
+                addEntry(ledgerId, masterKey, entryIds[i], toSend[i], cb, ctx, options, allowFastFail, writeFlags,
+                        false);
             }
-
-            if (!writeFlags.isEmpty()) {
-                // add flags only if needed, in order to be able to talk with old bookies
-                addBuilder.setWriteFlags(WriteFlag.getWriteFlagsValue(writeFlags));
+            Channel c = channel;
+            if (c != null) {
+                c.flush();
             }
-
-            request = withRequestContext(Request.newBuilder())
-                    .setHeader(headerBuilder)
-                    .setAddRequest(addBuilder)
-                    .build();
+            return;
         }
 
-        putCompletionKeyValue(completionKey,
-                              AddCompletion.acquireAddCompletion(completionKey,
-                                                   cb, ctx, ledgerId, entryId, this));
+        final long txnId = getTxnId();
+        final CompletionKey completionKey = new TxnCompletionKey(txnId, OperationType.RANGE_ADD_ENTRY);
+        ByteBufList request = BookieProtoEncoding.RequestEnDeCoderPreV3.serializeRangeAddRequest(
+                allocator, (short) options, masterKey, ledgerId, entryIds[0], txnId, toSend);
+
+        if (!putInFlightCompletionKeyValue(completionKey,
+                                           new RangeAddCompletion(completionKey, cb, ctx, ledgerId, entryIds, this),
+                                           request.readableBytes(), allowFastFail)) {
+            request.release();
+            return;
+        }
         // addEntry times out on backpressure
-        writeAndFlush(channel, completionKey, request, allowFastFail, cleanupActionFailedBeforeWrite,
-                cleanupActionAfterWrite);
+        writeAndFlush(channel, completionKey, request, allowFastFail, request::release, null);
+    }
+
+    private boolean canUseRangeAdd(long[] entryIds, ReferenceCounted[] toSend, EnumSet<WriteFlag> writeFlags) {
+        if (!rangeAddEnabled || !useV2WireProtocol || !writeFlags.isEmpty() || entryIds.length < 2
+                || entryIds[entryIds.length - 1] - entryIds[0] != entryIds.length - 1) {
+            return false;
+        }
+        long requestSize = RANGE_ADD_HEADER_SIZE;
+        for (ReferenceCounted buf : toSend) {
+            // the add request header of each entry is replaced by its size
+            requestSize += buf instanceof ByteBuf
+                    ? ((ByteBuf) buf).readableBytes()
+                    : ((ByteBufList) buf).readableBytes();
+        }
+        return requestSize < maxFrameSize;
     }
 
     public void readLac(final long ledgerId, ReadLacCallback cb, Object ctx) {
@@ -918,6 +1046,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                                    boolean allowFastFail) {
         Object request = null;
         CompletionKey completionKey = null;
+        Runnable cleanupActionFailedBeforeWrite = null;
         if (useV2WireProtocol) {
             request = BookieProtocol.ReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
                     ledgerId, entryId, (short) flags, masterKey);
@@ -926,21 +1055,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             final long txnId = getTxnId();
             completionKey = new TxnCompletionKey(txnId, OperationType.READ_ENTRY);
 
-            // Build the request and calculate the total size to be included in the packet.
-            BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
-                    .setVersion(ProtocolVersion.VERSION_THREE)
-                    .setOperation(OperationType.READ_ENTRY)
-                    .setTxnId(txnId);
+            int priority = 0;
             if (((short) flags & BookieProtocol.FLAG_HIGH_PRIORITY) == BookieProtocol.FLAG_HIGH_PRIORITY) {
-                headerBuilder.setPriority(DEFAULT_HIGH_PRIORITY_VALUE);
-            }
-
-            ReadRequest.Builder readBuilder = ReadRequest.newBuilder()
-                    .setLedgerId(ledgerId)
-                    .setEntryId(entryId);
-
-            if (null != previousLAC) {
-                readBuilder = readBuilder.setPreviousLAC(previousLAC);
+                priority = DEFAULT_HIGH_PRIORITY_VALUE;
             }
 
             if (null != timeOutInMillis) {
@@ -950,9 +1067,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                         ledgerId, entryId, null, ctx);
                     return;
                 }
-                readBuilder = readBuilder.setTimeOut(timeOutInMillis);
             }
 
+            ReadRequest.Flag readFlag = null;
             if (piggyBackEntry) {
                 // Long poll requires previousLAC
                 if (null == previousLAC) {
@@ -960,30 +1077,40 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                         ledgerId, entryId, null, ctx);
                     return;
                 }
-                readBuilder = readBuilder.setFlag(ReadRequest.Flag.ENTRY_PIGGYBACK);
+                readFlag = ReadRequest.Flag.ENTRY_PIGGYBACK;
             }
 
             // Only one flag can be set on the read requests
+            byte[] readMasterKey = null;
             if (((short) flags & BookieProtocol.FLAG_DO_FENCING) == BookieProtocol.FLAG_DO_FENCING) {
-                readBuilder.setFlag(ReadRequest.Flag.FENCE_LEDGER);
+                readFlag = ReadRequest.Flag.FENCE_LEDGER;
                 if (masterKey == null) {
                     cb.readEntryComplete(BKException.Code.IncorrectParameterException,
                                          ledgerId, entryId, null, ctx);
                     return;
                 }
-                readBuilder.setMasterKey(ByteString.copyFrom(masterKey));
+                readMasterKey = masterKey;
             }
 
-            request = withRequestContext(Request.newBuilder())
-                    .setHeader(headerBuilder)
-                    .setReadRequest(readBuilder)
-                    .build();
+            // Encode the request straight from its fields
+            ByteBuf frame = BookieProtoV3Codec.encodeReadRequest(allocator, txnId, priority, ledgerId, entryId,
+                    readMasterKey, previousLAC, timeOutInMillis, readFlag, requestContext());
+            request = frame;
+            cleanupActionFailedBeforeWrite = frame::release;
         }
 
         ReadCompletion readCompletion = new ReadCompletion(completionKey, cb, ctx, ledgerId, entryId, this);
-        putCompletionKeyValue(completionKey, readCompletion);
+        if (timeOutInMillis != null) {
+            // long poll reads wait on the bookie by design, they are not limited
+            putCompletionKeyValue(completionKey, readCompletion);
+        } else if (!putInFlightCompletionKeyValue(completionKey, readCompletion, 0, true)) {
+            if (cleanupActionFailedBeforeWrite != null) {
+                cleanupActionFailedBeforeWrite.run();
+            }
+            return;
+        }
 
-        writeAndFlush(channel, completionKey, request, allowFastFail, null, null);
+        writeAndFlush(channel, completionKey, request, allowFastFail, cleanupActionFailedBeforeWrite, null);
     }
 
     public void batchReadEntries(final long ledgerId,
@@ -1024,7 +1151,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
         BatchedReadCompletion readCompletion = new BatchedReadCompletion(
                 completionKey, cb, ctx, ledgerId, startEntryId, this);
-        putCompletionKeyValue(completionKey, readCompletion);
+        if (!putInFlightCompletionKeyValue(completionKey, readCompletion, 0, true)) {
+            return;
+        }
 
         writeAndFlush(channel, completionKey, request, allowFastFail, null, null);
     }
@@ -1156,6 +1285,15 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                            final Object request,
                                final boolean allowFastFail, final Runnable cleanupActionFailedBeforeWrite,
                                final Runnable cleanupActionAfterWrite) {
+        writeAndFlush(channel, key, request, allowFastFail, cleanupActionFailedBeforeWrite, cleanupActionAfterWrite,
+                true);
+    }
+
+    private void writeAndFlush(final Channel channel,
+                               final CompletionKey key,
+                               final Object request,
+                               final boolean allowFastFail, final Runnable cleanupActionFailedBeforeWrite,
+                               final Runnable cleanupActionAfterWrite, final boolean flush) {
         if (channel == null) {
             LOG.warn("Operation {} failed: channel == null", StringUtils.requestToString(request));
             errorOut(key);
@@ -1203,7 +1341,11 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                     }
                 }
             });
-            channel.writeAndFlush(request, promise);
+            if (flush) {
+                channel.writeAndFlush(request, promise);
+            } else {
+                channel.write(request, promise);
+            }
         } catch (Throwable e) {
             LOG.warn("Operation {} failed", StringUtils.requestToString(request), e);
             errorOut(key);
@@ -1397,6 +1539,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         CompletionKey key;
         if (OperationType.BATCH_READ_ENTRY == operationType) {
             key = new TxnCompletionKey(((BookieProtocol.BatchedReadResponse) response).getRequestId(), operationType);
+        } else if (OperationType.RANGE_ADD_ENTRY == operationType) {
+            key = new TxnCompletionKey(((BookieProtocol.RangeAddResponse) response).getRequestId(), operationType);
         } else {
             key = EntryCompletionKey.acquireV2Key(response.ledgerId, response.entryId, operationType);
         }
@@ -1483,6 +1627,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 return OperationType.GET_BOOKIE_INFO;
             case BookieProtocol.BATCH_READ_ENTRY:
                 return OperationType.BATCH_READ_ENTRY;
+            case BookieProtocol.RANGE_ADD_ENTRY:
+                return OperationType.RANGE_ADD_ENTRY;
             default:
                 throw new IllegalArgumentException("Invalid operation type " + opCode);
         }
@@ -1654,6 +1800,34 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * Register the completion of an add or read request, counting the request in flight on this
+     * channel until it completes.
+     *
+     * @param bytes
+     *          bytes of the request counted in flight
+     * @param rejectOverLimit
+     *          whether to reject the request when the in flight limits are reached
+     * @return false if the request was rejected, its callback is then completed with
+     *         TooManyRequestsException so that the caller can try another replica
+     */
+    private boolean putInFlightCompletionKeyValue(CompletionKey key, CompletionValue value, long bytes,
+                                                  boolean rejectOverLimit) {
+        if (rejectOverLimit && isInFlightLimitReached()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Rejecting request {} to {}: {} requests and {} bytes in flight",
+                        key, bookieId, inFlightRequests.get(), inFlightBytes.get());
+            }
+            inFlightLimitRejectedCounter.inc();
+            // the key is not registered, in case another v2 request uses the same key
+            value.errorOut(BKException.Code.TooManyRequestsException);
+            return false;
+        }
+        value.setInFlight(bytes);
+        putCompletionKeyValue(key, value);
+        return true;
+    }
+
     private CompletionValue getCompletionValue(CompletionKey key) {
         CompletionValue completionValue = completionObjects.remove(key);
         if (completionValue == null) {
@@ -1675,18 +1849,30 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     }
 
     static Request.Builder appendRequestContext(Request.Builder builder) {
+        return builder.addAllRequestContext(mdcRequestContext());
+    }
+
+    List<BookkeeperProtocol.ContextPair> requestContext() {
+        if (preserveMdcForTaskExecution) {
+            return mdcRequestContext();
+        }
+        return Collections.emptyList();
+    }
+
+    static List<BookkeeperProtocol.ContextPair> mdcRequestContext() {
         final Map<String, String> mdcContextMap = MDC.getCopyOfContextMap();
         if (mdcContextMap == null || mdcContextMap.isEmpty()) {
-            return builder;
+            return Collections.emptyList();
         }
+        List<BookkeeperProtocol.ContextPair> contexts = new ArrayList<>(mdcContextMap.size());
         for (Map.Entry<String, String> kv : mdcContextMap.entrySet()) {
             final BookkeeperProtocol.ContextPair context = BookkeeperProtocol.ContextPair.newBuilder()
                     .setKey(kv.getKey())
                     .setValue(kv.getValue())
                     .build();
-            builder.addRequestContext(context);
+            contexts.add(context);
         }
-        return builder;
+        return contexts;
     }
 
     ChannelFutureListener contextPreservingListener(ChannelFutureListener listener) {
@@ -0,0 +1,95 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.proto;
+
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.common.util.MathUtils;
+
+class RangeAddCompletion extends CompletionValue {
+
+    final BookkeeperInternalCallbacks.WriteCallback cb;
+    final long[] entryIds;
+
+    public RangeAddCompletion(final CompletionKey key,
+                              final BookkeeperInternalCallbacks.WriteCallback originalCallback,
+                              final Object originalCtx,
+                              final long ledgerId, final long[] entryIds,
+                              PerChannelBookieClient perChannelBookieClient) {
+        super("RangeAdd", originalCtx, ledgerId, entryIds[0], perChannelBookieClient);
+        this.opLogger = perChannelBookieClient.addEntryOpLogger;
+        this.timeoutOpLogger = perChannelBookieClient.addTimeoutOpLogger;
+        this.entryIds = entryIds;
+        this.cb = (rc, ledgerId1, entryId, addr, ctx) -> {
+            logOpResult(rc);
+            // The bookie acknowledges the whole range at once
+            for (long id : entryIds) {
+                originalCallback.writeComplete(rc, ledgerId1, id, addr, ctx);
+            }
+            key.release();
+        };
+    }
+
+    @Override
+    boolean maybeTimeout() {
+        if (MathUtils.elapsedNanos(startTime) >= perChannelBookieClient.addEntryTimeoutNanos) {
+            timeout();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void errorOut() {
+        errorOut(BKException.Code.BookieHandleNotAvailableException);
+    }
+
+    @Override
+    public void errorOut(final int rc) {
+        errorOutAndRunCallback(
+                () -> cb.writeComplete(rc, ledgerId, entryId, perChannelBookieClient.bookieId, ctx));
+    }
+
+    @Override
+    public void setOutstanding() {
+        perChannelBookieClient.addEntryOutstanding.inc();
+    }
+
+    @Override
+    public void handleV2Response(long ledgerId,
+                                 long entryId,
+                                 BookkeeperProtocol.StatusCode status,
+                                 BookieProtocol.Response response) {
+        perChannelBookieClient.addEntryOutstanding.dec();
+        if (LOG.isDebugEnabled()) {
+            logResponse(status, "ledger", ledgerId, "entry", entryId, "count", entryIds.length);
+        }
+
+        int rc = convertStatus(status, BKException.Code.WriteException);
+        cb.writeComplete(rc, ledgerId, entryId, perChannelBookieClient.bookieId, ctx);
+    }
+
+    @Override
+    public void handleV3Response(BookkeeperProtocol.Response response) {
+        // V3 protocol haven't supported range add yet.
+    }
+}
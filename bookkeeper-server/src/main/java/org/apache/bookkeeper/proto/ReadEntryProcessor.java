@@ -18,6 +18,7 @@
 package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
 import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
@@ -42,6 +43,8 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
 
     protected ExecutorService fenceThreadPool;
     protected boolean throttleReadResponses;
+    // the entry found in the ledger storage caches when the read runs on the I/O thread
+    private ByteBuf cachedEntry;
 
     public static ReadEntryProcessor create(ReadRequest request,
                                             BookieRequestHandler requestHandler,
@@ -127,7 +130,34 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
         sendResponse(data, errorCode, startTimeNanos);
     }
 
+    /**
+     * Run the read on the calling thread if the entry is cached in memory by the ledger storage.
+     *
+     * @return true if the read was run, or false if it has to be scheduled on a read thread
+     */
+    boolean runIfCached() {
+        if (request.isFencing() || !isVersionCompatible()) {
+            return false;
+        }
+        cachedEntry = requestProcessor.getBookie().readEntryIfCached(request.getLedgerId(), request.getEntryId());
+        if (cachedEntry == null) {
+            return false;
+        }
+        run();
+        return true;
+    }
+
     protected ReferenceCounted readData() throws Exception {
+        if (cachedEntry != null) {
+            ByteBuf entry = cachedEntry;
+            cachedEntry = null;
+            return entry;
+        }
+        int minRegionSize = requestProcessor.getZeroCopyReadMinEntrySize(requestHandler.ctx().channel());
+        if (minRegionSize > 0) {
+            return requestProcessor.getBookie().readEntryOrRegion(request.getLedgerId(), request.getEntryId(),
+                    minRegionSize);
+        }
         return requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
     }
 
@@ -151,6 +181,9 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
     }
 
     protected BookieProtocol.Response buildReadResponse(ReferenceCounted data) {
+        if (data instanceof FileRegion) {
+            return ResponseBuilder.buildReadResponse((FileRegion) data, request);
+        }
         return ResponseBuilder.buildReadResponse((ByteBuf) data, request);
     }
 
@@ -199,6 +232,10 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
     }
 
     void recycle() {
+        if (cachedEntry != null) {
+            cachedEntry.release();
+            cachedEntry = null;
+        }
         request.recycle();
         super.reset();
         if (this.recyclerHandle != null) {
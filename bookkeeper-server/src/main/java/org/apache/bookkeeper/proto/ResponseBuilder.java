@@ -21,6 +21,7 @@
 package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
 import org.apache.bookkeeper.util.ByteBufList;
 
 class ResponseBuilder {
@@ -28,6 +29,9 @@ class ResponseBuilder {
         if (r.getOpCode() == BookieProtocol.ADDENTRY) {
             return BookieProtocol.AddResponse.create(r.getProtocolVersion(), errorCode,
                                                   r.getLedgerId(), r.getEntryId());
+        } else if (r.getOpCode() == BookieProtocol.RANGE_ADD_ENTRY) {
+            return new BookieProtocol.RangeAddResponse(r.getProtocolVersion(), errorCode,
+                    r.getLedgerId(), r.getEntryId(), ((BookieProtocol.ParsedRangeAddRequest) r).getRequestId());
         } else if (r.getOpCode() == BookieProtocol.READENTRY) {
             return new BookieProtocol.ReadResponse(r.getProtocolVersion(), errorCode,
                                                    r.getLedgerId(), r.getEntryId());
@@ -48,8 +52,19 @@ class ResponseBuilder {
                 r.getLedgerId(), r.getEntryId(), data);
     }
 
+    static BookieProtocol.Response buildReadResponse(FileRegion region, BookieProtocol.Request r) {
+        return new BookieProtocol.ReadResponse(r.getProtocolVersion(), BookieProtocol.EOK,
+                r.getLedgerId(), r.getEntryId(), region);
+    }
+
     static BookieProtocol.Response buildBatchedReadResponse(ByteBufList data, BookieProtocol.BatchedReadRequest r) {
         return new BookieProtocol.BatchedReadResponse(r.getProtocolVersion(), BookieProtocol.EOK,
                 r.getLedgerId(), r.getEntryId(), r.getRequestId(), data);
     }
+
+    static BookieProtocol.Response buildBatchedReadResponse(EntryPayloadList payloads,
+                                                            BookieProtocol.BatchedReadRequest r) {
+        return new BookieProtocol.BatchedReadResponse(r.getProtocolVersion(), BookieProtocol.EOK,
+                r.getLedgerId(), r.getEntryId(), r.getRequestId(), payloads);
+    }
 }
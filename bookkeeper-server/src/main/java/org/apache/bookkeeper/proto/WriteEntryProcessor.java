@@ -21,12 +21,14 @@ import com.google.common.annotations.VisibleForTesting;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.Recycler;
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.bookie.BookieException.OperationRejectedException;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookieProtocol.ParsedAddRequest;
+import org.apache.bookkeeper.proto.BookieProtocol.ParsedRangeAddRequest;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,11 +41,16 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
     private static final Logger LOG = LoggerFactory.getLogger(WriteEntryProcessor.class);
 
     long startTimeNanos;
+    // Entries of a range add request that are not yet acknowledged by the journal
+    int pendingEntries;
+    int rangeAddRc;
 
     @Override
     protected void reset() {
         super.reset();
         startTimeNanos = -1L;
+        pendingEntries = 0;
+        rangeAddRc = BookieProtocol.EOK;
     }
 
     public static WriteEntryProcessor create(ParsedAddRequest request, BookieRequestHandler requestHandler,
@@ -73,7 +80,9 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
         int rc = BookieProtocol.EOK;
         ByteBuf addData = request.getData();
         try {
-            if (request.isRecoveryAdd()) {
+            if (request instanceof ParsedRangeAddRequest) {
+                rc = addEntries((ParsedRangeAddRequest) request);
+            } else if (request.isRecoveryAdd()) {
                 requestProcessor.getBookie().recoveryAddEntry(addData, this, requestHandler, request.getMasterKey());
             } else {
                 requestProcessor.getBookie().addEntry(addData, false, this,
@@ -115,9 +124,46 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
         }
     }
 
+    private int addEntries(ParsedRangeAddRequest request)
+            throws IOException, BookieException, InterruptedException {
+        List<ByteBuf> entries = request.getEntries();
+        // Range adds are never used for recovery, and the entries must be the consecutive entries of the ledger of
+        // the request, starting at its entry id
+        boolean isValid = !entries.isEmpty() && !request.isRecoveryAdd();
+        for (int i = 0; i < entries.size() && isValid; i++) {
+            ByteBuf entry = entries.get(i);
+            isValid = entry.readableBytes() >= 16
+                    && entry.getLong(entry.readerIndex()) == request.getLedgerId()
+                    && entry.getLong(entry.readerIndex() + 8) == request.getEntryId() + i;
+        }
+        if (!isValid) {
+            LOG.warn("Invalid range add request {} from client {}", request,
+                    requestHandler.ctx().channel().remoteAddress());
+            request.release();
+            return BookieProtocol.EBADREQ;
+        }
+
+        pendingEntries = entries.size();
+        requestProcessor.getBookie().addEntries(entries, false, this, requestHandler, request.getMasterKey());
+        return BookieProtocol.EOK;
+    }
+
     @Override
     public void writeComplete(int rc, long ledgerId, long entryId,
                               BookieId addr, Object ctx) {
+        if (request instanceof ParsedRangeAddRequest) {
+            // Acknowledge the whole range once all of its entries are logged
+            synchronized (this) {
+                if (rc != BookieProtocol.EOK) {
+                    rangeAddRc = rc;
+                }
+                if (--pendingEntries > 0) {
+                    return;
+                }
+                rc = rangeAddRc;
+            }
+        }
+
         if (BookieProtocol.EOK == rc) {
             requestProcessor.getRequestStats().getAddEntryStats()
                 .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
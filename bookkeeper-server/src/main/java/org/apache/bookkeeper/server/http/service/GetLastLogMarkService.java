@@ -75,9 +75,9 @@ public class GetLastLogMarkService implements HttpEndpointService {
                 Map<String, String> output = Maps.newHashMap();
 
                 List<Journal> journals = Lists.newArrayListWithCapacity(conf.getJournalDirs().length);
-                int idx = 0;
-                for (File journalDir : conf.getJournalDirs()) {
-                    journals.add(new Journal(idx++, journalDir, conf, new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                for (Map.Entry<Integer, File> writerDir : Journal.listWriterDirectories(conf).entrySet()) {
+                    journals.add(new Journal(writerDir.getKey(), writerDir.getValue(), conf,
+                      new LedgerDirsManager(conf, conf.getLedgerDirs(),
                       new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()))));
                 }
                 for (Journal journal : journals) {
@@ -87,7 +87,9 @@ public class GetLastLogMarkService implements HttpEndpointService {
                                 + Long.toHexString(lastLogMark.getLogFileId()) + ".txn), Pos - "
                                 + lastLogMark.getLogFileOffset());
                     }
-                    output.put("LastLogMark: Journal Id - " + lastLogMark.getLogFileId()
+                    // the journals of several writers can be at the same journal id, tell them apart
+                    output.put("LastLogMark: " + journal.getJournalDirectory() + " Journal Id - "
+                        + lastLogMark.getLogFileId()
                         + "(" + Long.toHexString(lastLogMark.getLogFileId()) + ".txn)",
                         "Pos - " + lastLogMark.getLogFileOffset());
                 }
@@ -22,6 +22,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import org.apache.bookkeeper.bookie.Journal;
 import org.apache.bookkeeper.bookie.LedgerDirsManager;
 import org.apache.bookkeeper.bookie.LogMark;
@@ -61,12 +62,12 @@ public class LastMarkCommand extends BookieCommand<CliFlags> {
             LedgerDirsManager dirsManager = new LedgerDirsManager(
                     conf, conf.getLedgerDirs(),
                     new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
-            File[] journalDirs = conf.getJournalDirs();
-
-            for (int idx = 0; idx < journalDirs.length; idx++) {
-                Journal journal = new Journal(idx, journalDirs[idx], conf, dirsManager);
+            for (Map.Entry<Integer, File> writerDir : Journal.listWriterDirectories(conf).entrySet()) {
+                Journal journal = new Journal(writerDir.getKey(), writerDir.getValue(), conf, dirsManager);
                 LogMark lastLogMark = journal.getLastLogMark().getCurMark();
-                LOG.info("LastLogMark : Journal Id - {}({}.txn), Pos - {}",
+                LOG.info("LastLogMark : Journal {} - {}, Journal Id - {}({}.txn), Pos - {}",
+                    writerDir.getKey(),
+                    writerDir.getValue(),
                     lastLogMark.getLogFileId(),
                     Long.toHexString(lastLogMark.getLogFileId()),
                     lastLogMark.getLogFileOffset());
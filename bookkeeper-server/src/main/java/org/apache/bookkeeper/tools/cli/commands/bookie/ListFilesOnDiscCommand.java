@@ -26,6 +26,7 @@ import java.util.List;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 import org.apache.bookkeeper.bookie.BookieShell;
+import org.apache.bookkeeper.bookie.Journal;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.tools.cli.helpers.BookieCommand;
 import org.apache.bookkeeper.tools.framework.CliFlags;
@@ -77,11 +78,12 @@ public class ListFilesOnDiscCommand extends BookieCommand<ListFilesOnDiscCommand
 
     private boolean handler(ServerConfiguration conf, LFODFlags cmd) throws IOException {
         if (cmd.journal) {
-            File[] journalDirs = conf.getJournalDirs();
-            List<File> journalFiles = BookieShell.listFilesAndSort(journalDirs, "txn");
             LOG.info("--------- Printing the list of Journal Files ---------");
-            for (File journalFile : journalFiles) {
-                LOG.info("{}", journalFile.getCanonicalPath());
+            // the journal files of each writer, in the order they were written
+            for (File writerDir : Journal.listWriterDirectories(conf).values()) {
+                for (long journalId : Journal.listJournalIds(writerDir, null)) {
+                    LOG.info("{}", new File(writerDir, Long.toHexString(journalId) + ".txn").getCanonicalPath());
+                }
             }
             LOG.info("");
         }
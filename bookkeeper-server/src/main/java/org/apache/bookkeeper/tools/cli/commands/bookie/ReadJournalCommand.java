@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 import org.apache.bookkeeper.bookie.Journal;
@@ -34,7 +35,6 @@ import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.tools.cli.helpers.BookieCommand;
 import org.apache.bookkeeper.tools.framework.CliFlags;
 import org.apache.bookkeeper.tools.framework.CliSpec;
-import org.apache.bookkeeper.util.BookKeeperConstants;
 import org.apache.bookkeeper.util.DiskChecker;
 import org.apache.bookkeeper.util.EntryFormatter;
 import org.apache.bookkeeper.util.LedgerIdFormatter;
@@ -80,7 +80,8 @@ public class ReadJournalCommand extends BookieCommand<ReadJournalCommand.ReadJou
         @Parameter(names = {"-m", "--msg"}, description = "Print message body")
         private boolean msg;
 
-        @Parameter(names = { "-d", "--dir" }, description = "Journal directory (needed if more than one journal "
+        @Parameter(names = { "-d", "--dir" }, description = "Journal directory, or one of its writer-<n> "
+                                                                + "sub directories (needed if more than one journal "
                                                                 + "configured)")
         private String dir = DEFAULT;
 
@@ -177,9 +178,8 @@ public class ReadJournalCommand extends BookieCommand<ReadJournalCommand.ReadJou
     private synchronized List<Journal> getJournals(ServerConfiguration conf) throws IOException {
         if (null == journals) {
             journals = Lists.newArrayListWithCapacity(conf.getJournalDirs().length);
-            int idx = 0;
-            for (File journalDir : conf.getJournalDirs()) {
-                journals.add(new Journal(idx++, new File(journalDir, BookKeeperConstants.CURRENT_DIR), conf,
+            for (Map.Entry<Integer, File> writerDir : Journal.listWriterDirectories(conf).entrySet()) {
+                journals.add(new Journal(writerDir.getKey(), writerDir.getValue(), conf,
                          new LedgerDirsManager(conf, conf.getLedgerDirs(),
                                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()))));
             }
@@ -17,16 +17,23 @@
  */
 package org.apache.bookkeeper.util;
 
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SelectStrategy;
+import io.netty.channel.epoll.Epoll;
 import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannelConfig;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.incubator.channel.uring.IOUring;
 import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringSocketChannelConfig;
 import java.util.concurrent.ThreadFactory;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
+import org.apache.bookkeeper.conf.AbstractConfiguration;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.commons.lang3.StringUtils;
@@ -41,62 +48,136 @@ import org.apache.commons.lang3.SystemUtils;
 public class EventLoopUtil {
 
     private static final String ENABLE_IO_URING = "enable.io_uring";
+    private static final String IO_URING_IOSQE_ASYNC_THRESHOLD = "io.netty.iouring.iosqeAsyncThreshold";
 
     public static EventLoopGroup getClientEventLoopGroup(ClientConfiguration conf, ThreadFactory threadFactory) {
-        return getEventLoopGroup(threadFactory, conf.getNumIOThreads(), conf.isBusyWaitEnabled());
+        return getEventLoopGroup(threadFactory, conf.getNumIOThreads(), conf.isBusyWaitEnabled(), conf);
     }
 
     public static EventLoopGroup getServerEventLoopGroup(ServerConfiguration conf, ThreadFactory threadFactory) {
-        return getEventLoopGroup(threadFactory, conf.getServerNumIOThreads(), conf.isBusyWaitEnabled());
+        return getEventLoopGroup(threadFactory, conf.getServerNumIOThreads(), conf.isBusyWaitEnabled(), conf);
     }
 
     public static EventLoopGroup getServerAcceptorGroup(ServerConfiguration conf, ThreadFactory threadFactory) {
-        return getEventLoopGroup(threadFactory, conf.getServerNumAcceptorThreads(), false);
+        return getEventLoopGroup(threadFactory, conf.getServerNumAcceptorThreads(), false, conf);
+    }
+
+    /**
+     * Apply the socket options of the configured transport profile to a new channel.
+     */
+    public static void configureSocketChannel(AbstractConfiguration<?> conf, Channel channel) {
+        int busyPollMicros = conf.getNettySoBusyPollMicros();
+        if (busyPollMicros <= 0) {
+            return;
+        }
+        ChannelConfig channelConfig = channel.config();
+        if (channelConfig instanceof EpollSocketChannelConfig) {
+            ((EpollSocketChannelConfig) channelConfig).setSoBusyPoll(busyPollMicros);
+        } else if (channelConfig instanceof IOUringSocketChannelConfig) {
+            ((IOUringSocketChannelConfig) channelConfig).setSoBusyPoll(busyPollMicros);
+        }
     }
 
     private static EventLoopGroup getEventLoopGroup(ThreadFactory threadFactory,
-            int numThreads, boolean enableBusyWait) {
-        if (!SystemUtils.IS_OS_LINUX) {
-            return new NioEventLoopGroup(numThreads, threadFactory);
+            int numThreads, boolean enableBusyWait, AbstractConfiguration<?> conf) {
+        switch (resolveTransport(conf)) {
+            case Epoll:
+                return getEpollEventLoopGroup(threadFactory, numThreads, enableBusyWait);
+            case IoUring:
+                return getIOUringEventLoopGroup(threadFactory, numThreads, conf);
+            default:
+                return new NioEventLoopGroup(numThreads, threadFactory);
+        }
+    }
+
+    /**
+     * Return the transport of the event loops of a configuration: the configured transport, or the one
+     * selected by {@link NettyTransport#Auto} on this platform.
+     *
+     * @throws UnsatisfiedLinkError if the configured native transport is not available
+     */
+    public static NettyTransport resolveTransport(AbstractConfiguration<?> conf) {
+        return resolveTransport(conf.getNettyTransport(), SystemUtils.IS_OS_LINUX,
+                System.getProperty(ENABLE_IO_URING), Epoll::ensureAvailability, IOUring::ensureAvailability);
+    }
+
+    @VisibleForTesting
+    static NettyTransport resolveTransport(NettyTransport transport, boolean isLinux, String enableIoUring,
+                                           Runnable ensureEpoll, Runnable ensureIoUring) {
+        switch (transport) {
+            case Nio:
+                return NettyTransport.Nio;
+            case Epoll:
+                // Throw exception if Epoll cannot be used
+                ensureEpoll.run();
+                return NettyTransport.Epoll;
+            case IoUring:
+                // Throw exception if IOUring cannot be used
+                ensureIoUring.run();
+                return NettyTransport.IoUring;
+            default:
+                break;
         }
 
-        String enableIoUring = System.getProperty(ENABLE_IO_URING);
+        if (!isLinux) {
+            return NettyTransport.Nio;
+        }
 
         // By default, io_uring will not be enabled, even if available. The environment variable will be used:
         // enable.io_uring=1
         if (StringUtils.equalsAnyIgnoreCase(enableIoUring, "1", "true")) {
-            // Throw exception if IOUring cannot be used
-            IOUring.ensureAvailability();
+            if (isAvailable(NettyTransport.IoUring, ensureIoUring)) {
+                return NettyTransport.IoUring;
+            }
+        }
+        return isAvailable(NettyTransport.Epoll, ensureEpoll) ? NettyTransport.Epoll : NettyTransport.Nio;
+    }
+
+    private static boolean isAvailable(NettyTransport transport, Runnable ensureAvailability) {
+        try {
+            ensureAvailability.run();
+            return true;
+        } catch (ExceptionInInitializerError | NoClassDefFoundError | UnsatisfiedLinkError e) {
+            log.warn("Could not use Netty {} event loop: {}", transport, e.getMessage());
+            return false;
+        }
+    }
+
+    private static EventLoopGroup getIOUringEventLoopGroup(ThreadFactory threadFactory, int numThreads,
+                                                           AbstractConfiguration<?> conf) {
+        int ringSize = conf.getNettyIoUringRingSize();
+        if (ringSize <= 0) {
             return new IOUringEventLoopGroup(numThreads, threadFactory);
-        } else {
-            try {
-                if (!enableBusyWait) {
-                    // Regular Epoll based event loop
-                    return new EpollEventLoopGroup(numThreads, threadFactory);
-                }
+        }
+        // keep the Netty default for the threshold of operations submitted as async
+        return new IOUringEventLoopGroup(numThreads, threadFactory, ringSize,
+                Integer.getInteger(IO_URING_IOSQE_ASYNC_THRESHOLD, Integer.MAX_VALUE));
+    }
 
-                // With low latency setting, put the Netty event loop on busy-wait loop to reduce cost of
-                // context switches
-                EpollEventLoopGroup eventLoopGroup = new EpollEventLoopGroup(numThreads, threadFactory,
-                        () -> (selectSupplier, hasTasks) -> SelectStrategy.BUSY_WAIT);
-
-                // Enable CPU affinity on IO threads
-                for (int i = 0; i < numThreads; i++) {
-                    eventLoopGroup.next().submit(() -> {
-                        try {
-                            CpuAffinity.acquireCore();
-                        } catch (Throwable t) {
-                            log.warn("Failed to acquire CPU core for thread {} err {} {}",
-                                    Thread.currentThread().getName(), t.getMessage(), t);
-                        }
-                    });
-                }
+    private static EventLoopGroup getEpollEventLoopGroup(ThreadFactory threadFactory, int numThreads,
+                                                         boolean enableBusyWait) {
+        if (!enableBusyWait) {
+            // Regular Epoll based event loop
+            return new EpollEventLoopGroup(numThreads, threadFactory);
+        }
 
-                return eventLoopGroup;
-            } catch (ExceptionInInitializerError | NoClassDefFoundError | UnsatisfiedLinkError e) {
-                log.warn("Could not use Netty Epoll event loop: {}", e.getMessage());
-                return new NioEventLoopGroup(numThreads, threadFactory);
-            }
+        // With low latency setting, put the Netty event loop on busy-wait loop to reduce cost of
+        // context switches
+        EpollEventLoopGroup eventLoopGroup = new EpollEventLoopGroup(numThreads, threadFactory,
+                () -> (selectSupplier, hasTasks) -> SelectStrategy.BUSY_WAIT);
+
+        // Enable CPU affinity on IO threads
+        for (int i = 0; i < numThreads; i++) {
+            eventLoopGroup.next().submit(() -> {
+                try {
+                    CpuAffinity.acquireCore();
+                } catch (Throwable t) {
+                    log.warn("Failed to acquire CPU core for thread {} err {} {}",
+                            Thread.currentThread().getName(), t.getMessage(), t);
+                }
+            });
         }
+
+        return eventLoopGroup;
     }
 }
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.util;
+
+/**
+ * Netty transport used for the event loops and the channels of the bookie server and the client.
+ */
+public enum NettyTransport {
+
+    /**
+     * Use io_uring when enabled with the {@code enable.io_uring} system property, otherwise epoll
+     * on Linux when available, and NIO elsewhere. An unavailable native transport falls back to
+     * the next one.
+     */
+    Auto,
+
+    /**
+     * Use the JDK NIO transport.
+     */
+    Nio,
+
+    /**
+     * Use the native epoll transport. It is only available on Linux.
+     */
+    Epoll,
+
+    /**
+     * Use the native io_uring transport. It is only available on recent Linux kernels, and saves
+     * system calls by submitting the reads and writes of the channels in batches.
+     */
+    IoUring
+}
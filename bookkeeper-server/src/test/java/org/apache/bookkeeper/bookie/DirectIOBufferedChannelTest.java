@@ -0,0 +1,327 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link DirectIOBufferedChannel}.
+ */
+public class DirectIOBufferedChannelTest {
+
+    private static final int ALIGNMENT = 512;
+    private static final int CAPACITY = 4 * ALIGNMENT;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private File file;
+    private FileChannel fc;
+    private DirectIOBufferedChannel channel;
+    private final FakeDirectIO directIO = new FakeDirectIO();
+    private final Random random = new Random(0);
+    // the data written to the channel
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    // the direct buffers allocated by the channel, to read the memory written by the fake direct I/O
+    private final List<ByteBuf> directBuffers = new ArrayList<>();
+    private final ByteBufAllocator allocator = new AbstractByteBufAllocator(true) {
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return UnpooledByteBufAllocator.DEFAULT.heapBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.directBuffer(initialCapacity, maxCapacity);
+            directBuffers.add(buf);
+            return buf;
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return false;
+        }
+    };
+
+    private ByteBuf directBuffer(long address, int length) {
+        for (ByteBuf buf : directBuffers) {
+            if (address >= buf.memoryAddress() && address + length <= buf.memoryAddress() + buf.capacity()) {
+                return buf.slice((int) (address - buf.memoryAddress()), length);
+            }
+        }
+        throw new AssertionError("Write from memory not allocated by the channel");
+    }
+
+    /**
+     * A direct I/O writing through a file channel, and rejecting the writes which are not aligned.
+     */
+    private class FakeDirectIO implements NativeIO {
+        final List<long[]> writes = new ArrayList<>();
+        boolean shortWrites = false;
+        RandomAccessFile raf;
+
+        @Override
+        public int open(String pathname, int flags, int mode) throws NativeIOException {
+            assertEquals(O_WRONLY | O_DIRECT, flags);
+            try {
+                raf = new RandomAccessFile(pathname, "rw");
+            } catch (IOException e) {
+                throw new NativeIOException(e.getMessage());
+            }
+            return 1;
+        }
+
+        @Override
+        public int pwrite(int fd, long pointer, int count, long offset) throws NativeIOException {
+            if (pointer % ALIGNMENT != 0 || count % ALIGNMENT != 0 || offset % ALIGNMENT != 0) {
+                throw new NativeIOException("Unaligned direct I/O write of " + count + " bytes from " + pointer
+                        + " at " + offset, 22);
+            }
+            writes.add(new long[] { offset, count });
+            int length = shortWrites ? count - ALIGNMENT : count;
+            byte[] data = new byte[length];
+            directBuffer(pointer, length).getBytes(0, data);
+            try {
+                raf.getChannel().write(ByteBuffer.wrap(data), offset);
+            } catch (IOException e) {
+                throw new NativeIOException(e.getMessage());
+            }
+            return length;
+        }
+
+        @Override
+        public int close(int fd) throws NativeIOException {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                throw new NativeIOException(e.getMessage());
+            }
+            return 0;
+        }
+
+        @Override
+        public int fsync(int fd) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int fallocate(int fd, int mode, long offset, long len) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int posix_fadvise(int fd, long offset, long len, int flag) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long posix_memalign(int alignment, int size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void free(long pointer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long lseek(int fd, long offset, int whence) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long pread(int fd, long pointer, long size, long offset) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = tmpDir.newFile("journal.txn");
+        fc = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (channel != null) {
+            channel.close();
+        }
+        fc.close();
+    }
+
+    private DirectIOBufferedChannel openChannel() throws IOException {
+        channel = new DirectIOBufferedChannel(allocator, directIO, file, fc, CAPACITY,
+                ALIGNMENT);
+        return channel;
+    }
+
+    private void write(int length) throws IOException {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        written.write(data, 0, length);
+        channel.write(Unpooled.wrappedBuffer(data));
+    }
+
+    private void checkFile() throws IOException {
+        byte[] expected = written.toByteArray();
+        byte[] content = Files.readAllBytes(file.toPath());
+        // the file is written by whole blocks, padded with zeros
+        assertEquals(0, content.length % ALIGNMENT);
+        assertTrue(content.length >= expected.length);
+        assertArrayEquals(expected, Arrays.copyOf(content, expected.length));
+        for (int i = expected.length; i < content.length; i++) {
+            assertEquals(0, content[i]);
+        }
+    }
+
+    private void checkWrite(int index, long offset, long count) {
+        assertEquals(offset, directIO.writes.get(index)[0]);
+        assertEquals(count, directIO.writes.get(index)[1]);
+    }
+
+    @Test
+    public void testAlignedFlushes() throws Exception {
+        openChannel();
+        write(2 * ALIGNMENT);
+        channel.flush();
+        write(ALIGNMENT);
+        channel.flush();
+        checkFile();
+        assertEquals(2, directIO.writes.size());
+        checkWrite(0, 0, 2 * ALIGNMENT);
+        checkWrite(1, 2 * ALIGNMENT, ALIGNMENT);
+        assertEquals(3 * ALIGNMENT, channel.position());
+        assertEquals(3 * ALIGNMENT, channel.getFileChannelPosition());
+
+        // nothing is written without buffered data
+        channel.flush();
+        assertEquals(2, directIO.writes.size());
+    }
+
+    @Test
+    public void testUnalignedFlushesRewriteTail() throws Exception {
+        openChannel();
+        write(100);
+        channel.flush();
+        checkFile();
+        checkWrite(0, 0, ALIGNMENT);
+
+        // the partial block is written again with the next data
+        write(200);
+        channel.flush();
+        checkFile();
+        checkWrite(1, 0, ALIGNMENT);
+
+        // the data crosses a block boundary, the next flush starts at the new partial block
+        write(500);
+        channel.flush();
+        checkFile();
+        checkWrite(2, 0, 2 * ALIGNMENT);
+        write(ALIGNMENT - 800 % ALIGNMENT);
+        channel.flush();
+        checkFile();
+        checkWrite(3, ALIGNMENT, ALIGNMENT);
+
+        // aligned again, nothing is written twice
+        write(10);
+        channel.flush();
+        checkFile();
+        checkWrite(4, 2 * ALIGNMENT, ALIGNMENT);
+        assertEquals(2 * ALIGNMENT + 10, channel.getFileChannelPosition());
+    }
+
+    @Test
+    public void testWritesLargerThanCapacity() throws Exception {
+        openChannel();
+        write(100);
+        // the buffer fills up and is flushed with the partial block before it
+        write(3 * CAPACITY + 7);
+        channel.flush();
+        checkFile();
+        for (long[] write : directIO.writes) {
+            assertTrue(write[1] <= CAPACITY + ALIGNMENT);
+        }
+    }
+
+    @Test
+    public void testReopenWithHeaderEndingMidBlock() throws Exception {
+        // the header of the journal file is written through the file channel
+        byte[] header = new byte[ALIGNMENT + 100];
+        random.nextBytes(header);
+        written.write(header, 0, header.length);
+        fc.write(ByteBuffer.wrap(header), 0);
+        fc.position(header.length);
+
+        openChannel();
+        assertEquals(header.length, channel.position());
+        write(50);
+        channel.flush();
+        checkFile();
+        // the start of the last block of the header is read back and written with the data
+        checkWrite(0, ALIGNMENT, ALIGNMENT);
+
+        write(CAPACITY);
+        channel.flush();
+        checkFile();
+    }
+
+    @Test
+    public void testShortWriteFails() throws Exception {
+        openChannel();
+        write(2 * ALIGNMENT);
+        directIO.shortWrites = true;
+        try {
+            channel.flush();
+            fail("A short direct I/O write should fail the flush");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, directIO.writes.size());
+    }
+}
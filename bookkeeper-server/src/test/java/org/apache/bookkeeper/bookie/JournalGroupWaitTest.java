@@ -0,0 +1,142 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link JournalGroupWait}.
+ */
+public class JournalGroupWaitTest {
+
+    private static final long MAX_GROUP_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long PERIOD_NANOS = JournalGroupWait.RATE_PERIOD_NANOS;
+
+    private final JournalGroupWait groupWait = new JournalGroupWait(MAX_GROUP_WAIT_NANOS, NullStatsLogger.INSTANCE);
+    private long nowNanos = 1;
+
+    // the journal takes the given number of entries from its queue in every sampling period
+    private void arrivals(int entriesPerPeriod, int periods) {
+        for (int i = 0; i < periods; i++) {
+            groupWait.entriesArrived(entriesPerPeriod, nowNanos);
+            nowNanos += PERIOD_NANOS;
+        }
+        groupWait.entriesArrived(0, nowNanos);
+    }
+
+    private void commits(long latencyMillis, int numCommits) {
+        for (int i = 0; i < numCommits; i++) {
+            groupWait.commitCompleted(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+
+    @Test
+    public void testNoWaitWithoutSamples() {
+        assertEquals(0, groupWait.getGroupWaitNanos());
+        commits(2, 1);
+        assertEquals(0, groupWait.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testNoWaitUnderLowLoad() {
+        commits(2, 1);
+        // 10 entries per second, 0.02 entries expected during a commit
+        arrivals(1, 50);
+        assertEquals(0, groupWait.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testWaitCommitLatencyUnderHighLoad() {
+        commits(2, 1);
+        // 10000 entries per second, 20 entries expected during a commit
+        arrivals(1000, 50);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), groupWait.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testWaitCappedByMaxGroupWait() {
+        commits(20, 1);
+        arrivals(1000, 50);
+        assertEquals(MAX_GROUP_WAIT_NANOS, groupWait.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testCommitLatencyMovingAverage() {
+        commits(4, 1);
+        arrivals(1000, 50);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(4), groupWait.getGroupWaitNanos());
+
+        // a single fast commit moves the average by its weight only
+        commits(1, 1);
+        long expected = (long) (TimeUnit.MILLISECONDS.toNanos(4)
+                + JournalGroupWait.SMOOTHING * TimeUnit.MILLISECONDS.toNanos(1 - 4));
+        assertEquals(expected, groupWait.getGroupWaitNanos(), 1);
+
+        // the average converges to the latency of the recent commits
+        commits(1, 100);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), groupWait.getGroupWaitNanos(), 1000);
+    }
+
+    @Test
+    public void testRateSampledPerPeriod() {
+        commits(2, 1);
+        // entries taken within a sampling period don't update the rate before the period ends
+        for (int i = 0; i < 100; i++) {
+            groupWait.entriesArrived(1000, nowNanos);
+            nowNanos += PERIOD_NANOS / 1000;
+        }
+        assertEquals(0, groupWait.getGroupWaitNanos());
+        nowNanos += PERIOD_NANOS;
+        groupWait.entriesArrived(0, nowNanos);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), groupWait.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testRateDecaysWhenLoadDrops() {
+        commits(2, 1);
+        arrivals(1000, 50);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), groupWait.getGroupWaitNanos());
+
+        // a single period at a low rate doesn't stop the grouping
+        arrivals(10, 1);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), groupWait.getGroupWaitNanos());
+
+        // the rate falls under one entry per commit after a few periods
+        arrivals(10, 30);
+        assertEquals(0, groupWait.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testIdleJournalForgetsRate() {
+        commits(2, 1);
+        arrivals(1000, 50);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), groupWait.getGroupWaitNanos());
+
+        // the first entry after a long idle time is committed without waiting
+        nowNanos += TimeUnit.SECONDS.toNanos(10);
+        groupWait.entriesArrived(1, nowNanos);
+        assertEquals(0, groupWait.getGroupWaitNanos());
+    }
+}
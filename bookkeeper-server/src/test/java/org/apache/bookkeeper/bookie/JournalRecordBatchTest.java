@@ -0,0 +1,274 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link JournalRecordBatch}, through the journal files written and scanned by {@link Journal}.
+ */
+public class JournalRecordBatchTest {
+
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final Random random = new Random(0);
+    private Journal journal;
+    private long entryId = 0;
+    // the entries written to the journal
+    private final List<byte[]> written = new ArrayList<>();
+    // the entries replayed from the journal, and the offsets of the batches holding them
+    private final List<byte[]> replayed = new ArrayList<>();
+    private final Set<Long> batchOffsets = new LinkedHashSet<>();
+
+    @Before
+    public void setUp() throws Exception {
+        File journalDir = tmpDir.newFolder("journal");
+        ServerConfiguration conf = new ServerConfiguration()
+                .setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { tmpDir.newFolder("ledger").getPath() })
+                .setJournalFormatVersionToWrite(JournalChannel.V7)
+                .setJournalWriteBufferSizeKB(WRITE_BUFFER_SIZE / 1024);
+        DiskChecker diskChecker = new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold());
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(), diskChecker);
+        journal = new Journal(0, journalDir, conf, ledgerDirsManager);
+        journal.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.shutdown();
+    }
+
+    private ByteBuf newEntry(byte[] payload) {
+        ByteBuf entry = Unpooled.buffer();
+        entry.writeLong(1L);
+        entry.writeLong(entryId++);
+        entry.writeBytes(payload);
+        written.add(Arrays.copyOf(entry.array(), entry.readableBytes()));
+        return entry;
+    }
+
+    private byte[] textPayload(int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("journal record ").append(random.nextInt(10)).append(' ');
+        }
+        return text.substring(0, length).getBytes(UTF_8);
+    }
+
+    private byte[] randomPayload(int length) {
+        byte[] payload = new byte[length];
+        random.nextBytes(payload);
+        return payload;
+    }
+
+    // write the entries in a single flush of the journal
+    private void writeEntries(List<ByteBuf> entries) throws Exception {
+        CountDownLatch latch = new CountDownLatch(entries.size());
+        AtomicInteger errors = new AtomicInteger();
+        journal.logAddEntries(entries, false, (rc, ledgerId, entryId, addr, ctx) -> {
+            if (rc != 0) {
+                errors.incrementAndGet();
+            }
+            latch.countDown();
+        }, null);
+        for (ByteBuf entry : entries) {
+            entry.release();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+    }
+
+    // write each payload in a flush of its own, so in a batch of its own
+    private void writeBatches(byte[]... payloads) throws Exception {
+        for (byte[] payload : payloads) {
+            List<ByteBuf> entries = new ArrayList<>();
+            entries.add(newEntry(payload));
+            writeEntries(entries);
+        }
+    }
+
+    private long journalId() {
+        List<Long> ids = Journal.listJournalIds(journal.getJournalDirectory(), null);
+        assertEquals(1, ids.size());
+        return ids.get(0);
+    }
+
+    private File journalFile() {
+        return new File(journal.getJournalDirectory(), Long.toHexString(journalId()) + ".txn");
+    }
+
+    private void scan(boolean skipInvalidRecord) throws IOException {
+        replayed.clear();
+        batchOffsets.clear();
+        journal.scanJournal(journalId(), 0, (journalVersion, offset, entry) -> {
+            assertEquals(JournalChannel.V7, journalVersion);
+            byte[] data = new byte[entry.remaining()];
+            entry.duplicate().get(data);
+            replayed.add(data);
+            batchOffsets.add(offset);
+        }, skipInvalidRecord);
+    }
+
+    private void checkReplayed(int numEntries) {
+        assertEquals(numEntries, replayed.size());
+        for (int i = 0; i < numEntries; i++) {
+            assertArrayEquals(written.get(i), replayed.get(i));
+        }
+    }
+
+    // the batch length and the records length of the batch header at the offset
+    private int[] batchLengths(long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile(), "r")) {
+            raf.seek(offset);
+            assertEquals(JournalRecordBatch.BATCH_MASK, raf.readInt());
+            return new int[] { raf.readInt(), raf.readInt() };
+        }
+    }
+
+    private void overwrite(long position, byte[] data) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile(), "rw")) {
+            raf.seek(position);
+            raf.write(data);
+        }
+    }
+
+    @Test
+    public void testCompressedBatches() throws Exception {
+        writeBatches(textPayload(2000), textPayload(100), textPayload(3000));
+        journal.shutdown();
+        scan(false);
+        checkReplayed(3);
+        assertEquals(3, batchOffsets.size());
+        for (long offset : batchOffsets) {
+            int[] lengths = batchLengths(offset);
+            assertTrue(lengths[0] < lengths[1]);
+        }
+    }
+
+    @Test
+    public void testStoredBatches() throws Exception {
+        // random payloads don't shrink when compressed, they are stored as is
+        writeBatches(randomPayload(2000), randomPayload(500), randomPayload(3000));
+        journal.shutdown();
+        scan(false);
+        checkReplayed(3);
+        assertEquals(3, batchOffsets.size());
+        for (long offset : batchOffsets) {
+            int[] lengths = batchLengths(offset);
+            assertEquals(lengths[0], lengths[1]);
+        }
+    }
+
+    @Test
+    public void testBatchesLargerThanWriteBuffer() throws Exception {
+        List<ByteBuf> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            entries.add(newEntry(i % 2 == 0 ? textPayload(1000) : randomPayload(1000)));
+        }
+        // an entry larger than the write buffer is a batch of its own
+        entries.add(newEntry(randomPayload(3 * WRITE_BUFFER_SIZE)));
+        entries.add(newEntry(textPayload(100)));
+        writeEntries(entries);
+        journal.shutdown();
+
+        scan(false);
+        checkReplayed(entries.size());
+        assertTrue(batchOffsets.size() > 5);
+        int largeBatches = 0;
+        for (long offset : batchOffsets) {
+            int recordsLength = batchLengths(offset)[1];
+            if (recordsLength > WRITE_BUFFER_SIZE) {
+                assertEquals(4 + written.get(20).length, recordsLength);
+                largeBatches++;
+            }
+        }
+        assertEquals(1, largeBatches);
+    }
+
+    @Test
+    public void testTornLastBatch() throws Exception {
+        writeBatches(textPayload(1000), randomPayload(1000), textPayload(2000));
+        journal.shutdown();
+        scan(false);
+        List<Long> offsets = new ArrayList<>(batchOffsets);
+        long lastOffset = offsets.get(2);
+        int batchLength = batchLengths(lastOffset)[0];
+
+        // the end of the last batch was not written before a crash
+        long tornPosition = lastOffset + 4 + JournalRecordBatch.HEADER_SIZE + batchLength / 2;
+        overwrite(tornPosition, new byte[batchLength]);
+        scan(false);
+        checkReplayed(2);
+        assertEquals(offsets.subList(0, 2), new ArrayList<>(batchOffsets));
+    }
+
+    @Test
+    public void testCorruptedBatch() throws Exception {
+        writeBatches(textPayload(1000), randomPayload(1000), textPayload(2000));
+        journal.shutdown();
+        scan(false);
+        List<Long> offsets = new ArrayList<>(batchOffsets);
+
+        // a corrupted batch followed by valid batches fails the replay
+        long corruptedPosition = offsets.get(1) + 4 + JournalRecordBatch.HEADER_SIZE + 10;
+        overwrite(corruptedPosition, new byte[] { 0x12, 0x34 });
+        try {
+            scan(false);
+            fail("A corrupted batch in the middle of a journal file should fail the scan");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // unless the invalid records are skipped, then the scan stops at the corrupted batch
+        scan(true);
+        checkReplayed(1);
+    }
+}
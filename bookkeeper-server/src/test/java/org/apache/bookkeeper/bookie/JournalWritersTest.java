@@ -0,0 +1,222 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.discover.BookieServiceInfo;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the journal writers of the journal directories across restarts of the bookie.
+ */
+public class JournalWritersTest {
+
+    private static final byte[] MASTER_KEY = "master-key".getBytes(UTF_8);
+    private static final int NUM_LEDGERS = 6;
+    private static final int NUM_ENTRIES = 10;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private File journalDir;
+    private File ledgerDir;
+    private final List<BookieImpl> bookies = new ArrayList<>();
+    // the ledger and entry ids of the entries replayed, by the last bookie created
+    private final Set<String> replayed = Collections.synchronizedSet(new HashSet<>());
+
+    @Before
+    public void setUp() throws Exception {
+        journalDir = tmpDir.newFolder("journal");
+        ledgerDir = tmpDir.newFolder("ledger");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (BookieImpl bookie : bookies) {
+            for (Journal journal : bookie.journals) {
+                journal.shutdown();
+            }
+            bookie.syncThread.executor.shutdown();
+        }
+    }
+
+    private BookieImpl newBookie(int numWriters) throws Exception {
+        ServerConfiguration conf = new ServerConfiguration()
+                .setAllowLoopback(true)
+                .setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { ledgerDir.getPath() })
+                .setJournalWritersPerDirectory(numWriters);
+        DiskChecker diskChecker = new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold());
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(), diskChecker);
+
+        replayed.clear();
+        LedgerStorage storage = mock(LedgerStorage.class);
+        when(storage.addEntry(any(ByteBuf.class))).thenAnswer(invocation -> {
+            ByteBuf entry = invocation.getArgument(0);
+            replayed.add(entry.getLong(entry.readerIndex()) + ":" + entry.getLong(entry.readerIndex() + 8));
+            return entry.getLong(entry.readerIndex() + 8);
+        });
+
+        BookieImpl bookie = BookieImpl.newBookieImpl(conf, null, storage, diskChecker, ledgerDirsManager,
+                ledgerDirsManager, NullStatsLogger.INSTANCE, UnpooledByteBufAllocator.DEFAULT,
+                BookieServiceInfo.NO_INFO);
+        bookies.add(bookie);
+        return bookie;
+    }
+
+    // write the entries of the ledgers to the journals they are striped to, as the bookie does
+    private static void writeEntries(BookieImpl bookie) throws Exception {
+        for (Journal journal : bookie.journals) {
+            journal.start();
+        }
+        CountDownLatch written = new CountDownLatch(NUM_LEDGERS * (NUM_ENTRIES + 1));
+        AtomicInteger errors = new AtomicInteger();
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            Journal journal = bookie.journals.get((int) (ledgerId % bookie.journals.size()));
+            List<ByteBuf> entries = new ArrayList<>();
+            entries.add(bookie.createMasterKeyEntry(ledgerId, MASTER_KEY));
+            for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+                ByteBuf entry = Unpooled.buffer();
+                entry.writeLong(ledgerId);
+                entry.writeLong(entryId);
+                entry.writeBytes(("entry-" + entryId).getBytes(UTF_8));
+                entries.add(entry);
+            }
+            for (ByteBuf entry : entries) {
+                journal.logAddEntry(entry, false, (rc, lid, eid, addr, ctx) -> {
+                    if (rc != 0) {
+                        errors.incrementAndGet();
+                    }
+                    written.countDown();
+                }, null);
+                entry.release();
+            }
+        }
+        assertTrue(written.await(30, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+        for (Journal journal : bookie.journals) {
+            journal.shutdown();
+        }
+    }
+
+    private static Set<String> allEntries() {
+        Set<String> entries = new HashSet<>();
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+                entries.add(ledgerId + ":" + entryId);
+            }
+        }
+        return entries;
+    }
+
+    private static File writerDir(File journalDir, int writer) {
+        return Journal.getWriterDirectory(BookieImpl.getCurrentDirectory(journalDir), writer);
+    }
+
+    @Test
+    public void testListWriterDirectories() throws Exception {
+        File current = BookieImpl.getCurrentDirectory(journalDir);
+        File otherCurrent = BookieImpl.getCurrentDirectory(tmpDir.newFolder("journal2"));
+        assertTrue(new File(current, "writer-3").mkdirs());
+        assertTrue(new File(current, "writer-x").mkdirs());
+        assertTrue(new File(current, "writer-05").mkdirs());
+        assertTrue(otherCurrent.mkdirs());
+
+        // The configured writers are indexed writer by writer, the writers left behind keep their index
+        SortedMap<Integer, File> writerDirs = Journal.listWriterDirectories(Arrays.asList(current, otherCurrent), 2);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 6), new ArrayList<>(writerDirs.keySet()));
+        assertEquals(current, writerDirs.get(0));
+        assertEquals(otherCurrent, writerDirs.get(1));
+        assertEquals(new File(current, "writer-1"), writerDirs.get(2));
+        assertEquals(new File(otherCurrent, "writer-1"), writerDirs.get(3));
+        assertEquals(new File(current, "writer-3"), writerDirs.get(6));
+    }
+
+    @Test
+    public void testRestartWithFewerWriters() throws Exception {
+        BookieImpl bookie = newBookie(3);
+        assertEquals(3, bookie.journals.size());
+        assertEquals(writerDir(journalDir, 2), bookie.journals.get(2).getJournalDirectory());
+        writeEntries(bookie);
+
+        // The journal files of the removed writers are replayed
+        bookie = newBookie(1);
+        assertEquals(1, bookie.journals.size());
+        assertEquals(2, bookie.retiredJournals.size());
+        assertEquals(writerDir(journalDir, 1), bookie.retiredJournals.get(0).getJournalDirectory());
+        assertEquals(writerDir(journalDir, 2), bookie.retiredJournals.get(1).getJournalDirectory());
+        bookie.readJournal();
+        assertEquals(allEntries(), replayed);
+
+        // Until they are checkpointed
+        bookie.syncThread.requestFlush().get();
+        bookie = newBookie(1);
+        assertEquals(2, bookie.retiredJournals.size());
+        bookie.readJournal();
+        assertTrue(replayed.isEmpty());
+    }
+
+    @Test
+    public void testRestartWithMoreWriters() throws Exception {
+        BookieImpl bookie = newBookie(1);
+        writeEntries(bookie);
+
+        // The first writer keeps the journal files and the lastMark of the single writer
+        bookie = newBookie(2);
+        assertEquals(2, bookie.journals.size());
+        assertEquals(0, bookie.retiredJournals.size());
+        bookie.readJournal();
+        assertEquals(allEntries(), replayed);
+
+        bookie.syncThread.requestFlush().get();
+        writeEntries(bookie);
+        bookie = newBookie(2);
+        bookie.readJournal();
+        assertEquals(allEntries(), replayed);
+    }
+}
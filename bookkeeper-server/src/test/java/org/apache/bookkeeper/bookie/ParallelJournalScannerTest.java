@@ -0,0 +1,238 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ParallelJournalScanner}.
+ */
+public class ParallelJournalScannerTest {
+
+    private static final int RECORD_SIZE = 100;
+
+    private final OrderedExecutor executor = OrderedExecutor.newBuilder()
+            .name("ParallelJournalScannerTest")
+            .numThreads(4)
+            .build();
+    // the entry ids processed, by ledger id
+    private final Map<Long, List<Long>> processed = new HashMap<>();
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    private static ByteBuffer record(long ledgerId, long entryId) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(ledgerId);
+        record.putLong(entryId);
+        record.clear();
+        return record;
+    }
+
+    private synchronized void recordProcessed(ByteBuffer record) {
+        processed.computeIfAbsent(record.getLong(0), k -> new ArrayList<>()).add(record.getLong(8));
+    }
+
+    private synchronized List<Long> processed(long ledgerId) {
+        return processed.getOrDefault(ledgerId, Collections.emptyList());
+    }
+
+    @Test
+    public void testRecordsOfLedgerProcessedInOrder() throws Exception {
+        ParallelJournalScanner parallelScanner = new ParallelJournalScanner(
+                (journalVersion, offset, entry) -> recordProcessed(entry), executor);
+        JournalScanner scanner = parallelScanner.newJournalScanner();
+        // the buffer of the record is reused by the journal
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            for (long ledgerId = 0; ledgerId < 10; ledgerId++) {
+                buffer.clear();
+                buffer.put(record(ledgerId, entryId));
+                buffer.flip();
+                scanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, buffer);
+            }
+        }
+        scanner.awaitProcessed();
+        for (long ledgerId = 0; ledgerId < 10; ledgerId++) {
+            List<Long> entryIds = processed(ledgerId);
+            assertEquals(1000, entryIds.size());
+            for (int i = 0; i < entryIds.size(); i++) {
+                assertEquals(i, (long) entryIds.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testAwaitProcessedOfItsJournalOnly() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        ParallelJournalScanner parallelScanner = new ParallelJournalScanner((journalVersion, offset, entry) -> {
+            if (entry.getLong(0) == 1) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            recordProcessed(entry);
+        }, executor);
+        JournalScanner first = parallelScanner.newJournalScanner();
+        JournalScanner second = parallelScanner.newJournalScanner();
+        // the ledgers are dispatched to different threads
+        assertFalse(executor.chooseThread(1L) == executor.chooseThread(2L));
+
+        second.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1, 0));
+        first.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(2, 0));
+        // a journal doesn't wait for the records of the other journals
+        first.awaitProcessed();
+        assertEquals(Collections.singletonList(0L), processed(2));
+        assertTrue(processed(1).isEmpty());
+
+        CompletableFuture<Void> awaited = CompletableFuture.runAsync(() -> {
+            try {
+                second.awaitProcessed();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(awaited.isDone());
+        blocked.countDown();
+        awaited.get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(0L), processed(1));
+    }
+
+    @Test
+    public void testBytesInFlightSharedByJournals() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        ParallelJournalScanner parallelScanner = new ParallelJournalScanner((journalVersion, offset, entry) -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            recordProcessed(entry);
+        }, executor, 2 * RECORD_SIZE);
+        JournalScanner first = parallelScanner.newJournalScanner();
+        JournalScanner second = parallelScanner.newJournalScanner();
+        first.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1, 0));
+        second.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(2, 0));
+
+        // the limit is reached by the records of both journals, the next record waits for them
+        CompletableFuture<Void> dispatched = CompletableFuture.runAsync(() -> {
+            try {
+                second.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(3, 0));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(dispatched.isDone());
+        blocked.countDown();
+        dispatched.get(10, TimeUnit.SECONDS);
+        first.awaitProcessed();
+        second.awaitProcessed();
+        assertEquals(1, processed(3).size());
+    }
+
+    @Test
+    public void testErrorFailsAllJournals() throws Exception {
+        IOException error = new IOException("test");
+        ParallelJournalScanner parallelScanner = new ParallelJournalScanner((journalVersion, offset, entry) -> {
+            if (entry.getLong(8) == 5) {
+                throw error;
+            }
+            recordProcessed(entry);
+        }, executor);
+        JournalScanner first = parallelScanner.newJournalScanner();
+        JournalScanner second = parallelScanner.newJournalScanner();
+        for (long entryId = 0; entryId < 10; entryId++) {
+            first.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1, entryId));
+        }
+        try {
+            first.awaitProcessed();
+            fail("The error should fail the replay of the journal");
+        } catch (IOException e) {
+            assertSame(error, e);
+        }
+        // the records after the error are skipped
+        assertEquals(5, processed(1).size());
+        try {
+            second.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(2, 0));
+            fail("The error should fail the replay of the other journals");
+        } catch (IOException e) {
+            assertSame(error, e);
+        }
+    }
+
+    @Test
+    public void testAbortSkipsRecords() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        ParallelJournalScanner parallelScanner = new ParallelJournalScanner((journalVersion, offset, entry) -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            recordProcessed(entry);
+        }, executor);
+        JournalScanner scanner = parallelScanner.newJournalScanner();
+        for (long entryId = 0; entryId < 10; entryId++) {
+            scanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1, entryId));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        IOException cause = new IOException("test");
+        parallelScanner.abort(cause);
+        blocked.countDown();
+        try {
+            scanner.awaitProcessed();
+            fail("The replay should fail once aborted");
+        } catch (IOException e) {
+            assertSame(cause, e);
+        }
+        // only the record being processed when aborted is processed
+        assertEquals(1, processed(1).size());
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.slogger.Slogger;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the batched reads of {@link DirectEntryLogger}, with and without io_uring.
+ */
+public class DirectEntryLoggerReadEntriesTest {
+
+    private static final long LEDGER_ID = 5;
+    // More entries than a single io_uring batch
+    private static final int ENTRIES = 150;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final MockIoUringNativeIO nativeIO = new MockIoUringNativeIO();
+    private ExecutorService writeExecutor;
+    private ExecutorService flushExecutor;
+    private DirectEntryLogger entryLogger;
+    private final long[] locations = new long[ENTRIES];
+
+    @Before
+    public void setUp() {
+        writeExecutor = Executors.newSingleThreadExecutor();
+        flushExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (entryLogger != null) {
+            entryLogger.close();
+        }
+        writeExecutor.shutdownNow();
+        flushExecutor.shutdownNow();
+    }
+
+    private void startEntryLogger(boolean ioUringEnabled, long maxFileSize) throws Exception {
+        File ledgerDir = tmpDir.newFolder();
+        AtomicInteger ids = new AtomicInteger();
+        entryLogger = new DirectEntryLogger(ledgerDir, ids::incrementAndGet, nativeIO, ByteBufAllocator.DEFAULT,
+                writeExecutor, flushExecutor, maxFileSize, 10 * 1024 * 1024, 1024 * 1024, 1024 * 1024,
+                64 * 1024, 1, 300, ioUringEnabled, Slogger.NULL, NullStatsLogger.INSTANCE);
+
+        for (int i = 0; i < ENTRIES; i++) {
+            ByteBuf entry = entry(i);
+            locations[i] = entryLogger.addEntry(LEDGER_ID, entry);
+            entry.release();
+        }
+        entryLogger.flush();
+    }
+
+    private static ByteBuf entry(long entryId) {
+        // Some entries are larger than the first read of each entry through io_uring
+        int size = entryId % 20 == 7 ? 30000 : 100 + (int) (entryId * 53 % 2000);
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(LEDGER_ID);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    private void checkEntries(int firstEntryId, int count, List<ByteBuf> entries) {
+        try {
+            assertEquals(count, entries.size());
+            for (int i = 0; i < count; i++) {
+                ByteBuf expected = entry(firstEntryId + i);
+                assertEquals("Entry " + (firstEntryId + i), expected, entries.get(i));
+                expected.release();
+            }
+        } finally {
+            entries.forEach(ByteBuf::release);
+        }
+    }
+
+    private void checkReadEntries(int firstEntryId, int count) throws Exception {
+        checkEntries(firstEntryId, count,
+                entryLogger.readEntries(LEDGER_ID, firstEntryId, locations, firstEntryId, count));
+    }
+
+    @Test
+    public void testReadEntriesWithIoUring() throws Exception {
+        startEntryLogger(true, 1024 * 1024 * 1024);
+
+        checkReadEntries(0, ENTRIES);
+        assertEquals(1, nativeIO.setups.get());
+        // The entries are read by batches of the size of the ring
+        assertTrue(nativeIO.batches.get() >= (ENTRIES + IoUringReader.RING_ENTRIES - 1) / IoUringReader.RING_ENTRIES);
+        assertTrue(nativeIO.batchReads.get() >= ENTRIES);
+
+        checkReadEntries(30, 10);
+        // A single entry is read through the regular path
+        int batches = nativeIO.batches.get();
+        checkReadEntries(40, 1);
+        assertEquals(batches, nativeIO.batches.get());
+        assertEquals(1, nativeIO.setups.get());
+    }
+
+    @Test
+    public void testReadEntriesAcrossLogs() throws Exception {
+        // Small logs, so that the entries are spread across several of them
+        startEntryLogger(true, 64 * 1024);
+        assertTrue((locations[0] >> 32) != (locations[ENTRIES - 1] >> 32));
+
+        checkReadEntries(0, ENTRIES);
+        checkReadEntries(ENTRIES - 20, 20);
+    }
+
+    @Test
+    public void testFallbackWhenIoUringNotAvailable() throws Exception {
+        nativeIO.ioUringAvailable = false;
+        startEntryLogger(true, 1024 * 1024 * 1024);
+
+        checkReadEntries(0, ENTRIES);
+        assertEquals(0, nativeIO.batches.get());
+    }
+
+    @Test
+    public void testIoUringDisabled() throws Exception {
+        startEntryLogger(false, 1024 * 1024 * 1024);
+
+        checkReadEntries(0, ENTRIES);
+        assertEquals(0, nativeIO.setups.get());
+        assertEquals(0, nativeIO.batches.get());
+    }
+
+    @Test
+    public void testFallbackAfterBatchError() throws Exception {
+        startEntryLogger(true, 1024 * 1024 * 1024);
+
+        // The entries of the failed batch are read through the regular path
+        nativeIO.failBatches = true;
+        checkReadEntries(0, ENTRIES);
+        assertEquals(1, nativeIO.batches.get());
+
+        // The broken ring is not used anymore by the thread, nor replaced
+        nativeIO.failBatches = false;
+        checkReadEntries(0, ENTRIES);
+        assertEquals(1, nativeIO.batches.get());
+        assertEquals(1, nativeIO.setups.get());
+    }
+
+    @Test
+    public void testShortReads() throws Exception {
+        startEntryLogger(true, 1024 * 1024 * 1024);
+
+        // The entries which could not be read entirely through io_uring are read through the regular path
+        nativeIO.maxReadSize = 1024;
+        checkReadEntries(0, ENTRIES);
+        nativeIO.maxReadSize = 0;
+        checkReadEntries(0, ENTRIES);
+        assertTrue(nativeIO.batches.get() > 0);
+    }
+
+    @Test
+    public void testReadEntriesStopsAtMissingEntry() throws Exception {
+        startEntryLogger(true, 1024 * 1024 * 1024);
+
+        // A location pointing to another entry ends the read, after the entries read so far
+        long[] badLocations = locations.clone();
+        badLocations[10] = locations[20];
+        List<ByteBuf> entries = entryLogger.readEntries(LEDGER_ID, 0, badLocations, 0, 15);
+        checkEntries(0, 10, entries);
+    }
+}
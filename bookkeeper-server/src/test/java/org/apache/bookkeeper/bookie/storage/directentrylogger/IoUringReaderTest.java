@@ -0,0 +1,237 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.FileOutputStream;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link IoUringReader}.
+ */
+public class IoUringReaderTest {
+
+    private static final int MAX_SANE_ENTRY_SIZE = 1024 * 1024;
+    // The entries of the file, one larger than the first read of each entry
+    private static final int[] ENTRY_SIZES = { 100, 5000, 20, 40000, 4096, 300, 10000, 64 };
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final MockIoUringNativeIO nativeIO = new MockIoUringNativeIO();
+    private final long[] positions = new long[ENTRY_SIZES.length];
+    private final int[] fds = new int[ENTRY_SIZES.length];
+    private int fd = -1;
+
+    @Before
+    public void setUp() throws Exception {
+        // Entries with their size header, as in an entry log
+        File file = tmpDir.newFile("entries.log");
+        ByteBuf data = Unpooled.buffer();
+        data.writeZero(Buffer.ALIGNMENT + 10);
+        for (int i = 0; i < ENTRY_SIZES.length; i++) {
+            data.writeInt(ENTRY_SIZES[i]);
+            positions[i] = data.writerIndex();
+            data.writeBytes(entry(i));
+        }
+        // An invalid entry size
+        data.writeInt(-1);
+        data.writeZero(100);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            data.readBytes(out, data.readableBytes());
+        }
+        data.release();
+
+        fd = nativeIO.open(file.getAbsolutePath(), NativeIO.O_RDONLY, 0);
+        for (int i = 0; i < fds.length; i++) {
+            fds[i] = fd;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (fd >= 0) {
+            nativeIO.close(fd);
+        }
+    }
+
+    private static ByteBuf entry(int index) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZES[index]);
+        while (entry.isWritable()) {
+            entry.writeByte(index * 31 + entry.writerIndex());
+        }
+        return entry;
+    }
+
+    private static void checkEntries(ByteBuf[] entries, boolean... expectedRead) {
+        assertEquals(expectedRead.length, entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            if (expectedRead[i]) {
+                assertNotNull("Entry " + i, entries[i]);
+                ByteBuf expected = entry(i);
+                assertEquals("Entry " + i, expected, entries[i]);
+                expected.release();
+                entries[i].release();
+            } else {
+                assertNull("Entry " + i, entries[i]);
+            }
+        }
+    }
+
+    private static boolean[] all(int count, boolean read) {
+        boolean[] values = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = read;
+        }
+        return values;
+    }
+
+    @Test
+    public void testReadBatches() throws Exception {
+        try (IoUringReader reader = new IoUringReader(nativeIO, ByteBufAllocator.DEFAULT, MAX_SANE_ENTRY_SIZE)) {
+            ByteBuf[] entries = reader.readEntries(fds, positions, ENTRY_SIZES.length);
+            checkEntries(entries, all(ENTRY_SIZES.length, true));
+
+            // All the entries are read with a first batch, then the large entry is read again with a second one
+            assertEquals(2, nativeIO.batches.get());
+            assertEquals(ENTRY_SIZES.length + 1, nativeIO.batchReads.get());
+            assertFalse(reader.isBroken());
+
+            // The positions don't need to be in order
+            ByteBuf[] reversed = reader.readEntries(new int[] { fd, fd }, new long[] { positions[2], positions[0] }, 2);
+            assertEquals(entry(2), reversed[0]);
+            assertEquals(entry(0), reversed[1]);
+            reversed[0].release();
+            reversed[1].release();
+            assertEquals(3, nativeIO.batches.get());
+        }
+        assertEquals(1, nativeIO.setups.get());
+        assertEquals(1, nativeIO.frees.get());
+    }
+
+    @Test
+    public void testShortReads() throws Exception {
+        // The reads only return the first block, so only the entries which fit in it can be parsed
+        nativeIO.maxReadSize = Buffer.ALIGNMENT;
+        try (IoUringReader reader = new IoUringReader(nativeIO, ByteBufAllocator.DEFAULT, MAX_SANE_ENTRY_SIZE)) {
+            ByteBuf[] entries = reader.readEntries(fds, positions, ENTRY_SIZES.length);
+            boolean[] expectedRead = new boolean[ENTRY_SIZES.length];
+            for (int i = 0; i < ENTRY_SIZES.length; i++) {
+                long headerOffset = (positions[i] - Integer.BYTES) % Buffer.ALIGNMENT;
+                expectedRead[i] = headerOffset + Integer.BYTES + ENTRY_SIZES[i] <= Buffer.ALIGNMENT;
+            }
+            assertTrue(expectedRead[0]);
+            assertFalse(expectedRead[3]);
+            checkEntries(entries, expectedRead);
+            assertFalse(reader.isBroken());
+
+            // A read returning nothing, as at the end of the file
+            nativeIO.maxReadSize = 0;
+            checkEntries(reader.readEntries(fds, positions, 2), false, false);
+        }
+    }
+
+    @Test
+    public void testInvalidEntries() throws Exception {
+        long invalidSizePosition = positions[ENTRY_SIZES.length - 1] + ENTRY_SIZES[ENTRY_SIZES.length - 1]
+                + Integer.BYTES;
+        long pastEndPosition = invalidSizePosition + 1024 * 1024;
+        try (IoUringReader reader = new IoUringReader(nativeIO, ByteBufAllocator.DEFAULT, 30000)) {
+            // An entry larger than the max sane size, an invalid size and a read past the end of the file are
+            // returned as null, to be read through the regular path
+            ByteBuf[] entries = reader.readEntries(new int[] { fd, fd, fd, fd, fd },
+                    new long[] { positions[0], positions[3], invalidSizePosition, pastEndPosition, positions[1] }, 5);
+            assertEquals(entry(0), entries[0]);
+            assertNull(entries[1]);
+            assertNull(entries[2]);
+            assertNull(entries[3]);
+            assertEquals(entry(1), entries[4]);
+            entries[0].release();
+            entries[4].release();
+
+            // A read error of a single entry doesn't break the reader
+            entries = reader.readEntries(new int[] { -1, fd }, new long[] { positions[0], positions[1] }, 2);
+            assertNull(entries[0]);
+            assertEquals(entry(1), entries[1]);
+            entries[1].release();
+            assertFalse(reader.isBroken());
+        }
+    }
+
+    @Test
+    public void testBrokenAfterBatchError() throws Exception {
+        IoUringReader reader = new IoUringReader(nativeIO, ByteBufAllocator.DEFAULT, MAX_SANE_ENTRY_SIZE);
+        nativeIO.failBatches = true;
+        checkEntries(reader.readEntries(fds, positions, ENTRY_SIZES.length), all(ENTRY_SIZES.length, false));
+        assertTrue(reader.isBroken());
+        assertEquals(1, nativeIO.batches.get());
+
+        // The ring is not used anymore, even once the errors stop
+        nativeIO.failBatches = false;
+        checkEntries(reader.readEntries(fds, positions, 2), false, false);
+        assertEquals(1, nativeIO.batches.get());
+
+        // Reads may still be in flight into the ring, so it is not freed
+        reader.close();
+        assertEquals(0, nativeIO.frees.get());
+    }
+
+    @Test
+    public void testNativeIoUring() throws Exception {
+        NativeIO realNativeIO = new NativeIOImpl();
+        IoUringReader reader;
+        try {
+            reader = new IoUringReader(realNativeIO, ByteBufAllocator.DEFAULT, MAX_SANE_ENTRY_SIZE);
+        } catch (NativeIOException e) {
+            Assume.assumeNoException("io_uring is not available", e);
+            return;
+        }
+
+        try {
+            ByteBuf[] entries = reader.readEntries(fds, positions, ENTRY_SIZES.length);
+            checkEntries(entries, all(ENTRY_SIZES.length, true));
+            assertFalse(reader.isBroken());
+
+            // A failed read only fails its entry
+            checkEntries(reader.readEntries(new int[] { -1, fd }, new long[] { positions[0], positions[1] }, 2),
+                    false, true);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+
+/**
+ * A {@link NativeIO} doing the regular calls through {@link NativeIOImpl}, with an io_uring emulated by blocking
+ * preads, so that its availability, its errors and its short reads can be controlled by the tests.
+ */
+class MockIoUringNativeIO implements NativeIO {
+    private final NativeIO delegate = new NativeIOImpl();
+
+    volatile boolean ioUringAvailable = true;
+    // Fail the submission of the batches
+    volatile boolean failBatches = false;
+    // Max number of bytes returned by each read of a batch
+    volatile long maxReadSize = Long.MAX_VALUE;
+
+    final AtomicInteger setups = new AtomicInteger();
+    final AtomicInteger frees = new AtomicInteger();
+    final AtomicInteger batches = new AtomicInteger();
+    final AtomicInteger batchReads = new AtomicInteger();
+
+    @Override
+    public long io_uring_setup(int entries) throws NativeIOException {
+        if (!ioUringAvailable) {
+            throw new NativeIOException("io_uring is not available");
+        }
+        return setups.incrementAndGet();
+    }
+
+    @Override
+    public void io_uring_pread_batch(long ring, int[] fds, long[] pointers, int[] sizes, long[] offsets,
+                                     long[] results, int count) throws NativeIOException {
+        batches.incrementAndGet();
+        if (failBatches) {
+            throw new NativeIOException("io_uring_enter failed");
+        }
+        for (int i = 0; i < count; i++) {
+            try {
+                results[i] = Math.min(delegate.pread(fds[i], pointers[i], sizes[i], offsets[i]), maxReadSize);
+            } catch (NativeIOException e) {
+                results[i] = -e.getErrno();
+            }
+            batchReads.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void io_uring_free(long ring) throws NativeIOException {
+        frees.incrementAndGet();
+    }
+
+    @Override
+    public int open(String pathname, int flags, int mode) throws NativeIOException {
+        return delegate.open(pathname, flags, mode);
+    }
+
+    @Override
+    public int fsync(int fd) throws NativeIOException {
+        return delegate.fsync(fd);
+    }
+
+    @Override
+    public int fallocate(int fd, int mode, long offset, long len) throws NativeIOException {
+        return delegate.fallocate(fd, mode, offset, len);
+    }
+
+    @Override
+    public int posix_fadvise(int fd, long offset, long len, int flag) throws NativeIOException {
+        return delegate.posix_fadvise(fd, offset, len, flag);
+    }
+
+    @Override
+    public int pwrite(int fd, long pointer, int count, long offset) throws NativeIOException {
+        return delegate.pwrite(fd, pointer, count, offset);
+    }
+
+    @Override
+    public long posix_memalign(int alignment, int size) throws NativeIOException {
+        return delegate.posix_memalign(alignment, size);
+    }
+
+    @Override
+    public void free(long pointer) throws NativeIOException {
+        delegate.free(pointer);
+    }
+
+    @Override
+    public long lseek(int fd, long offset, int whence) throws NativeIOException {
+        return delegate.lseek(fd, offset, whence);
+    }
+
+    @Override
+    public long pread(int fd, long pointer, long size, long offset) throws NativeIOException {
+        return delegate.pread(fd, pointer, size, offset);
+    }
+
+    @Override
+    public int close(int fd) throws NativeIOException {
+        return delegate.close(fd);
+    }
+}
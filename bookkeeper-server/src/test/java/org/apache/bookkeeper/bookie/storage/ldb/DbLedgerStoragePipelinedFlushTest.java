@@ -0,0 +1,298 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the pipelined flush of the write caches of {@link DbLedgerStorage}.
+ */
+public class DbLedgerStoragePipelinedFlushTest {
+
+    private static final int ENTRY_SIZE = 100;
+    // More entries than a chunk of locations written by the index flush thread
+    private static final int ENTRIES = 5000;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private LedgerDirsManager ledgerDirsManager;
+    private DbLedgerStorage storage;
+
+    // Events of the flushes, in order
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private volatile IOException entryLogFlushError;
+    private volatile IOException locationsWriteError;
+    private final AtomicInteger locationsWritten = new AtomicInteger();
+    private final AtomicReference<Long> locationDuringEntryLogFlush = new AtomicReference<>();
+
+    /**
+     * A {@link DbLedgerStorage} whose entry log flushes and location index writes can be observed and failed.
+     */
+    private class TestDbLedgerStorage extends DbLedgerStorage {
+        @Override
+        protected SingleDirectoryDbLedgerStorage newSingleDirectoryDbLedgerStorage(ServerConfiguration conf,
+                LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager,
+                EntryLogger entryLogger, StatsLogger statsLogger, long writeCacheSize, long readCacheSize,
+                int readAheadCacheBatchSize, long readAheadCacheBatchBytesSize) throws IOException {
+            EntryLogger testEntryLogger = mock(EntryLogger.class, delegatesTo(entryLogger));
+            doAnswer(invocation -> {
+                // The locations of the entries being flushed must not be in the index yet. Give the index flush
+                // thread the time to add them to the batch and to commit it, if it were to do it too early.
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (locationsWritten.get() < ENTRIES && locationsWriteError == null
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Thread.sleep(100);
+                locationDuringEntryLogFlush.set(getLocation(1, ENTRIES - 1));
+                if (entryLogFlushError != null) {
+                    throw entryLogFlushError;
+                }
+                entryLogger.flush();
+                events.add("entry-log-flushed");
+                return null;
+            }).when(testEntryLogger).flush();
+
+            KeyValueStorageFactory storageFactory = (basePath, subPath, dbConfigType, conf1) -> {
+                KeyValueStorage db = KeyValueStorageRocksDB.factory.newKeyValueStorage(basePath, subPath,
+                        dbConfigType, conf1);
+                if (dbConfigType != KeyValueStorageFactory.DbConfigType.EntryLocation) {
+                    return db;
+                }
+                KeyValueStorage testDb = mock(KeyValueStorage.class, delegatesTo(db));
+                doAnswer(invocation -> newTestBatch(db.newBatch())).when(testDb).newBatch();
+                return testDb;
+            };
+
+            return new SingleDirectoryDbLedgerStorage(conf, ledgerManager, ledgerDirsManager, indexDirsManager,
+                    testEntryLogger, statsLogger, allocator, writeCacheSize, readCacheSize, readAheadCacheBatchSize,
+                    readAheadCacheBatchBytesSize, storageFactory);
+        }
+    }
+
+    private KeyValueStorage.Batch newTestBatch(KeyValueStorage.Batch batch) throws IOException {
+        KeyValueStorage.Batch testBatch = mock(KeyValueStorage.Batch.class, delegatesTo(batch));
+        doAnswer(invocation -> {
+            if (locationsWriteError != null) {
+                throw locationsWriteError;
+            }
+            batch.put(invocation.getArgument(0), invocation.getArgument(1));
+            locationsWritten.incrementAndGet();
+            return null;
+        }).when(testBatch).put(any(), any());
+        doAnswer(invocation -> {
+            batch.flush();
+            events.add("index-committed");
+            return null;
+        }).when(testBatch).flush();
+        return testBatch;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.getCurrentDirectory(ledgerDir).mkdirs();
+
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 16);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 1);
+        conf.setProperty(DbLedgerStorage.PIPELINED_FLUSH_ENABLED, true);
+        ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+    }
+
+    private void startStorage(DbLedgerStorage newStorage) throws Exception {
+        storage = newStorage;
+        storage.initialize(conf, null, ledgerDirsManager, ledgerDirsManager, NullStatsLogger.INSTANCE,
+                ByteBufAllocator.DEFAULT);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+        storage.setMasterKey(1, "key".getBytes());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        entryLogFlushError = null;
+        locationsWriteError = null;
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId * 31 + entryId));
+        }
+        return entry;
+    }
+
+    private void addEntries(long firstEntryId, long lastEntryId) throws Exception {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            ByteBuf entry = entry(1, entryId);
+            storage.addEntry(entry);
+            entry.release();
+        }
+    }
+
+    private void checkEntries(long lastEntryId) throws Exception {
+        for (long entryId = 0; entryId <= lastEntryId; entryId++) {
+            ByteBuf expected = entry(1, entryId);
+            ByteBuf entry = storage.getEntry(1, entryId);
+            assertEquals("Entry " + entryId, expected, entry);
+            expected.release();
+            entry.release();
+        }
+        ByteBuf lastEntry = storage.getLastEntry(1);
+        assertEquals(lastEntryId, lastEntry.getLong(8));
+        lastEntry.release();
+    }
+
+    // A failed flush is retried in background, so there can be more flushes than the ones of the test
+    private void checkCommittedOnceAfterEntryLogFlush() {
+        List<String> flushEvents = new ArrayList<>(events);
+        assertEquals(1, Collections.frequency(flushEvents, "index-committed"));
+        assertEquals(Arrays.asList("entry-log-flushed", "index-committed"),
+                flushEvents.subList(flushEvents.size() - 2, flushEvents.size()));
+    }
+
+    private long getLocation(long ledgerId, long entryId) throws IOException {
+        return storage.getLedgerStorageList().get(0).getEntryLocationIndex().getLocation(ledgerId, entryId);
+    }
+
+    @Test
+    public void testIndexCommittedAfterEntryLogFlush() throws Exception {
+        startStorage(new TestDbLedgerStorage());
+        addEntries(0, ENTRIES - 1);
+        storage.flush();
+
+        assertEquals(0, locationDuringEntryLogFlush.get().longValue());
+        assertEquals(Arrays.asList("entry-log-flushed", "index-committed"), events);
+        assertTrue(getLocation(1, ENTRIES - 1) != 0);
+        checkEntries(ENTRIES - 1);
+    }
+
+    @Test
+    public void testEntryLogFlushError() throws Exception {
+        startStorage(new TestDbLedgerStorage());
+        addEntries(0, ENTRIES - 1);
+
+        entryLogFlushError = new IOException("entry log flush failure");
+        try {
+            storage.flush();
+            fail("The flush should fail");
+        } catch (IOException e) {
+            assertSame(entryLogFlushError, e);
+        }
+        // The locations of the entries that may not be durable were not committed
+        assertFalse(events.contains("index-committed"));
+        assertEquals(0, getLocation(1, 0));
+        assertEquals(0, getLocation(1, ENTRIES - 1));
+        // The entries are still readable from the write cache, and flushed again by the next flush
+        checkEntries(ENTRIES - 1);
+
+        entryLogFlushError = null;
+        storage.flush();
+        checkCommittedOnceAfterEntryLogFlush();
+        assertTrue(getLocation(1, ENTRIES - 1) != 0);
+        checkEntries(ENTRIES - 1);
+    }
+
+    @Test
+    public void testIndexWriterError() throws Exception {
+        startStorage(new TestDbLedgerStorage());
+        addEntries(0, ENTRIES - 1);
+
+        // The error on the index flush thread is propagated to the flushing thread
+        locationsWriteError = new IOException("location index failure");
+        try {
+            storage.flush();
+            fail("The flush should fail");
+        } catch (IOException e) {
+            assertSame(locationsWriteError, e);
+        }
+        assertTrue(events.contains("entry-log-flushed"));
+        assertFalse(events.contains("index-committed"));
+        assertEquals(0, getLocation(1, 0));
+        checkEntries(ENTRIES - 1);
+
+        locationsWriteError = null;
+        storage.flush();
+        checkCommittedOnceAfterEntryLogFlush();
+        checkEntries(ENTRIES - 1);
+    }
+
+    @Test
+    public void testRestartAfterPipelinedFlushes() throws Exception {
+        startStorage(new TestDbLedgerStorage());
+        for (int i = 0; i < 3; i++) {
+            addEntries(i * ENTRIES, (i + 1) * ENTRIES - 1);
+            storage.flush();
+        }
+        // The last entries are only flushed by the shutdown
+        addEntries(3 * ENTRIES, 3 * ENTRIES + 99);
+        storage.shutdown();
+        storage = null;
+
+        startStorage(new DbLedgerStorage());
+        assertEquals(3 * ENTRIES + 99, storage.getLastEntryInLedger(1));
+        checkEntries(3 * ENTRIES + 99);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the read-ahead of {@link DbLedgerStorage}, done in background with range reads of the entry logs.
+ */
+public class DbLedgerStorageReadAheadTest {
+
+    private static final int BATCH_SIZE = 10;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private ServerConfiguration conf;
+    private DbLedgerStorage storage;
+
+    // Range reads of the entry logs
+    private final AtomicInteger rangeReads = new AtomicInteger();
+    // Entries from which the reads of the entry logs fail
+    private volatile long failReadsFromEntryId = Long.MAX_VALUE;
+
+    /**
+     * A {@link DbLedgerStorage} whose reads of the entry logs can be observed and failed.
+     */
+    private class TestDbLedgerStorage extends DbLedgerStorage {
+        @Override
+        protected SingleDirectoryDbLedgerStorage newSingleDirectoryDbLedgerStorage(ServerConfiguration conf,
+                LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager,
+                EntryLogger entryLogger, StatsLogger statsLogger, long writeCacheSize, long readCacheSize,
+                int readAheadCacheBatchSize, long readAheadCacheBatchBytesSize) throws IOException {
+            EntryLogger testEntryLogger = mock(EntryLogger.class, delegatesTo(entryLogger));
+            doAnswer(invocation -> {
+                long entryId = invocation.getArgument(1);
+                if (entryId >= failReadsFromEntryId) {
+                    throw new IOException("Entry log read failure");
+                }
+                return entryLogger.readEntry(invocation.getArgument(0), entryId, invocation.getArgument(2));
+            }).when(testEntryLogger).readEntry(anyLong(), anyLong(), anyLong());
+            doAnswer(invocation -> {
+                if (failReadsFromEntryId != Long.MAX_VALUE) {
+                    throw new IOException("Entry log range read failure");
+                }
+                rangeReads.incrementAndGet();
+                return entryLogger.readEntriesRange(invocation.getArgument(0), invocation.getArgument(1));
+            }).when(testEntryLogger).readEntriesRange(anyLong(), anyInt());
+
+            return new SingleDirectoryDbLedgerStorage(conf, ledgerManager, ledgerDirsManager, indexDirsManager,
+                    testEntryLogger, statsLogger, allocator, writeCacheSize, readCacheSize, readAheadCacheBatchSize,
+                    readAheadCacheBatchBytesSize);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.getCurrentDirectory(ledgerDir).mkdirs();
+
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_BATCH_SIZE, BATCH_SIZE);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_THREADS, 1);
+
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        storage = new TestDbLedgerStorage();
+        storage.initialize(conf, null, ledgerDirsManager, ledgerDirsManager, statsProvider.getStatsLogger(""),
+                ByteBufAllocator.DEFAULT);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+        for (long ledgerId = 1; ledgerId <= 2; ledgerId++) {
+            storage.setMasterKey(ledgerId, "key".getBytes());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    private static int entrySize(long entryId) {
+        // Entries of different sizes, so that the size of a range estimated from the last entry can be wrong
+        return 100 + (int) (entryId * 37 % 400);
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(entrySize(entryId));
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId * 31 + entryId));
+        }
+        return entry;
+    }
+
+    private void addEntries(long ledgerId, long firstEntryId, long lastEntryId) throws Exception {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            ByteBuf entry = entry(ledgerId, entryId);
+            storage.addEntry(entry);
+            entry.release();
+        }
+    }
+
+    private void checkEntry(long ledgerId, long entryId) throws Exception {
+        ByteBuf expected = entry(ledgerId, entryId);
+        ByteBuf entry = storage.getEntry(ledgerId, entryId);
+        assertEquals("Entry " + ledgerId + "@" + entryId, expected, entry);
+        expected.release();
+        entry.release();
+    }
+
+    private long readAheadBatches() {
+        return statsProvider.getOpStatsLogger("readahead-batch-count").getSuccessCount();
+    }
+
+    private void waitForReadAheadBatches(long batches) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (readAheadBatches() < batches && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(batches, readAheadBatches());
+    }
+
+    private long readCacheHits() {
+        return statsProvider.getCounter("read-cache-hits").get();
+    }
+
+    private long readCacheCount() {
+        return statsProvider.getGauge("read-cache-count").getSample().longValue();
+    }
+
+    @Test
+    public void testReadAheadInBackground() throws Exception {
+        addEntries(1, 0, 49);
+        storage.flush();
+
+        long hits = readCacheHits();
+        checkEntry(1, 0);
+
+        // The next entries of the batch are read in background, with range reads of the entry log
+        waitForReadAheadBatches(1);
+        assertEquals(1 + BATCH_SIZE, readCacheCount());
+        assertTrue(rangeReads.get() >= 1);
+
+        for (long entryId = 1; entryId <= BATCH_SIZE; entryId++) {
+            checkEntry(1, entryId);
+        }
+        assertEquals(hits + BATCH_SIZE, readCacheHits());
+
+        // The read past the batch is a miss, which reads the entry log and triggers the next read-ahead
+        checkEntry(1, BATCH_SIZE + 1);
+        assertEquals(hits + BATCH_SIZE, readCacheHits());
+        waitForReadAheadBatches(2);
+        assertEquals(2 + 2 * BATCH_SIZE, readCacheCount());
+    }
+
+    @Test
+    public void testReadAheadStopsAtEndOfLedger() throws Exception {
+        // The entries of ledger 2 follow the ones of ledger 1 in the entry log
+        addEntries(1, 0, 4);
+        addEntries(2, 0, 19);
+        storage.flush();
+
+        checkEntry(1, 2);
+        waitForReadAheadBatches(1);
+
+        // Only the last entries of ledger 1 are read ahead, not the entries of ledger 2
+        assertEquals(3, readCacheCount());
+        long hits = readCacheHits();
+        checkEntry(1, 3);
+        checkEntry(1, 4);
+        assertEquals(hits + 2, readCacheHits());
+
+        checkEntry(2, 0);
+        assertEquals(hits + 2, readCacheHits());
+    }
+
+    @Test
+    public void testReadAheadError() throws Exception {
+        addEntries(1, 0, 99);
+        storage.flush();
+
+        // The read of the first entry succeeds, while the read-ahead in background fails
+        failReadsFromEntryId = 1;
+        checkEntry(1, 0);
+        waitForReadAheadBatches(1);
+        assertEquals(1, readCacheCount());
+
+        // The error doesn't prevent the next reads nor the next read-aheads of the ledger
+        failReadsFromEntryId = Long.MAX_VALUE;
+        long hits = readCacheHits();
+        long entryId = 1;
+        for (int attempt = 0; attempt < 10 && readAheadBatches() < 2; attempt++) {
+            // The read-ahead is skipped while the failed one is still completing, so read the next entry until a
+            // new read-ahead is done
+            checkEntry(1, entryId++);
+            long deadline = System.currentTimeMillis() + 1000;
+            while (readAheadBatches() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+        assertEquals(2, readAheadBatches());
+        assertEquals(hits, readCacheHits());
+
+        long readAheadEntryId = entryId;
+        for (; entryId < readAheadEntryId + BATCH_SIZE; entryId++) {
+            checkEntry(1, entryId);
+        }
+        assertEquals(hits + BATCH_SIZE, readCacheHits());
+    }
+}
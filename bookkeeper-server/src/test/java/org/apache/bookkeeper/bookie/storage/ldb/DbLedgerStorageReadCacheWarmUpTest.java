@@ -0,0 +1,354 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the warm up of the read cache of {@link DbLedgerStorage} from the snapshot taken on shutdown.
+ */
+public class DbLedgerStorageReadCacheWarmUpTest {
+
+    private static final int ENTRIES = 1000;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private File ledgerDir;
+    private File snapshotFile;
+    private TestStatsProvider statsProvider;
+    private DbLedgerStorage storage;
+
+    // Reads of the entry logs
+    private final AtomicInteger entryLogReads = new AtomicInteger();
+    // Set to block the reads of the entry logs until released
+    private volatile CountDownLatch readsStarted;
+    private volatile CountDownLatch readsReleased;
+
+    /**
+     * A {@link DbLedgerStorage} whose reads of the entry logs can be observed and blocked.
+     */
+    private class TestDbLedgerStorage extends DbLedgerStorage {
+        @Override
+        protected SingleDirectoryDbLedgerStorage newSingleDirectoryDbLedgerStorage(ServerConfiguration conf,
+                LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager,
+                EntryLogger entryLogger, StatsLogger statsLogger, long writeCacheSize, long readCacheSize,
+                int readAheadCacheBatchSize, long readAheadCacheBatchBytesSize) throws IOException {
+            EntryLogger testEntryLogger = mock(EntryLogger.class, delegatesTo(entryLogger));
+            doAnswer(invocation -> {
+                awaitRead();
+                return entryLogger.readEntry(invocation.getArgument(0), invocation.getArgument(1),
+                        invocation.getArgument(2));
+            }).when(testEntryLogger).readEntry(anyLong(), anyLong(), anyLong());
+            doAnswer(invocation -> {
+                awaitRead();
+                return entryLogger.readEntriesRange(invocation.getArgument(0), invocation.getArgument(1));
+            }).when(testEntryLogger).readEntriesRange(anyLong(), anyInt());
+
+            return new SingleDirectoryDbLedgerStorage(conf, ledgerManager, ledgerDirsManager, indexDirsManager,
+                    testEntryLogger, statsLogger, allocator, writeCacheSize, readCacheSize, readAheadCacheBatchSize,
+                    readAheadCacheBatchBytesSize);
+        }
+    }
+
+    private void awaitRead() throws InterruptedException {
+        entryLogReads.incrementAndGet();
+        CountDownLatch started = readsStarted;
+        if (started != null) {
+            started.countDown();
+            readsReleased.await();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ledgerDir = tmpDir.newFolder("ledgers");
+        File currentDir = BookieImpl.getCurrentDirectory(ledgerDir);
+        currentDir.mkdirs();
+        snapshotFile = new File(currentDir, ReadCacheSnapshot.FILE_NAME);
+
+        startStorage();
+        for (long ledgerId = 1; ledgerId <= 2; ledgerId++) {
+            storage.setMasterKey(ledgerId, "key".getBytes());
+            for (long entryId = 0; entryId < ENTRIES; entryId++) {
+                ByteBuf entry = entry(ledgerId, entryId);
+                storage.addEntry(entry);
+                entry.release();
+            }
+        }
+        storage.flush();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (readsReleased != null) {
+            readsReleased.countDown();
+        }
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    private void startStorage() throws Exception {
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_BATCH_SIZE, 10);
+        conf.setProperty(DbLedgerStorage.READ_CACHE_WARM_UP_ENABLED, true);
+
+        statsProvider = new TestStatsProvider();
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        storage = new TestDbLedgerStorage();
+        storage.initialize(conf, null, ledgerDirsManager, ledgerDirsManager, statsProvider.getStatsLogger(""),
+                ByteBufAllocator.DEFAULT);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+        storage.start();
+    }
+
+    private void restartStorage() throws Exception {
+        storage.shutdown();
+        storage = null;
+        startStorage();
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(200);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId * 31 + entryId));
+        }
+        return entry;
+    }
+
+    private void checkEntry(long ledgerId, long entryId) throws Exception {
+        ByteBuf expected = entry(ledgerId, entryId);
+        ByteBuf entry = storage.getEntry(ledgerId, entryId);
+        assertEquals("Entry " + ledgerId + "@" + entryId, expected, entry);
+        expected.release();
+        entry.release();
+    }
+
+    private long readCacheCount() {
+        return statsProvider.getGauge("read-cache-count").getSample().longValue();
+    }
+
+    private long readCacheHits() {
+        return statsProvider.getCounter("read-cache-hits").get();
+    }
+
+    private void waitForReadCacheCount(long count) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (readCacheCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, readCacheCount());
+    }
+
+    private void waitForSnapshotLoaded() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (snapshotFile.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(snapshotFile.exists());
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        // Fill the read cache with some ranges of the two ledgers
+        for (long entryId = 100; entryId < 150; entryId++) {
+            checkEntry(2, entryId);
+        }
+        for (long entryId = 500; entryId < 520; entryId++) {
+            checkEntry(1, entryId);
+        }
+        long cachedEntries = readCacheCount();
+        assertTrue(cachedEntries >= 70);
+
+        restartStorage();
+        // The snapshot is removed once loaded
+        waitForSnapshotLoaded();
+        waitForReadCacheCount(cachedEntries);
+
+        // The entries are loaded with batched lookups of the location index
+        assertEquals(0, statsProvider.getOpStatsLogger("lookup-entry-location").getSuccessCount());
+        assertTrue(statsProvider.getOpStatsLogger("lookup-entry-locations-batch").getSuccessCount() > 0);
+
+        long hits = readCacheHits();
+        for (long entryId = 100; entryId < 150; entryId++) {
+            checkEntry(2, entryId);
+        }
+        for (long entryId = 500; entryId < 520; entryId++) {
+            checkEntry(1, entryId);
+        }
+        assertEquals(hits + 70, readCacheHits());
+    }
+
+    @Test
+    public void testCorruptSnapshotIgnored() throws Exception {
+        for (long entryId = 0; entryId < 50; entryId++) {
+            checkEntry(1, entryId);
+        }
+        storage.shutdown();
+        storage = null;
+        assertTrue(snapshotFile.exists());
+
+        // Flip a byte of the last range
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+            long pos = file.length() - 8 - 1;
+            file.seek(pos);
+            int b = file.read();
+            file.seek(pos);
+            file.write(b ^ 0xFF);
+        }
+        try {
+            ReadCacheSnapshot.read(snapshotFile);
+            fail("The corrupt snapshot should be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        entryLogReads.set(0);
+        startStorage();
+        waitForSnapshotLoaded();
+        Thread.sleep(100);
+        assertEquals(0, readCacheCount());
+        assertEquals(0, entryLogReads.get());
+
+        // A truncated snapshot is rejected as well
+        for (long entryId = 0; entryId < 50; entryId++) {
+            checkEntry(1, entryId);
+        }
+        storage.shutdown();
+        storage = null;
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+            file.setLength(file.length() - 8);
+        }
+        entryLogReads.set(0);
+        startStorage();
+        waitForSnapshotLoaded();
+        Thread.sleep(100);
+        assertEquals(0, readCacheCount());
+        assertEquals(0, entryLogReads.get());
+    }
+
+    @Test
+    public void testStaleSnapshot() throws Exception {
+        // A snapshot listing a ledger which doesn't exist anymore, and entries which were never stored
+        storage.shutdown();
+        storage = null;
+        new ReadCacheSnapshot(Arrays.asList(
+                new ReadCacheSnapshot.Range(3, 0, 100),
+                new ReadCacheSnapshot.Range(1, ENTRIES - 10, Long.MAX_VALUE - 1),
+                new ReadCacheSnapshot.Range(2, 20, 29)))
+                .write(snapshotFile);
+
+        startStorage();
+        waitForSnapshotLoaded();
+        // Only the stored entries are loaded, without looking up the ones past the last entry of the ledger
+        waitForReadCacheCount(20);
+        long hits = readCacheHits();
+        for (long entryId = ENTRIES - 10; entryId < ENTRIES; entryId++) {
+            checkEntry(1, entryId);
+        }
+        for (long entryId = 20; entryId < 30; entryId++) {
+            checkEntry(2, entryId);
+        }
+        assertEquals(hits + 20, readCacheHits());
+    }
+
+    @Test
+    public void testShutdownCancelsWarmUp() throws Exception {
+        for (long ledgerId = 1; ledgerId <= 2; ledgerId++) {
+            for (long entryId = 0; entryId < ENTRIES; entryId++) {
+                checkEntry(ledgerId, entryId);
+            }
+        }
+        long cachedEntries = readCacheCount();
+        storage.shutdown();
+        storage = null;
+
+        // Block the warm up on its first read of the entry log
+        readsStarted = new CountDownLatch(1);
+        readsReleased = new CountDownLatch(1);
+        startStorage();
+        assertTrue(readsStarted.await(10, TimeUnit.SECONDS));
+
+        DbLedgerStorage stoppingStorage = storage;
+        storage = null;
+        Thread shutdownThread = new Thread(() -> {
+            try {
+                stoppingStorage.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        long startTime = System.nanoTime();
+        shutdownThread.start();
+        Thread.sleep(100);
+        int readsOnShutdown = entryLogReads.get();
+        readsReleased.countDown();
+        shutdownThread.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(shutdownThread.isAlive());
+
+        // The shutdown doesn't wait for the warm up to complete, which stops after its current batch of lookups,
+        // while loading all the cached entries would take a couple of reads for each of the batches
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime) < 10);
+        assertTrue(cachedEntries > 10 * 128);
+        assertTrue(entryLogReads.get() - readsOnShutdown < 4);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.List;
+import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.BookieResources;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the reads of {@link DbLedgerStorage}.
+ */
+public class DbLedgerStorageReadTest {
+
+    private static final int ENTRY_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private ServerConfiguration conf;
+    private DbLedgerStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.getCurrentDirectory(ledgerDir).mkdirs();
+
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerStorageClass(DbLedgerStorage.class.getName());
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 4);
+    }
+
+    private void startStorage() throws Exception {
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        storage = (DbLedgerStorage) BookieResources.createLedgerStorage(conf, null, ledgerDirsManager,
+                ledgerDirsManager, statsProvider.getStatsLogger(""), ByteBufAllocator.DEFAULT);
+        for (long ledgerId = 1; ledgerId <= 3; ledgerId++) {
+            storage.setMasterKey(ledgerId, "key".getBytes());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId * 31 + entryId));
+        }
+        return entry;
+    }
+
+    private static void checkEntries(long ledgerId, long firstEntryId, int count, List<ByteBuf> entries) {
+        try {
+            assertEquals(count, entries.size());
+            for (int i = 0; i < count; i++) {
+                ByteBuf expected = entry(ledgerId, firstEntryId + i);
+                assertEquals("Entry " + ledgerId + "@" + (firstEntryId + i), expected, entries.get(i));
+                expected.release();
+            }
+        } finally {
+            entries.forEach(ByteBuf::release);
+        }
+    }
+
+    private void addEntry(long ledgerId, long entryId) throws Exception {
+        ByteBuf entry = entry(ledgerId, entryId);
+        storage.addEntry(entry);
+        entry.release();
+    }
+
+    private long batchLookups() {
+        return statsProvider.getOpStatsLogger("lookup-entry-locations-batch").getSuccessCount();
+    }
+
+    private long singleLookups() {
+        TestStatsProvider.TestOpStatsLogger stats = statsProvider.getOpStatsLogger("lookup-entry-location");
+        return stats.getSuccessCount() + stats.getFailureCount();
+    }
+
+    @Test
+    public void testGetEntriesFromEntryLogs() throws Exception {
+        startStorage();
+        // The entries of the ledgers are interleaved in the write cache
+        for (long entryId = 0; entryId < 300; entryId++) {
+            addEntry(1, entryId);
+            addEntry(2, entryId);
+        }
+        storage.flush();
+
+        long lookups = batchLookups();
+        checkEntries(1, 0, 300, storage.getEntries(1, 0, 1000, Long.MAX_VALUE));
+        // The locations are looked up by batches of 128 entries, and the lookups stop at the end of the ledger
+        assertEquals(lookups + 3, batchLookups());
+        assertEquals(0, singleLookups());
+
+        checkEntries(2, 250, 50, storage.getEntries(2, 250, 1000, Long.MAX_VALUE));
+        checkEntries(2, 10, 20, storage.getEntries(2, 10, 20, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testGetEntriesFromCachesAndEntryLogs() throws Exception {
+        startStorage();
+        for (long entryId = 0; entryId < 100; entryId++) {
+            addEntry(1, entryId);
+        }
+        storage.flush();
+        // The next entries are still in the write cache
+        for (long entryId = 100; entryId < 150; entryId++) {
+            addEntry(1, entryId);
+        }
+        // and some of the flushed entries are in the read cache
+        storage.getEntry(1, 40).release();
+
+        long lookups = singleLookups();
+        checkEntries(1, 0, 150, storage.getEntries(1, 0, 1000, Long.MAX_VALUE));
+        checkEntries(1, 30, 100, storage.getEntries(1, 30, 100, Long.MAX_VALUE));
+        checkEntries(1, 120, 30, storage.getEntries(1, 120, 100, Long.MAX_VALUE));
+        assertEquals(lookups, singleLookups());
+    }
+
+    @Test
+    public void testGetEntriesMaxSize() throws Exception {
+        startStorage();
+        for (long entryId = 0; entryId < 50; entryId++) {
+            addEntry(1, entryId);
+        }
+        storage.flush();
+
+        // The read stops once the size of the entries read reaches the max size
+        checkEntries(1, 0, 4, storage.getEntries(1, 0, 50, 3 * ENTRY_SIZE + 1));
+        checkEntries(1, 10, 3, storage.getEntries(1, 10, 50, 3 * ENTRY_SIZE));
+        checkEntries(1, 20, 1, storage.getEntries(1, 20, 50, 1));
+        checkEntries(1, 49, 1, storage.getEntries(1, 49, 50, 3 * ENTRY_SIZE));
+    }
+
+    @Test
+    public void testGetEntriesStopsAtMissingEntry() throws Exception {
+        startStorage();
+        for (long entryId : new long[] { 0, 1, 2, 5, 6 }) {
+            addEntry(3, entryId);
+        }
+        storage.flush();
+
+        checkEntries(3, 0, 3, storage.getEntries(3, 0, 10, Long.MAX_VALUE));
+        checkEntries(3, 5, 2, storage.getEntries(3, 5, 10, Long.MAX_VALUE));
+
+        // Only a missing first entry fails the read
+        try {
+            storage.getEntries(3, 3, 10, Long.MAX_VALUE);
+            fail("The first entry is missing");
+        } catch (NoEntryException e) {
+            assertEquals(3, e.getLedger());
+            assertEquals(3, e.getEntry());
+        }
+        try {
+            storage.getEntries(3, 7, 10, Long.MAX_VALUE);
+            fail("The first entry is past the end of the ledger");
+        } catch (NoEntryException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGetEntriesAfterRestart() throws Exception {
+        startStorage();
+        for (long entryId = 0; entryId < 200; entryId++) {
+            addEntry(1, entryId);
+            addEntry(2, entryId);
+        }
+        storage.shutdown();
+        storage = null;
+
+        startStorage();
+        List<ByteBuf> entries = storage.getEntries(2, 0, 1000, Long.MAX_VALUE);
+        assertTrue(entries.size() > 0);
+        checkEntries(2, 0, 200, entries);
+    }
+
+    private void checkNoEntry(long ledgerId, long entryId) throws Exception {
+        try {
+            storage.getEntry(ledgerId, entryId);
+            fail("Entry " + ledgerId + "@" + entryId + " should not exist");
+        } catch (NoEntryException e) {
+            // expected
+        }
+    }
+
+    private long readsPastLastEntry() {
+        return statsProvider.getCounter("read-past-last-entry").get();
+    }
+
+    @Test
+    public void testReadsPastLastEntrySkipLookups() throws Exception {
+        startStorage();
+        for (long entryId = 0; entryId < 10; entryId++) {
+            addEntry(1, entryId);
+        }
+        storage.flush();
+
+        // The first miss looks up the location index, and loads the last entry of the ledger
+        long lookups = singleLookups();
+        checkNoEntry(1, 10);
+        assertEquals(lookups + 1, singleLookups());
+        assertEquals(0, readsPastLastEntry());
+
+        // The next reads past the last entry don't look up the location index
+        checkNoEntry(1, 11);
+        checkNoEntry(1, 10);
+        assertFalse(storage.entryExists(1, 12));
+        try {
+            storage.getEntries(1, 10, 10, Long.MAX_VALUE);
+            fail("The entries are past the end of the ledger");
+        } catch (NoEntryException e) {
+            // expected
+        }
+        assertEquals(lookups + 1, singleLookups());
+        assertEquals(4, readsPastLastEntry());
+        // The range reads stop at the last entry
+        long batches = batchLookups();
+        checkEntries(1, 5, 5, storage.getEntries(1, 5, 100, Long.MAX_VALUE));
+        assertEquals(batches + 1, batchLookups());
+
+        // The entries added afterwards are found, in the write cache and then in the location index
+        addEntry(1, 10);
+        addEntry(1, 15);
+        checkEntries(1, 10, 1, storage.getEntries(1, 10, 1, Long.MAX_VALUE));
+        storage.flush();
+        checkEntries(1, 15, 1, storage.getEntries(1, 15, 1, Long.MAX_VALUE));
+        assertTrue(storage.entryExists(1, 10));
+
+        // A missing entry before the last entry is still looked up
+        lookups = singleLookups();
+        checkNoEntry(1, 12);
+        assertEquals(lookups + 1, singleLookups());
+        long readsPastLastEntry = readsPastLastEntry();
+        checkNoEntry(1, 16);
+        assertEquals(lookups + 1, singleLookups());
+        assertEquals(readsPastLastEntry + 1, readsPastLastEntry());
+    }
+
+    private long counter(String name) {
+        return statsProvider.getCounter(name).get();
+    }
+
+    private void checkCachedEntry(long ledgerId, long entryId) {
+        ByteBuf entry = storage.getEntryIfCached(ledgerId, entryId);
+        ByteBuf expected = entry(ledgerId, entryId);
+        assertEquals("Entry " + ledgerId + "@" + entryId, expected, entry);
+        expected.release();
+        entry.release();
+    }
+
+    @Test
+    public void testGetEntryIfCached() throws Exception {
+        startStorage();
+        for (long entryId = 0; entryId < 10; entryId++) {
+            addEntry(1, entryId);
+        }
+
+        // The entries not flushed yet are in the write cache
+        long writeCacheHits = counter("write-cache-hits");
+        checkCachedEntry(1, 3);
+        assertEquals(writeCacheHits + 1, counter("write-cache-hits"));
+        // The last add confirmed is never read from the caches
+        assertNull(storage.getEntryIfCached(1, BookieProtocol.LAST_ADD_CONFIRMED));
+
+        // Once flushed, the entries have to be read from the entry logs, which is left to getEntry(): neither
+        // the locations are looked up nor the misses recorded
+        storage.flush();
+        long lookups = singleLookups();
+        long writeCacheMisses = counter("write-cache-misses");
+        long readCacheMisses = counter("read-cache-misses");
+        assertNull(storage.getEntryIfCached(1, 5));
+        assertNull(storage.getEntryIfCached(2, 0));
+        assertEquals(lookups, singleLookups());
+        assertEquals(writeCacheMisses, counter("write-cache-misses"));
+        assertEquals(readCacheMisses, counter("read-cache-misses"));
+
+        // The entries read ahead are in the read cache
+        ByteBuf entry = storage.getEntry(1, 5);
+        entry.release();
+        long readCacheHits = counter("read-cache-hits");
+        checkCachedEntry(1, 5);
+        checkCachedEntry(1, 6);
+        assertEquals(readCacheHits + 2, counter("read-cache-hits"));
+    }
+}
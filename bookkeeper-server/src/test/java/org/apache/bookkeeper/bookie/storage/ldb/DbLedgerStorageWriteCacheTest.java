@@ -0,0 +1,246 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.BookieResources;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the ring of write caches of {@link DbLedgerStorage}.
+ */
+public class DbLedgerStorageWriteCacheTest {
+
+    private static final int ENTRY_SIZE = 10 * 1024;
+    private static final int LEDGERS = 4;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private DbLedgerStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.getCurrentDirectory(ledgerDir).mkdirs();
+
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerStorageClass(DbLedgerStorage.class.getName());
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        // 4 write caches of 256 KB, each holding 25 entries
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 1);
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_COUNT, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 1);
+
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        storage = (DbLedgerStorage) BookieResources.createLedgerStorage(conf, null, ledgerDirsManager,
+                ledgerDirsManager, NullStatsLogger.INSTANCE, ByteBufAllocator.DEFAULT);
+        for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+            storage.setMasterKey(ledgerId, "key".getBytes());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId * 31 + entryId));
+        }
+        return entry;
+    }
+
+    private static void checkEntry(long ledgerId, long entryId, ByteBuf entry) {
+        try {
+            ByteBuf expected = entry(ledgerId, entryId);
+            assertEquals("Entry " + ledgerId + "@" + entryId, expected, entry);
+            expected.release();
+        } finally {
+            entry.release();
+        }
+    }
+
+    private void addEntry(long ledgerId, long entryId) throws Exception {
+        ByteBuf entry = entry(ledgerId, entryId);
+        storage.addEntry(entry);
+        entry.release();
+    }
+
+    @Test
+    public void testRingWrapAround() throws Exception {
+        // Write 20 times the size of a write cache, so that the writes go through every cache of the ring several
+        // times while the full caches are flushed in background
+        int entries = 500;
+        for (int entryId = 0; entryId < entries; entryId++) {
+            addEntry(entryId % LEDGERS, entryId);
+            // The entries are readable from the write caches or the entry logs while they are being flushed
+            int readEntryId = ThreadLocalRandom.current().nextInt(entryId + 1);
+            checkEntry(readEntryId % LEDGERS, readEntryId, storage.getEntry(readEntryId % LEDGERS, readEntryId));
+        }
+
+        for (int entryId = 0; entryId < entries; entryId++) {
+            checkEntry(entryId % LEDGERS, entryId, storage.getEntry(entryId % LEDGERS, entryId));
+        }
+        for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+            long lastEntryId = entries - LEDGERS + ledgerId;
+            checkEntry(ledgerId, lastEntryId, storage.getLastEntry(ledgerId));
+        }
+
+        storage.flush();
+        for (int entryId = 0; entryId < entries; entryId++) {
+            checkEntry(entryId % LEDGERS, entryId, storage.getEntry(entryId % LEDGERS, entryId));
+        }
+    }
+
+    @Test
+    public void testConcurrentAddAndRead() throws Exception {
+        int entriesPerLedger = 200;
+        int readers = 4;
+
+        // Last entry added on each ledger, each ledger having its own writer thread
+        AtomicLong[] lastEntries = new AtomicLong[LEDGERS];
+        for (int i = 0; i < LEDGERS; i++) {
+            lastEntries[i] = new AtomicLong(-1);
+        }
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch writersDone = new CountDownLatch(LEDGERS);
+        CountDownLatch readersDone = new CountDownLatch(readers);
+
+        for (int l = 0; l < LEDGERS; l++) {
+            long ledgerId = l;
+            new Thread(() -> {
+                try {
+                    for (int entryId = 0; entryId < entriesPerLedger; entryId++) {
+                        addEntry(ledgerId, entryId);
+                        lastEntries[(int) ledgerId].set(entryId);
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    writersDone.countDown();
+                }
+            }).start();
+        }
+
+        for (int r = 0; r < readers; r++) {
+            new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    // Reads race with the rotation of the write caches and with their clear after a flush
+                    while (writersDone.getCount() > 0 && error.get() == null) {
+                        int ledgerId = random.nextInt(LEDGERS);
+                        long lastEntryId = lastEntries[ledgerId].get();
+                        if (lastEntryId < 0) {
+                            continue;
+                        }
+                        long entryId = random.nextLong(lastEntryId + 1);
+                        checkEntry(ledgerId, entryId, storage.getEntry(ledgerId, entryId));
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    readersDone.countDown();
+                }
+            }).start();
+        }
+
+        writersDone.await();
+        readersDone.await();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        storage.flush();
+        for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+            for (long entryId = 0; entryId < entriesPerLedger; entryId++) {
+                checkEntry(ledgerId, entryId, storage.getEntry(ledgerId, entryId));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentAddAndFlush() throws Exception {
+        int entriesPerLedger = 150;
+
+        // The write caches are rotated by the flushes and by the adds filling them, while other adds are still
+        // putting their entries without the lock
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch writersDone = new CountDownLatch(LEDGERS);
+        for (int l = 0; l < LEDGERS; l++) {
+            long ledgerId = l;
+            new Thread(() -> {
+                try {
+                    for (int entryId = 0; entryId < entriesPerLedger; entryId++) {
+                        addEntry(ledgerId, entryId);
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    writersDone.countDown();
+                }
+            }).start();
+        }
+
+        while (writersDone.getCount() > 0 && error.get() == null) {
+            storage.flush();
+        }
+        writersDone.await();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        // No entry was lost or overwritten in a write cache being flushed and reused
+        storage.flush();
+        for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+            for (long entryId = 0; entryId < entriesPerLedger; entryId++) {
+                checkEntry(ledgerId, entryId, storage.getEntry(ledgerId, entryId));
+            }
+            checkEntry(ledgerId, entriesPerLedger - 1, storage.getLastEntry(ledgerId));
+        }
+    }
+}
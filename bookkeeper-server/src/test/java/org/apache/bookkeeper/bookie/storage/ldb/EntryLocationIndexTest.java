@@ -0,0 +1,130 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link EntryLocationIndex}.
+ */
+public class EntryLocationIndexTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private EntryLocationIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new EntryLocationIndex(new ServerConfiguration(), KeyValueStorageRocksDB.factory,
+                tmpDir.newFolder().getAbsolutePath(), statsProvider.getStatsLogger(""));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.close();
+    }
+
+    private static long location(long ledgerId, long entryId) {
+        return (ledgerId << 32) + entryId * 100 + 1;
+    }
+
+    private void addLocations(long ledgerId, long... entryIds) throws Exception {
+        try (KeyValueStorage.Batch batch = index.newBatch()) {
+            for (long entryId : entryIds) {
+                index.addLocation(batch, ledgerId, entryId, location(ledgerId, entryId));
+            }
+            batch.flush();
+        }
+    }
+
+    private long batchLookups() {
+        return statsProvider.getOpStatsLogger("lookup-entry-locations-batch").getSuccessCount();
+    }
+
+    @Test
+    public void testGetLocationsWithHitsAndMisses() throws Exception {
+        addLocations(1, 0, 1, 2, 4, 7);
+
+        long[] locations = index.getLocations(1, 0, 8);
+        assertArrayEquals(new long[] {
+                location(1, 0), location(1, 1), location(1, 2), 0,
+                location(1, 4), 0, 0, location(1, 7) }, locations);
+        assertEquals(1, batchLookups());
+
+        // The batched lookup returns the same locations as the lookups of each entry
+        for (int i = 0; i < locations.length; i++) {
+            assertEquals(index.getLocation(1, i), locations[i]);
+        }
+
+        // A range with no entry at all
+        assertArrayEquals(new long[4], index.getLocations(1, 8, 4));
+        assertArrayEquals(new long[4], index.getLocations(2, 0, 4));
+        assertEquals(3, batchLookups());
+    }
+
+    @Test
+    public void testGetLocationsAcrossLedgerBoundaries() throws Exception {
+        addLocations(1, 0, 1, 2);
+        addLocations(2, 0, 1, 2, 3, 4);
+        addLocations(3, 0, 1);
+
+        // The range past the last entry of ledger 2 doesn't read the entries of the next ledger
+        assertArrayEquals(new long[] { location(2, 3), location(2, 4), 0, 0, 0 }, index.getLocations(2, 3, 5));
+        assertArrayEquals(new long[] { location(1, 2), 0, 0 }, index.getLocations(1, 2, 3));
+        assertArrayEquals(new long[] { location(3, 0), location(3, 1), 0 }, index.getLocations(3, 0, 3));
+
+        // Nor at the end of the entry ids of the ledger
+        assertArrayEquals(new long[] { 0, 0 }, index.getLocations(2, Long.MAX_VALUE - 1, 2));
+
+        // A deleted ledger doesn't hide the entries of its neighbours
+        index.delete(2);
+        index.removeOffsetFromDeletedLedgers();
+        assertArrayEquals(new long[5], index.getLocations(2, 0, 5));
+        assertArrayEquals(new long[] { location(1, 0), location(1, 1), location(1, 2) }, index.getLocations(1, 0, 3));
+        assertArrayEquals(new long[] { location(3, 0), location(3, 1) }, index.getLocations(3, 0, 2));
+    }
+
+    @Test
+    public void testGetLocationsAfterReopen() throws Exception {
+        String path = tmpDir.newFolder().getAbsolutePath();
+        index.close();
+        index = new EntryLocationIndex(new ServerConfiguration(), KeyValueStorageRocksDB.factory, path,
+                statsProvider.getStatsLogger(""));
+        addLocations(5, 10, 11, 13);
+        index.close();
+
+        index = new EntryLocationIndex(new ServerConfiguration(), KeyValueStorageRocksDB.factory, path,
+                statsProvider.getStatsLogger(""));
+        assertArrayEquals(new long[] { 0, location(5, 10), location(5, 11), 0, location(5, 13), 0 },
+                index.getLocations(5, 9, 6));
+    }
+}
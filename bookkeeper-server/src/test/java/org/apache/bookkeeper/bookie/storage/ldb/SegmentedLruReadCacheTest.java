@@ -0,0 +1,404 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link SegmentedLruReadCache}.
+ */
+public class SegmentedLruReadCacheTest {
+
+    private static final int ENTRY_SIZE = 1024;
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private SegmentedLruReadCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private SegmentedLruReadCache newCache(int maxEntries, double protectedRatio, double maxLedgerRatio) {
+        return new SegmentedLruReadCache(ByteBufAllocator.DEFAULT, (long) maxEntries * ENTRY_SIZE, protectedRatio,
+                maxLedgerRatio, new ReadCacheStats(statsProvider.getStatsLogger(""), EntryReadCache.Policy.SLRU));
+    }
+
+    private long promotions() {
+        return statsProvider.getCounter("read-cache-promotions").get();
+    }
+
+    private long misses() {
+        return statsProvider.getCounter("read-cache-policy-misses").get();
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writerIndex(ENTRY_SIZE);
+        return entry;
+    }
+
+    private void put(long ledgerId, long entryId) {
+        ByteBuf entry = entry(ledgerId, entryId);
+        cache.put(ledgerId, entryId, entry);
+        entry.release();
+    }
+
+    private void get(long ledgerId, long entryId) {
+        ByteBuf entry = cache.get(ledgerId, entryId);
+        assertEquals(ledgerId, entry.getLong(0));
+        assertEquals(entryId, entry.getLong(8));
+        entry.release();
+    }
+
+    private List<Long> entryIds() {
+        List<Long> entryIds = new ArrayList<>();
+        cache.forEachKey((ledgerId, entryId) -> entryIds.add(entryId));
+        return entryIds;
+    }
+
+    private static List<Long> list(long... entryIds) {
+        List<Long> list = new ArrayList<>();
+        for (long entryId : entryIds) {
+            list.add(entryId);
+        }
+        return list;
+    }
+
+    @Test
+    public void testPutGet() {
+        cache = newCache(4, 0.5, 1.0);
+        put(1, 0);
+        put(1, 1);
+
+        get(1, 0);
+        get(1, 1);
+        assertNull(cache.get(1, 2));
+        assertNull(cache.get(2, 0));
+        assertEquals(2, cache.count());
+        assertEquals(2 * ENTRY_SIZE, cache.size());
+
+        // Putting an entry again doesn't copy it twice
+        put(1, 0);
+        assertEquals(2, cache.count());
+        assertEquals(2 * ENTRY_SIZE, cache.size());
+    }
+
+    @Test
+    public void testPromotionOnSecondAccess() {
+        cache = newCache(4, 0.5, 1.0);
+        put(1, 0);
+        put(1, 1);
+        put(1, 2);
+        // Probation segment, most recent first
+        assertEquals(list(2, 1, 0), entryIds());
+
+        // The first access only moves the entry to the head of the probation segment
+        get(1, 0);
+        assertEquals(list(0, 2, 1), entryIds());
+        assertEquals(0, promotions());
+
+        // The second access promotes the entry to the protected segment, which is listed first
+        get(1, 1);
+        get(1, 0);
+        assertEquals(list(0, 1, 2), entryIds());
+        assertEquals(1, promotions());
+
+        // A hit in the protected segment only moves the entry to its head
+        get(1, 1);
+        assertEquals(list(1, 0, 2), entryIds());
+        get(1, 0);
+        assertEquals(list(0, 1, 2), entryIds());
+        assertEquals(2, promotions());
+    }
+
+    @Test
+    public void testReadAheadNotPromoted() {
+        cache = newCache(8, 0.5, 1.0);
+        // A sequential read accesses once each entry added by the read-ahead
+        for (long entryId = 0; entryId < 4; entryId++) {
+            put(1, entryId);
+        }
+        for (long entryId = 0; entryId < 4; entryId++) {
+            get(1, entryId);
+        }
+        assertEquals(0, promotions());
+
+        // The entries read from the entry logs for a reader are accessed once when they are added
+        ByteBuf entry = entry(2, 0);
+        cache.putAccessed(2, 0, entry);
+        entry.release();
+        get(2, 0);
+        assertEquals(1, promotions());
+        assertEquals(list(0, 3, 2, 1, 0), entryIds());
+    }
+
+    @Test
+    public void testDemotion() {
+        // The protected segment holds 2 entries
+        cache = newCache(4, 0.5, 1.0);
+        put(1, 0);
+        put(1, 1);
+        put(1, 2);
+
+        for (long entryId : new long[] { 0, 1, 0, 1 }) {
+            get(1, entryId);
+        }
+        assertEquals(list(1, 0, 2), entryIds());
+
+        // Promoting a third entry demotes the least recently used protected entry to the head of probation
+        get(1, 2);
+        get(1, 2);
+        assertEquals(list(2, 1, 0), entryIds());
+        assertEquals(3, cache.count());
+        assertEquals(3 * ENTRY_SIZE, cache.size());
+    }
+
+    @Test
+    public void testEvictionFromProbationFirst() {
+        cache = newCache(4, 0.5, 1.0);
+        put(1, 0);
+        put(1, 1);
+        put(1, 2);
+        put(1, 3);
+        get(1, 0);
+        get(1, 0);
+
+        // The least recently used entry of the probation segment is evicted, not the older protected one
+        put(1, 4);
+        assertTrue(cache.hasEntry(1, 0));
+        assertFalse(cache.hasEntry(1, 1));
+        assertEquals(list(0, 4, 3, 2), entryIds());
+
+        // A scan of new entries only replaces the probation entries
+        for (long entryId = 5; entryId < 20; entryId++) {
+            put(1, entryId);
+            get(1, entryId);
+        }
+        assertTrue(cache.hasEntry(1, 0));
+        assertEquals(list(0, 19, 18, 17), entryIds());
+        assertEquals(4, cache.count());
+        assertEquals(4 * ENTRY_SIZE, cache.size());
+    }
+
+    @Test
+    public void testLedgerQuotaEnforcedOnEveryPut() {
+        // A ledger can use half of the cache
+        cache = newCache(4, 0.5, 0.5);
+        put(2, 0);
+        put(2, 1);
+
+        // Ledger 2 replaces its own entries even though the cache is not full
+        put(2, 2);
+        assertFalse(cache.hasEntry(2, 0));
+        assertTrue(cache.hasEntry(2, 1));
+        assertTrue(cache.hasEntry(2, 2));
+        assertEquals(2, cache.count());
+
+        // Which leaves the rest of the cache to the other ledgers
+        put(1, 0);
+        put(3, 0);
+        put(2, 3);
+        assertTrue(cache.hasEntry(1, 0));
+        assertTrue(cache.hasEntry(3, 0));
+        assertEquals(4, cache.count());
+    }
+
+    @Test
+    public void testLedgerOverQuotaReplacesItsOwnLruEntries() {
+        cache = newCache(4, 0.5, 0.5);
+        put(1, 0);
+        put(2, 0);
+        put(2, 1);
+        get(2, 0);
+
+        // The least recently used entry of the ledger is replaced, even if an entry of ledger 1 is older
+        put(2, 2);
+        assertTrue(cache.hasEntry(2, 0));
+        assertFalse(cache.hasEntry(2, 1));
+        assertTrue(cache.hasEntry(2, 2));
+        assertTrue(cache.hasEntry(1, 0));
+        assertEquals(3, cache.count());
+
+        // Including its protected entries
+        get(2, 0);
+        get(2, 2);
+        get(2, 2);
+        put(2, 3);
+        assertFalse(cache.hasEntry(2, 0));
+        assertTrue(cache.hasEntry(2, 2));
+        assertTrue(cache.hasEntry(2, 3));
+    }
+
+    @Test
+    public void testLedgerOverQuotaRejected() {
+        cache = newCache(4, 0.5, 0.25);
+        put(1, 0);
+
+        // An entry larger than the quota of a ledger is never admitted
+        ByteBuf entry = Unpooled.buffer(2 * ENTRY_SIZE);
+        entry.writerIndex(2 * ENTRY_SIZE);
+        cache.put(2, 0, entry);
+        entry.release();
+        assertFalse(cache.hasEntry(2, 0));
+        assertEquals(1, statsProvider.getCounter("read-cache-admission-rejected").get().longValue());
+        assertEquals(1, cache.count());
+    }
+
+    @Test
+    public void testLedgerQuotaReleasedOnEviction() {
+        cache = newCache(4, 0.5, 0.5);
+        put(2, 0);
+        put(2, 1);
+        put(1, 0);
+        put(3, 0);
+
+        // Other ledgers evict the oldest entries of ledger 2
+        put(4, 0);
+        assertFalse(cache.hasEntry(2, 0));
+
+        // Ledger 2 is back within its quota, so it can evict the entries of other ledgers again
+        get(2, 1);
+        put(2, 2);
+        assertTrue(cache.hasEntry(2, 1));
+        assertTrue(cache.hasEntry(2, 2));
+        assertFalse(cache.hasEntry(1, 0));
+        assertEquals(4, cache.count());
+    }
+
+    @Test
+    public void testEntriesOfAnySize() {
+        cache = newCache(64, 0.5, 1.0);
+        Random random = new Random(0);
+        int[] sizes = new int[500];
+        for (int entryId = 0; entryId < sizes.length; entryId++) {
+            sizes[entryId] = 1 + random.nextInt(3 * SegmentedLruReadCache.BLOCK_SIZE);
+            ByteBuf entry = Unpooled.buffer(sizes[entryId]);
+            while (entry.isWritable()) {
+                entry.writeByte(entryId + entry.writerIndex());
+            }
+            cache.put(1, entryId, entry);
+            entry.release();
+
+            // The blocks of the evicted entries are reused by the new ones
+            for (int previous = Math.max(0, entryId - 10); previous <= entryId; previous++) {
+                ByteBuf cached = cache.get(1, previous);
+                if (cached == null) {
+                    continue;
+                }
+                assertEquals(sizes[previous], cached.readableBytes());
+                for (int i = 0; i < sizes[previous]; i++) {
+                    assertEquals((byte) (previous + i), cached.getByte(i));
+                }
+                cached.release();
+            }
+        }
+        assertTrue(cache.hasEntry(1, sizes.length - 1));
+        assertTrue(cache.size() <= 64 * ENTRY_SIZE);
+    }
+
+    @Test
+    public void testTryGet() throws Exception {
+        cache = newCache(4, 0.5, 1.0);
+        put(1, 0);
+        long misses = misses();
+
+        ByteBuf entry = cache.tryGet(1, 0);
+        assertEquals(0, entry.getLong(8));
+        entry.release();
+        assertNull(cache.tryGet(1, 1));
+        assertEquals(misses + 1, misses());
+
+        // While another thread holds the shard, the entry is reported as missing rather than waited for
+        CountDownLatch shardLocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> cache.forEachKey((ledgerId, entryId) -> {
+            shardLocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        holder.start();
+        assertTrue(shardLocked.await(10, TimeUnit.SECONDS));
+        try {
+            assertNull(cache.tryGet(1, 0));
+            assertEquals(misses + 2, misses());
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+
+        // The entry didn't go anywhere
+        entry = cache.tryGet(1, 0);
+        assertEquals(0, entry.getLong(8));
+        entry.release();
+    }
+
+    @Test
+    public void testEntryLargerThanCache() {
+        cache = newCache(1, 0.5, 1.0);
+        ByteBuf entry = Unpooled.buffer(2 * ENTRY_SIZE);
+        entry.writerIndex(2 * ENTRY_SIZE);
+        cache.put(1, 0, entry);
+        entry.release();
+
+        assertFalse(cache.hasEntry(1, 0));
+        assertEquals(0, cache.count());
+    }
+
+    @Test
+    public void testClose() {
+        cache = newCache(4, 0.5, 1.0);
+        put(1, 0);
+        put(1, 1);
+        get(1, 0);
+        ByteBuf entry = cache.get(1, 1);
+
+        cache.close();
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.size());
+
+        // The entries returned before the cache was closed are still readable
+        assertEquals(1, entry.getLong(8));
+        entry.release();
+    }
+}
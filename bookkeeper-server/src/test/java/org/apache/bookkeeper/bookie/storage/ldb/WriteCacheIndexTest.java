@@ -0,0 +1,245 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link WriteCacheIndex}.
+ */
+public class WriteCacheIndexTest {
+
+    private UnpooledByteBufAllocator allocator;
+    private WriteCacheIndex index;
+
+    @Before
+    public void setUp() {
+        allocator = new UnpooledByteBufAllocator(true);
+        index = new WriteCacheIndex(allocator, 16, 4);
+    }
+
+    @After
+    public void tearDown() {
+        index.close();
+        // All the memory of the index comes from the given allocator
+        assertEquals(0, allocator.metric().usedDirectMemory());
+    }
+
+    private List<long[]> entries(long ledgerId) throws Exception {
+        List<long[]> entries = new ArrayList<>();
+        index.forEach(ledgerId, (entryId, offset, size) -> entries.add(new long[] { entryId, offset, size }));
+        return entries;
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        assertTrue(allocator.metric().usedDirectMemory() > 0);
+
+        // Enough entries to resize the sections several times
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            index.put(1, entryId, entryId * 100, 100);
+            index.put(2, entryId, entryId * 100 + 50, 50);
+        }
+
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            LongPair location = index.get(1, entryId);
+            assertEquals(entryId * 100, location.first);
+            assertEquals(100, location.second);
+            assertEquals(entryId * 100 + 50, index.get(2, entryId).first);
+        }
+        assertNull(index.get(1, 1000));
+        assertNull(index.get(3, 0));
+        assertArrayEquals(new long[] { 1, 2 }, index.sortedLedgers());
+
+        List<long[]> entries = entries(1);
+        assertEquals(1000, entries.size());
+        for (int i = 0; i < 1000; i++) {
+            assertArrayEquals(new long[] { i, i * 100L, 100 }, entries.get(i));
+        }
+    }
+
+    @Test
+    public void testSortedRuns() throws Exception {
+        // 3 sorted runs, with an overwrite of entry 2 in the last one
+        long offset = 0;
+        for (long entryId : new long[] { 5, 6, 7, 0, 1, 3, 2, 4, 8 }) {
+            index.put(1, entryId, offset, 10);
+            offset += 10;
+        }
+        index.put(1, 2, offset, 20);
+
+        List<long[]> entries = entries(1);
+        assertEquals(9, entries.size());
+        for (int i = 0; i < 9; i++) {
+            assertEquals(i, entries.get(i)[0]);
+        }
+        // The last version of the overwritten entry
+        assertArrayEquals(new long[] { 2, offset, 20 }, entries.get(2));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        for (long entryId = 0; entryId < 100; entryId++) {
+            index.put(entryId % 3, entryId, entryId, 1);
+        }
+        index.clear();
+
+        assertEquals(0, index.sortedLedgers().length);
+        assertNull(index.get(0, 0));
+        assertTrue(entries(0).isEmpty());
+
+        index.put(0, 0, 42, 1);
+        assertEquals(42, index.get(0, 0).first);
+        assertEquals(1, entries(0).size());
+    }
+
+    @Test
+    public void testConcurrentPuts() throws Exception {
+        int threads = 8;
+        int entriesPerThread = 5000;
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(threads);
+
+        // All the threads write interleaved entries of the same ledgers
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < entriesPerThread; i++) {
+                        long entryId = (long) i * threads + thread;
+                        index.put(entryId % 4, entryId, entryId * 10, 10);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        long total = 0;
+        for (long ledgerId = 0; ledgerId < 4; ledgerId++) {
+            long previousEntryId = -1;
+            for (long[] entry : entries(ledgerId)) {
+                assertTrue(entry[0] > previousEntryId);
+                assertEquals(ledgerId, entry[0] % 4);
+                assertEquals(entry[0] * 10, entry[1]);
+                previousEntryId = entry[0];
+                total++;
+            }
+        }
+        assertEquals(threads * entriesPerThread, total);
+    }
+
+    @Test
+    public void testConcurrentOverwrites() throws Exception {
+        int threads = 4;
+        int rounds = 200;
+        int entries = 50;
+        AtomicLong nextOffset = new AtomicLong();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+
+        // The threads overwrite the same entries at the same time
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    for (int r = 0; r < rounds; r++) {
+                        barrier.await();
+                        for (long entryId = 0; entryId < entries; entryId++) {
+                            index.put(1, entryId, nextOffset.getAndIncrement(), 1);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        // The version iterated for each entry is the one returned by the lookups
+        List<long[]> iterated = entries(1);
+        assertEquals(entries, iterated.size());
+        for (long[] entry : iterated) {
+            assertEquals(index.get(1, entry[0]).first, entry[1]);
+        }
+    }
+
+    @Test
+    public void testPutDuringClear() throws Exception {
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(2);
+
+        for (int t = 0; t < 2; t++) {
+            long ledgerId = t;
+            new Thread(() -> {
+                try {
+                    long entryId = 0;
+                    while (!done.get()) {
+                        index.put(ledgerId, entryId, entryId, 1);
+                        index.get(ledgerId, entryId);
+                        entryId++;
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            index.clear();
+        }
+        done.set(true);
+        latch.await();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+    }
+}
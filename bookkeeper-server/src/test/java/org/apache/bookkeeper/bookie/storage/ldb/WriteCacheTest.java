@@ -0,0 +1,317 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link WriteCache}.
+ */
+public class WriteCacheTest {
+
+    private WriteCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId + entryId));
+        }
+        return entry;
+    }
+
+    private static void checkEntry(long ledgerId, long entryId, int size, ByteBuf entry) {
+        try {
+            assertEquals(size, entry.readableBytes());
+            assertEquals(ledgerId, entry.getLong(0));
+            assertEquals(entryId, entry.getLong(8));
+            for (int i = 16; i < size; i++) {
+                assertEquals((byte) (ledgerId + entryId), entry.getByte(i));
+            }
+        } finally {
+            entry.release();
+        }
+    }
+
+    private boolean put(long ledgerId, long entryId, int size) {
+        ByteBuf entry = entry(ledgerId, entryId, size);
+        try {
+            return cache.put(ledgerId, entryId, entry);
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Test
+    public void testSegmentBoundaries() {
+        // 4 segments of 1 KB. The entries of 300 bytes are aligned to 320 bytes, and an entry which doesn't fit
+        // at the end of a segment is moved to the next one
+        cache = new WriteCache(ByteBufAllocator.DEFAULT, 4096, 1024);
+
+        int count = 0;
+        while (put(1, count, 300)) {
+            count++;
+        }
+        // 3 entries in the first segment, then 2 in each of the next ones since they start at offsets not aligned
+        // to the segment size
+        assertEquals(9, count);
+        assertEquals(9, cache.count());
+        assertEquals(9 * 300, cache.size());
+
+        for (int i = 0; i < count; i++) {
+            checkEntry(1, i, 300, cache.get(1, i));
+        }
+        checkEntry(1, count - 1, 300, cache.getLastEntry(1));
+    }
+
+    @Test
+    public void testReuseAfterClear() throws Exception {
+        cache = new WriteCache(ByteBufAllocator.DEFAULT, 4096, 1024);
+
+        // Fill the cache several times, each round overwriting the segments with the entries of another ledger
+        for (long ledgerId = 1; ledgerId <= 5; ledgerId++) {
+            int count = 0;
+            while (put(ledgerId, count, 300)) {
+                count++;
+            }
+            assertEquals(9, count);
+
+            for (int i = 0; i < count; i++) {
+                checkEntry(ledgerId, i, 300, cache.get(ledgerId, i));
+                assertNull(cache.get(ledgerId - 1, i));
+            }
+
+            List<Long> entryIds = new ArrayList<>();
+            long currentLedgerId = ledgerId;
+            cache.forEach((l, e, entry) -> {
+                assertEquals(currentLedgerId, l);
+                assertEquals(e, entry.getLong(entry.readerIndex() + 8));
+                entryIds.add(e);
+            });
+            assertEquals(count, entryIds.size());
+
+            cache.clear();
+            assertTrue(cache.isEmpty());
+            assertEquals(0, cache.count());
+            assertNull(cache.getLastEntry(ledgerId));
+        }
+    }
+
+    @Test
+    public void testOverwrite() throws Exception {
+        cache = new WriteCache(ByteBufAllocator.DEFAULT, 4096, 1024);
+        assertTrue(put(1, 0, 100));
+        assertTrue(put(1, 1, 100));
+
+        ByteBuf entry = entry(1, 0, 200);
+        assertTrue(cache.put(1, 0, entry));
+        entry.release();
+
+        // The last version of the entry is returned, once
+        checkEntry(1, 0, 200, cache.get(1, 0));
+        List<Long> entryIds = new ArrayList<>();
+        cache.forEach((l, e, b) -> entryIds.add(e));
+        assertEquals(2, entryIds.size());
+        assertEquals(0L, (long) entryIds.get(0));
+        assertEquals(1L, (long) entryIds.get(1));
+    }
+
+    @Test
+    public void testConcurrentPutGet() throws Exception {
+        int writers = 4;
+        int readers = 4;
+        int entriesPerWriter = 2000;
+        cache = new WriteCache(ByteBufAllocator.DEFAULT, 16 * 1024 * 1024, 1024 * 1024);
+
+        // Last entry put by each writer, on its own ledger
+        AtomicLong[] lastEntries = new AtomicLong[writers];
+        for (int i = 0; i < writers; i++) {
+            lastEntries[i] = new AtomicLong(-1);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(writers + readers);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int ledgerId = w;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int entryId = 0; entryId < entriesPerWriter; entryId++) {
+                        assertTrue(put(ledgerId, entryId, 64 + entryId % 200));
+                        lastEntries[ledgerId].set(entryId);
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    latch.countDown();
+                }
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!done.get()) {
+                        int ledgerId = random.nextInt(writers);
+                        long lastEntryId = lastEntries[ledgerId].get();
+                        if (lastEntryId < 0) {
+                            continue;
+                        }
+                        // Every entry put before the last published one is visible
+                        long entryId = random.nextLong(lastEntryId + 1);
+                        ByteBuf entry = cache.get(ledgerId, entryId);
+                        if (entry == null) {
+                            fail("Missing entry " + ledgerId + "@" + entryId);
+                        }
+                        checkEntry(ledgerId, entryId, 64 + (int) entryId % 200, entry);
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    latch.countDown();
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (int i = 0; i < writers; i++) {
+            threads.get(i).join();
+        }
+        done.set(true);
+        latch.await();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        assertEquals(writers * entriesPerWriter, cache.count());
+        for (int ledgerId = 0; ledgerId < writers; ledgerId++) {
+            checkEntry(ledgerId, entriesPerWriter - 1, 64 + (entriesPerWriter - 1) % 200,
+                    cache.getLastEntry(ledgerId));
+        }
+    }
+
+    @Test
+    public void testClearDuringReads() throws Exception {
+        int readers = 4;
+        int entriesPerRound = 100;
+        cache = new WriteCache(ByteBufAllocator.DEFAULT, 64 * 1024, 16 * 1024);
+
+        // Each round fills the cache with the entries of a new ledger, reusing the segments after a clear
+        AtomicLong currentLedger = new AtomicLong(0);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(readers);
+
+        for (int r = 0; r < readers; r++) {
+            new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!done.get()) {
+                        long ledgerId = currentLedger.get() - random.nextInt(2);
+                        long entryId = random.nextInt(entriesPerRound);
+                        ByteBuf entry = cache.get(ledgerId, entryId);
+                        if (entry != null) {
+                            // A read overlapping a clear either misses or returns the right entry
+                            checkEntry(ledgerId, entryId, 500, entry);
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        for (long ledgerId = 1; ledgerId <= 200; ledgerId++) {
+            currentLedger.set(ledgerId);
+            for (int entryId = 0; entryId < entriesPerRound; entryId++) {
+                assertTrue(put(ledgerId, entryId, 500));
+            }
+            cache.clear();
+        }
+        done.set(true);
+        latch.await();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        assertTrue(cache.isEmpty());
+        assertFalse(cache.hasEntry(200, 0));
+    }
+
+    @Test
+    public void testWaitForPendingPuts() throws Exception {
+        cache = new WriteCache(ByteBufAllocator.DEFAULT, 4096, 1024);
+        cache.beginPut();
+        cache.beginPut();
+
+        CountDownLatch flushed = new CountDownLatch(1);
+        Thread flusher = new Thread(() -> {
+            cache.waitForPendingPuts();
+            flushed.countDown();
+        });
+        flusher.start();
+
+        // The flush waits for all the registered puts to complete
+        assertTrue(put(1, 0, 100));
+        cache.endPut();
+        assertFalse(flushed.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(put(1, 1, 100));
+        cache.endPut();
+        assertTrue(flushed.await(10, TimeUnit.SECONDS));
+        flusher.join();
+
+        List<Long> entryIds = new ArrayList<>();
+        cache.forEach((l, e, entry) -> entryIds.add(e));
+        assertEquals(2, entryIds.size());
+
+        // Nothing to wait for without pending puts
+        cache.waitForPendingPuts();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link AddBatcher}.
+ */
+public class AddBatcherTest {
+
+    private static final int MAX_BYTES = 1000;
+
+    private OrderedScheduler scheduler;
+    private LedgerHandle lh;
+    private ClientContext clientCtx;
+
+    @Before
+    public void setUp() {
+        scheduler = OrderedScheduler.newSchedulerBuilder().name("add-batcher-test").numThreads(1).build();
+        lh = mock(LedgerHandle.class);
+        when(lh.getId()).thenReturn(1L);
+        lh.pendingAddsSequenceHead = LedgerHandle.INVALID_ENTRY_ID;
+        clientCtx = mock(ClientContext.class);
+        when(clientCtx.getScheduler()).thenReturn(scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    private AddBatcher newBatcher(long maxDelayMicros) {
+        when(clientCtx.getConf()).thenReturn(ClientInternalConf.fromConfig(new ClientConfiguration()
+                .setAddBatchMaxDelayMicros(maxDelayMicros)
+                .setAddBatchMaxBytes(MAX_BYTES)));
+        return new AddBatcher(lh, clientCtx);
+    }
+
+    private static PendingAddOp op(long entryId, int length) {
+        PendingAddOp op = mock(PendingAddOp.class);
+        when(op.getEntryId()).thenReturn(entryId);
+        op.entryLength = length;
+        return op;
+    }
+
+    @Test
+    public void testSendRightAwayWithoutAddsInFlight() {
+        AddBatcher batcher = newBatcher(TimeUnit.SECONDS.toMicros(10));
+        PendingAddOp op0 = op(0, 10);
+        assertEquals(Arrays.asList(op0), batcher.add(op0));
+
+        // Once the add is acknowledged, the next one is sent right away too
+        lh.pendingAddsSequenceHead = 0;
+        PendingAddOp op1 = op(1, 10);
+        assertEquals(Arrays.asList(op1), batcher.add(op1));
+    }
+
+    @Test
+    public void testFlushOnSize() {
+        AddBatcher batcher = newBatcher(TimeUnit.SECONDS.toMicros(10));
+        // A linger delay long enough to never expire during the test
+        batcher.addCompleted(TimeUnit.SECONDS.toNanos(60));
+
+        PendingAddOp op0 = op(0, 10);
+        assertEquals(Arrays.asList(op0), batcher.add(op0));
+
+        // Entry 0 is in flight, the next adds are held back until the batch is large enough
+        PendingAddOp op1 = op(1, 400);
+        PendingAddOp op2 = op(2, 400);
+        PendingAddOp op3 = op(3, 400);
+        assertNull(batcher.add(op1));
+        assertNull(batcher.add(op2));
+        assertEquals(Arrays.asList(op1, op2, op3), batcher.add(op3));
+
+        // A run of adds is batched the same way
+        PendingAddOp op4 = op(4, 300);
+        PendingAddOp op5 = op(5, 300);
+        assertNull(batcher.addAll(Arrays.asList(op4, op5)));
+        PendingAddOp op6 = op(6, 300);
+        PendingAddOp op7 = op(7, 300);
+        assertEquals(Arrays.asList(op4, op5, op6, op7), batcher.addAll(Arrays.asList(op6, op7)));
+
+        verify(lh, never()).initiateAdds(any());
+    }
+
+    @Test
+    public void testFlushOnTimeout() {
+        AddBatcher batcher = newBatcher(TimeUnit.SECONDS.toMicros(10));
+        // The linger delay is half of the add latency
+        batcher.addCompleted(TimeUnit.MILLISECONDS.toNanos(200));
+
+        assertEquals(1, batcher.add(op(0, 10)).size());
+        PendingAddOp op1 = op(1, 10);
+        PendingAddOp op2 = op(2, 10);
+        long startNanos = System.nanoTime();
+        assertNull(batcher.add(op1));
+        assertNull(batcher.add(op2));
+
+        verify(lh, timeout(10000)).initiateAdds(Arrays.asList(op1, op2));
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testFlushOnTimeoutBoundedByMaxDelay() {
+        AddBatcher batcher = newBatcher(TimeUnit.MILLISECONDS.toMicros(10));
+        batcher.addCompleted(TimeUnit.SECONDS.toNanos(600));
+
+        assertEquals(1, batcher.add(op(0, 10)).size());
+        PendingAddOp op1 = op(1, 10);
+        assertNull(batcher.add(op1));
+
+        verify(lh, timeout(10000)).initiateAdds(Arrays.asList(op1));
+    }
+
+    @Test
+    public void testFlushOnAddsCompleted() {
+        AddBatcher batcher = newBatcher(TimeUnit.SECONDS.toMicros(10));
+        batcher.addCompleted(TimeUnit.SECONDS.toNanos(60));
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(lh).executeOrdered(any());
+
+        assertEquals(1, batcher.add(op(0, 10)).size());
+        // Held back until entry 0 is acknowledged
+        PendingAddOp op1 = op(1, 10);
+        PendingAddOp op2 = op(2, 10);
+        assertNull(batcher.add(op1));
+        assertNull(batcher.add(op2));
+
+        // The batch keeps waiting while entry 0 is in flight
+        batcher.addCompleted(TimeUnit.SECONDS.toNanos(60));
+        verify(lh, never()).initiateAdds(any());
+
+        lh.pendingAddsSequenceHead = 0;
+        batcher.addCompleted(TimeUnit.SECONDS.toNanos(60));
+        verify(lh).initiateAdds(Arrays.asList(op1, op2));
+    }
+
+    @Test
+    public void testScheduleRejected() {
+        OrderedScheduler rejectingScheduler = mock(OrderedScheduler.class);
+        when(rejectingScheduler.scheduleOrdered(any(), any(), anyLong(), any()))
+                .thenThrow(new RejectedExecutionException());
+        when(clientCtx.getScheduler()).thenReturn(rejectingScheduler);
+        AddBatcher batcher = newBatcher(TimeUnit.SECONDS.toMicros(10));
+
+        assertEquals(1, batcher.add(op(0, 10)).size());
+        // The add can't be held back without its linger delay, so it is sent right away
+        PendingAddOp op1 = op(1, 10);
+        assertEquals(Arrays.asList(op1), batcher.add(op1));
+    }
+
+    @Test
+    public void testExecutorRejected() {
+        AddBatcher batcher = newBatcher(TimeUnit.SECONDS.toMicros(10));
+        batcher.addCompleted(TimeUnit.MILLISECONDS.toNanos(100));
+        doThrow(new RejectedExecutionException()).when(lh).executeOrdered(any());
+
+        assertEquals(1, batcher.add(op(0, 10)).size());
+        PendingAddOp op1 = op(1, 10);
+        assertNull(batcher.add(op1));
+
+        // The batch can't be sent on the completion of the adds in flight, the linger delay sends it
+        lh.pendingAddsSequenceHead = 0;
+        batcher.addCompleted(TimeUnit.MILLISECONDS.toNanos(100));
+        verify(lh, timeout(10000)).initiateAdds(Arrays.asList(op1));
+    }
+
+    @Test
+    public void testFlush() {
+        AddBatcher batcher = newBatcher(TimeUnit.SECONDS.toMicros(10));
+        batcher.addCompleted(TimeUnit.SECONDS.toNanos(60));
+
+        // Nothing to send
+        batcher.flush();
+        verify(lh, never()).initiateAdds(any());
+
+        assertEquals(1, batcher.add(op(0, 10)).size());
+        PendingAddOp op1 = op(1, 10);
+        assertNull(batcher.add(op1));
+
+        // The adds held back are sent when the ledger handle is closed, and only once
+        batcher.flush();
+        batcher.flush();
+        verify(lh).initiateAdds(Arrays.asList(op1));
+
+        // The flushed adds are in flight, so the next add is held back
+        assertNull(batcher.add(op(2, 10)));
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
+import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ClientEntryCache}.
+ */
+public class ClientEntryCacheTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final int ENTRY_SIZE = 100;
+
+    /**
+     * A read sent to the bookies.
+     */
+    private static class Read {
+        final long firstEntryId;
+        final long lastEntryId;
+        final CompletableFuture<LedgerEntries> future = new CompletableFuture<>();
+
+        Read(long firstEntryId, long lastEntryId) {
+            this.firstEntryId = firstEntryId;
+            this.lastEntryId = lastEntryId;
+        }
+    }
+
+    private final List<Read> reads = new ArrayList<>();
+    private final List<ByteBuf> buffers = new ArrayList<>();
+    private boolean autoComplete = true;
+    private ClientEntryCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private ClientEntryCache newCache(long maxSizeBytes) {
+        cache = new ClientEntryCache(UnpooledByteBufAllocator.DEFAULT, maxSizeBytes, NullStatsLogger.INSTANCE);
+        return cache;
+    }
+
+    private synchronized CompletableFuture<LedgerEntries> readFromBookies(long firstEntryId, long lastEntryId) {
+        Read read = new Read(firstEntryId, lastEntryId);
+        reads.add(read);
+        if (autoComplete) {
+            complete(read);
+        }
+        return read.future;
+    }
+
+    private void complete(Read read) {
+        List<LedgerEntry> entries = new ArrayList<>();
+        for (long entryId = read.firstEntryId; entryId <= read.lastEntryId; entryId++) {
+            ByteBuf buf = Unpooled.buffer(ENTRY_SIZE);
+            buf.writeLong(entryId);
+            buf.writerIndex(ENTRY_SIZE);
+            buffers.add(buf);
+            entries.add(LedgerEntryImpl.create(LEDGER_ID, entryId, ENTRY_SIZE, buf));
+        }
+        read.future.complete(LedgerEntriesImpl.create(entries));
+    }
+
+    private CompletableFuture<LedgerEntries> read(long firstEntryId, long lastEntryId) {
+        return cache.read(LEDGER_ID, firstEntryId, lastEntryId, this::readFromBookies);
+    }
+
+    private static void checkEntries(long firstEntryId, long lastEntryId, CompletableFuture<LedgerEntries> future)
+            throws Exception {
+        try (LedgerEntries entries = future.get()) {
+            long entryId = firstEntryId;
+            for (LedgerEntry entry : entries) {
+                assertEquals(LEDGER_ID, entry.getLedgerId());
+                assertEquals(entryId, entry.getEntryId());
+                assertEquals(ENTRY_SIZE, entry.getLength());
+                assertEquals(ENTRY_SIZE, entry.getEntryBuffer().readableBytes());
+                assertEquals(entryId, entry.getEntryBuffer().getLong(entry.getEntryBuffer().readerIndex()));
+                entryId++;
+            }
+            assertEquals(lastEntryId + 1, entryId);
+        }
+    }
+
+    private void checkRead(Read read, long firstEntryId, long lastEntryId) {
+        assertEquals(firstEntryId, read.firstEntryId);
+        assertEquals(lastEntryId, read.lastEntryId);
+    }
+
+    private void checkReleased() {
+        for (ByteBuf buf : buffers) {
+            assertEquals(0, buf.refCnt());
+        }
+    }
+
+    @Test
+    public void testCacheHits() throws Exception {
+        newCache(100 * ENTRY_SIZE);
+        checkEntries(0, 4, read(0, 4));
+        assertEquals(1, reads.size());
+        assertEquals(5, cache.count());
+        assertEquals(5 * ENTRY_SIZE, cache.size());
+        // The entries read from the bookies are copied, the cache doesn't hold on to their buffers
+        checkReleased();
+
+        // The cached entries are served without reading from the bookies
+        checkEntries(0, 4, read(0, 4));
+        checkEntries(2, 3, read(2, 3));
+        assertEquals(1, reads.size());
+
+        // Only the runs of missing entries are read from the bookies
+        checkEntries(3, 8, read(3, 8));
+        assertEquals(2, reads.size());
+        checkRead(reads.get(1), 5, 8);
+        checkEntries(0, 8, read(0, 8));
+        assertEquals(2, reads.size());
+        checkReleased();
+
+        cache.close();
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        newCache(3 * ENTRY_SIZE);
+        checkEntries(0, 4, read(0, 4));
+        // Only the last entries read fit in the cache
+        assertEquals(3, cache.count());
+        assertEquals(3 * ENTRY_SIZE, cache.size());
+        checkEntries(2, 4, read(2, 4));
+        assertEquals(1, reads.size());
+
+        // Entry 2 was used recently, entry 3 is the least recently used one
+        checkEntries(2, 2, read(2, 2));
+        checkEntries(0, 0, read(0, 0));
+        assertEquals(2, reads.size());
+        checkRead(reads.get(1), 0, 0);
+        assertEquals(3, cache.count());
+        checkEntries(3, 3, read(3, 3));
+        assertEquals(3, reads.size());
+        checkRead(reads.get(2), 3, 3);
+        checkEntries(0, 0, read(0, 0));
+        assertEquals(3, reads.size());
+        assertEquals(3 * ENTRY_SIZE, cache.size());
+        checkReleased();
+    }
+
+    @Test
+    public void testEntriesLargerThanCache() throws Exception {
+        newCache(ENTRY_SIZE - 1);
+        checkEntries(0, 1, read(0, 1));
+        assertEquals(0, cache.count());
+        checkEntries(0, 1, read(0, 1));
+        assertEquals(2, reads.size());
+        checkReleased();
+    }
+
+    @Test
+    public void testConcurrentReadsDeduplicated() throws Exception {
+        newCache(100 * ENTRY_SIZE);
+        autoComplete = false;
+        CompletableFuture<LedgerEntries> first = read(0, 4);
+        // The overlapping read waits for entries 2 to 4, and reads entries 5 and 6 on its own
+        CompletableFuture<LedgerEntries> second = read(2, 6);
+        assertEquals(2, reads.size());
+        checkRead(reads.get(0), 0, 4);
+        checkRead(reads.get(1), 5, 6);
+
+        complete(reads.get(1));
+        assertFalse(second.isDone());
+        complete(reads.get(0));
+        checkEntries(0, 4, first);
+        checkEntries(2, 6, second);
+        assertEquals(2, reads.size());
+        assertEquals(7, cache.count());
+        checkReleased();
+    }
+
+    @Test
+    public void testEvictedEntryReReadByWaiter() throws Exception {
+        // The cache only holds one entry, the pending read evicts its own first entry
+        newCache(ENTRY_SIZE);
+        autoComplete = false;
+        CompletableFuture<LedgerEntries> first = read(0, 1);
+        CompletableFuture<LedgerEntries> second = read(0, 0);
+        assertEquals(1, reads.size());
+
+        complete(reads.get(0));
+        checkEntries(0, 1, first);
+        // Entry 0 is not in the cache anymore, the waiter reads it from the bookies
+        assertEquals(2, reads.size());
+        checkRead(reads.get(1), 0, 0);
+        assertFalse(second.isDone());
+        complete(reads.get(1));
+        checkEntries(0, 0, second);
+        checkReleased();
+    }
+
+    @Test
+    public void testWaiterReadsOnFailure() throws Exception {
+        newCache(100 * ENTRY_SIZE);
+        autoComplete = false;
+        CompletableFuture<LedgerEntries> first = read(0, 1);
+        CompletableFuture<LedgerEntries> second = read(1, 1);
+        assertEquals(1, reads.size());
+
+        reads.get(0).future.completeExceptionally(new BKException.BKBookieHandleNotAvailableException());
+        try {
+            first.get();
+            fail("Read should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BKException.BKBookieHandleNotAvailableException);
+        }
+        // The waiter doesn't fail with the read it waited for, it reads the entry on its own
+        assertEquals(2, reads.size());
+        checkRead(reads.get(1), 1, 1);
+        complete(reads.get(1));
+        checkEntries(1, 1, second);
+
+        // The failed entries are not pending anymore
+        autoComplete = true;
+        checkEntries(0, 1, read(0, 1));
+        assertEquals(3, reads.size());
+        checkRead(reads.get(2), 0, 0);
+        checkReleased();
+    }
+}
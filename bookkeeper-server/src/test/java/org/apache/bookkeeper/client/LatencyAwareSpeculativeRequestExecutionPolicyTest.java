@@ -0,0 +1,172 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.net.BookieId;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LatencyAwareSpeculativeRequestExecutionPolicy}.
+ */
+public class LatencyAwareSpeculativeRequestExecutionPolicyTest {
+
+    private static final int ENSEMBLE_SIZE = 4;
+
+    private final LatencyAwareSpeculativeRequestExecutionPolicy policy =
+            new LatencyAwareSpeculativeRequestExecutionPolicy(10, 1000, 2, 99);
+    private final List<BookieId> ensemble = new ArrayList<>();
+    private final Set<BookieId> failedBookies = new HashSet<>();
+
+    private final BookiesHealthInfo healthInfo = new BookiesHealthInfo() {
+        @Override
+        public long getBookieFailureHistory(BookieId bookie) {
+            return failedBookies.contains(bookie) ? 1L : -1L;
+        }
+
+        @Override
+        public long getBookiePendingRequests(BookieId bookie) {
+            return 0;
+        }
+
+        @Override
+        public long getBookieReadLatencyNanos(BookieId bookie) {
+            return policy.getReadLatencyNanos(bookie);
+        }
+    };
+
+    public LatencyAwareSpeculativeRequestExecutionPolicyTest() {
+        for (int i = 0; i < ENSEMBLE_SIZE; i++) {
+            ensemble.add(BookieId.parse("bookie-" + i + ":3181"));
+        }
+    }
+
+    private void recordLatency(int bookieIndex, long latencyMillis) {
+        for (int i = 0; i < RollingLatencyHistogram.MIN_SAMPLES; i++) {
+            policy.recordReadLatency(ensemble.get(bookieIndex), TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+
+    private int[] readOrder() {
+        DistributionSchedule.WriteSet writeSet = new RoundRobinDistributionSchedule(
+                ENSEMBLE_SIZE, ENSEMBLE_SIZE, ENSEMBLE_SIZE).getWriteSet(0);
+        policy.reorderReadSequence(ensemble, healthInfo, writeSet);
+        int[] order = new int[writeSet.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = writeSet.get(i);
+        }
+        writeSet.recycle();
+        return order;
+    }
+
+    @Test
+    public void testKeepOrderWithoutLatencies() {
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, readOrder());
+
+        // Bookie 3 is the only one with known latencies
+        recordLatency(3, 1);
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, readOrder());
+    }
+
+    @Test
+    public void testFasterReplicaFirst() {
+        recordLatency(0, 100);
+        recordLatency(1, 60);
+        recordLatency(2, 10);
+        recordLatency(3, 40);
+
+        // Bookie 2 is much faster than the bookies before it. Bookie 1 isn't twice as fast as bookie 0, and
+        // bookie 3 isn't twice as fast as bookie 1, so they keep their order
+        assertArrayEquals(new int[] { 2, 0, 1, 3 }, readOrder());
+    }
+
+    @Test
+    public void testReorderWithinHealthyBookies() {
+        recordLatency(0, 100);
+        recordLatency(1, 100);
+        recordLatency(2, 100);
+        recordLatency(3, 1);
+
+        // Bookie 2 failed recently, the faster bookie 3 isn't moved before it nor before the healthy bookies
+        failedBookies.add(ensemble.get(2));
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, readOrder());
+
+        failedBookies.clear();
+        assertArrayEquals(new int[] { 3, 0, 1, 2 }, readOrder());
+    }
+
+    @Test
+    public void testErrorsCountAsSlowReads() throws Exception {
+        recordLatency(0, 100);
+        recordLatency(1, 10);
+        assertArrayEquals(new int[] { 1, 0, 2, 3 }, readOrder());
+
+        // Bookie 1 fails its reads fast
+        for (int i = 0; i < RollingLatencyHistogram.MIN_SAMPLES; i++) {
+            policy.recordReadError(ensemble.get(1), TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        // let the percentiles computed for the previous order expire
+        Thread.sleep(200);
+        assertTrue(policy.getReadLatencyNanos(ensemble.get(1)) >= TimeUnit.SECONDS.toNanos(1));
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, readOrder());
+    }
+
+    @Test
+    public void testSpeculativeTimeout() {
+        Map<BookieId, Long> timeouts = new HashMap<>();
+        recordLatency(0, 20);
+        recordLatency(1, 5000);
+
+        for (int i = 0; i < 3; i++) {
+            BookieId target = ensemble.get(i);
+            ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+            when(scheduler.schedule(any(Runnable.class), anyLong(), any())).thenAnswer(invocation -> {
+                timeouts.put(target, invocation.getArgument(1));
+                return null;
+            });
+            SpeculativeRequestExecutor executor = mock(SpeculativeRequestExecutor.class);
+            when(executor.getSpeculativeRequestTarget()).thenReturn(target);
+            policy.initiateSpeculativeRequest(scheduler, executor);
+        }
+
+        // The percentile of the target, capped by the max timeout, or the first timeout when it isn't known
+        long timeout0 = timeouts.get(ensemble.get(0));
+        assertTrue(timeout0 >= TimeUnit.MILLISECONDS.toMicros(20));
+        assertTrue(timeout0 <= TimeUnit.MILLISECONDS.toMicros(23));
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(1000), (long) timeouts.get(ensemble.get(1)));
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(10), (long) timeouts.get(ensemble.get(2)));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link RollingLatencyHistogram}.
+ */
+public class RollingLatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        // Exact buckets for the small latencies
+        for (int micros = 0; micros < 8; micros++) {
+            assertEquals(micros, RollingLatencyHistogram.bucketIndex(micros));
+            assertEquals(micros, RollingLatencyHistogram.bucketUpperBound(micros));
+        }
+        assertEquals(0, RollingLatencyHistogram.bucketIndex(-1));
+
+        // Each latency falls in a bucket whose upper bound is at most 12.5% above it
+        int previousIndex = 0;
+        for (long micros = 8; micros < TimeUnit.SECONDS.toMicros(100); micros += 1 + micros / 64) {
+            int index = RollingLatencyHistogram.bucketIndex(micros);
+            assertTrue(index >= previousIndex);
+            long upperBound = RollingLatencyHistogram.bucketUpperBound(index);
+            assertTrue(micros + " in bucket up to " + upperBound, upperBound >= micros);
+            assertTrue(micros + " in bucket up to " + upperBound, upperBound <= micros + micros / 8);
+            if (index > 0) {
+                assertTrue(RollingLatencyHistogram.bucketUpperBound(index - 1) < micros);
+            }
+            previousIndex = index;
+        }
+
+        // The latencies beyond the range go to the last bucket
+        assertEquals(RollingLatencyHistogram.NUM_BUCKETS - 1, RollingLatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentile() {
+        RollingLatencyHistogram histogram = new RollingLatencyHistogram(TimeUnit.MINUTES.toNanos(10));
+        // 90 fast reads and 10 slow ones
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+
+        long p50 = histogram.getPercentileNanos(50);
+        assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(p50 <= TimeUnit.MICROSECONDS.toNanos(1125));
+        long p99 = histogram.getPercentileNanos(99);
+        assertTrue(p99 >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(p99 <= TimeUnit.MICROSECONDS.toNanos(112500));
+    }
+
+    @Test
+    public void testNotEnoughSamples() {
+        RollingLatencyHistogram histogram = new RollingLatencyHistogram(TimeUnit.MINUTES.toNanos(10));
+        for (int i = 0; i < RollingLatencyHistogram.MIN_SAMPLES - 1; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(-1L, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    public void testRollingWindows() throws Exception {
+        long windowMillis = 300;
+        RollingLatencyHistogram histogram = new RollingLatencyHistogram(TimeUnit.MILLISECONDS.toNanos(windowMillis));
+        for (int i = 0; i < 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+
+        // The previous window still counts
+        Thread.sleep(windowMillis + 50);
+        for (int i = 0; i < 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertTrue(histogram.getPercentileNanos(90) >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        // The samples older than two windows are dropped
+        Thread.sleep(windowMillis + 50);
+        for (int i = 0; i < 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertTrue(histogram.getPercentileNanos(90) < TimeUnit.MILLISECONDS.toNanos(2));
+
+        // Without samples for two windows, there is no percentile anymore
+        Thread.sleep(2 * windowMillis + 50);
+        assertEquals(-1L, histogram.getPercentileNanos(90));
+    }
+}
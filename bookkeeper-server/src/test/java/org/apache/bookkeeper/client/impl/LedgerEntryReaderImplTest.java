@@ -0,0 +1,271 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerEntryReader;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LedgerEntryReaderImpl}.
+ */
+public class LedgerEntryReaderImplTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final int ENTRY_SIZE = 100;
+    private static final long LAST_ENTRY_ID = 99;
+
+    /**
+     * A read issued to the handle.
+     */
+    private static class Read {
+        final long firstEntryId;
+        final int numEntries;
+        final boolean batch;
+        final CompletableFuture<LedgerEntries> future = new CompletableFuture<>();
+
+        Read(long firstEntryId, int numEntries, boolean batch) {
+            this.firstEntryId = firstEntryId;
+            this.numEntries = numEntries;
+            this.batch = batch;
+        }
+    }
+
+    private final List<Read> reads = new ArrayList<>();
+    private final List<ByteBuf> buffers = new ArrayList<>();
+    private ReadHandle handle;
+    private boolean batchReadSupported = true;
+    private int maxBatchEntries = Integer.MAX_VALUE;
+    private boolean autoComplete = true;
+
+    @Before
+    public void setUp() {
+        handle = mock(ReadHandle.class);
+        when(handle.readAsync(anyLong(), anyLong())).thenAnswer(invocation -> {
+            long firstEntryId = invocation.getArgument(0);
+            long lastEntryId = invocation.getArgument(1);
+            return read(new Read(firstEntryId, (int) (lastEntryId - firstEntryId + 1), false));
+        });
+        when(handle.batchReadAsync(anyLong(), anyInt(), anyLong())).thenAnswer(invocation -> {
+            if (!batchReadSupported) {
+                CompletableFuture<LedgerEntries> future = new CompletableFuture<>();
+                future.completeExceptionally(new UnsupportedOperationException());
+                return future;
+            }
+            return read(new Read(invocation.getArgument(0), invocation.getArgument(1), true));
+        });
+    }
+
+    private synchronized CompletableFuture<LedgerEntries> read(Read read) {
+        reads.add(read);
+        if (autoComplete) {
+            complete(read);
+        }
+        return read.future;
+    }
+
+    private void complete(Read read) {
+        int numEntries = read.batch ? Math.min(read.numEntries, maxBatchEntries) : read.numEntries;
+        List<LedgerEntry> entries = new ArrayList<>();
+        for (long entryId = read.firstEntryId; entryId < read.firstEntryId + numEntries; entryId++) {
+            ByteBuf buf = Unpooled.buffer(ENTRY_SIZE);
+            buf.writeLong(entryId);
+            buf.writerIndex(ENTRY_SIZE);
+            buffers.add(buf);
+            entries.add(LedgerEntryImpl.create(LEDGER_ID, entryId, ENTRY_SIZE, buf));
+        }
+        read.future.complete(LedgerEntriesImpl.create(entries));
+    }
+
+    private static void checkEntry(long entryId, LedgerEntry entry) {
+        assertEquals(entryId, entry.getEntryId());
+        assertEquals(ENTRY_SIZE, entry.getEntryBuffer().readableBytes());
+        assertEquals(entryId, entry.getEntryBuffer().getLong(entry.getEntryBuffer().readerIndex()));
+        entry.close();
+    }
+
+    private void checkReleased() {
+        for (ByteBuf buf : buffers) {
+            assertEquals(0, buf.refCnt());
+        }
+    }
+
+    private void readAll(LedgerEntryReader reader, long firstEntryId) throws Exception {
+        for (long entryId = firstEntryId; entryId <= LAST_ENTRY_ID; entryId++) {
+            assertTrue(reader.hasNext());
+            checkEntry(entryId, reader.next());
+        }
+        assertFalse(reader.hasNext());
+        try {
+            reader.next();
+            fail("Read past the last entry");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBatchReads() throws Exception {
+        try (LedgerEntryReader reader = new LedgerEntryReaderImpl(handle, 10, LAST_ENTRY_ID, 1000)) {
+            readAll(reader, 10);
+        }
+        checkReleased();
+
+        long expectedEntryId = 10;
+        for (Read read : reads) {
+            assertTrue(read.batch);
+            assertEquals(expectedEntryId, read.firstEntryId);
+            expectedEntryId += read.numEntries;
+        }
+        assertEquals(LAST_ENTRY_ID + 1, expectedEntryId);
+        // The first read has a fixed size, the next ones a quarter of the bytes in flight
+        assertEquals(LedgerEntryReaderImpl.FIRST_READ_ENTRIES, reads.get(0).numEntries);
+        assertEquals(1000 / LedgerEntryReaderImpl.READS_IN_FLIGHT / ENTRY_SIZE, reads.get(1).numEntries);
+    }
+
+    @Test
+    public void testRangeReadsWithoutBatchReads() throws Exception {
+        batchReadSupported = false;
+        try (LedgerEntryReader reader = new LedgerEntryReaderImpl(handle, 0, LAST_ENTRY_ID, 1000)) {
+            readAll(reader, 0);
+        }
+        checkReleased();
+
+        // Only the first read tries a batch read
+        for (Read read : reads) {
+            assertFalse(read.batch);
+        }
+    }
+
+    @Test
+    public void testShortBatchReads() throws Exception {
+        // The bookies return at most 3 entries per batch read, the missing ones are read again
+        maxBatchEntries = 3;
+        try (LedgerEntryReader reader = new LedgerEntryReaderImpl(handle, 0, LAST_ENTRY_ID, 2000)) {
+            readAll(reader, 0);
+        }
+        checkReleased();
+    }
+
+    @Test
+    public void testBytesInFlight() throws Exception {
+        autoComplete = false;
+        long maxBytesInFlight = 1000;
+        try (LedgerEntryReader reader = new LedgerEntryReaderImpl(handle, 0, LAST_ENTRY_ID, maxBytesInFlight)) {
+            CompletableFuture<LedgerEntry> next = reader.nextAsync();
+            // Nothing else is read before the size of the entries is known
+            assertEquals(1, reads.size());
+            complete(reads.get(0));
+            checkEntry(0, next.get());
+
+            // The reads issued don't go over the bytes in flight, counting the entries read but not consumed
+            for (long entryId = 1; entryId <= LAST_ENTRY_ID; entryId++) {
+                long requested = 0;
+                for (Read read : reads) {
+                    requested += (long) read.numEntries * ENTRY_SIZE;
+                }
+                long notConsumed = requested - entryId * ENTRY_SIZE;
+                assertTrue(notConsumed + " bytes not consumed",
+                        notConsumed < maxBytesInFlight + maxBytesInFlight / LedgerEntryReaderImpl.READS_IN_FLIGHT
+                                || reads.size() == 1);
+
+                next = reader.nextAsync();
+                for (Read read : new ArrayList<>(reads)) {
+                    if (!read.future.isDone()) {
+                        complete(read);
+                    }
+                }
+                checkEntry(entryId, next.get());
+            }
+        }
+        checkReleased();
+    }
+
+    @Test
+    public void testReadError() throws Exception {
+        autoComplete = false;
+        try (LedgerEntryReader reader = new LedgerEntryReaderImpl(handle, 0, LAST_ENTRY_ID, 1000)) {
+            CompletableFuture<LedgerEntry> next = reader.nextAsync();
+            reads.get(0).future.completeExceptionally(new BKException.BKBookieHandleNotAvailableException());
+            try {
+                next.get();
+                fail("Read should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof BKException.BKBookieHandleNotAvailableException);
+            }
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        LedgerEntryReader reader = new LedgerEntryReaderImpl(handle, 0, LAST_ENTRY_ID, 1000);
+        checkEntry(0, reader.next());
+        checkEntry(1, reader.next());
+
+        // The entries read ahead are released
+        reader.close();
+        checkReleased();
+        try {
+            reader.nextAsync().get();
+            fail("Read from a closed reader");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BKException.BKIllegalOpException);
+        }
+    }
+
+    @Test
+    public void testCloseWithReadInFlight() throws Exception {
+        autoComplete = false;
+        LedgerEntryReader reader = new LedgerEntryReaderImpl(handle, 0, LAST_ENTRY_ID, 1000);
+        CompletableFuture<LedgerEntry> next = reader.nextAsync();
+        reader.close();
+
+        // The entries of a read completed after the close are released
+        complete(reads.get(0));
+        checkReleased();
+        try {
+            next.get();
+            fail("Read from a closed reader");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BKException.BKIllegalOpException);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
+import com.google.protobuf.UnsafeByteOperations;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.bookkeeper.proto.BookieProtoEncoding.RequestEnDecoderV3;
+import org.apache.bookkeeper.proto.BookieProtoEncoding.ResponseEnDecoderV3;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AuthMessage;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ForceLedgerRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ForceLedgerResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetBookieInfoRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetBookieInfoResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgerRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgerResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StartTLSRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StartTLSResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.WriteLacRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.WriteLacResponse;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BookieProtoV3Codec}.
+ */
+public class BookieProtoV3CodecTest {
+
+    private static final ByteString MASTER_KEY = ByteString.copyFrom("master-key", UTF_8);
+
+    private final RequestEnDecoderV3 requestEnDecoder = new RequestEnDecoderV3(null);
+    private final ResponseEnDecoderV3 responseEnDecoder = new ResponseEnDecoderV3(null);
+
+    private static BKPacketHeader.Builder header(OperationType operation) {
+        return BKPacketHeader.newBuilder()
+                .setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(operation)
+                .setTxnId(123456789L);
+    }
+
+    private static ByteString body(int size) {
+        byte[] data = new byte[size];
+        ThreadLocalRandom.current().nextBytes(data);
+        return UnsafeByteOperations.unsafeWrap(data);
+    }
+
+    private static AddRequest.Builder addRequest(int size) {
+        return AddRequest.newBuilder()
+                .setLedgerId(1234L)
+                .setEntryId(5678L)
+                .setMasterKey(MASTER_KEY)
+                .setBody(body(size));
+    }
+
+    private static byte[] toBytes(Object frame) {
+        ByteBuf buf = frame instanceof ByteBufList ? ByteBufList.coalesce((ByteBufList) frame) : (ByteBuf) frame;
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        buf.release();
+        if (frame instanceof ByteBufList) {
+            ((ByteBufList) frame).release();
+        }
+        return bytes;
+    }
+
+    // the frame without its size, as passed to the decoders
+    private static ByteBuf packet(byte[] frame) {
+        assertEquals(frame.length - 4, Unpooled.wrappedBuffer(frame).readInt());
+        return Unpooled.wrappedBuffer(frame, 4, frame.length - 4);
+    }
+
+    /**
+     * Check that the codec writes the same bytes as the generated code, and that they parse back to the request.
+     */
+    private void checkRequest(Request request) throws Exception {
+        assertTrue(BookieProtoV3Codec.canEncode(request));
+        byte[] expected = toBytes(BookieProtoEncoding.serializeProtobuf(request, ByteBufAllocator.DEFAULT));
+        Object frame = requestEnDecoder.encode(request, ByteBufAllocator.DEFAULT);
+        assertEquals(request.getAddRequest().getBody().size() > BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD,
+                frame instanceof ByteBufList);
+        byte[] encoded = toBytes(frame);
+        assertArrayEquals(expected, encoded);
+        assertEquals(request, requestEnDecoder.decode(packet(encoded)));
+    }
+
+    private void checkDecodeRequest(Request request) throws Exception {
+        byte[] frame = toBytes(requestEnDecoder.encode(request, ByteBufAllocator.DEFAULT));
+        assertArrayEquals(toBytes(BookieProtoEncoding.serializeProtobuf(request, ByteBufAllocator.DEFAULT)), frame);
+        Request decoded = (Request) requestEnDecoder.decode(packet(frame));
+        assertEquals(request, decoded);
+        assertEquals(request.getUnknownFields(), decoded.getUnknownFields());
+
+        // a frame spread over several buffers is decoded too
+        CompositeByteBuf composite = Unpooled.compositeBuffer();
+        int split = (frame.length - 4) / 2;
+        composite.addComponent(true, Unpooled.wrappedBuffer(frame, 4, split));
+        composite.addComponent(true, Unpooled.wrappedBuffer(frame, 4 + split, frame.length - 4 - split));
+        assertEquals(request, requestEnDecoder.decode(composite));
+    }
+
+    private void checkResponse(Response response) throws Exception {
+        byte[] frame = toBytes(responseEnDecoder.encode(response, ByteBufAllocator.DEFAULT));
+        assertArrayEquals(toBytes(BookieProtoEncoding.serializeProtobuf(response, ByteBufAllocator.DEFAULT)), frame);
+        Response decoded = (Response) responseEnDecoder.decode(packet(frame));
+        assertEquals(response, decoded);
+        assertEquals(response.getUnknownFields(), decoded.getUnknownFields());
+
+        CompositeByteBuf composite = Unpooled.compositeBuffer();
+        int split = (frame.length - 4) / 2;
+        composite.addComponent(true, Unpooled.wrappedBuffer(frame, 4, split));
+        composite.addComponent(true, Unpooled.wrappedBuffer(frame, 4 + split, frame.length - 4 - split));
+        assertEquals(response, responseEnDecoder.decode(composite));
+    }
+
+    @Test
+    public void testAddRequest() throws Exception {
+        for (int size : new int[] { 0, 1, 100, BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD,
+                BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD + 1, 100 * 1024 }) {
+            checkRequest(Request.newBuilder()
+                    .setHeader(header(OperationType.ADD_ENTRY))
+                    .setAddRequest(addRequest(size))
+                    .build());
+
+            // the optional fields, which follow the payload
+            checkRequest(Request.newBuilder()
+                    .setHeader(header(OperationType.ADD_ENTRY).setPriority(5))
+                    .setAddRequest(addRequest(size)
+                            .setWriteFlags(1)
+                            .setFlag(AddRequest.Flag.RECOVERY_ADD))
+                    .addRequestContext(BookkeeperProtocol.ContextPair.newBuilder().setKey("key").setValue("value"))
+                    .addRequestContext(BookkeeperProtocol.ContextPair.newBuilder().setKey("kéy").setValue(""))
+                    .build());
+            checkRequest(Request.newBuilder()
+                    .setHeader(header(OperationType.ADD_ENTRY))
+                    .setAddRequest(addRequest(size).setWriteFlags(-1))
+                    .build());
+        }
+    }
+
+    @Test
+    public void testAddRequestOfPiecewisePayload() throws Exception {
+        // a payload made of several buffers, as the client builds it from a composite entry
+        ByteString body = body(10 * 1024).concat(body(20 * 1024)).concat(body(1));
+        checkRequest(Request.newBuilder()
+                .setHeader(header(OperationType.ADD_ENTRY))
+                .setAddRequest(addRequest(0).setBody(body))
+                .build());
+    }
+
+    @Test
+    public void testReadRequest() throws Exception {
+        checkRequest(Request.newBuilder()
+                .setHeader(header(OperationType.READ_ENTRY))
+                .setReadRequest(ReadRequest.newBuilder().setLedgerId(1234L).setEntryId(5678L))
+                .build());
+
+        // the long poll read of the last add confirmed, with all the fields
+        checkRequest(Request.newBuilder()
+                .setHeader(header(OperationType.READ_ENTRY).setPriority(Integer.MAX_VALUE + 10))
+                .setReadRequest(ReadRequest.newBuilder()
+                        .setLedgerId(Long.MAX_VALUE)
+                        .setEntryId(-1L)
+                        .setMasterKey(MASTER_KEY)
+                        .setPreviousLAC(-1L)
+                        .setTimeOut(1000L)
+                        .setFlag(ReadRequest.Flag.ENTRY_PIGGYBACK))
+                .addRequestContext(BookkeeperProtocol.ContextPair.newBuilder().setKey("key").setValue("value"))
+                .build());
+    }
+
+    @Test
+    public void testRequestWithUnknownFields() throws Exception {
+        UnknownFieldSet unknownFields = UnknownFieldSet.newBuilder()
+                .addField(1000, UnknownFieldSet.Field.newBuilder().addVarint(42L).build())
+                .addField(1001, UnknownFieldSet.Field.newBuilder()
+                        .addLengthDelimited(ByteString.copyFrom("unknown", UTF_8)).build())
+                .build();
+
+        // the requests with unknown fields are left to the generated code, which keeps them
+        Request request = Request.newBuilder()
+                .setHeader(header(OperationType.ADD_ENTRY))
+                .setAddRequest(addRequest(100))
+                .setUnknownFields(unknownFields)
+                .build();
+        assertFalse(BookieProtoV3Codec.canEncode(request));
+        checkDecodeRequest(request);
+
+        request = Request.newBuilder()
+                .setHeader(header(OperationType.ADD_ENTRY).setUnknownFields(unknownFields))
+                .setAddRequest(addRequest(100 * 1024))
+                .build();
+        assertFalse(BookieProtoV3Codec.canEncode(request));
+        checkDecodeRequest(request);
+
+        request = Request.newBuilder()
+                .setHeader(header(OperationType.ADD_ENTRY))
+                .setAddRequest(addRequest(100).setUnknownFields(unknownFields))
+                .build();
+        assertFalse(BookieProtoV3Codec.canEncode(request));
+        checkDecodeRequest(request);
+
+        request = Request.newBuilder()
+                .setHeader(header(OperationType.READ_ENTRY))
+                .setReadRequest(ReadRequest.newBuilder().setLedgerId(1L).setEntryId(2L)
+                        .setUnknownFields(unknownFields))
+                .addRequestContext(BookkeeperProtocol.ContextPair.newBuilder().setKey("key").setValue("value")
+                        .setUnknownFields(unknownFields))
+                .build();
+        assertFalse(BookieProtoV3Codec.canEncode(request));
+        checkDecodeRequest(request);
+
+        request = Request.newBuilder()
+                .setHeader(header(OperationType.READ_ENTRY))
+                .setReadRequest(ReadRequest.newBuilder().setLedgerId(1L).setEntryId(2L))
+                .addRequestContext(BookkeeperProtocol.ContextPair.newBuilder().setKey("key").setValue("value")
+                        .setUnknownFields(unknownFields))
+                .build();
+        assertFalse(BookieProtoV3Codec.canEncode(request));
+        checkDecodeRequest(request);
+    }
+
+    @Test
+    public void testOtherRequests() throws Exception {
+        List<Request> requests = new ArrayList<>();
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.AUTH))
+                .setAuthRequest(AuthMessage.newBuilder()
+                        .setAuthPluginName("plugin")
+                        .setPayload(body(10)))
+                .build());
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.WRITE_LAC))
+                .setWriteLacRequest(WriteLacRequest.newBuilder()
+                        .setLedgerId(1L)
+                        .setLac(2L)
+                        .setMasterKey(MASTER_KEY)
+                        .setBody(body(100)))
+                .build());
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.READ_LAC))
+                .setReadLacRequest(ReadLacRequest.newBuilder().setLedgerId(1L))
+                .build());
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.GET_BOOKIE_INFO))
+                .setGetBookieInfoRequest(GetBookieInfoRequest.newBuilder()
+                        .setRequested(GetBookieInfoRequest.Flags.FREE_DISK_SPACE_VALUE))
+                .build());
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.START_TLS))
+                .setStartTLSRequest(StartTLSRequest.newBuilder())
+                .build());
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.FORCE_LEDGER))
+                .setForceLedgerRequest(ForceLedgerRequest.newBuilder().setLedgerId(1L))
+                .build());
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.GET_LIST_OF_ENTRIES_OF_LEDGER))
+                .setGetListOfEntriesOfLedgerRequest(GetListOfEntriesOfLedgerRequest.newBuilder().setLedgerId(1L))
+                .build());
+        // a read and an add request whose operation doesn't match
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.ADD_ENTRY))
+                .setReadRequest(ReadRequest.newBuilder().setLedgerId(1L).setEntryId(2L))
+                .build());
+        requests.add(Request.newBuilder()
+                .setHeader(header(OperationType.READ_ENTRY))
+                .setReadRequest(ReadRequest.newBuilder().setLedgerId(1L).setEntryId(2L))
+                .setAddRequest(addRequest(10))
+                .build());
+
+        for (Request request : requests) {
+            assertFalse(BookieProtoV3Codec.canEncode(request));
+            checkDecodeRequest(request);
+        }
+    }
+
+    @Test
+    public void testResponses() throws Exception {
+        UnknownFieldSet unknownFields = UnknownFieldSet.newBuilder()
+                .addField(1000, UnknownFieldSet.Field.newBuilder().addFixed64(42L).build())
+                .build();
+
+        List<Response> responses = new ArrayList<>();
+        for (int size : new int[] { 0, 100, 100 * 1024 }) {
+            responses.add(Response.newBuilder()
+                    .setHeader(header(OperationType.READ_ENTRY))
+                    .setStatus(StatusCode.EOK)
+                    .setReadResponse(ReadResponse.newBuilder()
+                            .setStatus(StatusCode.EOK)
+                            .setLedgerId(1L)
+                            .setEntryId(2L)
+                            .setBody(body(size))
+                            .setMaxLAC(1L)
+                            .setLacUpdateTimestamp(System.currentTimeMillis()))
+                    .build());
+        }
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.READ_ENTRY))
+                .setStatus(StatusCode.ENOENTRY)
+                .setReadResponse(ReadResponse.newBuilder()
+                        .setStatus(StatusCode.ENOENTRY)
+                        .setLedgerId(1L)
+                        .setEntryId(-1L))
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.ADD_ENTRY))
+                .setStatus(StatusCode.EOK)
+                .setAddResponse(AddResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setLedgerId(1L)
+                        .setEntryId(2L))
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.AUTH))
+                .setStatus(StatusCode.EOK)
+                .setAuthResponse(AuthMessage.newBuilder()
+                        .setAuthPluginName("plugin")
+                        .setPayload(body(10)))
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.WRITE_LAC))
+                .setStatus(StatusCode.EOK)
+                .setWriteLacResponse(WriteLacResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setLedgerId(1L))
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.READ_LAC))
+                .setStatus(StatusCode.EOK)
+                .setReadLacResponse(ReadLacResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setLedgerId(1L)
+                        .setLacBody(body(10))
+                        .setLastEntryBody(body(100)))
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.GET_BOOKIE_INFO))
+                .setStatus(StatusCode.EOK)
+                .setGetBookieInfoResponse(GetBookieInfoResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setTotalDiskCapacity(1L << 40)
+                        .setFreeDiskSpace(1L << 30))
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.START_TLS))
+                .setStatus(StatusCode.EOK)
+                .setStartTLSResponse(StartTLSResponse.newBuilder())
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.FORCE_LEDGER))
+                .setStatus(StatusCode.EOK)
+                .setForceLedgerResponse(ForceLedgerResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setLedgerId(1L))
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.GET_LIST_OF_ENTRIES_OF_LEDGER))
+                .setStatus(StatusCode.EOK)
+                .setGetListOfEntriesOfLedgerResponse(GetListOfEntriesOfLedgerResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setLedgerId(1L)
+                        .setAvailabilityOfEntriesOfLedger(body(100)))
+                .build());
+        responses.add(Response.newBuilder()
+                .setHeader(header(OperationType.READ_ENTRY).setUnknownFields(unknownFields))
+                .setStatus(StatusCode.EOK)
+                .setReadResponse(ReadResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setLedgerId(1L)
+                        .setEntryId(2L)
+                        .setBody(body(100))
+                        .setUnknownFields(unknownFields))
+                .setUnknownFields(unknownFields)
+                .build());
+
+        for (Response response : responses) {
+            checkResponse(response);
+        }
+    }
+
+    private static List<BookkeeperProtocol.ContextPair> contexts() {
+        List<BookkeeperProtocol.ContextPair> contexts = new ArrayList<>();
+        contexts.add(BookkeeperProtocol.ContextPair.newBuilder().setKey("key").setValue("value").build());
+        contexts.add(BookkeeperProtocol.ContextPair.newBuilder().setKey("kéy").setValue("").build());
+        return contexts;
+    }
+
+    private void checkAddRequestFromFields(int priority, int writeFlags, boolean recoveryAdd,
+                                           List<BookkeeperProtocol.ContextPair> contexts, int... sizes)
+            throws Exception {
+        // a payload made of several buffers, as built by the client
+        ByteBufList payload = ByteBufList.get();
+        ByteString body = ByteString.EMPTY;
+        for (int size : sizes) {
+            ByteString part = body(size);
+            body = body.concat(part);
+            payload.add(Unpooled.wrappedBuffer(part.toByteArray()));
+        }
+
+        BKPacketHeader.Builder header = header(OperationType.ADD_ENTRY);
+        if (priority != 0) {
+            header.setPriority(priority);
+        }
+        AddRequest.Builder add = addRequest(0).setBody(body);
+        if (writeFlags != 0) {
+            add.setWriteFlags(writeFlags);
+        }
+        if (recoveryAdd) {
+            add.setFlag(AddRequest.Flag.RECOVERY_ADD);
+        }
+        Request request = Request.newBuilder()
+                .setHeader(header)
+                .setAddRequest(add)
+                .addAllRequestContext(contexts)
+                .build();
+        byte[] expected = toBytes(BookieProtoEncoding.serializeProtobuf(request, ByteBufAllocator.DEFAULT));
+
+        Object frame = BookieProtoV3Codec.encodeAddRequest(ByteBufAllocator.DEFAULT, header.getTxnId(), priority,
+                add.getLedgerId(), add.getEntryId(), MASTER_KEY.toByteArray(), payload, writeFlags, recoveryAdd,
+                contexts);
+        boolean wrapped = body.size() > BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD;
+        assertEquals(wrapped, frame instanceof ByteBufList);
+        // a large payload is not copied, the frame holds its own references to its buffers
+        for (int i = 0; i < payload.size(); i++) {
+            assertEquals(wrapped ? 2 : 1, payload.getBuffer(i).refCnt());
+        }
+        byte[] encoded = toBytes(frame);
+        assertArrayEquals(expected, encoded);
+        assertEquals(request, requestEnDecoder.decode(packet(encoded)));
+        for (int i = 0; i < payload.size(); i++) {
+            assertEquals(1, payload.getBuffer(i).refCnt());
+        }
+        payload.release();
+    }
+
+    @Test
+    public void testEncodeAddRequestFromFields() throws Exception {
+        for (int size : new int[] { 0, 1, 100, BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD,
+                BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD + 1, 100 * 1024 }) {
+            checkAddRequestFromFields(0, 0, false, new ArrayList<>(), size);
+            // the optional fields, which follow the payload
+            checkAddRequestFromFields(100, 1, true, contexts(), size);
+            checkAddRequestFromFields(0, 1, false, new ArrayList<>(), size);
+            checkAddRequestFromFields(0, 0, true, new ArrayList<>(), size);
+        }
+        checkAddRequestFromFields(0, 0, false, new ArrayList<>(), 10 * 1024, 20 * 1024, 1);
+        checkAddRequestFromFields(100, 1, true, contexts(), 10, 0, 20);
+    }
+
+    private void checkReadRequestFromFields(int priority, byte[] masterKey, Long previousLAC, Long timeOut,
+                                            ReadRequest.Flag flag, List<BookkeeperProtocol.ContextPair> contexts)
+            throws Exception {
+        BKPacketHeader.Builder header = header(OperationType.READ_ENTRY);
+        if (priority != 0) {
+            header.setPriority(priority);
+        }
+        ReadRequest.Builder read = ReadRequest.newBuilder().setLedgerId(1234L).setEntryId(5678L);
+        if (masterKey != null) {
+            read.setMasterKey(ByteString.copyFrom(masterKey));
+        }
+        if (previousLAC != null) {
+            read.setPreviousLAC(previousLAC);
+        }
+        if (timeOut != null) {
+            read.setTimeOut(timeOut);
+        }
+        if (flag != null) {
+            read.setFlag(flag);
+        }
+        Request request = Request.newBuilder()
+                .setHeader(header)
+                .setReadRequest(read)
+                .addAllRequestContext(contexts)
+                .build();
+        byte[] expected = toBytes(BookieProtoEncoding.serializeProtobuf(request, ByteBufAllocator.DEFAULT));
+
+        byte[] encoded = toBytes(BookieProtoV3Codec.encodeReadRequest(ByteBufAllocator.DEFAULT, header.getTxnId(),
+                priority, read.getLedgerId(), read.getEntryId(), masterKey, previousLAC, timeOut, flag, contexts));
+        assertArrayEquals(expected, encoded);
+        assertEquals(request, requestEnDecoder.decode(packet(encoded)));
+    }
+
+    @Test
+    public void testEncodeReadRequestFromFields() throws Exception {
+        checkReadRequestFromFields(0, null, null, null, null, new ArrayList<>());
+        checkReadRequestFromFields(100, null, null, null, null, new ArrayList<>());
+        // the fencing read
+        checkReadRequestFromFields(0, MASTER_KEY.toByteArray(), null, null, ReadRequest.Flag.FENCE_LEDGER,
+                new ArrayList<>());
+        // the long poll read, with the entry piggybacked
+        checkReadRequestFromFields(100, null, 5677L, 10000L, ReadRequest.Flag.ENTRY_PIGGYBACK, contexts());
+        checkReadRequestFromFields(0, null, -1L, Long.MAX_VALUE, null, new ArrayList<>());
+    }
+}
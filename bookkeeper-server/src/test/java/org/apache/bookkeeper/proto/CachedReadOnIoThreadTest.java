@@ -0,0 +1,205 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.bookie.BookKeeperServerStats;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the reads of cached entries served on the I/O threads by {@link BookieRequestProcessor}.
+ */
+public class CachedReadOnIoThreadTest {
+
+    private static final long LEDGER_ID = 7;
+    private static final byte[] MASTER_KEY = new byte[BookieProtocol.MASTER_KEY_LENGTH];
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private final Bookie bookie = mock(Bookie.class);
+    private EmbeddedChannel channel;
+    private BookieRequestHandler requestHandler;
+    private BookieRequestProcessor requestProcessor;
+
+    @Before
+    public void setUp() throws Exception {
+        channel = new EmbeddedChannel();
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        requestHandler = mock(BookieRequestHandler.class);
+        when(requestHandler.ctx()).thenReturn(ctx);
+
+        when(bookie.readEntry(anyLong(), anyLong())).thenAnswer(invocation -> entry(invocation.getArgument(1)));
+        when(bookie.fenceLedger(anyLong(), any())).thenReturn(CompletableFuture.completedFuture(true));
+    }
+
+    @After
+    public void tearDown() {
+        if (requestProcessor != null) {
+            requestProcessor.close();
+        }
+        channel.finishAndReleaseAll();
+    }
+
+    private void startProcessor(boolean cachedReadsOnIoThread) throws Exception {
+        ServerConfiguration conf = new ServerConfiguration()
+                .setCachedReadsOnIoThreadEnabled(cachedReadsOnIoThread);
+        requestProcessor = new BookieRequestProcessor(conf, bookie, statsProvider.getStatsLogger(""), null,
+                ByteBufAllocator.DEFAULT, null);
+    }
+
+    private static ByteBuf entry(long entryId) {
+        ByteBuf entry = Unpooled.buffer(64);
+        entry.writeLong(LEDGER_ID);
+        entry.writeLong(entryId);
+        entry.writerIndex(entry.capacity());
+        return entry;
+    }
+
+    private void cache(long entryId) {
+        when(bookie.readEntryIfCached(LEDGER_ID, entryId)).thenAnswer(invocation -> entry(entryId));
+    }
+
+    private void read(long entryId, short flags) {
+        requestProcessor.processRequest(BookieProtocol.ReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                LEDGER_ID, entryId, flags, MASTER_KEY), requestHandler);
+    }
+
+    private long readsOnIoThread() {
+        return statsProvider.getCounter(BookKeeperServerStats.READ_ENTRY_ON_IO_THREAD).get();
+    }
+
+    @Test
+    public void testCachedEntryReadOnIoThread() throws Exception {
+        startProcessor(true);
+        cache(3);
+
+        read(3, BookieProtocol.FLAG_NONE);
+
+        // The response is written before the request is handed back, without going through the read threads
+        assertEquals(1, readsOnIoThread());
+        BookieProtocol.ReadResponse response = channel.readOutbound();
+        assertEquals(BookieProtocol.EOK, response.getErrorCode());
+        assertEquals(3, response.getEntryId());
+        ByteBuf expected = entry(3);
+        assertEquals(expected, response.getData());
+        expected.release();
+        response.release();
+        verify(bookie, never()).readEntry(anyLong(), anyLong());
+    }
+
+    @Test
+    public void testMissReadOnReadThread() throws Exception {
+        startProcessor(true);
+
+        read(4, BookieProtocol.FLAG_NONE);
+
+        verify(bookie).readEntryIfCached(LEDGER_ID, 4);
+        verify(bookie, timeout(10000)).readEntry(LEDGER_ID, 4);
+        assertEquals(0, readsOnIoThread());
+    }
+
+    @Test
+    public void testFencingAndHighPriorityReadsNotOnIoThread() throws Exception {
+        startProcessor(true);
+        cache(5);
+
+        // The fencing reads have to fence the ledger first, and the recovery reads go to their own threads
+        read(5, BookieProtocol.FLAG_DO_FENCING);
+        verify(bookie, timeout(10000)).fenceLedger(LEDGER_ID, MASTER_KEY);
+        read(5, BookieProtocol.FLAG_HIGH_PRIORITY);
+        verify(bookie, timeout(10000).times(2)).readEntry(LEDGER_ID, 5);
+
+        verify(bookie, never()).readEntryIfCached(anyLong(), anyLong());
+        assertEquals(0, readsOnIoThread());
+    }
+
+    @Test
+    public void testV3ReadsNotOnIoThread() throws Exception {
+        startProcessor(true);
+        cache(6);
+
+        // The v3 reads, like the long poll ones, always go through their threads
+        requestProcessor.processRequest(Request.newBuilder()
+                .setHeader(BKPacketHeader.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_THREE)
+                        .setOperation(OperationType.READ_ENTRY)
+                        .setTxnId(1))
+                .setReadRequest(BookkeeperProtocol.ReadRequest.newBuilder()
+                        .setLedgerId(LEDGER_ID)
+                        .setEntryId(6))
+                .build(), requestHandler);
+
+        verify(bookie, timeout(10000)).readEntry(LEDGER_ID, 6);
+        verify(bookie, never()).readEntryIfCached(anyLong(), anyLong());
+        assertEquals(0, readsOnIoThread());
+    }
+
+    @Test
+    public void testNonWritableChannelNotOnIoThread() throws Exception {
+        startProcessor(true);
+        cache(8);
+
+        // The response would only be queued on the channel, the read is left to the read threads which wait for it
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        assertFalse(channel.isWritable());
+        read(8, BookieProtocol.FLAG_NONE);
+
+        verify(bookie, timeout(10000)).readEntry(LEDGER_ID, 8);
+        verify(bookie, never()).readEntryIfCached(anyLong(), anyLong());
+        assertEquals(0, readsOnIoThread());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        startProcessor(false);
+        cache(9);
+
+        read(9, BookieProtocol.FLAG_NONE);
+
+        verify(bookie, timeout(10000)).readEntry(LEDGER_ID, 9);
+        verify(bookie, never()).readEntryIfCached(anyLong(), anyLong());
+        assertEquals(0, readsOnIoThread());
+    }
+}
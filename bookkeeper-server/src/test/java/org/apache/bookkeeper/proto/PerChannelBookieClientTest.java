@@ -0,0 +1,227 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieProtoEncoding.RequestEnDecoderV3;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link PerChannelBookieClient}.
+ */
+public class PerChannelBookieClientTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final byte[] MASTER_KEY = "master-key".getBytes(UTF_8);
+
+    private OrderedExecutor executor;
+    private EventLoopGroup eventLoopGroup;
+    private EmbeddedChannel channel;
+    private final RequestEnDecoderV3 requestDecoder = new RequestEnDecoderV3(null);
+    private final BookieId bookieId = BookieId.parse("bookie-1:3181");
+
+    @Before
+    public void setUp() {
+        executor = OrderedExecutor.newBuilder().name("pcbc-test").numThreads(1).build();
+        eventLoopGroup = new NioEventLoopGroup(1);
+        channel = new EmbeddedChannel();
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        executor.shutdown();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    // a client whose requests are written to an embedded channel, rather than sent to a bookie
+    private PerChannelBookieClient newClient(ClientConfiguration conf) throws Exception {
+        PerChannelBookieClient client = new PerChannelBookieClient(conf, executor, eventLoopGroup, bookieId,
+                NullStatsLogger.INSTANCE, null, null, null, mock(BookieAddressResolver.class));
+        client.channel = channel;
+        return client;
+    }
+
+    private static BKPacketHeader responseHeader(Request request) {
+        return BKPacketHeader.newBuilder()
+                .setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(request.getHeader().getOperation())
+                .setTxnId(request.getHeader().getTxnId())
+                .build();
+    }
+
+    private CompletableFuture<Integer> read(PerChannelBookieClient client, long entryId) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        client.readEntry(LEDGER_ID, entryId, (rc, ledgerId, eid, buffer, ctx) -> result.complete(rc),
+                null, BookieProtocol.FLAG_NONE, null, false);
+        return result;
+    }
+
+    private void completeRead(PerChannelBookieClient client, Request request) throws Exception {
+        client.channelRead(null, Response.newBuilder()
+                .setHeader(responseHeader(request))
+                .setStatus(StatusCode.EOK)
+                .setReadResponse(ReadResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setLedgerId(LEDGER_ID)
+                        .setEntryId(request.getReadRequest().getEntryId())
+                        .setBody(ByteString.copyFromUtf8("entry")))
+                .build());
+    }
+
+    private CompletableFuture<Integer> add(PerChannelBookieClient client, long entryId, ByteBufList entry,
+                                           boolean allowFastFail) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        client.addEntry(LEDGER_ID, MASTER_KEY, entryId, entry,
+                (rc, ledgerId, eid, addr, ctx) -> result.complete(rc), null, BookieProtocol.FLAG_NONE,
+                allowFastFail, EnumSet.noneOf(WriteFlag.class));
+        return result;
+    }
+
+    private static ByteBufList entry(int size) {
+        return ByteBufList.get(Unpooled.wrappedBuffer(new byte[size]));
+    }
+
+    private void completeAdd(PerChannelBookieClient client, Request request) throws Exception {
+        client.channelRead(null, Response.newBuilder()
+                .setHeader(responseHeader(request))
+                .setStatus(StatusCode.EOK)
+                .setAddResponse(AddResponse.newBuilder()
+                        .setStatus(StatusCode.EOK)
+                        .setLedgerId(LEDGER_ID)
+                        .setEntryId(request.getAddRequest().getEntryId()))
+                .build());
+    }
+
+    // the requests are encoded by the client, they are decoded back as the bookie does
+    private List<Request> sentRequests() throws Exception {
+        List<Request> requests = new ArrayList<>();
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ByteBuf frame = msg instanceof ByteBufList ? ByteBufList.coalesce((ByteBufList) msg) : (ByteBuf) msg;
+            assertEquals(frame.readableBytes() - 4, frame.readInt());
+            requests.add((Request) requestDecoder.decode(frame));
+            frame.release();
+            if (msg instanceof ByteBufList) {
+                ((ByteBufList) msg).release();
+            }
+        }
+        return requests;
+    }
+
+    @Test
+    public void testInFlightRequestsLimit() throws Exception {
+        PerChannelBookieClient client = newClient(new ClientConfiguration().setChannelMaxInFlightRequests(2));
+
+        CompletableFuture<Integer> read0 = read(client, 0);
+        assertFalse(client.isInFlightLimitReached());
+        CompletableFuture<Integer> read1 = read(client, 1);
+        assertTrue(client.isInFlightLimitReached());
+        assertFalse(client.isWritable());
+
+        // The channel is full, the next read is rejected so that it can be sent to another replica
+        assertEquals(BKException.Code.TooManyRequestsException, (int) read(client, 2).get(10, TimeUnit.SECONDS));
+        List<Request> requests = sentRequests();
+        assertEquals(2, requests.size());
+
+        // A completed read makes room for the next one
+        completeRead(client, requests.get(0));
+        assertEquals(BKException.Code.OK, (int) read0.get(10, TimeUnit.SECONDS));
+        assertFalse(client.isInFlightLimitReached());
+        assertTrue(client.isWritable());
+        CompletableFuture<Integer> read3 = read(client, 3);
+        assertTrue(client.isInFlightLimitReached());
+        assertEquals(1, sentRequests().size());
+
+        // The reads failed when the channel is closed don't stay in flight
+        client.errorOutOutstandingEntries(BKException.Code.BookieHandleNotAvailableException);
+        assertEquals(BKException.Code.BookieHandleNotAvailableException, (int) read1.get(10, TimeUnit.SECONDS));
+        assertEquals(BKException.Code.BookieHandleNotAvailableException, (int) read3.get(10, TimeUnit.SECONDS));
+        assertFalse(client.isInFlightLimitReached());
+    }
+
+    @Test
+    public void testInFlightBytesLimit() throws Exception {
+        PerChannelBookieClient client = newClient(new ClientConfiguration().setChannelMaxInFlightBytes(100));
+
+        ByteBufList entry0 = entry(60);
+        CompletableFuture<Integer> add0 = add(client, 0, entry0, true);
+        assertFalse(client.isInFlightLimitReached());
+        CompletableFuture<Integer> add1 = add(client, 1, entry(60), true);
+        assertTrue(client.isInFlightLimitReached());
+
+        // Over the limit, an add allowed to fail fast is rejected, and the client drops its reference to the entry,
+        // including the ones held by the frame wrapping a large entry
+        ByteBufList entry2 = entry(BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD + 1);
+        assertEquals(BKException.Code.TooManyRequestsException,
+                (int) add(client, 2, entry2, true).get(10, TimeUnit.SECONDS));
+        assertEquals(1, entry2.refCnt());
+        List<Request> requests = sentRequests();
+        assertEquals(2, requests.size());
+
+        // Any other add is held back by the backpressure of the caller, not rejected here
+        CompletableFuture<Integer> add3 = add(client, 3, entry(10), false);
+        requests.addAll(sentRequests());
+        assertEquals(3, requests.size());
+
+        // The acknowledged adds free their bytes
+        completeAdd(client, requests.get(0));
+        assertEquals(BKException.Code.OK, (int) add0.get(10, TimeUnit.SECONDS));
+        assertFalse(client.isInFlightLimitReached());
+        completeAdd(client, requests.get(1));
+        assertEquals(BKException.Code.OK, (int) add1.get(10, TimeUnit.SECONDS));
+        completeAdd(client, requests.get(2));
+        assertEquals(BKException.Code.OK, (int) add3.get(10, TimeUnit.SECONDS));
+        assertEquals(1, entry0.refCnt());
+    }
+}
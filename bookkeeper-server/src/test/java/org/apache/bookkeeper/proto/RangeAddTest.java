@@ -0,0 +1,387 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.ReferenceCounted;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Test;
+
+/**
+ * Test the encoding and the processing of the range add requests.
+ */
+public class RangeAddTest {
+
+    private static final byte[] MASTER_KEY = new byte[BookieProtocol.MASTER_KEY_LENGTH];
+    private static final long LEDGER_ID = 7;
+
+    private final BookieProtoEncoding.RequestEnDeCoderPreV3 requestCodec =
+            new BookieProtoEncoding.RequestEnDeCoderPreV3(null);
+    private final BookieProtoEncoding.ResponseEnDeCoderPreV3 responseCodec =
+            new BookieProtoEncoding.ResponseEnDeCoderPreV3(null);
+
+    private static ByteBuf entry(long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(LEDGER_ID);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) entryId);
+        }
+        return entry;
+    }
+
+    /**
+     * An add request as serialized by the client, with its frame size, request type and master key.
+     */
+    private static ByteBuf addRequest(long entryId, int size) {
+        ByteBuf header = Unpooled.buffer(4 + 4 + BookieProtocol.MASTER_KEY_LENGTH);
+        header.writeInt(4 + BookieProtocol.MASTER_KEY_LENGTH + size);
+        header.writeInt(BookieProtocol.PacketHeader.toInt(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                BookieProtocol.ADDENTRY, (short) 0));
+        header.writeBytes(MASTER_KEY);
+        return Unpooled.wrappedBuffer(header, entry(entryId, size));
+    }
+
+    private static ByteBuf frame(ByteBufList request) {
+        ByteBuf packet = ByteBufList.coalesce(request);
+        request.release();
+        assertEquals(packet.readableBytes() - 4, packet.readInt());
+        return packet;
+    }
+
+    private ByteBuf rangeAddFrame(int count) {
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeInt(BookieProtocol.PacketHeader.toInt(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                BookieProtocol.RANGE_ADD_ENTRY, (short) 0));
+        packet.writeBytes(MASTER_KEY);
+        packet.writeLong(LEDGER_ID);
+        packet.writeLong(0);
+        packet.writeLong(1);
+        packet.writeInt(count);
+        return packet;
+    }
+
+    private void checkRoundTrip(int entries, int entrySize, boolean asList) throws Exception {
+        ReferenceCounted[] addRequests = new ReferenceCounted[entries];
+        for (int i = 0; i < entries; i++) {
+            ByteBuf addRequest = addRequest(10 + i, entrySize);
+            addRequests[i] = asList ? ByteBufList.get(addRequest) : addRequest;
+        }
+        ByteBuf packet = frame(BookieProtoEncoding.RequestEnDeCoderPreV3.serializeRangeAddRequest(
+                ByteBufAllocator.DEFAULT, (short) 0, MASTER_KEY, LEDGER_ID, 10, 42, addRequests));
+        for (ReferenceCounted addRequest : addRequests) {
+            addRequest.release();
+        }
+
+        BookieProtocol.ParsedRangeAddRequest request =
+                (BookieProtocol.ParsedRangeAddRequest) requestCodec.decode(packet);
+        assertEquals(BookieProtocol.RANGE_ADD_ENTRY, request.getOpCode());
+        assertEquals(LEDGER_ID, request.getLedgerId());
+        assertEquals(10, request.getEntryId());
+        assertEquals(42, request.getRequestId());
+        assertArrayEquals(MASTER_KEY, request.getMasterKey());
+        assertEquals(entries, request.getEntries().size());
+        for (int i = 0; i < entries; i++) {
+            ByteBuf expected = entry(10 + i, entrySize);
+            assertEquals(expected, request.getEntries().get(i));
+            expected.release();
+        }
+
+        // Each entry holds its own reference on the packet
+        packet.release();
+        assertEquals(entries, packet.refCnt());
+        request.release();
+        assertEquals(0, packet.refCnt());
+    }
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        checkRoundTrip(5, 100, false);
+        checkRoundTrip(5, 100, true);
+    }
+
+    @Test
+    public void testLargeRequestRoundTrip() throws Exception {
+        // Larger than the small entry threshold, the entries are not copied into the header buffer
+        checkRoundTrip(3, BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD, false);
+        checkRoundTrip(3, BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD, true);
+    }
+
+    private void checkInvalidRequest(ByteBuf packet) throws Exception {
+        try {
+            requestCodec.decode(packet);
+            fail("Decoded an invalid range add request");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // The entries decoded before the error are released
+        assertEquals(1, packet.refCnt());
+        packet.release();
+    }
+
+    @Test
+    public void testInvalidEntriesCount() throws Exception {
+        checkInvalidRequest(rangeAddFrame(-1));
+        checkInvalidRequest(rangeAddFrame(0));
+        checkInvalidRequest(rangeAddFrame(Integer.MAX_VALUE));
+
+        ByteBuf packet = rangeAddFrame(3);
+        packet.writeInt(0);
+        packet.writeInt(0);
+        checkInvalidRequest(packet);
+    }
+
+    @Test
+    public void testInvalidEntrySize() throws Exception {
+        ByteBuf packet = rangeAddFrame(3);
+        packet.writeInt(16);
+        packet.writeBytes(new byte[16]);
+        packet.writeInt(-1);
+        packet.writeInt(16);
+        checkInvalidRequest(packet);
+
+        packet = rangeAddFrame(2);
+        packet.writeInt(16);
+        packet.writeBytes(new byte[16]);
+        packet.writeInt(17);
+        packet.writeBytes(new byte[16]);
+        checkInvalidRequest(packet);
+    }
+
+    @Test
+    public void testResponseRoundTrip() throws Exception {
+        ByteBuf buf = (ByteBuf) responseCodec.encode(new BookieProtocol.RangeAddResponse(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EFENCED, LEDGER_ID, 10, 42),
+                ByteBufAllocator.DEFAULT);
+        assertEquals(buf.readableBytes() - 4, buf.readInt());
+
+        BookieProtocol.RangeAddResponse response = (BookieProtocol.RangeAddResponse) responseCodec.decode(buf);
+        assertEquals(BookieProtocol.RANGE_ADD_ENTRY, response.getOpCode());
+        assertEquals(BookieProtocol.EFENCED, response.getErrorCode());
+        assertEquals(LEDGER_ID, response.getLedgerId());
+        assertEquals(10, response.getEntryId());
+        assertEquals(42, response.getRequestId());
+        assertTrue(!buf.isReadable());
+        buf.release();
+    }
+
+    private static BookieProtocol.ParsedRangeAddRequest rangeAddRequest(long ledgerId, int entries) {
+        long[] entryIds = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            entryIds[i] = i;
+        }
+        return rangeAddRequest(ledgerId, 0, entryIds);
+    }
+
+    private static BookieProtocol.ParsedRangeAddRequest rangeAddRequest(long ledgerId, long firstEntryId,
+                                                                       long... entryIds) {
+        List<ByteBuf> buffers = new ArrayList<>();
+        for (long entryId : entryIds) {
+            ByteBuf entry = entry(entryId, 32);
+            entry.setLong(0, ledgerId);
+            buffers.add(entry);
+        }
+        return new BookieProtocol.ParsedRangeAddRequest(BookieProtocol.CURRENT_PROTOCOL_VERSION, LEDGER_ID,
+                firstEntryId, (short) 0, MASTER_KEY, 42, buffers);
+    }
+
+    private BookieRequestHandler requestHandler() {
+        BookieRequestHandler requestHandler = mock(BookieRequestHandler.class);
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(mock(Channel.class));
+        when(requestHandler.ctx()).thenReturn(ctx);
+        return requestHandler;
+    }
+
+    private BookieRequestProcessor requestProcessor(Bookie bookie) {
+        BookieRequestProcessor requestProcessor = mock(BookieRequestProcessor.class);
+        when(requestProcessor.getBookie()).thenReturn(bookie);
+        when(requestProcessor.getRequestStats()).thenReturn(new RequestStats(NullStatsLogger.INSTANCE));
+        return requestProcessor;
+    }
+
+    /**
+     * A bookie completing the entries added to it with the given results.
+     */
+    private static Bookie bookie(int... results) throws Exception {
+        Bookie bookie = mock(Bookie.class);
+        doAnswer(invocation -> {
+            List<ByteBuf> entries = invocation.getArgument(0);
+            WriteCallback cb = invocation.getArgument(2);
+            for (int i = 0; i < entries.size(); i++) {
+                ByteBuf entry = entries.get(i);
+                cb.writeComplete(results[i], entry.getLong(0), entry.getLong(8), null, invocation.getArgument(3));
+            }
+            return null;
+        }).when(bookie).addEntries(anyList(), anyBoolean(), any(), any(), any());
+        return bookie;
+    }
+
+    @Test
+    public void testProcessRequest() throws Exception {
+        Bookie bookie = bookie(BookieProtocol.EOK, BookieProtocol.EOK, BookieProtocol.EOK);
+        BookieRequestHandler requestHandler = requestHandler();
+        BookieRequestProcessor requestProcessor = requestProcessor(bookie);
+        BookieProtocol.ParsedRangeAddRequest request = rangeAddRequest(LEDGER_ID, 3);
+
+        WriteEntryProcessor.create(request, requestHandler, requestProcessor).run();
+
+        verify(bookie).addEntries(eq(request.getEntries()), eq(false), any(), eq(requestHandler), eq(MASTER_KEY));
+        // The whole range is acknowledged once, after its last entry
+        verify(requestHandler, times(1)).prepareSendResponseV2(BookieProtocol.EOK, request);
+        verify(requestProcessor, times(1)).onAddRequestFinish();
+    }
+
+    @Test
+    public void testProcessRequestWithFailedEntry() throws Exception {
+        Bookie bookie = bookie(BookieProtocol.EOK, BookieProtocol.EIO, BookieProtocol.EOK);
+        BookieRequestHandler requestHandler = requestHandler();
+        BookieProtocol.ParsedRangeAddRequest request = rangeAddRequest(LEDGER_ID, 3);
+
+        WriteEntryProcessor.create(request, requestHandler, requestProcessor(bookie)).run();
+
+        // The error of any entry fails the range
+        verify(requestHandler, times(1)).prepareSendResponseV2(BookieProtocol.EIO, request);
+        verify(requestHandler, never()).prepareSendResponseV2(BookieProtocol.EOK, request);
+    }
+
+    private void checkRejectedRequest(BookieProtocol.ParsedRangeAddRequest request) throws Exception {
+        Bookie bookie = bookie();
+        BookieRequestHandler requestHandler = requestHandler();
+        BookieRequestProcessor requestProcessor = requestProcessor(bookie);
+        when(requestProcessor.getWaitTimeoutOnBackpressureMillis()).thenReturn(-1L);
+        List<ByteBuf> entries = new ArrayList<>(request.getEntries());
+
+        WriteEntryProcessor.create(request, requestHandler, requestProcessor).run();
+
+        verify(bookie, never()).addEntries(anyList(), anyBoolean(), any(), any(), any());
+        verify(requestProcessor, times(1)).onAddRequestFinish();
+        for (ByteBuf entry : entries) {
+            assertEquals(0, entry.refCnt());
+        }
+    }
+
+    @Test
+    public void testProcessRequestWithEntryOfOtherLedger() throws Exception {
+        checkRejectedRequest(rangeAddRequest(LEDGER_ID + 1, 2));
+    }
+
+    @Test
+    public void testProcessRequestWithNonConsecutiveEntries() throws Exception {
+        // A gap, a duplicate and entries out of order
+        checkRejectedRequest(rangeAddRequest(LEDGER_ID, 0, 0, 1, 3));
+        checkRejectedRequest(rangeAddRequest(LEDGER_ID, 0, 0, 1, 1));
+        checkRejectedRequest(rangeAddRequest(LEDGER_ID, 0, 1, 0));
+    }
+
+    @Test
+    public void testProcessRequestWithEntriesNotStartingAtEntryId() throws Exception {
+        checkRejectedRequest(rangeAddRequest(LEDGER_ID, 5, 0, 1, 2));
+        checkRejectedRequest(rangeAddRequest(LEDGER_ID, 5, 6, 7));
+
+        // The entries starting at the entry id of the request are accepted
+        Bookie bookie = bookie(BookieProtocol.EOK, BookieProtocol.EOK);
+        BookieRequestHandler requestHandler = requestHandler();
+        BookieProtocol.ParsedRangeAddRequest request = rangeAddRequest(LEDGER_ID, 5, 5, 6);
+        WriteEntryProcessor.create(request, requestHandler, requestProcessor(bookie)).run();
+        verify(requestHandler, times(1)).prepareSendResponseV2(BookieProtocol.EOK, request);
+    }
+
+    @Test
+    public void testCompletion() throws Exception {
+        OrderedExecutor executor = OrderedExecutor.newBuilder().name("range-add-test").numThreads(1).build();
+        EventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try {
+            BookieId bookieId = BookieId.parse("bookie-1:3181");
+            PerChannelBookieClient client = new PerChannelBookieClient(executor, eventLoopGroup, bookieId,
+                    mock(BookieAddressResolver.class));
+            long[] entryIds = new long[] { 10, 11, 12 };
+
+            // A response acknowledges every entry of the range
+            List<Long> completed = new ArrayList<>();
+            WriteCallback cb = (rc, ledgerId, entryId, addr, ctx) -> {
+                assertEquals(BKException.Code.OK, rc);
+                assertEquals(LEDGER_ID, ledgerId);
+                assertEquals(bookieId, addr);
+                assertEquals("ctx", ctx);
+                completed.add(entryId);
+            };
+            RangeAddCompletion completion = new RangeAddCompletion(
+                    new TxnCompletionKey(42, OperationType.RANGE_ADD_ENTRY),
+                    cb, "ctx", LEDGER_ID, entryIds, client);
+            completion.handleV2Response(LEDGER_ID, 10, StatusCode.EOK, null);
+            assertEquals(3, completed.size());
+            for (int i = 0; i < entryIds.length; i++) {
+                assertEquals(entryIds[i], (long) completed.get(i));
+            }
+
+            // An error fails every entry of the range
+            CountDownLatch latch = new CountDownLatch(entryIds.length);
+            List<Long> failed = new ArrayList<>();
+            WriteCallback errorCb = (rc, ledgerId, entryId, addr, ctx) -> {
+                assertEquals(BKException.Code.BookieHandleNotAvailableException, rc);
+                failed.add(entryId);
+                latch.countDown();
+            };
+            new RangeAddCompletion(
+                    new TxnCompletionKey(43, OperationType.RANGE_ADD_ENTRY),
+                    errorCb, "ctx", LEDGER_ID, entryIds, client).errorOut();
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(3, failed.size());
+        } finally {
+            executor.shutdown();
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the read responses whose entries are transferred straight from the entry logs as file regions.
+ */
+public class ZeroCopyReadResponseTest {
+
+    private static final long LEDGER_ID = 3;
+    private static final int MIN_REGION_SIZE = 1024;
+    // The packet header, the error code, the ledger id and the entry id
+    private static final int RESPONSE_HEADERS_SIZE = 24;
+    // Entries alternating between regions and buffers
+    private static final int[] ENTRY_SIZES = { 64 * 1024, 100, 4096, 1024 * 1024, 20 };
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private DefaultEntryLogger entryLogger;
+    private final long[] locations = new long[ENTRY_SIZES.length];
+    private long logId;
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel serverChannel;
+    private Channel clientChannel;
+    private CompletableFuture<Channel> serverChildChannel;
+    private ByteBuf received;
+
+    @Before
+    public void setUp() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.getCurrentDirectory(ledgerDir).mkdirs();
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        entryLogger = new DefaultEntryLogger(conf);
+        for (int i = 0; i < ENTRY_SIZES.length; i++) {
+            ByteBuf entry = entry(i);
+            locations[i] = entryLogger.addEntry(LEDGER_ID, entry);
+            entry.release();
+        }
+        entryLogger.flush();
+        logId = locations[0] >> 32;
+
+        eventLoopGroup = new NioEventLoopGroup(2);
+        serverChildChannel = new CompletableFuture<>();
+        serverChannel = new ServerBootstrap()
+                .group(eventLoopGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast("responseEncoder", new BookieProtoEncoding.ResponseEncoder(null));
+                        serverChildChannel.complete(ch);
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+        received = Unpooled.buffer();
+        clientChannel = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        synchronized (received) {
+                            received.writeBytes((ByteBuf) msg);
+                        }
+                        ReferenceCountUtil.release(msg);
+                    }
+                })
+                .connect(serverChannel.localAddress()).sync().channel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (clientChannel != null) {
+            clientChannel.close().sync();
+        }
+        if (serverChannel != null) {
+            serverChannel.close().sync();
+        }
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        }
+        if (entryLogger != null) {
+            entryLogger.close();
+        }
+        if (received != null) {
+            received.release();
+        }
+    }
+
+    private static ByteBuf entry(int index) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZES[index]);
+        entry.writeLong(LEDGER_ID);
+        entry.writeLong(index);
+        while (entry.isWritable()) {
+            entry.writeByte(index * 31 + entry.writerIndex());
+        }
+        return entry;
+    }
+
+    private ReferenceCounted readEntryOrRegion(int index) throws Exception {
+        return entryLogger.readEntryOrRegion(LEDGER_ID, index, locations[index], MIN_REGION_SIZE);
+    }
+
+    private BookieProtocol.BatchedReadResponse batchedReadResponse(long requestId) throws Exception {
+        EntryPayloadList payloads = new EntryPayloadList();
+        for (int i = 0; i < ENTRY_SIZES.length; i++) {
+            payloads.add(readEntryOrRegion(i));
+        }
+        assertTrue(payloads.hasFileRegions());
+        return new BookieProtocol.BatchedReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EOK,
+                LEDGER_ID, 0, requestId, payloads);
+    }
+
+    /**
+     * Wait for the given number of bytes from the bookie, and return them.
+     */
+    private ByteBuf receive(int size) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (received) {
+                if (received.readableBytes() >= size) {
+                    return received.readRetainedSlice(size);
+                }
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Only " + received.readableBytes() + " of " + size + " bytes received");
+    }
+
+    private void checkReadResponse(int index) throws Exception {
+        ByteBuf response = receive(4 + RESPONSE_HEADERS_SIZE + ENTRY_SIZES[index]);
+        assertEquals(RESPONSE_HEADERS_SIZE + ENTRY_SIZES[index], response.readInt());
+        BookieProtocol.ReadResponse rr = (BookieProtocol.ReadResponse) new BookieProtoEncoding
+                .ResponseEnDeCoderPreV3(null).decode(response);
+        assertEquals(BookieProtocol.EOK, rr.getErrorCode());
+        assertEquals(LEDGER_ID, rr.getLedgerId());
+        assertEquals(index, rr.getEntryId());
+        ByteBuf expected = entry(index);
+        assertEquals(expected, rr.getData());
+        expected.release();
+        rr.release();
+        response.release();
+    }
+
+    private void checkBatchedReadResponse(long requestId) throws Exception {
+        int size = RESPONSE_HEADERS_SIZE + 8;
+        for (int entrySize : ENTRY_SIZES) {
+            size += 4 + entrySize;
+        }
+        ByteBuf response = receive(4 + size);
+        assertEquals(size, response.readInt());
+        response.skipBytes(4); // packet header
+        assertEquals(BookieProtocol.EOK, response.readInt());
+        assertEquals(LEDGER_ID, response.readLong());
+        assertEquals(0, response.readLong());
+        assertEquals(requestId, response.readLong());
+        for (int i = 0; i < ENTRY_SIZES.length; i++) {
+            assertEquals(ENTRY_SIZES[i], response.readInt());
+            ByteBuf expected = entry(i);
+            assertEquals("Entry " + i, expected, response.readSlice(ENTRY_SIZES[i]));
+            expected.release();
+        }
+        response.release();
+    }
+
+    private void writeResponse(Object response) throws Exception {
+        Channel channel = serverChildChannel.get(10, TimeUnit.SECONDS);
+        channel.writeAndFlush(response, channel.voidPromise());
+    }
+
+    @Test
+    public void testReadResponses() throws Exception {
+        for (int i = 0; i < ENTRY_SIZES.length; i++) {
+            ReferenceCounted entry = readEntryOrRegion(i);
+            assertEquals(ENTRY_SIZES[i] >= MIN_REGION_SIZE, entry instanceof FileRegion);
+            if (entry instanceof FileRegion) {
+                writeResponse(new BookieProtocol.ReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                        BookieProtocol.EOK, LEDGER_ID, i, (FileRegion) entry));
+            } else {
+                writeResponse(new BookieProtocol.ReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                        BookieProtocol.EOK, LEDGER_ID, i, (ByteBuf) entry));
+            }
+        }
+        for (int i = 0; i < ENTRY_SIZES.length; i++) {
+            checkReadResponse(i);
+        }
+    }
+
+    @Test
+    public void testBatchedReadResponse() throws Exception {
+        writeResponse(batchedReadResponse(1));
+        writeResponse(batchedReadResponse(2));
+        checkBatchedReadResponse(1);
+        checkBatchedReadResponse(2);
+    }
+
+    @Test
+    public void testEntryLogRemovedBeforeTransfer() throws Exception {
+        FileRegion region = (FileRegion) readEntryOrRegion(3);
+        BookieProtocol.BatchedReadResponse batchedResponse = batchedReadResponse(1);
+
+        // The entry log is garbage collected while the responses are queued on the connection, which doesn't
+        // prevent their transfer
+        Channel channel = serverChildChannel.get(10, TimeUnit.SECONDS);
+        channel.eventLoop().submit(() -> {
+            channel.write(new BookieProtocol.ReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                    BookieProtocol.EOK, LEDGER_ID, 3, region), channel.voidPromise());
+            channel.write(batchedResponse, channel.voidPromise());
+            assertTrue(entryLogger.removeEntryLog(logId));
+            channel.flush();
+        }).get();
+
+        checkReadResponse(3);
+        checkBatchedReadResponse(1);
+        assertTrue(channel.isActive());
+
+        // Once removed, the entry log can't be read anymore
+        assertFalse(entryLogger.logExists(logId));
+        try {
+            readEntryOrRegion(3);
+            throw new AssertionError("The entry log should be removed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testEntryLogRemovedAfterRegionsReleased() throws Exception {
+        // A region released without being transferred doesn't close the channel of the entry log
+        ReferenceCounted region = readEntryOrRegion(0);
+        assertTrue(region instanceof FileRegion);
+        region.release();
+        checkReadEntries();
+
+        // Nor does the removal of the entry log close the channels of the regions still to transfer
+        region = readEntryOrRegion(0);
+        entryLogger.removeEntryLog(logId);
+        assertEquals(1, region.refCnt());
+        writeResponse(new BookieProtocol.ReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EOK,
+                LEDGER_ID, 0, (FileRegion) region));
+        checkReadResponse(0);
+    }
+
+    private void checkReadEntries() throws Exception {
+        for (int i = 0; i < ENTRY_SIZES.length; i++) {
+            ByteBuf entry = entryLogger.readEntry(LEDGER_ID, i, locations[i]);
+            ByteBuf expected = entry(i);
+            assertEquals(expected, entry);
+            expected.release();
+            entry.release();
+        }
+    }
+
+    /**
+     * Fail the writes of the file regions, as when the entry log can't be read.
+     */
+    private static class FailingFileRegionWrites extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            if (msg instanceof FileRegion) {
+                ReferenceCountUtil.release(msg);
+                promise.setFailure(new IOException("Entry log read failure"));
+            } else {
+                ctx.write(msg, promise);
+            }
+        }
+    }
+
+    private static EmbeddedChannel failingChannel() {
+        return new EmbeddedChannel(new FailingFileRegionWrites(), new BookieProtoEncoding.ResponseEncoder(null));
+    }
+
+    private static void releaseOutbound(EmbeddedChannel channel) {
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Test
+    public void testConnectionClosedOnReadResponseFailure() throws Exception {
+        EmbeddedChannel channel = failingChannel();
+        FileRegion region = (FileRegion) readEntryOrRegion(0);
+        channel.writeAndFlush(new BookieProtocol.ReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                BookieProtocol.EOK, LEDGER_ID, 0, region), channel.voidPromise());
+
+        // The header was written, but not the entry, so the connection can't be used anymore
+        assertFalse(channel.isOpen());
+        assertEquals(0, region.refCnt());
+        releaseOutbound(channel);
+    }
+
+    @Test
+    public void testConnectionClosedOnBatchedReadResponseFailure() throws Exception {
+        EmbeddedChannel channel = failingChannel();
+        BookieProtocol.BatchedReadResponse response = batchedReadResponse(1);
+        EntryPayloadList payloads = response.getPayloads();
+        channel.writeAndFlush(response);
+
+        assertFalse(channel.isOpen());
+        releaseOutbound(channel);
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEquals("Entry " + i, 0, payloads.get(i).refCnt());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.OpStatsData;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.StatsProvider;
+import org.apache.commons.configuration2.Configuration;
+
+/**
+ * A {@link StatsProvider} keeping the stats in memory, so that the tests can check them.
+ *
+ * <p>The stats are named by their scopes joined with dots. The labels are not part of the names, as with the
+ * providers that export them as labels.
+ */
+public class TestStatsProvider implements StatsProvider {
+
+    /**
+     * A {@link Counter} keeping its value in memory.
+     */
+    public static class TestCounter implements Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        @Override
+        public void clear() {
+            value.set(0);
+        }
+
+        @Override
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        @Override
+        public void dec() {
+            value.decrementAndGet();
+        }
+
+        @Override
+        public void addCount(long delta) {
+            value.addAndGet(delta);
+        }
+
+        @Override
+        public void addLatency(long eventLatency, TimeUnit unit) {
+            value.addAndGet(unit.toMillis(eventLatency));
+        }
+
+        @Override
+        public Long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * An {@link OpStatsLogger} counting the events.
+     */
+    public static class TestOpStatsLogger implements OpStatsLogger {
+        private final AtomicLong successCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+
+        @Override
+        public void registerFailedEvent(long eventLatency, TimeUnit unit) {
+            failureCount.incrementAndGet();
+        }
+
+        @Override
+        public void registerSuccessfulEvent(long eventLatency, TimeUnit unit) {
+            successCount.incrementAndGet();
+        }
+
+        @Override
+        public void registerSuccessfulValue(long value) {
+            successCount.incrementAndGet();
+        }
+
+        @Override
+        public void registerFailedValue(long value) {
+            failureCount.incrementAndGet();
+        }
+
+        @Override
+        public OpStatsData toOpStatsData() {
+            return new OpStatsData(successCount.get(), failureCount.get(), 0, new long[6]);
+        }
+
+        @Override
+        public void clear() {
+            successCount.set(0);
+            failureCount.set(0);
+        }
+
+        public long getSuccessCount() {
+            return successCount.get();
+        }
+
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+    }
+
+    /**
+     * A {@link StatsLogger} registering its stats in the provider.
+     */
+    public class TestStatsLogger implements StatsLogger {
+        private final String path;
+
+        TestStatsLogger(String path) {
+            this.path = path;
+        }
+
+        private String getSubPath(String name) {
+            return path.isEmpty() ? name : path + "." + name;
+        }
+
+        @Override
+        public OpStatsLogger getOpStatsLogger(String name) {
+            return getOrCreateOpStatsLogger(getSubPath(name));
+        }
+
+        @Override
+        public OpStatsLogger getThreadScopedOpStatsLogger(String name) {
+            return getOpStatsLogger(name);
+        }
+
+        @Override
+        public Counter getCounter(String name) {
+            return getOrCreateCounter(getSubPath(name));
+        }
+
+        @Override
+        public Counter getThreadScopedCounter(String name) {
+            return getCounter(name);
+        }
+
+        @Override
+        public <T extends Number> void registerGauge(String name, Gauge<T> gauge) {
+            gauges.put(getSubPath(name), gauge);
+        }
+
+        @Override
+        public <T extends Number> void unregisterGauge(String name, Gauge<T> gauge) {
+            gauges.remove(getSubPath(name), gauge);
+        }
+
+        @Override
+        public StatsLogger scope(String name) {
+            return new TestStatsLogger(getSubPath(name));
+        }
+
+        @Override
+        public StatsLogger scopeLabel(String labelName, String labelValue) {
+            return this;
+        }
+
+        @Override
+        public void removeScope(String name, StatsLogger statsLogger) {
+        }
+    }
+
+    private final ConcurrentMap<String, TestOpStatsLogger> opStatsLoggers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TestCounter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    private TestOpStatsLogger getOrCreateOpStatsLogger(String path) {
+        return opStatsLoggers.computeIfAbsent(path, p -> new TestOpStatsLogger());
+    }
+
+    private TestCounter getOrCreateCounter(String path) {
+        return counters.computeIfAbsent(path, p -> new TestCounter());
+    }
+
+    public TestOpStatsLogger getOpStatsLogger(String path) {
+        return getOrCreateOpStatsLogger(path);
+    }
+
+    public TestCounter getCounter(String path) {
+        return getOrCreateCounter(path);
+    }
+
+    public Gauge<? extends Number> getGauge(String path) {
+        return gauges.get(path);
+    }
+
+    @Override
+    public void start(Configuration conf) {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public TestStatsLogger getStatsLogger(String scope) {
+        return new TestStatsLogger(scope);
+    }
+}
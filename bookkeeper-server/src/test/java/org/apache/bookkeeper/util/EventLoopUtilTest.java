@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.conf.AbstractConfiguration;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.Test;
+
+/**
+ * Unit test for the selection of the Netty transport by {@link EventLoopUtil}.
+ */
+public class EventLoopUtilTest {
+
+    private static final Runnable AVAILABLE = () -> { };
+    private static final Runnable NOT_AVAILABLE = () -> {
+        throw new UnsatisfiedLinkError("not available");
+    };
+    private static final Runnable NOT_LOADED = () -> {
+        throw new NoClassDefFoundError("not loaded");
+    };
+
+    @Test
+    public void testTransportConfiguration() {
+        assertEquals(NettyTransport.Auto, new ServerConfiguration().getNettyTransport());
+        assertEquals(NettyTransport.Auto, new ClientConfiguration().getNettyTransport());
+
+        for (NettyTransport transport : NettyTransport.values()) {
+            assertEquals(transport, new ServerConfiguration().setNettyTransport(transport).getNettyTransport());
+            assertEquals(transport, new ClientConfiguration().setNettyTransport(transport).getNettyTransport());
+        }
+
+        // the names are not case sensitive, as in the configuration files
+        AbstractConfiguration<?> conf = new ServerConfiguration();
+        conf.setProperty("nettyTransport", "epoll");
+        assertEquals(NettyTransport.Epoll, conf.getNettyTransport());
+        conf.setProperty("nettyTransport", " IOURING ");
+        assertEquals(NettyTransport.IoUring, conf.getNettyTransport());
+        conf.setProperty("nettyTransport", "NIO");
+        assertEquals(NettyTransport.Nio, conf.getNettyTransport());
+    }
+
+    @Test
+    public void testUnknownTransport() {
+        AbstractConfiguration<?> conf = new ClientConfiguration();
+        conf.setProperty("nettyTransport", "kqueue");
+        try {
+            conf.getNettyTransport();
+            fail("An unknown transport should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("kqueue"));
+            assertTrue(e.getMessage(), e.getMessage().contains("IoUring"));
+        }
+
+        // nor does it create any event loop
+        try {
+            EventLoopUtil.getServerEventLoopGroup(new ServerConfiguration(conf), new DefaultThreadFactory("test"));
+            fail("An unknown transport should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testExplicitTransport() {
+        assertEquals(NettyTransport.Nio,
+                EventLoopUtil.resolveTransport(NettyTransport.Nio, true, "true", NOT_AVAILABLE, NOT_AVAILABLE));
+        assertEquals(NettyTransport.Epoll,
+                EventLoopUtil.resolveTransport(NettyTransport.Epoll, true, null, AVAILABLE, NOT_AVAILABLE));
+        assertEquals(NettyTransport.IoUring,
+                EventLoopUtil.resolveTransport(NettyTransport.IoUring, true, null, NOT_AVAILABLE, AVAILABLE));
+
+        // an explicit native transport doesn't fall back when it is not available
+        try {
+            EventLoopUtil.resolveTransport(NettyTransport.Epoll, true, null, NOT_AVAILABLE, AVAILABLE);
+            fail("Epoll is not available");
+        } catch (UnsatisfiedLinkError e) {
+            // expected
+        }
+        try {
+            EventLoopUtil.resolveTransport(NettyTransport.IoUring, true, "true", AVAILABLE, NOT_AVAILABLE);
+            fail("io_uring is not available");
+        } catch (UnsatisfiedLinkError e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAutoTransport() {
+        // NIO is used on other platforms, without loading the native transports
+        assertEquals(NettyTransport.Nio,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, false, "true", NOT_LOADED, NOT_LOADED));
+
+        // epoll by default on Linux, io_uring only when enabled
+        AtomicInteger ioUringChecks = new AtomicInteger();
+        Runnable ioUring = ioUringChecks::incrementAndGet;
+        assertEquals(NettyTransport.Epoll,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, null, AVAILABLE, ioUring));
+        assertEquals(NettyTransport.Epoll,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, "false", AVAILABLE, ioUring));
+        assertEquals(0, ioUringChecks.get());
+        assertEquals(NettyTransport.IoUring,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, "1", AVAILABLE, ioUring));
+        assertEquals(NettyTransport.IoUring,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, "TRUE", AVAILABLE, ioUring));
+        assertEquals(2, ioUringChecks.get());
+    }
+
+    @Test
+    public void testAutoTransportFallback() {
+        // io_uring falls back to epoll, then epoll to NIO
+        assertEquals(NettyTransport.Epoll,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, "true", AVAILABLE, NOT_AVAILABLE));
+        assertEquals(NettyTransport.Epoll,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, "true", AVAILABLE, NOT_LOADED));
+        assertEquals(NettyTransport.Nio,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, "true", NOT_AVAILABLE, NOT_AVAILABLE));
+        assertEquals(NettyTransport.Nio,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, null, NOT_AVAILABLE, AVAILABLE));
+        assertEquals(NettyTransport.Nio,
+                EventLoopUtil.resolveTransport(NettyTransport.Auto, true, null, NOT_LOADED, AVAILABLE));
+    }
+
+    private static Class<? extends EventLoopGroup> eventLoopGroupClass(NettyTransport transport) {
+        switch (transport) {
+            case Epoll:
+                return EpollEventLoopGroup.class;
+            case IoUring:
+                return IOUringEventLoopGroup.class;
+            default:
+                return NioEventLoopGroup.class;
+        }
+    }
+
+    @Test
+    public void testEventLoopGroup() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration().setNumIOThreads(1);
+        for (NettyTransport transport : new NettyTransport[] { NettyTransport.Nio, NettyTransport.Auto }) {
+            conf.setNettyTransport(transport);
+            NettyTransport resolved = EventLoopUtil.resolveTransport(conf);
+            EventLoopGroup group = EventLoopUtil.getClientEventLoopGroup(conf, new DefaultThreadFactory("test"));
+            try {
+                assertEquals(eventLoopGroupClass(resolved), group.getClass());
+            } finally {
+                group.shutdownGracefully().sync();
+            }
+        }
+    }
+}
@@ -20,10 +20,12 @@ package org.apache.bookkeeper.proto;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
+import java.util.Collections;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.proto.BookieProtoEncoding.EnDecoder;
@@ -33,7 +35,9 @@ import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.util.ByteBufList;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
@@ -52,7 +56,7 @@ import org.slf4j.MDC;
 @State(Scope.Thread)
 public class ProtocolBenchmark {
 
-    @Param({"10", "100", "1000", "10000"})
+    @Param({"10", "100", "1000", "10000", "100000"})
     int size;
 
     byte[] masterKey;
@@ -78,6 +82,76 @@ public class ProtocolBenchmark {
         this.reqEnDeV3 = new RequestEnDecoderV3(null);
     }
 
+    // an add request wrapping the entry, as built by the client
+    private Request newAddRequest() {
+        BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
+                .setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(OperationType.ADD_ENTRY)
+                .setTxnId(0L);
+        AddRequest.Builder addBuilder = AddRequest.newBuilder()
+                .setLedgerId(ledgerId)
+                .setEntryId(entryId)
+                .setMasterKey(UnsafeByteOperations.unsafeWrap(masterKey))
+                .setBody(ByteStringUtil.byteBufToByteString(entry.slice()));
+        return Request.newBuilder()
+                .setHeader(headerBuilder)
+                .setAddRequest(addBuilder)
+                .build();
+    }
+
+    private Request newReadRequest() {
+        return Request.newBuilder()
+                .setHeader(BKPacketHeader.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_THREE)
+                        .setOperation(OperationType.READ_ENTRY)
+                        .setTxnId(0L))
+                .setReadRequest(ReadRequest.newBuilder()
+                        .setLedgerId(ledgerId)
+                        .setEntryId(entryId))
+                .build();
+    }
+
+    @Benchmark
+    public void testAddEntryV3Encode() throws Exception {
+        Object res = this.reqEnDeV3.encode(newAddRequest(), ByteBufAllocator.DEFAULT);
+        ReferenceCountUtil.release(res);
+    }
+
+    @Benchmark
+    public void testAddEntryV3EncodeProtobuf() throws Exception {
+        Object res = BookieProtoEncoding.serializeProtobuf(newAddRequest(), ByteBufAllocator.DEFAULT);
+        ReferenceCountUtil.release(res);
+    }
+
+    @Benchmark
+    public void testAddEntryV3EncodeFields() throws Exception {
+        // as the client does, without building the request message
+        ByteBufList payload = ByteBufList.get(entry.retainedSlice());
+        Object res = BookieProtoV3Codec.encodeAddRequest(ByteBufAllocator.DEFAULT, 0L, 0, ledgerId, entryId,
+                masterKey, payload, 0, false, Collections.emptyList());
+        ReferenceCountUtil.release(res);
+        payload.release();
+    }
+
+    @Benchmark
+    public void testReadEntryV3EncodeFields() throws Exception {
+        Object res = BookieProtoV3Codec.encodeReadRequest(ByteBufAllocator.DEFAULT, 0L, 0, ledgerId, entryId,
+                null, null, null, null, Collections.emptyList());
+        ReferenceCountUtil.release(res);
+    }
+
+    @Benchmark
+    public void testReadEntryV3Encode() throws Exception {
+        Object res = this.reqEnDeV3.encode(newReadRequest(), ByteBufAllocator.DEFAULT);
+        ReferenceCountUtil.release(res);
+    }
+
+    @Benchmark
+    public void testReadEntryV3EncodeProtobuf() throws Exception {
+        Object res = BookieProtoEncoding.serializeProtobuf(newReadRequest(), ByteBufAllocator.DEFAULT);
+        ReferenceCountUtil.release(res);
+    }
+
     @Benchmark
     public void testAddEntryV3() throws Exception {
         // Build the request and calculate the total size to be included in the packet.
@@ -64,4 +64,32 @@ public interface NativeIO {
     long pread(int fd, long pointer, long size, long offset) throws NativeIOException;
 
     int close(int fd) throws NativeIOException;
+
+    /**
+     * Create an io_uring instance with the given number of submission queue entries.
+     * io_uring is a linux-only feature, so callers must handle the possibility that it
+     * does not exist, and fall back to the blocking calls.
+     *
+     * @return an opaque handle to the ring, only usable by one thread at a time
+     */
+    default long io_uring_setup(int entries) throws NativeIOException {
+        throw new NativeIOException("io_uring is not available");
+    }
+
+    /**
+     * Submit a batch of reads to the ring and wait for all of them to complete.
+     * results[i] is set to the number of bytes read by the i-th read, or to -errno
+     * if it failed.
+     *
+     * <p>If this method throws, reads may still be in flight, so the destination
+     * buffers must not be reused and the ring must be freed.
+     */
+    default void io_uring_pread_batch(long ring, int[] fds, long[] pointers, int[] sizes, long[] offsets,
+                                      long[] results, int count) throws NativeIOException {
+        throw new NativeIOException("io_uring is not available");
+    }
+
+    default void io_uring_free(long ring) throws NativeIOException {
+        throw new NativeIOException("io_uring is not available");
+    }
 }
@@ -74,4 +74,20 @@ public class NativeIOImpl implements NativeIO {
     public long pread(int fd, long pointer, long size, long offset) throws NativeIOException {
         return NativeIOJni.pread(fd, pointer, size, offset);
     }
+
+    @Override
+    public long io_uring_setup(int entries) throws NativeIOException {
+        return NativeIOJni.io_uring_setup(entries);
+    }
+
+    @Override
+    public void io_uring_pread_batch(long ring, int[] fds, long[] pointers, int[] sizes, long[] offsets,
+                                     long[] results, int count) throws NativeIOException {
+        NativeIOJni.io_uring_pread_batch(ring, fds, pointers, sizes, offsets, results, count);
+    }
+
+    @Override
+    public void io_uring_free(long ring) throws NativeIOException {
+        NativeIOJni.io_uring_free(ring);
+    }
 }
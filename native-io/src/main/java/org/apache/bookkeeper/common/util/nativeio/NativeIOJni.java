@@ -49,6 +49,13 @@ class NativeIOJni {
 
     static native int close(int fd) throws NativeIOException;
 
+    static native long io_uring_setup(int entries) throws NativeIOException;
+
+    static native void io_uring_pread_batch(long ring, int[] fds, long[] pointers, int[] sizes, long[] offsets,
+                                            long[] results, int count) throws NativeIOException;
+
+    static native void io_uring_free(long ring) throws NativeIOException;
+
     static {
         try {
             if (SystemUtils.IS_OS_MAC_OSX) {
@@ -26,6 +26,16 @@
 #include <string.h>
 #include <unistd.h>
 
+#ifdef __linux__
+#include <sys/mman.h>
+#include <sys/syscall.h>
+#if defined(__has_include)
+#if __has_include(<linux/io_uring.h>)
+#include <linux/io_uring.h>
+#endif
+#endif
+#endif
+
 #include <org_apache_bookkeeper_common_util_nativeio_NativeIOJni.h>
 
 #ifdef _WIN32
@@ -311,3 +321,284 @@ JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJ
      free((const void*) pointer);
 }
 
+
+/*
+ * The io_uring reads need the kernel headers of Linux 5.6 or later, which define IORING_OP_READ and the opcode
+ * probe (IO_URING_OP_SUPPORTED). With older headers, io_uring is reported as not available.
+ */
+#if defined(__linux__) && defined(__NR_io_uring_setup) && defined(IO_URING_OP_SUPPORTED)
+
+/*
+ * Minimal io_uring instance, set up through the raw syscalls so that there
+ * is no dependency on liburing. A ring must only be used by one thread at a time.
+ */
+typedef struct {
+    int ring_fd;
+    unsigned entries;
+    unsigned *sq_tail;
+    unsigned *sq_mask;
+    unsigned *sq_array;
+    unsigned *cq_head;
+    unsigned *cq_tail;
+    unsigned *cq_mask;
+    struct io_uring_sqe *sqes;
+    struct io_uring_cqe *cqes;
+    void *sq_ring;
+    size_t sq_ring_size;
+    void *cq_ring;
+    size_t cq_ring_size;
+    size_t sqes_size;
+} bk_io_uring;
+
+static void io_uring_unmap(bk_io_uring *ring) {
+    if (ring->sqes != NULL && ring->sqes != MAP_FAILED) {
+        munmap(ring->sqes, ring->sqes_size);
+    }
+    if (ring->cq_ring != NULL && ring->cq_ring != MAP_FAILED && ring->cq_ring != ring->sq_ring) {
+        munmap(ring->cq_ring, ring->cq_ring_size);
+    }
+    if (ring->sq_ring != NULL && ring->sq_ring != MAP_FAILED) {
+        munmap(ring->sq_ring, ring->sq_ring_size);
+    }
+}
+
+/*
+ * Check whether the kernel supports IORING_OP_READ, through the opcode probe. The probe itself was added with
+ * IORING_OP_READ in Linux 5.6, so it fails with EINVAL on the older kernels.
+ */
+static int io_uring_read_supported(int ring_fd) {
+    size_t probe_size = sizeof(struct io_uring_probe) + IORING_OP_LAST * sizeof(struct io_uring_probe_op);
+    struct io_uring_probe *probe = calloc(1, probe_size);
+    if (probe == NULL) {
+        return 0;
+    }
+
+    int supported = 0;
+    if (syscall(__NR_io_uring_register, ring_fd, IORING_REGISTER_PROBE, probe, IORING_OP_LAST) == 0) {
+        supported = probe->last_op >= IORING_OP_READ
+                && (probe->ops[IORING_OP_READ].flags & IO_URING_OP_SUPPORTED);
+    }
+    free(probe);
+    return supported;
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_setup
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1setup
+    (JNIEnv* env, jclass clazz, jint entries) {
+    struct io_uring_params params;
+    memset(&params, 0, sizeof(params));
+
+    int fd = syscall(__NR_io_uring_setup, entries, &params);
+    if (fd < 0) {
+        throwExceptionWithErrno(env, "Failed to setup io_uring");
+        return 0;
+    }
+
+    bk_io_uring *ring = calloc(1, sizeof(bk_io_uring));
+    if (ring == NULL) {
+        close(fd);
+        throwException(env, "Failed to allocate io_uring");
+        return 0;
+    }
+    ring->ring_fd = fd;
+    ring->entries = params.sq_entries;
+
+    ring->sq_ring_size = params.sq_off.array + params.sq_entries * sizeof(unsigned);
+    ring->cq_ring_size = params.cq_off.cqes + params.cq_entries * sizeof(struct io_uring_cqe);
+    int singleMmap = params.features & IORING_FEAT_SINGLE_MMAP;
+    if (singleMmap) {
+        if (ring->cq_ring_size > ring->sq_ring_size) {
+            ring->sq_ring_size = ring->cq_ring_size;
+        }
+        ring->cq_ring_size = ring->sq_ring_size;
+    }
+
+    ring->sq_ring = mmap(NULL, ring->sq_ring_size, PROT_READ | PROT_WRITE,
+                         MAP_SHARED | MAP_POPULATE, fd, IORING_OFF_SQ_RING);
+    if (ring->sq_ring == MAP_FAILED) {
+        goto error;
+    }
+
+    if (singleMmap) {
+        ring->cq_ring = ring->sq_ring;
+    } else {
+        ring->cq_ring = mmap(NULL, ring->cq_ring_size, PROT_READ | PROT_WRITE,
+                             MAP_SHARED | MAP_POPULATE, fd, IORING_OFF_CQ_RING);
+        if (ring->cq_ring == MAP_FAILED) {
+            goto error;
+        }
+    }
+
+    ring->sqes_size = params.sq_entries * sizeof(struct io_uring_sqe);
+    ring->sqes = mmap(NULL, ring->sqes_size, PROT_READ | PROT_WRITE,
+                      MAP_SHARED | MAP_POPULATE, fd, IORING_OFF_SQES);
+    if (ring->sqes == MAP_FAILED) {
+        goto error;
+    }
+
+    ring->sq_tail = (unsigned *) ((char *) ring->sq_ring + params.sq_off.tail);
+    ring->sq_mask = (unsigned *) ((char *) ring->sq_ring + params.sq_off.ring_mask);
+    ring->sq_array = (unsigned *) ((char *) ring->sq_ring + params.sq_off.array);
+    ring->cq_head = (unsigned *) ((char *) ring->cq_ring + params.cq_off.head);
+    ring->cq_tail = (unsigned *) ((char *) ring->cq_ring + params.cq_off.tail);
+    ring->cq_mask = (unsigned *) ((char *) ring->cq_ring + params.cq_off.ring_mask);
+    ring->cqes = (struct io_uring_cqe *) ((char *) ring->cq_ring + params.cq_off.cqes);
+
+    if (!io_uring_read_supported(fd)) {
+        // Kernels 5.1 to 5.5 have io_uring, but no IORING_OP_READ: let the caller fall back to pread
+        throwException(env, "io_uring doesn't support IORING_OP_READ");
+        goto cleanup;
+    }
+
+    return (jlong) ring;
+
+error:
+    throwExceptionWithErrno(env, "Failed to map io_uring");
+cleanup:
+    io_uring_unmap(ring);
+    close(fd);
+    free(ring);
+    return 0;
+}
+
+static unsigned io_uring_reap(bk_io_uring *ring, jlong *results) {
+    unsigned reaped = 0;
+    unsigned head = *ring->cq_head;
+    while (head != __atomic_load_n(ring->cq_tail, __ATOMIC_ACQUIRE)) {
+        struct io_uring_cqe *cqe = &ring->cqes[head & *ring->cq_mask];
+        results[cqe->user_data] = cqe->res;
+        head++;
+        reaped++;
+    }
+    __atomic_store_n(ring->cq_head, head, __ATOMIC_RELEASE);
+    return reaped;
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_pread_batch
+ * Signature: (J[I[J[I[J[JI)V
+ */
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1pread_1batch
+    (JNIEnv* env, jclass clazz, jlong ringPtr, jintArray fdsArray, jlongArray pointersArray,
+     jintArray sizesArray, jlongArray offsetsArray, jlongArray resultsArray, jint count) {
+    bk_io_uring *ring = (bk_io_uring *) ringPtr;
+
+    jint *fds = (*env)->GetIntArrayElements(env, fdsArray, NULL);
+    jlong *pointers = (*env)->GetLongArrayElements(env, pointersArray, NULL);
+    jint *sizes = (*env)->GetIntArrayElements(env, sizesArray, NULL);
+    jlong *offsets = (*env)->GetLongArrayElements(env, offsetsArray, NULL);
+    jlong *results = (*env)->GetLongArrayElements(env, resultsArray, NULL);
+
+    int failed = 0;
+    int done = 0;
+    while (done < count && !failed) {
+        unsigned n = count - done;
+        if (n > ring->entries) {
+            n = ring->entries;
+        }
+
+        unsigned tail = *ring->sq_tail;
+        for (unsigned i = 0; i < n; i++) {
+            unsigned idx = tail & *ring->sq_mask;
+            struct io_uring_sqe *sqe = &ring->sqes[idx];
+            memset(sqe, 0, sizeof(*sqe));
+            sqe->opcode = IORING_OP_READ;
+            sqe->fd = fds[done + i];
+            sqe->addr = (unsigned long) pointers[done + i];
+            sqe->len = sizes[done + i];
+            sqe->off = offsets[done + i];
+            sqe->user_data = done + i;
+            ring->sq_array[idx] = idx;
+            tail++;
+        }
+        __atomic_store_n(ring->sq_tail, tail, __ATOMIC_RELEASE);
+
+        unsigned submitted = 0;
+        unsigned completed = 0;
+        unsigned expected = n;
+        int partialSubmit = 0;
+        int enterErrno = 0;
+        while (completed < expected) {
+            unsigned toSubmit = enterErrno ? 0 : n - submitted;
+            unsigned minComplete = expected - completed;
+            if (partialSubmit && submitted > completed) {
+                // The kernel didn't accept all the reads, and returned without waiting. Only wait for the reads
+                // in flight, which frees room in the completion queue, before submitting the rest.
+                toSubmit = 0;
+                minComplete = submitted - completed;
+            }
+            partialSubmit = 0;
+
+            int ret = syscall(__NR_io_uring_enter, ring->ring_fd, toSubmit, minComplete,
+                              IORING_ENTER_GETEVENTS, NULL, 0);
+            if (ret < 0) {
+                if (errno == EINTR) {
+                    continue;
+                }
+                if (enterErrno) {
+                    // Failed again while waiting for the reads in flight, give up
+                    break;
+                }
+                // Only wait for the reads that are already in flight, before failing
+                enterErrno = errno;
+                expected = submitted;
+                continue;
+            }
+            if (toSubmit > 0) {
+                submitted += ret;
+                partialSubmit = (unsigned) ret < toSubmit;
+            }
+            completed += io_uring_reap(ring, results);
+        }
+        if (enterErrno) {
+            errno = enterErrno;
+            throwExceptionWithErrno(env, "Failed to submit io_uring reads");
+            failed = 1;
+        }
+        done += n;
+    }
+
+    (*env)->ReleaseIntArrayElements(env, fdsArray, fds, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, pointersArray, pointers, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, sizesArray, sizes, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, offsetsArray, offsets, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, resultsArray, results, 0);
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_free
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1free
+    (JNIEnv* env, jclass clazz, jlong ringPtr) {
+    bk_io_uring *ring = (bk_io_uring *) ringPtr;
+    io_uring_unmap(ring);
+    close(ring->ring_fd);
+    free(ring);
+}
+
+#else
+
+JNIEXPORT jlong JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1setup
+    (JNIEnv* env, jclass clazz, jint entries) {
+    throwException(env, "io_uring is not available");
+    return 0;
+}
+
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1pread_1batch
+    (JNIEnv* env, jclass clazz, jlong ringPtr, jintArray fdsArray, jlongArray pointersArray,
+     jintArray sizesArray, jlongArray offsetsArray, jlongArray resultsArray, jint count) {
+    throwException(env, "io_uring is not available");
+}
+
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1free
+    (JNIEnv* env, jclass clazz, jlong ringPtr) {
+}
+
+#endif